@@ -18,6 +18,10 @@
 
 package org.eclipse.jetty.deploy;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.AttributesMap;
 
@@ -30,6 +34,7 @@ public class App
     private final AppProvider _provider;
     private final String _originId;
     private ContextHandler _context;
+    private final Set<String> _dependencies = new CopyOnWriteArraySet<String>();
 
     /**
      * Create an App with specified Origin ID and archivePath
@@ -155,6 +160,27 @@ public class App
         return this._originId;
     }
 
+    /**
+     * Declare that this {@link App} depends on another app, so that when the 
+     * {@link DeploymentManager} deploys apps concurrently, the other app reaches
+     * its lifecycle goal before this app is moved through the {@link AppLifeCycle}.
+     * 
+     * @param originId
+     *            the origin ID of the app that this app depends on.
+     */
+    public void addDependency(String originId)
+    {
+        _dependencies.add(originId);
+    }
+
+    /**
+     * @return the origin IDs of the apps that this {@link App} depends on.
+     */
+    public Set<String> getDependencies()
+    {
+        return Collections.unmodifiableSet(_dependencies);
+    }
+
     @Override
     public String toString()
     {
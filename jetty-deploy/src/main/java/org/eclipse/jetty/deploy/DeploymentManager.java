@@ -22,11 +22,22 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.deploy.bindings.StandardDeployer;
 import org.eclipse.jetty.deploy.bindings.StandardStarter;
@@ -58,6 +69,11 @@ import org.eclipse.jetty.util.log.Logger;
  * <li>Executing AppLifeCycle on App based on current and desired LifeCycle Location.</li>
  * </ol>
  * <p>
+ * If the deploy threads are set to more than 1, the apps found by the {@link AppProvider}s when the
+ * deployment manager is started are moved to the default lifecycle goal concurrently, with an app
+ * only being processed once all the apps it depends on (see {@link App#addDependency(String)}) have 
+ * reached the goal. The bindings for a single app are always run in order by a single thread.
+ * <p>
  * <img src="doc-files/DeploymentManager.png">
  */
 @ManagedObject("Deployment Manager")
@@ -92,6 +108,11 @@ public class DeploymentManager extends ContainerLifeCycle
          */
         private Map<Node, Long> stateTimestamps = new HashMap<Node, Long>();
 
+        /**
+         * Tracking the time taken to run the bindings of each lifecycle node (in milliseconds)
+         */
+        private Map<Node, Long> stateDurations = new ConcurrentHashMap<Node, Long>();
+
         public App getApp()
         {
             return app;
@@ -107,6 +128,11 @@ public class DeploymentManager extends ContainerLifeCycle
             return stateTimestamps;
         }
 
+        public Map<Node, Long> getStateDurations()
+        {
+            return stateDurations;
+        }
+
         public int getVersion()
         {
             return version;
@@ -117,6 +143,12 @@ public class DeploymentManager extends ContainerLifeCycle
             this.lifecyleNode = node;
             this.stateTimestamps.put(node,Long.valueOf(System.currentTimeMillis()));
         }
+
+        void setLifeCycleNode(Node node, long duration)
+        {
+            setLifeCycleNode(node);
+            this.stateDurations.put(node,Long.valueOf(duration));
+        }
     }
 
     private final List<AppProvider> _providers = new ArrayList<AppProvider>();
@@ -126,6 +158,9 @@ public class DeploymentManager extends ContainerLifeCycle
     private ContextHandlerCollection _contexts;
     private boolean _useStandardBindings = true;
     private String _defaultLifeCycleGoal = AppLifeCycle.STARTED;
+    private int _deployThreads = 1;
+    private List<AppEntry> _pending;
+    private long _deployTime;
 
     /**
      * Receive an app for processing.
@@ -140,6 +175,16 @@ public class DeploymentManager extends ContainerLifeCycle
         entry.setLifeCycleNode(_lifecycle.getNodeByName("undeployed"));
         _apps.add(entry);
 
+        synchronized (this)
+        {
+            // Apps found while starting are deployed together once the providers have started
+            if (_pending != null)
+            {
+                _pending.add(entry);
+                return;
+            }
+        }
+
         if (isRunning() && _defaultLifeCycleGoal != null)
         {
             // Immediately attempt to go to default lifecycle state
@@ -226,11 +271,35 @@ public class DeploymentManager extends ContainerLifeCycle
             addLifeCycleBinding(new StandardUndeployer());
         }
 
-        // Start all of the AppProviders
-        for (AppProvider provider : _providers)
+        List<AppEntry> pending = new ArrayList<AppEntry>();
+        synchronized (this)
+        {
+            if (_deployThreads > 1 && _defaultLifeCycleGoal != null)
+                _pending = pending;
+        }
+
+        try
+        {
+            // Start all of the AppProviders
+            for (AppProvider provider : _providers)
+            {
+                startAppProvider(provider);
+            }
+        }
+        finally
         {
-            startAppProvider(provider);
+            synchronized (this)
+            {
+                _pending = null;
+            }
         }
+
+        // Apps may have been removed again by their provider
+        pending.retainAll(_apps);
+        long start = System.nanoTime();
+        requestAppGoal(pending,_defaultLifeCycleGoal);
+        _deployTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
         super.doStart();
     }
 
@@ -492,8 +561,9 @@ public class DeploymentManager extends ContainerLifeCycle
                 {
                     Node node = it.next();
                     LOG.debug("Executing Node {}",node);
+                    long start = System.nanoTime();
                     _lifecycle.runBindings(node,appentry.app,this);
-                    appentry.setLifeCycleNode(node);
+                    appentry.setLifeCycleNode(node,TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
                 }
             }
         }
@@ -503,6 +573,130 @@ public class DeploymentManager extends ContainerLifeCycle
         }
     }
 
+    /**
+     * Move several {@link App}s through the {@link AppLifeCycle} to the desired {@link Node}. If the deploy threads
+     * are more than 1, independent apps are moved concurrently and each app is only moved once the apps it depends
+     * on have reached the desired node. Apps that depend on an app that fails to reach the desired node are not moved.
+     * 
+     * @param appentries
+     *            the internal appentries to move through the process
+     * @param nodeName
+     *            the name of the node to attain
+     */
+    private void requestAppGoal(List<AppEntry> appentries, final String nodeName)
+    {
+        if (appentries.isEmpty())
+            return;
+
+        if (_deployThreads <= 1 || appentries.size() == 1)
+        {
+            for (AppEntry appentry : appentries)
+                requestAppGoal(appentry,nodeName);
+            return;
+        }
+
+        Node destinationNode = _lifecycle.getNodeByName(nodeName);
+        if (destinationNode == null)
+        {
+            throw new IllegalStateException("Node not present in Deployment Manager: " + nodeName);
+        }
+
+        // Resolve the dependencies within the apps being moved
+        Map<String, AppEntry> byOriginId = new HashMap<String, AppEntry>();
+        for (AppEntry appentry : appentries)
+            byOriginId.put(appentry.app.getOriginId(),appentry);
+
+        Map<AppEntry, Set<AppEntry>> waiting = new LinkedHashMap<AppEntry, Set<AppEntry>>();
+        for (AppEntry appentry : appentries)
+        {
+            Set<AppEntry> dependencies = new HashSet<AppEntry>();
+            for (String originId : appentry.app.getDependencies())
+            {
+                AppEntry dependency = byOriginId.get(originId);
+                if (dependency != null && dependency != appentry)
+                    dependencies.add(dependency);
+                else if (dependency == null && findAppByOriginId(originId) == null)
+                    LOG.warn("{} depends on unknown app {}",appentry.app,originId);
+            }
+            waiting.put(appentry,dependencies);
+        }
+
+        Set<AppEntry> reached = new HashSet<AppEntry>();
+        Set<AppEntry> failed = new HashSet<AppEntry>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_deployThreads,appentries.size()));
+        CompletionService<AppEntry> completion = new ExecutorCompletionService<AppEntry>(executor);
+        int running = 0;
+        try
+        {
+            while (!waiting.isEmpty() || running > 0)
+            {
+                boolean progress = true;
+                while (progress)
+                {
+                    progress = false;
+                    Iterator<Map.Entry<AppEntry, Set<AppEntry>>> it = waiting.entrySet().iterator();
+                    while (it.hasNext())
+                    {
+                        Map.Entry<AppEntry, Set<AppEntry>> wait = it.next();
+                        final AppEntry appentry = wait.getKey();
+                        if (!Collections.disjoint(wait.getValue(),failed))
+                        {
+                            LOG.warn("Unable to reach node goal {} for {} as a dependency failed",nodeName,appentry.app);
+                            it.remove();
+                            failed.add(appentry);
+                            progress = true;
+                        }
+                        else if (reached.containsAll(wait.getValue()))
+                        {
+                            it.remove();
+                            running++;
+                            completion.submit(new Callable<AppEntry>()
+                            {
+                                @Override
+                                public AppEntry call()
+                                {
+                                    requestAppGoal(appentry,nodeName);
+                                    return appentry;
+                                }
+                            });
+                        }
+                    }
+                }
+
+                if (running == 0)
+                {
+                    if (!waiting.isEmpty())
+                    {
+                        LOG.warn("Circular dependencies between apps, ignoring dependencies of {}",waiting.keySet());
+                        for (Set<AppEntry> dependencies : waiting.values())
+                            dependencies.clear();
+                    }
+                    continue;
+                }
+
+                AppEntry appentry = completion.take().get();
+                running--;
+                if (appentry.lifecyleNode == destinationNode)
+                    reached.add(appentry);
+                else
+                    failed.add(appentry);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            LOG.warn("Interrupted deploying apps",e);
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            LOG.warn("Unable to reach node goal: " + nodeName,e);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Move an {@link App} through the {@link AppLifeCycle} to the desired {@link Node}, executing each lifecycle step
      * in the process to reach the desired state.
@@ -571,6 +765,36 @@ public class DeploymentManager extends ContainerLifeCycle
         }
     }
 
+    /**
+     * @return the number of threads used to deploy the apps found when starting. 
+     */
+    @ManagedAttribute("number of threads used to concurrently deploy apps on start")
+    public int getDeployThreads()
+    {
+        return _deployThreads;
+    }
+
+    /**
+     * @param deployThreads the number of threads used to concurrently move the apps found when 
+     * starting to the default lifecycle goal. If 1 or less, apps are deployed one at a time 
+     * as they are found.
+     */
+    public void setDeployThreads(int deployThreads)
+    {
+        if (isRunning())
+            throw new IllegalStateException();
+        _deployThreads = deployThreads;
+    }
+
+    /**
+     * @return the time in milliseconds taken to deploy the apps found on start, if they were deployed concurrently.
+     */
+    @ManagedAttribute("time in ms taken to concurrently deploy apps on start")
+    public long getDeployTime()
+    {
+        return _deployTime;
+    }
+
     public boolean isUseStandardBindings()
     {
         return _useStandardBindings;
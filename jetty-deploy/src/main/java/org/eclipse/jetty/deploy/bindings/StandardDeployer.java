@@ -22,6 +22,7 @@ import org.eclipse.jetty.deploy.App;
 import org.eclipse.jetty.deploy.AppLifeCycle;
 import org.eclipse.jetty.deploy.graph.Node;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 
 public class StandardDeployer implements AppLifeCycle.Binding
 {
@@ -38,6 +39,11 @@ public class StandardDeployer implements AppLifeCycle.Binding
         {
             throw new NullPointerException("No Handler created for App: " + app);
         }
-        app.getDeploymentManager().getContexts().addHandler(handler);
+        ContextHandlerCollection chcoll = app.getDeploymentManager().getContexts();
+        // apps may be deployed concurrently
+        synchronized (chcoll)
+        {
+            chcoll.addHandler(handler);
+        }
     }
 }
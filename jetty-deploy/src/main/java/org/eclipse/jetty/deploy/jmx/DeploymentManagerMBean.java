@@ -21,6 +21,7 @@ package org.eclipse.jetty.deploy.jmx;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jetty.deploy.App;
 import org.eclipse.jetty.deploy.AppProvider;
@@ -28,6 +29,7 @@ import org.eclipse.jetty.deploy.DeploymentManager;
 import org.eclipse.jetty.deploy.graph.Node;
 import org.eclipse.jetty.jmx.ObjectMBean;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 
 public class DeploymentManagerMBean extends ObjectMBean
 {
@@ -71,6 +73,20 @@ public class DeploymentManagerMBean extends ObjectMBean
         return apps;
     }
     
+    @ManagedAttribute("time in ms taken by each app in each lifecycle node")
+    public Collection<String> getAppLifeCycleTimes()
+    {
+        List<String> times=new ArrayList<String>();
+        for (DeploymentManager.AppEntry entry: _manager.getAppEntries())
+        {
+            StringBuilder buf = new StringBuilder(entry.getApp().getOriginId());
+            for (Map.Entry<Node,Long> duration : entry.getStateDurations().entrySet())
+                buf.append(' ').append(duration.getKey().getName()).append('=').append(duration.getValue()).append("ms");
+            times.add(buf.toString());
+        }
+        return times;
+    }
+    
     public Collection<AppProvider> getAppProviders()
     {
         return _manager.getAppProviders();
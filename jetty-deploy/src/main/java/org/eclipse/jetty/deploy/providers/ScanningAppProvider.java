@@ -53,6 +53,8 @@ public abstract class ScanningAppProvider extends AbstractLifeCycle implements A
     private final List<Resource> _monitored= new CopyOnWriteArrayList<>();
     private boolean _recursive = false;
     private int _scanInterval = 10;
+    private boolean _useWatchService = false;
+    private boolean _contentHash = false;
     private Scanner _scanner;
 
     /* ------------------------------------------------------------ */
@@ -141,6 +143,8 @@ public abstract class ScanningAppProvider extends AbstractLifeCycle implements A
         _scanner.setRecursive(_recursive);
         _scanner.setFilenameFilter(_filenameFilter);
         _scanner.setReportDirs(true);
+        _scanner.setUseWatchService(_useWatchService);
+        _scanner.setContentHash(_contentHash);
         _scanner.addListener(_scannerListener);
         _scanner.start();
     }
@@ -247,6 +251,20 @@ public abstract class ScanningAppProvider extends AbstractLifeCycle implements A
         return _recursive;
     }
 
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("monitored directories are watched for changes rather than polled")
+    public boolean isUseWatchService()
+    {
+        return _useWatchService;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("changes are detected by hashing file content")
+    public boolean isContentHash()
+    {
+        return _contentHash;
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public void setDeploymentManager(DeploymentManager deploymentManager)
@@ -316,4 +334,25 @@ public abstract class ScanningAppProvider extends AbstractLifeCycle implements A
     {
         _scanInterval = scanInterval;
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param useWatchService if true the monitored directories are watched with a 
+     * {@link java.nio.file.WatchService} and only changed files are rescanned, rather
+     * than polling every scan interval.
+     */
+    public void setUseWatchService(boolean useWatchService)
+    {
+        _useWatchService = useWatchService;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param contentHash if true, a file is only redeployed if its content has changed,
+     * so touching a file does not cause a redeploy.
+     */
+    public void setContentHash(boolean contentHash)
+    {
+        _contentHash = contentHash;
+    }
 }
@@ -19,9 +19,14 @@
 package org.eclipse.jetty.deploy;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.eclipse.jetty.deploy.graph.Node;
 import org.eclipse.jetty.deploy.test.XmlConfiguredJetty;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.toolchain.test.TestingDir;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -107,4 +112,89 @@ public class DeploymentManagerTest
             }
         }
     }
+
+    @Test
+    public void testConcurrentDeploy() throws Exception
+    {
+        final List<String> started = new CopyOnWriteArrayList<String>();
+        DeploymentManager depman = new DeploymentManager();
+        depman.setUseStandardBindings(false);
+        depman.setDeployThreads(4);
+        depman.addLifeCycleBinding(new AppLifeCycle.Binding()
+        {
+            public String[] getBindingTargets()
+            {
+                return new String[] { "starting" };
+            }
+
+            public void processBinding(Node node, App app) throws Exception
+            {
+                if (app.getOriginId().startsWith("slow"))
+                    Thread.sleep(500);
+                if (app.getOriginId().startsWith("fail"))
+                    throw new IllegalStateException(app.getOriginId());
+                started.add(app.getOriginId());
+            }
+        });
+
+        final DeploymentManager manager = depman;
+        depman.addAppProvider(new DependentAppProvider()
+        {
+            @Override
+            protected void doStart() throws Exception
+            {
+                manager.addApp(newApp("slow"));
+                manager.addApp(newApp("dependsOnSlow","slow"));
+                manager.addApp(newApp("fast"));
+                manager.addApp(newApp("fail"));
+                manager.addApp(newApp("dependsOnFail","fail"));
+                manager.addApp(newApp("dependsOnDependsOnFail","dependsOnFail"));
+            }
+        });
+
+        depman.start();
+
+        Assert.assertEquals(3,started.size());
+        // independent apps are deployed in parallel
+        Assert.assertTrue(started.indexOf("fast")<started.indexOf("slow"));
+        // dependencies are deployed first
+        Assert.assertTrue(started.indexOf("slow")<started.indexOf("dependsOnSlow"));
+        Assert.assertEquals(3,depman.getApps(AppLifeCycle.STARTED).size());
+        Assert.assertEquals(AppLifeCycle.UNDEPLOYED,findEntry(depman,"dependsOnDependsOnFail").getLifecyleNode().getName());
+
+        Node starting = depman.getLifeCycle().getNodeByName("starting");
+        Assert.assertTrue(findEntry(depman,"slow").getStateDurations().get(starting)>=500);
+        depman.stop();
+    }
+
+    private DeploymentManager.AppEntry findEntry(DeploymentManager depman, String originId)
+    {
+        for (DeploymentManager.AppEntry entry : depman.getAppEntries())
+            if (entry.getApp().getOriginId().equals(originId))
+                return entry;
+        return null;
+    }
+
+    private static class DependentAppProvider extends AbstractLifeCycle implements AppProvider
+    {
+        private DeploymentManager _manager;
+
+        public void setDeploymentManager(DeploymentManager deploymentManager)
+        {
+            _manager = deploymentManager;
+        }
+
+        App newApp(String originId, String... dependencies)
+        {
+            App app = new App(_manager,this,originId);
+            for (String dependency : dependencies)
+                app.addDependency(dependency);
+            return app;
+        }
+
+        public ContextHandler createContextHandler(App app) throws Exception
+        {
+            return new ContextHandler();
+        }
+    }
 }
@@ -0,0 +1,207 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+
+/* ------------------------------------------------------------ */
+/** HTTP Date Clock.
+ * <p>A clock that publishes, once per second, an immutable {@link Tick} holding the
+ * current HTTP date as a String and as a pre-encoded "Date: ...\r\n" field.
+ * The tick is shared by all clocks and is read with a single volatile load, so that
+ * the Date header and other dates in the current second are neither formatted
+ * nor locked on the request path.
+ * <p>A running clock uses a {@link Scheduler} to refresh the tick at the start of each
+ * second. If no clock is running, the tick is refreshed on the first miss in each second.
+ */
+public class DateClock extends ContainerLifeCycle implements Runnable
+{
+    private static final Logger LOG = Log.getLogger(DateClock.class);
+
+    private static volatile Tick __tick;
+
+    private final Scheduler _scheduler;
+    private volatile Scheduler.Task _task;
+
+    /* ------------------------------------------------------------ */
+    /** An immutable HTTP date for a second.
+     */
+    public static final class Tick
+    {
+        final long _seconds;
+        final String _date;
+        final byte[] _dateField;
+
+        private Tick(long seconds, String date)
+        {
+            _seconds=seconds;
+            _date=date;
+            byte[] name=HttpHeader.DATE.getBytesColonSpace();
+            byte[] value=StringUtil.getBytes(date);
+            _dateField=new byte[name.length+value.length+2];
+            System.arraycopy(name,0,_dateField,0,name.length);
+            System.arraycopy(value,0,_dateField,name.length,value.length);
+            _dateField[_dateField.length-2]=HttpTokens.CARRIAGE_RETURN;
+            _dateField[_dateField.length-1]=HttpTokens.LINE_FEED;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the time of the tick in seconds since the epoch
+         */
+        public long getSeconds()
+        {
+            return _seconds;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the HTTP date, eg "Thu, 01 Jan 1970 00:00:00 GMT"
+         */
+        public String getDate()
+        {
+            return _date;
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Put the pre-encoded "Date: ...\r\n" field.
+         * @param bufferInFillMode the buffer to put the field to
+         */
+        public void putDateFieldTo(ByteBuffer bufferInFillMode)
+        {
+            bufferInFillMode.put(_dateField);
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return _date;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the most recently published tick, which may be null or stale.
+     */
+    static Tick tick()
+    {
+        return __tick;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the tick for the current time.
+     */
+    public static Tick getTick()
+    {
+        return getTick(System.currentTimeMillis());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param date the time in ms since the epoch
+     * @return the tick for the second containing the date. A new tick is
+     * created and, if it is for the current second, published.
+     */
+    public static Tick getTick(long date)
+    {
+        long seconds=date/1000;
+        Tick tick=__tick;
+        if (tick!=null && tick._seconds==seconds)
+            return tick;
+
+        tick=new Tick(seconds,HttpFields.formatDate(seconds*1000));
+        if (seconds==System.currentTimeMillis()/1000)
+            __tick=tick;
+        return tick;
+    }
+
+    /* ------------------------------------------------------------ */
+    public DateClock()
+    {
+        this(null);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param scheduler The scheduler used to refresh the tick, or null for a new {@link TimerScheduler}.
+     */
+    public DateClock(Scheduler scheduler)
+    {
+        _scheduler=scheduler!=null?scheduler:new TimerScheduler("DateClock");
+        addBean(_scheduler);
+    }
+
+    /* ------------------------------------------------------------ */
+    public Scheduler getScheduler()
+    {
+        return _scheduler;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        run();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        Scheduler.Task task=_task;
+        if (task!=null)
+            task.cancel();
+        _task=null;
+        super.doStop();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void run()
+    {
+        if (!isStarting() && !isRunning())
+            return;
+
+        // Always publish the current second, even if the clock went back
+        long now=System.currentTimeMillis();
+        long seconds=now/1000;
+        Tick tick=__tick;
+        if (tick==null || tick._seconds!=seconds)
+            __tick=new Tick(seconds,HttpFields.formatDate(seconds*1000));
+        try
+        {
+            _task=_scheduler.schedule(this,1000-now%1000,TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e)
+        {
+            LOG.ignore(e);
+        }
+    }
+}
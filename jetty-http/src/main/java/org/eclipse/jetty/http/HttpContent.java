@@ -23,6 +23,9 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.resource.MappedJarResource;
 import org.eclipse.jetty.util.resource.Resource;
 
 /* ------------------------------------------------------------ */
@@ -47,6 +50,8 @@ public interface HttpContent
     /* ------------------------------------------------------------ */
     public class ResourceAsHttpContent implements HttpContent
     {
+        private static final Logger LOG = Log.getLogger(ResourceAsHttpContent.class);
+
         final Resource _resource;
         final String _mimeType;
         final int _maxBuffer;
@@ -83,6 +88,19 @@ public interface HttpContent
         @Override
         public ByteBuffer getDirectBuffer()
         {
+            if (_resource instanceof MappedJarResource)
+            {
+                try
+                {
+                    // stored entries are slices of the mapped archive
+                    return ((MappedJarResource)_resource).getByteBuffer();
+                }
+                catch(IOException e)
+                {
+                    // fall back to the input stream, which will report the problem
+                    LOG.debug(e);
+                }
+            }
             return null;
         }
 
@@ -22,18 +22,22 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 
@@ -172,9 +176,13 @@ public class HttpFields implements Iterable<HttpFields.Field>
 
     /**
      * Format HTTP date "EEE, dd MMM yyyy HH:mm:ss 'GMT'"
+     * Dates within the current second are taken from the shared {@link DateClock} tick.
      */
     public static String formatDate(long date)
     {
+        DateClock.Tick tick = DateClock.tick();
+        if (tick!=null && tick._seconds==date/1000 && date>=0)
+            return tick._date;
         return __dateGenerator.get().formatDate(date);
     }
 
@@ -275,8 +283,62 @@ public class HttpFields implements Iterable<HttpFields.Field>
     public final static ByteBuffer __01Jan1970_BUFFER=BufferUtil.toBuffer(__01Jan1970);
     public final static String __01Jan1970_COOKIE = formatCookieDate(0).trim();
     private final static byte[] __colon_space = new byte[] {':',' '};
-    private final ArrayList<Field> _fields = new ArrayList<>(20);
-    private final StringMap<Field> _names = new StringMap<>(true);
+    private final static EnumMap<HttpHeader,StringMap<Field>> __cachedFields = new EnumMap<>(HttpHeader.class);
+
+    static
+    {
+        for (MimeTypes.Type type : MimeTypes.Type.values())
+        {
+            cacheField(HttpHeader.CONTENT_TYPE,type.asString());
+            if (type.asString().contains(";charset="))
+                cacheField(HttpHeader.CONTENT_TYPE,type.asString().replace(";charset=","; charset="));
+        }
+        cacheField(HttpHeader.CONNECTION,HttpHeaderValue.KEEP_ALIVE.asString());
+        cacheField(HttpHeader.CONNECTION,HttpHeaderValue.CLOSE.asString());
+        cacheField(HttpHeader.CONNECTION,HttpHeaderValue.UPGRADE.asString());
+        cacheField(HttpHeader.TRANSFER_ENCODING,HttpHeaderValue.CHUNKED.asString());
+        cacheField(HttpHeader.CONTENT_ENCODING,HttpHeaderValue.GZIP.asString());
+        cacheField(HttpHeader.ACCEPT_RANGES,"bytes");
+        cacheField(HttpHeader.CACHE_CONTROL,HttpHeaderValue.NO_CACHE.asString());
+        cacheField(HttpHeader.EXPIRES,__01Jan1970);
+    }
+
+    private static void cacheField(HttpHeader header, String value)
+    {
+        StringMap<Field> values = __cachedFields.get(header);
+        if (values==null)
+        {
+            values=new StringMap<>(true);
+            __cachedFields.put(header,values);
+        }
+        Field field = new Field(header,value,null);
+        field.getBytes();
+        values.put(value,field);
+    }
+
+    /**
+     * Create a field, sharing the pre-encoded bytes of a cached field
+     * if the header value is a common immutable value.
+     */
+    private static Field newField(HttpHeader header, String value)
+    {
+        StringMap<Field> values = __cachedFields.get(header);
+        if (values!=null)
+        {
+            Field cached = values.get(value);
+            // only share encodings of values that match exactly
+            if (cached!=null && cached._value.equals(value))
+                return new Field(header,cached._value,cached._bytes);
+        }
+        return new Field(header,value,null);
+    }
+
+    /** The number of fields above which the last field of each name is indexed */
+    private final static int __INDEX_THRESHOLD = 16;
+
+    private Field[] _fields = new Field[20];
+    private int _size;
+    private StringMap<Field> _index;
 
     /**
      * Constructor.
@@ -291,11 +353,27 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public Collection<String> getFieldNamesCollection()
     {
-        final List<String> list = new ArrayList<>(_fields.size());
-        for (Field f : _fields)
+        final List<String> list = new ArrayList<>(_size);
+        if (_index!=null)
         {
-            if (f!=null)
-                list.add(f._name);
+            // Each name is added once, by the first field of that name
+            Set<String> seen=new HashSet<>();
+            for (int i=0;i<_size;i++)
+            {
+                Field f=_fields[i];
+                if (seen.add(StringUtil.asciiToLowerCase(f._name)))
+                    list.add(f._name);
+            }
+            return list;
+        }
+
+        loop: for (int i=0;i<_size;i++)
+        {
+            Field f=_fields[i];
+            for (int j=0;j<i;j++)
+                if (_fields[j]._name.equalsIgnoreCase(f._name))
+                    continue loop;
+            list.add(f._name);
         }
         return list;
     }
@@ -306,26 +384,12 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public Enumeration<String> getFieldNames()
     {
-        final Enumeration<?> buffers = Collections.enumeration(_names.keySet());
-        return new Enumeration<String>()
-                {
-            @Override
-            public String nextElement()
-            {
-                return buffers.nextElement().toString();
-            }
-
-            @Override
-            public boolean hasMoreElements()
-            {
-                return buffers.hasMoreElements();
-            }
-                };
+        return Collections.enumeration(getFieldNamesCollection());
     }
 
     public int size()
     {
-        return _fields.size();
+        return _size;
     }
 
     /**
@@ -335,38 +399,82 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public Field getField(int i)
     {
-        return _fields.get(i);
+        if (i>=_size)
+            throw new IndexOutOfBoundsException(i+">="+_size);
+        return _fields[i];
     }
 
     @Override
     public Iterator<Field> iterator()
     {
-        return _fields.iterator();
+        return new Iterator<Field>()
+        {
+            int _index;
+            int _last=-1;
+
+            @Override
+            public boolean hasNext()
+            {
+                return _index<_size;
+            }
+
+            @Override
+            public Field next()
+            {
+                if (_index>=_size)
+                    throw new NoSuchElementException();
+                _last=_index++;
+                return _fields[_last];
+            }
+
+            @Override
+            public void remove()
+            {
+                if (_last<0)
+                    throw new IllegalStateException();
+                removeIndex(_last);
+                _index=_last;
+                _last=-1;
+            }
+        };
     }
 
     public Field getField(HttpHeader header)
     {
-        return _names.get(header.toString());
+        for (int i=0;i<_size;i++)
+        {
+            Field f=_fields[i];
+            if (f._header==header)
+                return f;
+        }
+        return null;
     }
 
     public Field getField(String name)
     {
-        return _names.get(name);
+        for (int i=0;i<_size;i++)
+        {
+            Field f=_fields[i];
+            if (f._name.equalsIgnoreCase(name))
+                return f;
+        }
+        return null;
     }
 
     public boolean containsKey(String name)
     {
-        return _names.containsKey(name);
+        return getField(name)!=null;
     }
 
     public String getStringField(HttpHeader header)
     {
-        return getStringField(header.asString());
+        Field field = getField(header);
+        return field==null?null:field.getValue();
     }
 
     public String get(HttpHeader header)
     {
-        return getStringField(header.asString());
+        return getStringField(header);
     }
 
     public String get(String header)
@@ -394,16 +502,16 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public Collection<String> getValuesCollection(String name)
     {
-        Field field = getField(name);
-        if (field==null)
-            return null;
-
-        final List<String> list = new ArrayList<>();
-
-        while(field!=null)
+        List<String> list = null;
+        for (int i=0;i<_size;i++)
         {
-            list.add(field.getValue());
-            field=field._next;
+            Field f=_fields[i];
+            if (f._name.equalsIgnoreCase(name))
+            {
+                if (list==null)
+                    list=new ArrayList<>();
+                list.add(f.getValue());
+            }
         }
         return list;
     }
@@ -416,32 +524,13 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public Enumeration<String> getValues(String name)
     {
-        final Field field = getField(name);
-        if (field == null)
+        Collection<String> values = getValuesCollection(name);
+        if (values == null)
         {
             List<String> empty=Collections.emptyList();
             return Collections.enumeration(empty);
         }
-
-        return new Enumeration<String>()
-        {
-            Field f = field;
-
-            @Override
-            public boolean hasMoreElements()
-            {
-                return f != null;
-            }
-
-            @Override
-            public String nextElement() throws NoSuchElementException
-            {
-                if (f == null) throw new NoSuchElementException();
-                Field n = f;
-                f = f._next;
-                return n.getValue();
-            }
-        };
+        return Collections.enumeration(values);
     }
 
     /**
@@ -496,14 +585,14 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void put(String name, String value)
     {
-        remove(name);
         if (value == null)
+        {
+            remove(name);
             return;
+        }
 
-        // new value;
-        Field field = new Field(name, value);
-        _fields.add(field);
-        _names.put(name, field);
+        HttpHeader header = HttpHeader.CACHE.get(name);
+        put(header==null?new Field(name, value):newField(header,value));
     }
 
     public void put(HttpHeader header, HttpHeaderValue value)
@@ -519,14 +608,33 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void put(HttpHeader header, String value)
     {
-        remove(header.toString());
         if (value == null)
+        {
+            remove(header);
             return;
+        }
 
-        // new value;
-        Field field = new Field(header, value);
-        _fields.add(field);
-        _names.put(header.toString(), field);
+        put(newField(header,value));
+    }
+
+    /**
+     * Set a field, removing all fields of the same name and appending the new field.
+     */
+    private void put(Field field)
+    {
+        // Remove the fields of the same name in a single pass
+        int size=0;
+        for (int i=0;i<_size;i++)
+        {
+            Field f=_fields[i];
+            if (!f.isSameName(field))
+                _fields[size++]=f;
+        }
+        Arrays.fill(_fields,size,_size,null);
+        _size=size;
+        if (_index!=null)
+            _index.remove(field._name);
+        add(field);
     }
 
     /**
@@ -557,23 +665,8 @@ public class HttpFields implements Iterable<HttpFields.Field>
         if (value == null)
             return;
 
-        Field field = _names.get(name);
-        Field last = null;
-        while (field != null)
-        {
-            last = field;
-            field = field._next;
-        }
-
-        // create the field
-        field = new Field(name, value);
-        _fields.add(field);
-
-        // look for chain to add too
-        if (last != null)
-            last._next = field;
-        else
-            _names.put(name, field);
+        HttpHeader header = HttpHeader.CACHE.get(name);
+        add(header==null?new Field(name, value):newField(header,value));
     }
 
     public void add(HttpHeader header, HttpHeaderValue value) throws IllegalArgumentException
@@ -594,23 +687,44 @@ public class HttpFields implements Iterable<HttpFields.Field>
     {
         if (value == null) throw new IllegalArgumentException("null value");
 
-        Field field = _names.get(header.toString());
-        Field last = null;
-        while (field != null)
+        add(newField(header,value));
+    }
+
+    /**
+     * Add a field, chaining it to the last field of the same name.
+     * Once there are many fields, the last field of each name is found with an index
+     * rather than by scanning the fields.
+     */
+    private void add(Field field)
+    {
+        if (_index==null && _size>=__INDEX_THRESHOLD)
         {
-            last = field;
-            field = field._next;
+            _index=new StringMap<>(true);
+            for (int i=0;i<_size;i++)
+                _index.put(_fields[i]._name,_fields[i]);
         }
 
-        // create the field
-        field = new Field(header, value);
-        _fields.add(field);
-
-        // look for chain to add too
-        if (last != null)
-            last._next = field;
+        if (_index!=null)
+        {
+            Field last=_index.put(field._name,field);
+            if (last!=null)
+                last._next=field;
+        }
         else
-            _names.put(header.toString(), field);
+        {
+            for (int i=_size;i-->0;)
+            {
+                Field f=_fields[i];
+                if (f.isSameName(field))
+                {
+                    f._next=field;
+                    break;
+                }
+            }
+        }
+        if (_size==_fields.length)
+            _fields=Arrays.copyOf(_fields,_size*2);
+        _fields[_size++]=field;
     }
 
     /**
@@ -620,7 +734,9 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void remove(HttpHeader name)
     {
-        remove(name.toString());
+        for (int i=_size;i-->0;)
+            if (_fields[i]._header==name)
+                removeIndex(i);
     }
 
     /**
@@ -630,12 +746,34 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void remove(String name)
     {
-        Field field = _names.remove(name);
-        while (field != null)
+        for (int i=_size;i-->0;)
+            if (_fields[i]._name.equalsIgnoreCase(name))
+                removeIndex(i);
+    }
+
+    private void removeIndex(int i)
+    {
+        Field field=_fields[i];
+        Field previous=null;
+        for (int j=i;j-->0;)
+        {
+            if (_fields[j]._next==field)
+            {
+                previous=_fields[j];
+                previous._next=field._next;
+                break;
+            }
+        }
+        if (_index!=null && field._next==null)
         {
-            _fields.remove(field);
-            field = field._next;
+            if (previous==null)
+                _index.remove(field._name);
+            else
+                _index.put(field._name,previous);
         }
+        _size--;
+        System.arraycopy(_fields,i+1,_fields,i,_size-i);
+        _fields[_size]=null;
     }
 
     /**
@@ -707,6 +845,13 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void putDateField(HttpHeader name, long date)
     {
+        if (name==HttpHeader.DATE)
+        {
+            // share the pre-encoded field of the clock tick
+            DateClock.Tick tick = DateClock.getTick(date);
+            put(new Field(name,tick._date,tick._dateField));
+            return;
+        }
         String d=formatDate(date);
         put(name, d);
     }
@@ -840,42 +985,34 @@ public class HttpFields implements Iterable<HttpFields.Field>
         name_value_params = buf.toString();
 
         // remove existing set-cookie of same name
-        Field field = getField(HttpHeader.SET_COOKIE);
-        Field last=null;
-        while (field!=null)
+        for (int i=0;i<_size;i++)
         {
-            String val = (field._value == null ? null : field._value.toString());
+            Field field=_fields[i];
+            if (field._header!=HttpHeader.SET_COOKIE)
+                continue;
+            String val = field._value;
             if (val!=null && val.startsWith(start))
             {
                 //existing cookie has same name, does it also match domain and path?
                 if (((!hasDomain && !val.contains("Domain")) || (hasDomain && val.contains("Domain="+domain))) &&
                     ((!hasPath && !val.contains("Path")) || (hasPath && val.contains("Path="+path))))
                 {
-                    _fields.remove(field);
-                    if (last==null)
-                        _names.put(HttpHeader.SET_COOKIE.toString(),field._next);
-                    else
-                        last._next=field._next;
+                    removeIndex(i);
                     break;
                 }
             }
-            last=field;
-            field=field._next;
         }
 
         add(HttpHeader.SET_COOKIE.toString(), name_value_params);
 
         // Expire responses with set-cookie headers so they do not get cached.
-        put(HttpHeader.EXPIRES.toString(), __01Jan1970);
+        put(HttpHeader.EXPIRES, __01Jan1970);
     }
 
     public void putTo(ByteBuffer bufferInFillMode) throws IOException
     {
-        for (Field field : _fields)
-        {
-            if (field != null)
-                field.putTo(bufferInFillMode);
-        }
+        for (int i=0;i<_size;i++)
+            _fields[i].putTo(bufferInFillMode);
         BufferUtil.putCRLF(bufferInFillMode);
     }
 
@@ -886,9 +1023,9 @@ public class HttpFields implements Iterable<HttpFields.Field>
         try
         {
             StringBuilder buffer = new StringBuilder();
-            for (Field field : _fields)
+            for (int i=0;i<_size;i++)
             {
-                if (field != null)
+                Field field=_fields[i];
                 {
                     String tmp = field.getName();
                     if (tmp != null) buffer.append(tmp);
@@ -913,8 +1050,9 @@ public class HttpFields implements Iterable<HttpFields.Field>
      */
     public void clear()
     {
-        _fields.clear();
-        _names.clear();
+        Arrays.fill(_fields,0,_size,null);
+        _size=0;
+        _index=null;
     }
 
     /**
@@ -1093,14 +1231,15 @@ public class HttpFields implements Iterable<HttpFields.Field>
         private final HttpHeader _header;
         private final String _name;
         private final String _value;
+        private byte[] _bytes;
         private Field _next;
 
-        private Field(HttpHeader header, String value)
+        private Field(HttpHeader header, String value, byte[] bytes)
         {
             _header = header;
             _name = header.toString();
             _value = value;
-            _next = null;
+            _bytes = bytes;
         }
 
         private Field(String name, String value)
@@ -1108,71 +1247,98 @@ public class HttpFields implements Iterable<HttpFields.Field>
             _header = HttpHeader.CACHE.get(name);
             _name = _header==null?name:_header.toString();
             _value = value;
-            _next = null;
         }
 
-        private byte[] toSanitisedName(String s)
+        private boolean isSameName(Field field)
         {
-            byte[] bytes = s.getBytes(StringUtil.__ISO_8859_1_CHARSET);
-            for (int i=bytes.length;i-->0;)
+            if (_header!=null || field._header!=null)
+                return _header==field._header;
+            return _name.equalsIgnoreCase(field._name);
+        }
+
+        private static int sanitise(byte[] bytes, int offset, String s, boolean name)
+        {
+            int length=s.length();
+            for (int i=0;i<length;i++)
             {
-                switch(bytes[i])
+                char c=s.charAt(i);
+                switch(c)
                 {
                     case '\r':
                     case '\n':
+                        c='?';
+                        break;
                     case ':' :
-                        bytes[i]=(byte)'?';
+                        if (name)
+                            c='?';
+                        break;
+                    default:
+                        if (c>0xff)
+                            c='?';
                 }
+                bytes[offset++]=(byte)c;
             }
-            return bytes;
+            return offset;
         }
 
-        private byte[] toSanitisedValue(String s)
+        private static byte[] toSanitisedValue(String s)
         {
-            byte[] bytes = s.getBytes(StringUtil.__ISO_8859_1_CHARSET);
-            for (int i=bytes.length;i-->0;)
-            {
-                switch(bytes[i])
-                {
-                    case '\r':
-                    case '\n':
-                        bytes[i]=(byte)'?';
-                }
-            }
+            byte[] bytes = new byte[s.length()];
+            sanitise(bytes,0,s,false);
             return bytes;
         }
 
-        public void putTo(ByteBuffer bufferInFillMode)
+        /**
+         * Get the encoded field.
+         * The ISO-8859-1 encoding of "name: value\r\n", with CR, LF and ':' in the name sanitised,
+         * is computed once and kept for the life of the field, so that shared and cached
+         * fields are written with a single bulk copy.
+         * @return the encoded field, which must not be modified.
+         */
+        byte[] getBytes()
         {
-            HttpHeader header = HttpHeader.CACHE.get(_name);
-            if (header!=null)
+            byte[] bytes=_bytes;
+            if (bytes==null)
             {
-                bufferInFillMode.put(header.getBytesColonSpace());
-
-                if (HttpHeaderValue.hasKnownValues(header))
+                byte[] name;
+                byte[] value;
+                int offset;
+                if (_header!=null)
                 {
-                    HttpHeaderValue value=HttpHeaderValue.CACHE.get(_value);
-                    if (value!=null)
-                        bufferInFillMode.put(value.toBuffer());
-                    else
-                        bufferInFillMode.put(toSanitisedValue(_value));
+                    name=_header.getBytesColonSpace();
+                    HttpHeaderValue known=HttpHeaderValue.hasKnownValues(_header)?HttpHeaderValue.CACHE.get(_value):null;
+                    value=known==null?toSanitisedValue(_value):StringUtil.getBytes(known.asString());
+                    bytes=new byte[name.length+value.length+2];
+                    System.arraycopy(name,0,bytes,0,name.length);
+                    offset=name.length;
                 }
                 else
-                    bufferInFillMode.put(toSanitisedValue(_value));
-            }
-            else
-            {
-                bufferInFillMode.put(toSanitisedName(_name));
-                bufferInFillMode.put(__colon_space);
-                bufferInFillMode.put(toSanitisedValue(_value));
+                {
+                    value=toSanitisedValue(_value);
+                    bytes=new byte[_name.length()+2+value.length+2];
+                    offset=sanitise(bytes,0,_name,true);
+                    bytes[offset++]=__colon_space[0];
+                    bytes[offset++]=__colon_space[1];
+                }
+                System.arraycopy(value,0,bytes,offset,value.length);
+                offset+=value.length;
+                bytes[offset++]=HttpTokens.CARRIAGE_RETURN;
+                bytes[offset]=HttpTokens.LINE_FEED;
+                _bytes=bytes;
             }
+            return bytes;
+        }
 
-            BufferUtil.putCRLF(bufferInFillMode);
+        public void putTo(ByteBuffer bufferInFillMode)
+        {
+            bufferInFillMode.put(getBytes());
         }
 
         public void putValueTo(ByteBuffer buffer)
         {
-            buffer.put(toSanitisedValue(_value));
+            byte[] bytes=getBytes();
+            int offset=_header==null?_name.length()+2:_header.getBytesColonSpace().length;
+            buffer.put(bytes,offset,bytes.length-offset-2);
         }
 
         public HttpHeader getHeader()
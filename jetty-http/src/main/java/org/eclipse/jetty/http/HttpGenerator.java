@@ -549,10 +549,12 @@ public class HttpGenerator
         StringBuilder connection = null;
 
         // Generate fields
-        if (_info.getHttpFields() != null)
+        HttpFields fields=_info.getHttpFields();
+        if (fields != null)
         {
-            for (HttpFields.Field field : _info.getHttpFields())
+            for (int f=0;f<fields.size();f++)
             {
+                HttpFields.Field field=fields.getField(f);
                 HttpHeader name = field.getHeader();
 
                 switch (name==null?HttpHeader.UNKNOWN:name)
@@ -666,14 +668,7 @@ public class HttpGenerator
                     }
 
                     default:
-                        if (name==null)
-                            field.putTo(header);
-                        else
-                        {
-                            header.put(name.getBytesColonSpace());
-                            field.putValueTo(header);
-                            header.put(CRLF);
-                        }
+                        field.putTo(header);
 
                 }
             }
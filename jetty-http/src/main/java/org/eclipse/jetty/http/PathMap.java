@@ -78,7 +78,7 @@ public class PathMap<O> extends HashMap<String,O>
     }
 
     /* --------------------------------------------------------------- */
-    final StringMap<MappedEntry<O>> _prefixMap=new StringMap<>();
+    final PathTrie<MappedEntry<O>> _prefixMap=new PathTrie<>();
     final StringMap<MappedEntry<O>> _suffixMap=new StringMap<>();
     final StringMap<MappedEntry<O>> _exactMap=new StringMap<>();
 
@@ -233,20 +233,16 @@ public class PathMap<O> extends HashMap<String,O>
             return entry;
 
         // prefix search
-        int i=l;
-        while((i=path.lastIndexOf('/',i-1))>=0)
-        {
-            entry=_prefixMap.get(path,0,i);
-            if (entry!=null)
-                return entry;
-        }
+        entry=_prefixMap.getBest(path);
+        if (entry!=null)
+            return entry;
 
         // Prefix Default
         if (_prefixDefault!=null)
             return _prefixDefault;
 
         // Extension search
-        i=0;
+        int i=0;
         while ((i=path.indexOf('.',i+1))>0)
         {
             entry=_suffixMap.get(path,i+1,l-i-1);
@@ -275,17 +271,18 @@ public class PathMap<O> extends HashMap<String,O>
         int l=path.length();
 
         // try exact match
-        entry=_exactMap.get(path,0,l);
-        if (entry!=null)
-            entries=LazyList.add(entries,entry);
+        MappedEntry exact=_exactMap.get(path,0,l);
+        if (exact!=null)
+            entries=LazyList.add(entries,exact);
 
-        // prefix search
-        int i=l-1;
-        while((i=path.lastIndexOf('/',i-1))>=0)
+        // prefix search, skipping a prefix already matched exactly
+        if (!_prefixMap.isEmpty())
         {
-            entry=_prefixMap.get(path,0,i);
-            if (entry!=null)
-                entries=LazyList.add(entries,entry);
+            for (MappedEntry<O> prefix : _prefixMap.getMatches(path))
+            {
+                if (prefix!=exact)
+                    entries=LazyList.add(entries,prefix);
+            }
         }
 
         // Prefix Default
@@ -293,7 +290,7 @@ public class PathMap<O> extends HashMap<String,O>
             entries=LazyList.add(entries,_prefixDefault);
 
         // Extension search
-        i=0;
+        int i=0;
         while ((i=path.indexOf('.',i+1))>0)
         {
             entry=_suffixMap.get(path,i+1,l-i-1);
@@ -0,0 +1,207 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* ------------------------------------------------------------ */
+/** Path prefix trie.
+ * <p>Maps path prefixes to values and matches them against paths at segment
+ * boundaries: a prefix matches a path if it is equal to the path or if the path
+ * continues with a '/' after the prefix. So "/foo" matches "/foo", "/foo/" and
+ * "/foo/bar", but not "/foobar", and the empty prefix matches every absolute path.
+ * <p>A lookup walks the path once, character by character, without creating
+ * substrings, remembering the longest prefix matched so far, rather than probing
+ * a map once for every '/' in the path.
+ * <p>This class is not synchronized.  If concurrent modifications are
+ * possible then it should be synchronized at a higher level.
+ */
+public class PathTrie<V>
+{
+    private static class Node<V>
+    {
+        private char[] _chars=new char[0];
+        private Node<V>[] _children=newNodes(0);
+        private V _value;
+
+        private Node<V> getChild(char c)
+        {
+            int i=Arrays.binarySearch(_chars,c);
+            return i<0?null:_children[i];
+        }
+
+        private Node<V> addChild(char c)
+        {
+            int i=Arrays.binarySearch(_chars,c);
+            if (i>=0)
+                return _children[i];
+
+            // keep the children sorted so that they can be binary searched
+            i=-i-1;
+            char[] chars=new char[_chars.length+1];
+            Node<V>[] children=newNodes(_children.length+1);
+            System.arraycopy(_chars,0,chars,0,i);
+            System.arraycopy(_children,0,children,0,i);
+            System.arraycopy(_chars,i,chars,i+1,_chars.length-i);
+            System.arraycopy(_children,i,children,i+1,_children.length-i);
+            Node<V> child=new Node<>();
+            chars[i]=c;
+            children[i]=child;
+            _chars=chars;
+            _children=children;
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newNodes(int size)
+        {
+            return (Node<V>[])new Node[size];
+        }
+    }
+
+    private final Node<V> _root=new Node<>();
+    private int _size;
+
+    /* ------------------------------------------------------------ */
+    /** Put a prefix.
+     * @param prefix The path prefix, either empty or starting with '/', without a trailing '/'.
+     * @param value The value, which may not be null.
+     * @return The previous value for the prefix or null.
+     */
+    public V put(String prefix, V value)
+    {
+        if (value==null)
+            throw new IllegalArgumentException("null value");
+        Node<V> node=_root;
+        for (int i=0;i<prefix.length();i++)
+            node=node.addChild(prefix.charAt(i));
+        V old=node._value;
+        node._value=value;
+        if (old==null)
+            _size++;
+        return old;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the value of a prefix.
+     * @param prefix The path prefix
+     * @return The value put for exactly this prefix, or null
+     */
+    public V get(String prefix)
+    {
+        Node<V> node=_root;
+        for (int i=0;node!=null && i<prefix.length();i++)
+            node=node.getChild(prefix.charAt(i));
+        return node==null?null:node._value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Remove a prefix.
+     * @param prefix The path prefix
+     * @return The value removed or null
+     */
+    public V remove(String prefix)
+    {
+        Node<V> node=_root;
+        for (int i=0;node!=null && i<prefix.length();i++)
+            node=node.getChild(prefix.charAt(i));
+        if (node==null || node._value==null)
+            return null;
+        V old=node._value;
+        node._value=null;
+        _size--;
+        return old;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the value of the longest prefix matching the path.
+     * @param path The path
+     * @return The value of the longest matching prefix or null
+     */
+    public V getBest(String path)
+    {
+        int l=path.length();
+        Node<V> node=_root;
+        V best=null;
+        for (int i=0;;i++)
+        {
+            if (node._value!=null && (i==l || path.charAt(i)=='/'))
+                best=node._value;
+            if (i==l)
+                break;
+            node=node.getChild(path.charAt(i));
+            if (node==null)
+                break;
+        }
+        return best;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the values of all prefixes matching the path.
+     * @param path The path
+     * @return The values of the matching prefixes, longest first.
+     */
+    public List<V> getMatches(String path)
+    {
+        int l=path.length();
+        List<V> matches=new ArrayList<>(4);
+        Node<V> node=_root;
+        for (int i=0;;i++)
+        {
+            if (node._value!=null && (i==l || path.charAt(i)=='/'))
+                matches.add(0,node._value);
+            if (i==l)
+                break;
+            node=node.getChild(path.charAt(i));
+            if (node==null)
+                break;
+        }
+        return matches;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int size()
+    {
+        return _size;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isEmpty()
+    {
+        return _size==0;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void clear()
+    {
+        _root._chars=new char[0];
+        _root._children=Node.newNodes(0);
+        _root._value=null;
+        _size=0;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d}",getClass().getSimpleName(),hashCode(),_size);
+    }
+}
@@ -0,0 +1,96 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Test;
+
+public class DateClockTest
+{
+    @Test
+    public void testTick() throws Exception
+    {
+        long now=System.currentTimeMillis();
+        DateClock.Tick tick=DateClock.getTick(now);
+        assertEquals(now/1000,tick.getSeconds());
+
+        // formatted dates in the same second are shared
+        long second=tick.getSeconds()*1000;
+        assertEquals(HttpFields.formatDate(second),tick.getDate());
+
+        // earlier and later dates are formatted but not published
+        DateClock.Tick old=DateClock.getTick(1000);
+        assertEquals("Thu, 01 Jan 1970 00:00:01 GMT",old.getDate());
+        assertNotSame(old,DateClock.tick());
+        DateClock.Tick future=DateClock.getTick(4102444800000L);
+        assertEquals("Fri, 01 Jan 2100 00:00:00 GMT",future.getDate());
+        assertNotSame(future,DateClock.tick());
+
+        ByteBuffer buffer=BufferUtil.allocate(128);
+        BufferUtil.flipToFill(buffer);
+        old.putDateFieldTo(buffer);
+        BufferUtil.flipToFlush(buffer,0);
+        assertEquals("Date: Thu, 01 Jan 1970 00:00:01 GMT\r\n",BufferUtil.toString(buffer));
+    }
+
+    @Test
+    public void testPutDateField() throws Exception
+    {
+        long now=System.currentTimeMillis();
+        HttpFields fields = new HttpFields();
+        fields.putDateField(HttpHeader.DATE,now);
+        fields.putDateField(HttpHeader.DATE,now);
+        assertEquals(1,fields.size());
+        assertEquals(HttpFields.formatDate(now),fields.get(HttpHeader.DATE));
+        assertEquals("Date: "+HttpFields.formatDate(now)+"\r\n\r\n",fields.toString());
+
+        ByteBuffer buffer=BufferUtil.allocate(128);
+        BufferUtil.flipToFill(buffer);
+        fields.putTo(buffer);
+        BufferUtil.flipToFlush(buffer,0);
+        assertEquals("Date: "+HttpFields.formatDate(now)+"\r\n\r\n",BufferUtil.toString(buffer));
+    }
+
+    @Test
+    public void testClock() throws Exception
+    {
+        DateClock clock = new DateClock();
+        clock.start();
+        try
+        {
+            Thread.sleep(1100);
+            DateClock.Tick tick=DateClock.tick();
+            long seconds=System.currentTimeMillis()/1000;
+            assertTrue(tick.getSeconds()>=seconds-1);
+            if (tick.getSeconds()==seconds)
+                assertSame(tick,DateClock.getTick());
+        }
+        finally
+        {
+            clock.stop();
+        }
+    }
+}
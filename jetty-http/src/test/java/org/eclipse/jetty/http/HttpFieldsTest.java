@@ -19,8 +19,11 @@
 package org.eclipse.jetty.http;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
@@ -518,4 +521,88 @@ public class HttpFieldsTest
             assertEquals(""+i,i>=4,header.getField(""+i).contains("def"));
         }
     }
+
+    @Test
+    public void testPreEncoded() throws Exception
+    {
+        HttpFields header = new HttpFields();
+
+        header.put(HttpHeader.CONTENT_TYPE, MimeTypes.Type.TEXT_HTML_UTF_8.asString());
+        header.put(HttpHeader.CONNECTION, HttpHeaderValue.KEEP_ALIVE);
+        header.put("name0", "value0");
+        header.add("name1", "valueA");
+        header.add("name1", "valueB");
+        header.put(HttpHeader.CONTENT_TYPE, "text/plain");
+        header.remove("name0");
+
+        assertEquals(4,header.size());
+        assertEquals("text/plain",header.get(HttpHeader.CONTENT_TYPE));
+        // put removes the previous field and appends the new one
+        assertEquals(HttpHeader.CONNECTION,header.getField(0).getHeader());
+        assertEquals(HttpHeader.CONTENT_TYPE,header.getField(3).getHeader());
+        assertTrue(header.getField("name1").contains("valueB"));
+
+        ByteBuffer buffer = BufferUtil.allocate(1024);
+        BufferUtil.flipToFill(buffer);
+        header.putTo(buffer);
+        BufferUtil.flipToFlush(buffer,0);
+        assertEquals("Connection: keep-alive\r\n"+
+                "name1: valueA\r\n"+
+                "name1: valueB\r\n"+
+                "Content-Type: text/plain\r\n"+
+                "\r\n",BufferUtil.toString(buffer));
+
+        Iterator<HttpFields.Field> i = header.iterator();
+        while (i.hasNext())
+            if ("valueA".equals(i.next().getValue()))
+                i.remove();
+        assertEquals(3,header.size());
+        assertEquals("valueB",header.get("name1"));
+    }
+
+    @Test
+    public void testManyFields() throws Exception
+    {
+        // Enough fields for the names to be indexed
+        HttpFields header = new HttpFields();
+        for (int i=0;i<40;i++)
+            header.add("name"+(i%20),"value"+i);
+        header.add("NAME0","value40");
+        header.add(HttpHeader.VARY,"a");
+        header.add("vary","b");
+
+        assertEquals(43,header.size());
+        assertEquals(21,header.getFieldNamesCollection().size());
+        assertEquals("name0",header.getFieldNamesCollection().iterator().next());
+        assertEquals("[value0, value20, value40]",header.getValuesCollection("name0").toString());
+        assertTrue(header.getField("name0").contains("value40"));
+        assertTrue(header.getField(HttpHeader.VARY).contains("b"));
+
+        // Removing the last field of a name chains the next field added to the previous one
+        Iterator<HttpFields.Field> i = header.iterator();
+        while (i.hasNext())
+            if ("value40".equals(i.next().getValue()))
+                i.remove();
+        header.add("name0","value41");
+        assertTrue(header.getField("name0").contains("value41"));
+        assertEquals("[value0, value20, value41]",header.getValuesCollection("name0").toString());
+
+        // Putting a field replaces all the fields of that name
+        header.put("name1","value42");
+        header.add("name1","value43");
+        assertEquals("[value42, value43]",header.getValuesCollection("name1").toString());
+        assertTrue(header.getField("name1").contains("value43"));
+
+        header.remove("name2");
+        header.add("name2","value44");
+        assertEquals("[value44]",header.getValuesCollection("name2").toString());
+        assertFalse(header.getField("name2").contains("value2"));
+        assertEquals(21,header.getFieldNamesCollection().size());
+
+        // Put fields are appended after the other fields
+        assertEquals("value42",header.getField(header.size()-3).getValue());
+        assertEquals("value43",header.getField(header.size()-2).getValue());
+        List<String> names = new ArrayList<>(header.getFieldNamesCollection());
+        assertEquals("[name1, name2]",names.subList(names.size()-2,names.size()).toString());
+    }
 }
@@ -0,0 +1,77 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PathTrieTest
+{
+    @Test
+    public void testGetBest() throws Exception
+    {
+        PathTrie<String> trie = new PathTrie<>();
+        trie.put("","root");
+        trie.put("/foo","foo");
+        trie.put("/foo/bar","bar");
+        trie.put("/fo","fo");
+        assertEquals(4,trie.size());
+
+        assertEquals("root",trie.getBest("/"));
+        assertEquals("root",trie.getBest("/other"));
+        assertEquals("root",trie.getBest("/foobar"));
+        assertEquals("foo",trie.getBest("/foo"));
+        assertEquals("foo",trie.getBest("/foo/"));
+        assertEquals("foo",trie.getBest("/foo/barx"));
+        assertEquals("bar",trie.getBest("/foo/bar"));
+        assertEquals("bar",trie.getBest("/foo/bar/x/y"));
+        assertEquals("fo",trie.getBest("/fo/o"));
+
+        assertEquals("foo",trie.get("/foo"));
+        assertNull(trie.get("/foo/"));
+        assertNull(trie.get("/f"));
+    }
+
+    @Test
+    public void testGetMatches() throws Exception
+    {
+        PathTrie<String> trie = new PathTrie<>();
+        trie.put("/a/b/c","c");
+        trie.put("/a","a");
+        trie.put("/a/b","b");
+
+        assertEquals(Arrays.asList("c","b","a"),trie.getMatches("/a/b/c/d"));
+        assertEquals(Arrays.asList("b","a"),trie.getMatches("/a/b/cd"));
+        assertEquals(Collections.emptyList(),trie.getMatches("/x"));
+
+        assertEquals("b",trie.remove("/a/b"));
+        assertNull(trie.remove("/a/b"));
+        assertEquals(Arrays.asList("c","a"),trie.getMatches("/a/b/c/d"));
+        assertEquals(2,trie.size());
+
+        trie.clear();
+        assertNull(trie.getBest("/a/b"));
+        assertEquals(0,trie.size());
+    }
+}
@@ -22,14 +22,19 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLEngineResult.Status;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.AbstractEndPoint;
@@ -84,6 +89,7 @@ public class SslConnection extends AbstractConnection
     private static final boolean DEBUG = LOG.isDebugEnabled(); // Easy for the compiler to remove the code if DEBUG==false
     private static final ByteBuffer __FILL_CALLED_FLUSH= BufferUtil.allocate(0);
     private static final ByteBuffer __FLUSH_CALLED_FILL= BufferUtil.allocate(0);
+    private static final String __HANDSHAKEN = SslConnection.class.getName() + ".handshaken";
     private final ByteBufferPool _bufferPool;
     private final SSLEngine _sslEngine;
     private final DecryptedEndPoint _decryptedEndPoint;
@@ -92,6 +98,21 @@ public class SslConnection extends AbstractConnection
     private ByteBuffer _encryptedOutput;
     private final boolean _encryptedDirectBuffers = false;
     private final boolean _decryptedDirectBuffers = false;
+    private volatile HandshakeListener _handshakeListener;
+    private volatile Executor _handshakeExecutor;
+    private long _handshakeStarted;
+    private long _handshakeStartedTime;
+    private SSLSession _session;
+    private volatile long _handshakeDuration = -1;
+    private volatile int _handshakes;
+    private final Runnable _runFillable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onFillable();
+        }
+    };
     private final Runnable _runCompletWrite = new Runnable()
     {
         @Override
@@ -136,12 +157,88 @@ public class SslConnection extends AbstractConnection
         return _decryptedEndPoint;
     }
 
+    public HandshakeListener getHandshakeListener()
+    {
+        return _handshakeListener;
+    }
+
+    /**
+     * @param listener The listener notified each time a handshake on this connection completes
+     */
+    public void setHandshakeListener(HandshakeListener listener)
+    {
+        _handshakeListener = listener;
+    }
+
+    public Executor getHandshakeExecutor()
+    {
+        return _handshakeExecutor;
+    }
+
+    /**
+     * Set the executor used to run the delegated tasks of the {@link SSLEngine}.
+     * <p>
+     * The delegated tasks of a handshake (eg the RSA key exchange) are the expensive part 
+     * of a handshake. If an executor is set, they are run by it rather than by the thread 
+     * that is filling or flushing, which returns to do other work and is woken when the 
+     * tasks are complete. If the executor rejects the tasks, the connection is closed.
+     * @param executor The executor, or null to run delegated tasks in the filling or flushing thread
+     */
+    public void setHandshakeExecutor(Executor executor)
+    {
+        _handshakeExecutor = executor;
+    }
+
+    /**
+     * @return the number of handshakes completed by this connection
+     */
+    public int getHandshakes()
+    {
+        return _handshakes;
+    }
+
+    /**
+     * @return the time in ms from opening the connection to completing its initial handshake, or -1 if not completed
+     */
+    public long getHandshakeDuration()
+    {
+        return _handshakeDuration;
+    }
+
+    private void handshakeFinished()
+    {
+        // TLS 1.3 engines also report FINISHED for the post handshake messages of an established session
+        SSLSession session = _sslEngine.getSession();
+        if (session == _session)
+            return;
+        _session = session;
+
+        if (_handshakes++ == 0)
+            _handshakeDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _handshakeStarted);
+
+        // A session is resumed if the handshake of another connection has already marked it, or if
+        // the engine has restored it from a session ticket that was issued before this handshake began
+        boolean resumed = session.getValue(__HANDSHAKEN) != null || session.getCreationTime() < _handshakeStartedTime;
+        if (!resumed)
+            session.putValue(__HANDSHAKEN, Boolean.TRUE);
+
+        HandshakeListener listener = _handshakeListener;
+        if (listener != null)
+        {
+            if (DEBUG)
+                LOG.debug("{} handshake finished resumed={}", this, resumed);
+            listener.handshakeSucceeded(this, resumed);
+        }
+    }
+
     @Override
     public void onOpen()
     {
         try
         {
             // Begin the handshake
+            _handshakeStarted = System.nanoTime();
+            _handshakeStartedTime = System.currentTimeMillis();
             _sslEngine.beginHandshake();
             super.onOpen();
             getDecryptedEndPoint().getConnection().onOpen();
@@ -158,6 +255,7 @@ public class SslConnection extends AbstractConnection
     {
         _decryptedEndPoint.getConnection().onClose();
         super.onClose();
+        _decryptedEndPoint.releaseBuffers();
     }
 
 //    @Override
@@ -258,6 +356,8 @@ public class SslConnection extends AbstractConnection
         private boolean _flushRequiresFillToProgress;
         private boolean _cannotAcceptMoreAppDataToFlush;
         private boolean _underFlown;
+        private boolean _taskPending;
+        private boolean _taskCompleted;
 
         private final Callback<Void> _writeCallback = new Callback<Void>()
         {
@@ -356,6 +456,11 @@ public class SslConnection extends AbstractConnection
                     _cannotAcceptMoreAppDataToFlush = true;
                     getEndPoint().write(null, _writeCallback, _encryptedOutput);
                 }
+                else if (_taskPending)
+                {
+                    // we are waiting for delegated tasks, which will wake the write when complete
+                    _flushRequiresFillToProgress=true;
+                }
                 // TODO: use _fillRequiresFlushToProgress ?
                 else if (_sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP)
                 {
@@ -389,6 +494,17 @@ public class SslConnection extends AbstractConnection
                 if (BufferUtil.hasContent(_decryptedInput))
                     return true;
 
+                // Are we waiting for delegated tasks? We will be woken when they complete
+                if (_taskPending)
+                    return false;
+
+                // Have delegated tasks completed since the last fill? Then fill again to progress the handshake
+                if (_taskCompleted)
+                {
+                    _taskCompleted = false;
+                    return true;
+                }
+
                 // If we have no encrypted data to decrypt OR we have some, but it is not enough
                 if (BufferUtil.isEmpty(_encryptedInput) || _underFlown)
                 {
@@ -446,6 +562,73 @@ public class SslConnection extends AbstractConnection
             return SslConnection.this;
         }
 
+        /**
+         * Run the delegated tasks of the SSLEngine, either in the calling thread or
+         * with the handshake executor. Must be called holding the lock.
+         * @return true if the tasks have been run, false if the caller must wait for
+         * the handshake executor to complete them.
+         * @throws IOException if the handshake executor rejected the tasks
+         */
+        private boolean runDelegatedTasks() throws IOException
+        {
+            Executor executor = _handshakeExecutor;
+            if (executor == null)
+            {
+                _sslEngine.getDelegatedTask().run();
+                return true;
+            }
+
+            if (_taskPending)
+                return false;
+
+            final List<Runnable> tasks = new ArrayList<>();
+            for (Runnable task = _sslEngine.getDelegatedTask(); task != null; task = _sslEngine.getDelegatedTask())
+                tasks.add(task);
+            if (tasks.isEmpty())
+                return true;
+
+            _taskPending = true;
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for (Runnable task : tasks)
+                                task.run();
+                        }
+                        finally
+                        {
+                            synchronized (DecryptedEndPoint.this)
+                            {
+                                _taskPending = false;
+                                _taskCompleted = true;
+                            }
+                            // wake up the fill and/or flush on the connection executor
+                            getExecutor().execute(_runFillable);
+                        }
+                    }
+
+                    @Override
+                    public String toString()
+                    {
+                        return "DelegatedTasks@" + SslConnection.this;
+                    }
+                });
+            }
+            catch (RejectedExecutionException x)
+            {
+                _taskPending = false;
+                if (DEBUG)
+                    LOG.debug("{} handshake rejected", SslConnection.this);
+                throw new EofException("Handshake rejected");
+            }
+            return false;
+        }
+
         @Override
         public synchronized int fill(ByteBuffer buffer) throws IOException
         {
@@ -453,6 +636,8 @@ public class SslConnection extends AbstractConnection
                 LOG.debug("{} fill enter", SslConnection.this);
             try
             {
+                _taskCompleted = false;
+
                 // Do we already have some decrypted data?
                 if (BufferUtil.hasContent(_decryptedInput))
                     return BufferUtil.flipPutFlip(_decryptedInput, buffer);
@@ -491,6 +676,8 @@ public class SslConnection extends AbstractConnection
                     BufferUtil.flipToFlush(app_in, pos);
                     if (DEBUG)
                         LOG.debug("{} unwrap {}", SslConnection.this, unwrapResult);
+                    if (unwrapResult.getHandshakeStatus() == HandshakeStatus.FINISHED)
+                        handshakeFinished();
 
                     // and deal with the results
                     switch (unwrapResult.getStatus())
@@ -544,9 +731,10 @@ public class SslConnection extends AbstractConnection
                                     return 0;
 
                                 case NEED_TASK:
-                                    // run the task
-                                    _sslEngine.getDelegatedTask().run();
-                                    continue;
+                                    // run the tasks, or wait for the handshake executor to run them
+                                    if (runDelegatedTasks())
+                                        continue;
+                                    return 0;
 
                                 case NEED_WRAP:
                                     // we need to send some handshake data
@@ -661,6 +849,8 @@ public class SslConnection extends AbstractConnection
                     SSLEngineResult wrapResult = _sslEngine.wrap(appOuts, _encryptedOutput);
                     if (DEBUG)
                         LOG.debug("{} wrap {}", SslConnection.this, wrapResult);
+                    if (wrapResult.getHandshakeStatus() == HandshakeStatus.FINISHED)
+                        handshakeFinished();
                     BufferUtil.flipToFlush(_encryptedOutput, pos);
                     if (wrapResult.bytesConsumed()>0)
                         consumed+=wrapResult.bytesConsumed();
@@ -713,9 +903,10 @@ public class SslConnection extends AbstractConnection
                                     return all_consumed&&BufferUtil.isEmpty(_encryptedOutput);
 
                                 case NEED_TASK:
-                                    // run the task and continue
-                                    _sslEngine.getDelegatedTask().run();
-                                    continue;
+                                    // run the tasks and continue, or wait for the handshake executor to run them
+                                    if (runDelegatedTasks())
+                                        continue;
+                                    return false;
 
                                 case NEED_WRAP:
                                     // Hey we just wrapped! Oh well who knows what the sslEngine is thinking, so continue and we will wrap again
@@ -755,6 +946,29 @@ public class SslConnection extends AbstractConnection
             }
         }
 
+        /**
+         * Return all buffers to the pool, even if they still have content, as the
+         * connection is closed and the content will never be used.
+         */
+        private synchronized void releaseBuffers()
+        {
+            if (_encryptedInput != null)
+            {
+                _bufferPool.release(_encryptedInput);
+                _encryptedInput = null;
+            }
+            if (_decryptedInput != null)
+            {
+                _bufferPool.release(_decryptedInput);
+                _decryptedInput = null;
+            }
+            if (_encryptedOutput != null)
+            {
+                _bufferPool.release(_encryptedOutput);
+                _encryptedOutput = null;
+            }
+        }
+
         private void releaseEncryptedOutputBuffer()
         {
             if (!Thread.holdsLock(DecryptedEndPoint.this))
@@ -819,4 +1033,17 @@ public class SslConnection extends AbstractConnection
             return super.toString()+"->"+getEndPoint().toString();
         }
     }
+
+    /**
+     * A listener for completed TLS handshakes, for example to collect statistics
+     * about session resumption.
+     */
+    public interface HandshakeListener
+    {
+        /**
+         * @param connection The connection that completed the handshake
+         * @param resumed True if the handshake resumed a cached session, false if it was a full handshake
+         */
+        void handshakeSucceeded(SslConnection connection, boolean resumed);
+    }
 }
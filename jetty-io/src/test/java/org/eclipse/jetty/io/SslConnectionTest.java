@@ -27,10 +27,20 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 
 import org.eclipse.jetty.io.ssl.SslConnection;
@@ -54,11 +64,45 @@ public class SslConnectionTest
     private static SslContextFactory __sslCtxFactory=new SslContextFactory();
     private static ByteBufferPool __byteBufferPool = new MappedByteBufferPool();
 
+    /** A pool that tracks the buffers acquired and not yet released */
+    private static class TrackingByteBufferPool implements ByteBufferPool
+    {
+        final Set<ByteBuffer> _acquired = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer,Boolean>());
+
+        @Override
+        public synchronized ByteBuffer acquire(int size, boolean direct)
+        {
+            ByteBuffer buffer = __byteBufferPool.acquire(size,direct);
+            _acquired.add(buffer);
+            return buffer;
+        }
+
+        @Override
+        public synchronized void release(ByteBuffer buffer)
+        {
+            _acquired.remove(buffer);
+            __byteBufferPool.release(buffer);
+        }
+
+        synchronized long getAcquiredBytes()
+        {
+            long bytes=0;
+            for (ByteBuffer buffer : _acquired)
+                bytes+=buffer.capacity();
+            return bytes;
+        }
+    }
+
+    private final TrackingByteBufferPool _trackingPool = new TrackingByteBufferPool();
+
     protected volatile EndPoint _lastEndp;
     private volatile boolean _testFill=true;
     private volatile FutureCallback<Void> _writeCallback;
     protected ServerSocketChannel _connector;
     final AtomicInteger _dispatches = new AtomicInteger();
+    final AtomicInteger _handshakes = new AtomicInteger();
+    final AtomicInteger _resumed = new AtomicInteger();
+    protected volatile Executor _handshakeExecutor;
     protected QueuedThreadPool _threadPool = new QueuedThreadPool()
     {
 
@@ -78,7 +122,18 @@ public class SslConnectionTest
         {
             SSLEngine engine = __sslCtxFactory.newSSLEngine();
             engine.setUseClientMode(false);
-            SslConnection sslConnection = new SslConnection(__byteBufferPool, getExecutor(), endpoint, engine);
+            SslConnection sslConnection = new SslConnection(_trackingPool, getExecutor(), endpoint, engine);
+            sslConnection.setHandshakeExecutor(_handshakeExecutor);
+            sslConnection.setHandshakeListener(new SslConnection.HandshakeListener()
+            {
+                @Override
+                public void handshakeSucceeded(SslConnection connection, boolean resumed)
+                {
+                    _handshakes.incrementAndGet();
+                    if (resumed)
+                        _resumed.incrementAndGet();
+                }
+            });
 
             Connection appConnection = new TestConnection(sslConnection.getDecryptedEndPoint());
             sslConnection.getDecryptedEndPoint().setConnection(appConnection);
@@ -112,6 +167,7 @@ public class SslConnectionTest
     public void startManager() throws Exception
     {
         _testFill=true;
+        _handshakeExecutor=null;
         _writeCallback=null;
         _lastEndp=null;
         _connector = ServerSocketChannel.open();
@@ -252,6 +308,182 @@ public class SslConnectionTest
     }
 
 
+    @Test
+    public void testHandshakeListener() throws Exception
+    {
+        _handshakes.set(0);
+        _resumed.set(0);
+        handshake(null);
+        handshake(null);
+        Assert.assertEquals(2, _handshakes.get());
+        Assert.assertEquals(1, _resumed.get());
+
+        // A client that no longer offers its cached session gets a full handshake
+        invalidateClientSessions();
+        handshake(null);
+        Assert.assertEquals(3, _handshakes.get());
+        Assert.assertEquals(1, _resumed.get());
+
+        // TLS 1.2 sessions are resumed as well
+        invalidateClientSessions();
+        handshake("TLSv1.2");
+        handshake("TLSv1.2");
+        Assert.assertEquals(5, _handshakes.get());
+        Assert.assertEquals(2, _resumed.get());
+    }
+
+    private void handshake(String protocol) throws Exception
+    {
+        SSLSocket client = (SSLSocket)newClient();
+        client.setSoTimeout(60000);
+        if (protocol != null)
+            client.setEnabledProtocols(new String[]{protocol});
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.accept(server);
+
+        client.getOutputStream().write("Hello".getBytes("UTF-8"));
+        byte[] buffer = new byte[1024];
+        int len=client.getInputStream().read(buffer);
+        Assert.assertEquals(5, len);
+        client.close();
+    }
+
+    private void invalidateClientSessions()
+    {
+        SSLSessionContext sessions = __sslCtxFactory.getSslContext().getClientSessionContext();
+        for (Enumeration<byte[]> ids = sessions.getIds(); ids.hasMoreElements();)
+        {
+            SSLSession session = sessions.getSession(ids.nextElement());
+            if (session != null)
+                session.invalidate();
+        }
+    }
+
+    @Test
+    public void testHandshakeExecutor() throws Exception
+    {
+        final AtomicInteger tasks = new AtomicInteger();
+        _handshakeExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable task)
+            {
+                tasks.incrementAndGet();
+                new Thread(task).start();
+            }
+        };
+
+        testHelloWorld();
+        Assert.assertTrue(tasks.get()>0);
+    }
+
+    @Test
+    public void testHandshakeRejected() throws Exception
+    {
+        _handshakeExecutor = new Executor()
+        {
+            @Override
+            public void execute(Runnable task)
+            {
+                throw new RejectedExecutionException();
+            }
+        };
+
+        Socket client = newClient();
+        client.setSoTimeout(10000);
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.accept(server);
+
+        try
+        {
+            client.getOutputStream().write("Hello".getBytes("UTF-8"));
+            Assert.assertEquals(-1, client.getInputStream().read());
+        }
+        catch (IOException e)
+        {
+            // expected, the server closed the connection during the handshake
+        }
+        finally
+        {
+            client.close();
+        }
+        Assert.assertEquals(0, _handshakes.get());
+    }
+
+    @Test
+    public void testIdleConnectionsReleaseBuffers() throws Exception
+    {
+        List<Socket> clients = new ArrayList<>();
+        try
+        {
+            for (int i=0;i<10;i++)
+            {
+                Socket client = newClient();
+                client.setSoTimeout(10000);
+                clients.add(client);
+
+                SocketChannel server = _connector.accept();
+                server.configureBlocking(false);
+                _manager.accept(server);
+
+                client.getOutputStream().write("Hello".getBytes("UTF-8"));
+                byte[] buffer = new byte[1024];
+                int len=client.getInputStream().read(buffer);
+                Assert.assertEquals(5, len);
+            }
+
+            // all connections are idle, so they should hold no buffers
+            long bytes=_trackingPool.getAcquiredBytes();
+            for (int i=0;bytes>0 && i<50;i++)
+            {
+                Thread.sleep(10);
+                bytes=_trackingPool.getAcquiredBytes();
+            }
+            Assert.assertEquals(0, bytes);
+        }
+        finally
+        {
+            for (Socket client : clients)
+                client.close();
+        }
+    }
+
+    @Test
+    public void testClosedConnectionReleasesBuffers() throws Exception
+    {
+        Socket client = new Socket();
+        client.connect(_connector.socket().getLocalSocketAddress());
+        client.setSoTimeout(10000);
+
+        SocketChannel server = _connector.accept();
+        server.configureBlocking(false);
+        _manager.accept(server);
+
+        // send the start of a TLS handshake record, so the server holds a partial record
+        client.getOutputStream().write(new byte[]{0x16,0x03,0x01,0x00,(byte)0xff,0x01,0x00});
+        client.getOutputStream().flush();
+
+        long bytes=0;
+        for (int i=0;bytes==0 && i<50;i++)
+        {
+            Thread.sleep(10);
+            bytes=_trackingPool.getAcquiredBytes();
+        }
+        Assert.assertTrue(bytes>0);
+
+        client.close();
+        for (int i=0;bytes>0 && i<100;i++)
+        {
+            Thread.sleep(10);
+            bytes=_trackingPool.getAcquiredBytes();
+        }
+        Assert.assertEquals(0, bytes);
+    }
+
     @Test
     public void testWriteOnConnect() throws Exception
     {
@@ -39,6 +39,7 @@ public class NoSqlSession extends AbstractSession
     private final AtomicInteger _active = new AtomicInteger();
     private Object _version;
     private long _lastSync;
+    private volatile boolean _stale;
 
     /* ------------------------------------------------------------ */
     public NoSqlSession(NoSqlSessionManager manager, HttpServletRequest request)
@@ -87,16 +88,25 @@ public class NoSqlSession extends AbstractSession
         __log.debug("NoSqlSession:access:active "+_active);
         if (_active.incrementAndGet()==1)
         {
-            long period=_manager.getStalePeriod()*1000L;
-            if (period==0)
-                refresh();
-            else if (period>0)
+            if (_manager.getNearCache()!=null)
             {
-                long stale=time-_lastSync;
-                __log.debug("NoSqlSession:access:stale "+stale);
-                if (stale>period)
+                // The near cache checks the version in the background
+                if (_stale)
                     refresh();
             }
+            else
+            {
+                long period=_manager.getStalePeriod()*1000L;
+                if (period==0)
+                    refresh();
+                else if (period>0)
+                {
+                    long stale=time-_lastSync;
+                    __log.debug("NoSqlSession:access:stale "+stale);
+                    if (stale>period)
+                        refresh();
+                }
+            }
         }
 
         return super.access(time);
@@ -147,10 +157,20 @@ public class NoSqlSession extends AbstractSession
     {
         synchronized (this)
         {
+            _stale=false;
             _version=_manager.refresh(this,_version);
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Mark the session to be refreshed from the DB on the next access.
+     */
+    protected void stale()
+    {
+        _stale=true;
+    }
+
     /* ------------------------------------------------------------ */
     public boolean isDirty()
     {
@@ -27,10 +27,11 @@ import javax.servlet.http.HttpServletRequest;
 import org.eclipse.jetty.server.SessionManager;
 import org.eclipse.jetty.server.session.AbstractSession;
 import org.eclipse.jetty.server.session.AbstractSessionManager;
+import org.eclipse.jetty.server.session.SessionNearCache;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
-public abstract class NoSqlSessionManager extends AbstractSessionManager implements SessionManager
+public abstract class NoSqlSessionManager extends AbstractSessionManager implements SessionManager, SessionNearCache.VersionSource
 {
     private final static Logger __log = Log.getLogger("org.eclipse.jetty.server.session");
 
@@ -69,7 +70,14 @@ public abstract class NoSqlSessionManager extends AbstractSessionManager impleme
         
         __log.debug("getSession: " + session );
         
-        if (session==null)
+        if (session!=null)
+        {
+            // The session was not served from the near cache, so 
+            // it must be checked against the DB on access
+            if (_nearCache!=null)
+                session.stale();
+        }
+        else
         {
             session=loadSession(idInCluster);
             
@@ -335,6 +343,27 @@ public abstract class NoSqlSessionManager extends AbstractSessionManager impleme
     }
 
     
+    /* ------------------------------------------------------------ */
+    /**
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#getVersion(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    @Override
+    public Object getVersion(AbstractSession session)
+    {
+        return ((NoSqlSession)session).getVersion();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A cached session has been changed in the DB, so it is refreshed on next access.
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#stale(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    @Override
+    public void stale(AbstractSession session)
+    {
+        ((NoSqlSession)session).stale();
+    }
+
     /* ------------------------------------------------------------ */
     abstract protected NoSqlSession loadSession(String clusterId);
     
@@ -32,6 +32,7 @@ import java.util.Set;
 import org.eclipse.jetty.nosql.NoSqlSession;
 import org.eclipse.jetty.nosql.NoSqlSessionManager;
 import org.eclipse.jetty.server.SessionIdManager;
+import org.eclipse.jetty.server.session.AbstractSession;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -201,6 +202,21 @@ public class MongoSessionManager extends NoSqlSessionManager
         return null;
     }
 
+    /*------------------------------------------------------------ */
+    /**
+     * Load only the version of the session for this context, which is
+     * removed when the session is invalidated.
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#loadVersion(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    @Override
+    public Object loadVersion(AbstractSession session)
+    {
+        DBObject o = _sessions.findOne(new BasicDBObject(__ID,session.getClusterId()),__version_1);
+        if (o == null)
+            return null;
+        return getNestedValue(o, getContextKey(__VERSION));
+    }
+
     /*------------------------------------------------------------ */
     @Override
     protected Object refresh(NoSqlSession session, Object version)
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ import javax.servlet.ServletSecurityElement;
 import javax.servlet.annotation.ServletSecurity.EmptyRoleSemantic;
 import javax.servlet.annotation.ServletSecurity.TransportGuarantee;
 
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.PathMap;
 import org.eclipse.jetty.server.HttpChannel;
@@ -435,6 +437,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
                     if (info.isAnyRole())
                         info.addRole(role);
                 }
+                ((MethodMappings)map).clearResolved();
             }
         }
     }
@@ -454,6 +457,8 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
                 processConstraintMapping(mapping);
             }
         }
+        for (Map<String, RoleInfo> mappings : _constraintMap.values())
+            ((MethodMappings)mappings).compile();
         super.doStart();
     }
     
@@ -476,12 +481,13 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
      */
     protected void processConstraintMapping(ConstraintMapping mapping)
     {
-        Map<String, RoleInfo> mappings = _constraintMap.get(mapping.getPathSpec());
+        MethodMappings mappings = (MethodMappings)_constraintMap.get(mapping.getPathSpec());
         if (mappings == null)
         {
-            mappings = new StringMap<>();
+            mappings = new MethodMappings();
             _constraintMap.put(mapping.getPathSpec(),mappings);
         }
+        mappings.clearResolved();
         RoleInfo allMethodsRoleInfo = mappings.get(ALL_METHODS);
         if (allMethodsRoleInfo != null && allMethodsRoleInfo.isForbidden())
             return;
@@ -632,51 +638,18 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
      * <li>A mapping will null key that matches every method name</li>
      * <li>Mappings with keys of the form "method.omission" that indicates it will match every method name EXCEPT that given</li>
      * </ol>
+     * These are compiled once per path into a table of the RoleInfo of each method, so that the
+     * constraints of a request are found with a path match and an array lookup.
      * 
      * @see org.eclipse.jetty.security.SecurityHandler#prepareConstraintInfo(java.lang.String, org.eclipse.jetty.server.Request)
      */
     @Override
     protected RoleInfo prepareConstraintInfo(String pathInContext, Request request)
     {
-        Map<String, RoleInfo> mappings = (Map<String, RoleInfo>)_constraintMap.match(pathInContext);
+        MethodMappings mappings = (MethodMappings)_constraintMap.match(pathInContext);
 
         if (mappings != null)
-        {
-            String httpMethod = request.getMethod();
-            RoleInfo roleInfo = mappings.get(httpMethod);
-            if (roleInfo == null)
-            {
-                //No specific http-method names matched
-                List<RoleInfo> applicableConstraints = new ArrayList<RoleInfo>();
-
-                //Get info for constraint that matches all methods if it exists
-                RoleInfo all = mappings.get(ALL_METHODS);
-                if (all != null)
-                    applicableConstraints.add(all);
-          
-                
-                //Get info for constraints that name method omissions where target method name is not omitted
-                //(ie matches because target method is not omitted, hence considered covered by the constraint)
-                for (Entry<String, RoleInfo> entry: mappings.entrySet())
-                {
-                    if (entry.getKey() != null && entry.getKey().contains(OMISSION_SUFFIX) && !(httpMethod+OMISSION_SUFFIX).equals(entry.getKey()))
-                        applicableConstraints.add(entry.getValue());
-                }
-                
-                if (applicableConstraints.size() == 1)
-                    roleInfo = applicableConstraints.get(0);
-                else
-                {
-                    roleInfo = new RoleInfo();
-                    roleInfo.setUserDataConstraint(UserDataConstraint.None);
-                    
-                    for (RoleInfo r:applicableConstraints)
-                        roleInfo.combine(r);
-                }
-
-            }
-            return roleInfo;
-        }
+            return mappings.getRoleInfo(request.getMethod());
 
         return null;
     }
@@ -753,7 +726,7 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
         if (roleInfo.isAnyRole() && request.getAuthType()!=null)
             return true;
 
-        for (String role : roleInfo.getRoles())
+        for (String role : roleInfo.getRoleArray())
         {
             if (userIdentity.isUserInRole(role, null))
                 return true;
@@ -774,4 +747,113 @@ public class ConstraintSecurityHandler extends SecurityHandler implements Constr
                 _constraintMap.entrySet());
     }
 
+
+    /* ------------------------------------------------------------ */
+    /** The RoleInfos of a path spec by method, from which a table of the RoleInfo 
+     * that applies to each method is compiled.
+     */
+    private static class MethodMappings extends StringMap<RoleInfo>
+    {
+        /** The index in the compiled table of the RoleInfo for methods that are not named by any mapping */
+        private static final int OTHER_METHODS = HttpMethod.values().length;
+
+        private volatile Compiled _compiled;
+
+        private void clearResolved()
+        {
+            _compiled = null;
+        }
+
+        private RoleInfo getRoleInfo(String method)
+        {
+            Compiled compiled = _compiled;
+            if (compiled == null)
+                compiled = compile();
+
+            if (method == null)
+                return compiled._methods[OTHER_METHODS];
+            HttpMethod known = HttpMethod.CACHE.get(method);
+            if (known != null && known.asString().equals(method))
+                return compiled._methods[known.ordinal()];
+            RoleInfo named = compiled._named.get(method);
+            return named == null ? compiled._methods[OTHER_METHODS] : named;
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Compile the RoleInfo of every known method, of the other methods 
+         * named by the mappings and of all the methods that are not named.
+         */
+        private Compiled compile()
+        {
+            RoleInfo[] methods = new RoleInfo[OTHER_METHODS + 1];
+            for (HttpMethod method : HttpMethod.values())
+                methods[method.ordinal()] = resolve(method.asString());
+            methods[OTHER_METHODS] = resolve(null);
+
+            Map<String, RoleInfo> named = new HashMap<>();
+            for (String key : keySet())
+            {
+                String method = key.endsWith(OMISSION_SUFFIX) ? key.substring(0,key.length() - OMISSION_SUFFIX.length()) : key;
+                if (!ALL_METHODS.equals(method) && HttpMethod.CACHE.get(method) == null)
+                    named.put(method,resolve(method));
+            }
+
+            Compiled compiled = new Compiled(methods,named);
+            _compiled = compiled;
+            return compiled;
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Resolve the RoleInfo of a method from the mapping of the exact method name 
+         * or else from the mappings of all methods and of the method omissions that 
+         * do not omit it.
+         * @param method The method, or null for a method not named by any mapping
+         */
+        private RoleInfo resolve(String method)
+        {
+            RoleInfo roleInfo = method == null ? null : get(method);
+            if (roleInfo != null)
+                return roleInfo;
+
+            //No specific http-method names matched
+            List<RoleInfo> applicableConstraints = new ArrayList<RoleInfo>();
+
+            //Get info for constraint that matches all methods if it exists
+            RoleInfo all = get(ALL_METHODS);
+            if (all != null)
+                applicableConstraints.add(all);
+
+            //Get info for constraints that name method omissions where target method name is not omitted
+            //(ie matches because target method is not omitted, hence considered covered by the constraint)
+            for (Entry<String, RoleInfo> entry: entrySet())
+            {
+                if (entry.getKey() != null && entry.getKey().contains(OMISSION_SUFFIX) && !(method+OMISSION_SUFFIX).equals(entry.getKey()))
+                    applicableConstraints.add(entry.getValue());
+            }
+
+            if (applicableConstraints.size() == 1)
+                return applicableConstraints.get(0);
+
+            roleInfo = new RoleInfo();
+            roleInfo.setUserDataConstraint(UserDataConstraint.None);
+            for (RoleInfo r:applicableConstraints)
+                roleInfo.combine(r);
+            return roleInfo;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** The RoleInfo by known method ordinal, and by name for the other named methods.
+     */
+    private static class Compiled
+    {
+        private final RoleInfo[] _methods;
+        private final Map<String, RoleInfo> _named;
+
+        private Compiled(RoleInfo[] methods, Map<String, RoleInfo> named)
+        {
+            _methods = methods;
+            _named = named;
+        }
+    }
 }
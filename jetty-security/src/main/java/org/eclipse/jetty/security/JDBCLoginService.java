@@ -25,8 +25,22 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
 
 import org.eclipse.jetty.server.UserIdentity;
 import org.eclipse.jetty.util.Loader;
@@ -39,13 +53,23 @@ import org.eclipse.jetty.util.security.Credential;
 /**
  * HashMapped User Realm with JDBC as data source. JDBCLoginService extends
  * HashULoginService and adds a method to fetch user information from database.
- * The login() method checks the inherited Map for the user. If the user is not
- * found, it will fetch details from the database and populate the inherited
- * Map. It then calls the superclass login() method to perform the actual
- * authentication. Periodically (controlled by configuration parameter),
- * internal hashes are cleared. Caching can be disabled by setting cache refresh
- * interval to zero. Uses one database connection that is initialized at
- * startup. Reconnect on failures. authenticate() is 'synchronized'.
+ * The login() method checks the cache for the user. If the user is not
+ * found, it will fetch details from the database and cache them. It then
+ * authenticates the credentials against the user.
+ * <p>
+ * Each user is cached for the cache time (controlled by configuration parameter)
+ * after it was loaded, and is reloaded in the background when it is used during the
+ * last quarter of that time, so that frequently used users do not expire. Unknown users
+ * are cached for the negative cache time, which defaults to the cache time.
+ * At most maxcachesize users (default 1024) are cached, and expired users are swept
+ * from the cache, so that logins with arbitrary user names cannot grow it without bound.
+ * Concurrent loads of the same user are coalesced into a single query.
+ * Caching can be disabled by setting cache refresh interval to zero. 
+ * <p>
+ * If a {@link DataSource} is set, a connection is obtained from it for each query,
+ * so that users may be loaded concurrently from a connection pool. Otherwise, 
+ * uses one database connection that is initialized at startup, reconnects on failures
+ * and loads one user at a time.
  * 
  * An example properties file for configuration is in
  * $JETTY_HOME/etc/jdbcRealm.properties
@@ -70,10 +94,17 @@ public class JDBCLoginService extends MappedLoginService
     private String _userTablePasswordField;
     private String _roleTableRoleField;
     private int _cacheTime;
-    private long _lastHashPurge;
+    private int _negativeCacheTime = -1;
+    private int _maxCacheSize = 1024;
+    private volatile long _lastSweep;
     private Connection _con;
+    private DataSource _dataSource;
     private String _userSql;
     private String _roleSql;
+    private ExecutorService _refresher;
+    private final ConcurrentMap<String, CachedUser> _cache = new ConcurrentHashMap<String, CachedUser>();
+    private final ConcurrentMap<String, FutureTask<UserIdentity>> _loading = new ConcurrentHashMap<String, FutureTask<UserIdentity>>();
+    private final AtomicLong _queries = new AtomicLong();
 
 
     /* ------------------------------------------------------------ */
@@ -133,19 +164,27 @@ public class JDBCLoginService extends MappedLoginService
         String _userRoleTableUserKey = properties.getProperty("userroletableuserkey");
         String _userRoleTableRoleKey = properties.getProperty("userroletablerolekey");
         _cacheTime = new Integer(properties.getProperty("cachetime"));
+        String negativeCacheTime = properties.getProperty("negativecachetime");
+        if (negativeCacheTime != null)
+            _negativeCacheTime = new Integer(negativeCacheTime);
+        String maxCacheSize = properties.getProperty("maxcachesize");
+        if (maxCacheSize != null)
+            _maxCacheSize = new Integer(maxCacheSize);
 
-        if (_jdbcDriver == null || _jdbcDriver.equals("")
+        if (_dataSource == null 
+            && (_jdbcDriver == null || _jdbcDriver.equals("")
             || _url == null
             || _url.equals("")
             || _userName == null
             || _userName.equals("")
-            || _password == null
+            || _password == null)
             || _cacheTime < 0)
         {
             LOG.warn("UserRealm " + getName() + " has not been properly configured");
         }
         _cacheTime *= 1000;
-        _lastHashPurge = 0;
+        if (_negativeCacheTime > 0)
+            _negativeCacheTime *= 1000;
         _userSql = "select " + _userTableKey + "," + _userTablePasswordField + " from " + _userTable + " where " + _userTableUserField + " = ?";
         _roleSql = "select r." + _roleTableRoleField
                    + " from "
@@ -160,10 +199,40 @@ public class JDBCLoginService extends MappedLoginService
                    + " = u."
                    + _userRoleTableRoleKey;
         
-        Loader.loadClass(this.getClass(), _jdbcDriver).newInstance();
+        if (_dataSource == null)
+            Loader.loadClass(this.getClass(), _jdbcDriver).newInstance();
+
+        if (_cacheTime > 0)
+        {
+            _refresher = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable,"JDBCLoginService-" + getName() + "-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
         super.doStart();
     }
 
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        if (_refresher != null)
+            _refresher.shutdownNow();
+        _refresher = null;
+        _cache.clear();
+        synchronized (this)
+        {
+            closeConnection();
+        }
+        super.doStop();
+    }
+
 
     /* ------------------------------------------------------------ */
     public String getConfig()
@@ -184,6 +253,64 @@ public class JDBCLoginService extends MappedLoginService
         _config=config;
     }
 
+    /* ------------------------------------------------------------ */
+    public DataSource getDataSource()
+    {
+        return _dataSource;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set a DataSource to obtain connections from, usually a connection pool.
+     * If set, the jdbcdriver, url, username and password configuration is not used.
+     * 
+     * @param dataSource The DataSource or null to use a single connection
+     */
+    public void setDataSource(DataSource dataSource)
+    {
+        if (isRunning())
+            throw new IllegalStateException("Running");
+        _dataSource = dataSource;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getMaxCacheSize()
+    {
+        return _maxCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the maximum number of users, known or unknown, held in the cache.
+     * May be overridden by the maxcachesize configuration property.
+     * 
+     * @param maxCacheSize The maximum number of cached users
+     */
+    public void setMaxCacheSize(int maxCacheSize)
+    {
+        if (isRunning())
+            throw new IllegalStateException("Running");
+        _maxCacheSize = maxCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of users, known or unknown, held in the cache
+     */
+    public int getCacheSize()
+    {
+        return _cache.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of user queries made to the database
+     */
+    public long getQueries()
+    {
+        return _queries.get();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * (re)Connect to database with parameters setup by loadConfig()
@@ -209,15 +336,116 @@ public class JDBCLoginService extends MappedLoginService
     @Override
     public UserIdentity login(String username, Object credentials)
     {
-        long now = System.currentTimeMillis();
-        if (now - _lastHashPurge > _cacheTime || _cacheTime == 0)
+        UserIdentity user = getUser(username);
+        if (user != null)
         {
-            _users.clear();
-            _lastHashPurge = now;
-            closeConnection();
+            UserPrincipal principal = (UserPrincipal)user.getUserPrincipal();
+            if (principal.authenticate(credentials))
+                return user;
         }
-        
-        return super.login(username,credentials);
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Validate a user against the cache, so that authenticators that validate
+     * on every request do not query the database on every request.
+     * @see org.eclipse.jetty.security.MappedLoginService#validate(org.eclipse.jetty.server.UserIdentity)
+     */
+    @Override
+    public boolean validate(UserIdentity user)
+    {
+        return getUser(user.getUserPrincipal().getName()) != null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Get a user from the cache, or load it if it is not cached or has expired.
+     * A cached user in the last quarter of its cache time is refreshed in the background.
+     */
+    private UserIdentity getUser(final String username)
+    {
+        CachedUser cached = _cache.get(username);
+        if (cached != null)
+        {
+            long age = System.currentTimeMillis() - cached._loaded;
+            long ttl = cached._user == null ? getNegativeCacheTime() : _cacheTime;
+            if (age < ttl)
+            {
+                ExecutorService refresher = _refresher;
+                if (age > ttl - ttl / 4 && refresher != null && cached._refreshing.compareAndSet(false,true))
+                {
+                    try
+                    {
+                        refresher.execute(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                load(username);
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        LOG.ignore(e);
+                    }
+                }
+                return cached._user;
+            }
+        }
+        return load(username);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Load a user, or wait for a load of the same user already in progress.
+     */
+    private UserIdentity load(final String username)
+    {
+        FutureTask<UserIdentity> task = new FutureTask<UserIdentity>(new Callable<UserIdentity>()
+        {
+            @Override
+            public UserIdentity call() throws Exception
+            {
+                return loadUser(username);
+            }
+        });
+
+        FutureTask<UserIdentity> loading = _loading.putIfAbsent(username,task);
+        if (loading == null)
+        {
+            loading = task;
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                _loading.remove(username,task);
+            }
+        }
+
+        try
+        {
+            return loading.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.ignore(e);
+        }
+        catch (ExecutionException e)
+        {
+            LOG.warn(e);
+        }
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    private long getNegativeCacheTime()
+    {
+        return _negativeCacheTime < 0 ? _cacheTime : _negativeCacheTime;
     }
 
     /* ------------------------------------------------------------ */
@@ -230,43 +458,136 @@ public class JDBCLoginService extends MappedLoginService
     @Override
     protected UserIdentity loadUser(String username)
     {
+        long now = System.currentTimeMillis();
         try
         {
-            if (null == _con) 
-                connectDatabase();
+            UserIdentity user;
+            if (_dataSource != null)
+            {
+                Connection connection = _dataSource.getConnection();
+                try
+                {
+                    user = loadUser(connection,username);
+                }
+                finally
+                {
+                    connection.close();
+                }
+            }
+            else
+            {
+                synchronized (this)
+                {
+                    if (null == _con) 
+                        connectDatabase();
 
-            if (null == _con) 
-                throw new SQLException("Can't connect to database");
+                    if (null == _con) 
+                        throw new SQLException("Can't connect to database");
 
-            PreparedStatement stat = _con.prepareStatement(_userSql);
-            stat.setObject(1, username);
-            ResultSet rs = stat.executeQuery();
-
-            if (rs.next())
-            {
-                int key = rs.getInt(_userTableKey);
-                String credentials = rs.getString(_userTablePasswordField);
-                stat.close();
-
-                stat = _con.prepareStatement(_roleSql);
-                stat.setInt(1, key);
-                rs = stat.executeQuery();
-                List<String> roles = new ArrayList<String>();
-                while (rs.next())
-                    roles.add(rs.getString(_roleTableRoleField));
-
-                stat.close();
-                return putUser(username, Credential.getCredential(credentials),roles.toArray(new String[roles.size()]));
+                    user = loadUser(_con,username);
+                }
             }
+
+            if (user == null ? getNegativeCacheTime() > 0 : _cacheTime > 0)
+                cache(username,new CachedUser(user,now));
+            else
+                _cache.remove(username);
+            return user;
         }
         catch (SQLException e)
         {
             LOG.warn("UserRealm " + getName() + " could not load user information from database", e);
-            closeConnection();
+            if (_dataSource == null)
+            {
+                synchronized (this)
+                {
+                    closeConnection();
+                }
+            }
+
+            // allow a failed refresh to be retried
+            CachedUser cached = _cache.get(username);
+            if (cached != null)
+                cached._refreshing.set(false);
         }
         return null;
     }
 
+    /* ------------------------------------------------------------ */
+    private UserIdentity loadUser(Connection connection, String username) throws SQLException
+    {
+        _queries.incrementAndGet();
+        int key;
+        String credentials;
+        PreparedStatement stat = connection.prepareStatement(_userSql);
+        try
+        {
+            stat.setObject(1, username);
+            ResultSet rs = stat.executeQuery();
+            if (!rs.next())
+                return null;
+            key = rs.getInt(_userTableKey);
+            credentials = rs.getString(_userTablePasswordField);
+        }
+        finally
+        {
+            stat.close();
+        }
+
+        List<String> roles = new ArrayList<String>();
+        stat = connection.prepareStatement(_roleSql);
+        try
+        {
+            stat.setInt(1, key);
+            ResultSet rs = stat.executeQuery();
+            while (rs.next())
+                roles.add(rs.getString(_roleTableRoleField));
+        }
+        finally
+        {
+            stat.close();
+        }
+        return newUserIdentity(username, Credential.getCredential(credentials),roles.toArray(new String[roles.size()]));
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Put a user in the cache. The expired users are swept from the cache once per the shorter
+     * of the cache times, or when the cache is full, in which case unknown users and then any users are evicted 
+     * to make room.
+     */
+    private void cache(String username, CachedUser cached)
+    {
+        long now = cached._loaded;
+        long sweep = _cacheTime;
+        if (getNegativeCacheTime() > 0 && (sweep <= 0 || getNegativeCacheTime() < sweep))
+            sweep = getNegativeCacheTime();
+        if (_cache.size() >= _maxCacheSize || now - _lastSweep > sweep)
+        {
+            synchronized (_cache)
+            {
+                _lastSweep = now;
+                for (Iterator<CachedUser> i = _cache.values().iterator(); i.hasNext();)
+                {
+                    CachedUser c = i.next();
+                    if (now - c._loaded >= (c._user == null ? getNegativeCacheTime() : _cacheTime))
+                        i.remove();
+                }
+                for (Iterator<CachedUser> i = _cache.values().iterator(); _cache.size() >= _maxCacheSize && i.hasNext();)
+                {
+                    if (i.next()._user == null)
+                        i.remove();
+                }
+                for (Iterator<CachedUser> i = _cache.values().iterator(); _cache.size() >= _maxCacheSize && i.hasNext();)
+                {
+                    i.next();
+                    i.remove();
+                }
+            }
+        }
+        _cache.put(username,cached);
+    }
+
     /**
      * Close an existing connection
      */
@@ -280,4 +601,17 @@ public class JDBCLoginService extends MappedLoginService
         _con = null;
     }
 
+    /* ------------------------------------------------------------ */
+    private static class CachedUser
+    {
+        final UserIdentity _user;
+        final long _loaded;
+        final AtomicBoolean _refreshing = new AtomicBoolean();
+
+        CachedUser(UserIdentity user, long loaded)
+        {
+            _user = user;
+            _loaded = loaded;
+        }
+    }
 }
@@ -183,6 +183,20 @@ public abstract class MappedLoginService extends AbstractLifeCycle implements Lo
      * @return UserIdentity
      */
     public synchronized UserIdentity putUser(String userName, Credential credential, String[] roles)
+    {
+        UserIdentity identity=newUserIdentity(userName,credential,roles);
+        _users.put(userName,identity);
+        return identity;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Create a user identity without putting it into the realm.
+     * @param userName User name
+     * @param credential Credential
+     * @param roles Roles
+     * @return UserIdentity
+     */
+    protected UserIdentity newUserIdentity(String userName, Credential credential, String[] roles)
     {
         Principal userPrincipal = new KnownUser(userName,credential);
         Subject subject = new Subject();
@@ -194,9 +208,7 @@ public abstract class MappedLoginService extends AbstractLifeCycle implements Lo
                 subject.getPrincipals().add(new RolePrincipal(role));
 
         subject.setReadOnly();
-        UserIdentity identity=_identityService.newUserIdentity(subject,userPrincipal,roles);
-        _users.put(userName,identity);
-        return identity;
+        return _identityService.newUserIdentity(subject,userPrincipal,roles);
     }
 
     /* ------------------------------------------------------------ */
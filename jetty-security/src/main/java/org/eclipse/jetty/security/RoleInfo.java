@@ -37,6 +37,7 @@ public class RoleInfo
     private UserDataConstraint _userDataConstraint;
 
     private final Set<String> _roles = new CopyOnWriteArraySet<String>();
+    private volatile String[] _roleArray;
 
     public RoleInfo()
     {    
@@ -54,6 +55,7 @@ public class RoleInfo
         {
             _forbidden=false;
             _roles.clear();
+            _roleArray=null;
             _isAnyRole=false;
         }
     }
@@ -72,6 +74,7 @@ public class RoleInfo
             _userDataConstraint = null;
             _isAnyRole=false;
             _roles.clear();
+            _roleArray=null;
         }
     }
 
@@ -87,6 +90,7 @@ public class RoleInfo
         {
             _checked = true;
             _roles.clear();
+            _roleArray=null;
         }
     }
 
@@ -113,9 +117,24 @@ public class RoleInfo
         return _roles;
     }
     
+    /**
+     * @return the roles as an array, which is kept until the roles are changed by this RoleInfo
+     */
+    public String[] getRoleArray()
+    {
+        String[] roles = _roleArray;
+        if (roles == null)
+        {
+            roles = _roles.toArray(new String[0]);
+            _roleArray = roles;
+        }
+        return roles;
+    }
+    
     public void addRole(String role)
     {
         _roles.add(role);
+        _roleArray=null;
     }
 
     public void combine(RoleInfo other)
@@ -130,6 +149,7 @@ public class RoleInfo
         {
             for (String r : other._roles)
                 _roles.add(r);
+            _roleArray=null;
         }
         
         setUserDataConstraint(other._userDataConstraint);
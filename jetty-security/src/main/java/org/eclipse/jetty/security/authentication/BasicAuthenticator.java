@@ -19,6 +19,10 @@
 package org.eclipse.jetty.security.authentication;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -32,18 +36,121 @@ import org.eclipse.jetty.server.Authentication.User;
 import org.eclipse.jetty.server.UserIdentity;
 import org.eclipse.jetty.util.B64Code;
 import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.security.Constraint;
 
 /**
  * @version $Rev: 4793 $ $Date: 2009-03-19 00:00:01 +0100 (Thu, 19 Mar 2009) $
+ *
+ * Successfully verified credentials may be cached so that repeated requests with the
+ * same Authorization header do not call the {@link org.eclipse.jetty.security.LoginService}.
+ * The cache is keyed by a SHA-256 hash of the header, so clear text passwords are not retained.
+ * The cache time in ms and the maximum number of entries can be set with the
+ * {@link org.eclipse.jetty.security.SecurityHandler#setInitParameter(String, String)}
+ * using the names "credentialCacheTime" and "credentialCacheSize". A cache time
+ * of 0 (the default) disables the cache.
  */
 public class BasicAuthenticator extends LoginAuthenticator
 {
+    private static final Logger LOG = Log.getLogger(BasicAuthenticator.class);
+
+    private final ConcurrentMap<String, Verified> _verified = new ConcurrentHashMap<>();
+    private volatile long _credentialCacheTime;
+    private volatile int _credentialCacheSize=1024;
+
+    private static class Verified
+    {
+        final UserIdentity _user;
+        final long _expires;
+
+        Verified(UserIdentity user, long expires)
+        {
+            _user=user;
+            _expires=expires;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     public BasicAuthenticator()
     {
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @see org.eclipse.jetty.security.authentication.LoginAuthenticator#setConfiguration(org.eclipse.jetty.security.Authenticator.AuthConfiguration)
+     */
+    @Override
+    public void setConfiguration(AuthConfiguration configuration)
+    {
+        super.setConfiguration(configuration);
+        _verified.clear();
+
+        String time=configuration.getInitParameter("credentialCacheTime");
+        if (time!=null)
+            _credentialCacheTime=Long.valueOf(time);
+        String size=configuration.getInitParameter("credentialCacheSize");
+        if (size!=null)
+            _credentialCacheSize=Integer.valueOf(size);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the time in ms that verified credentials are cached, or 0 if not cached
+     */
+    public long getCredentialCacheTime()
+    {
+        return _credentialCacheTime;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param credentialCacheTime the time in ms that verified credentials are cached, or 0 to disable the cache
+     */
+    public void setCredentialCacheTime(long credentialCacheTime)
+    {
+        _credentialCacheTime=credentialCacheTime;
+        if (credentialCacheTime<=0)
+            _verified.clear();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of verified credentials cached
+     */
+    public int getCredentialCacheSize()
+    {
+        return _credentialCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param credentialCacheSize the maximum number of verified credentials cached
+     */
+    public void setCredentialCacheSize(int credentialCacheSize)
+    {
+        _credentialCacheSize=credentialCacheSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of verified credentials currently cached
+     */
+    public int getCachedCredentials()
+    {
+        return _verified.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Discard all cached credentials.
+     * Should be called if users or passwords are changed in the LoginService.
+     */
+    public void clearCredentialCache()
+    {
+        _verified.clear();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @see org.eclipse.jetty.security.Authenticator#getAuthMethod()
@@ -74,6 +181,21 @@ public class BasicAuthenticator extends LoginAuthenticator
 
             if (credentials != null)
             {
+                String key = _credentialCacheTime>0?cacheKey(credentials):null;
+                if (key!=null)
+                {
+                    Verified verified = _verified.get(key);
+                    if (verified!=null)
+                    {
+                        if (verified._expires-System.currentTimeMillis()>0)
+                        {
+                            renewSession(request,response);
+                            return new UserAuthentication(getAuthMethod(),verified._user);
+                        }
+                        _verified.remove(key,verified);
+                    }
+                }
+
                 int space=credentials.indexOf(' ');
                 if (space>0)
                 {
@@ -91,6 +213,8 @@ public class BasicAuthenticator extends LoginAuthenticator
                             UserIdentity user = login (username, password, request);
                             if (user!=null)
                             {
+                                if (key!=null)
+                                    cache(key,user);
                                 return new UserAuthentication(getAuthMethod(),user);
                             }
                         }
@@ -111,6 +235,41 @@ public class BasicAuthenticator extends LoginAuthenticator
         }
     }
 
+    /* ------------------------------------------------------------ */
+    private void cache(String key, UserIdentity user)
+    {
+        long now=System.currentTimeMillis();
+        if (_verified.size()>=_credentialCacheSize)
+        {
+            // Purge expired entries, then arbitrary entries if still full
+            for (Iterator<Verified> i=_verified.values().iterator();i.hasNext();)
+                if (i.next()._expires-now<=0)
+                    i.remove();
+            for (Iterator<Verified> i=_verified.values().iterator();i.hasNext() && _verified.size()>=_credentialCacheSize;)
+            {
+                i.next();
+                i.remove();
+            }
+        }
+        _verified.put(key,new Verified(user,now+_credentialCacheTime));
+    }
+
+    /* ------------------------------------------------------------ */
+    private static String cacheKey(String credentials)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return TypeUtil.toString(md.digest(credentials.getBytes(StringUtil.__ISO_8859_1)),16);
+        }
+        catch (Exception e)
+        {
+            LOG.ignore(e);
+            return null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
     @Override
     public boolean secureResponse(ServletRequest req, ServletResponse res, boolean mandatory, User validatedUser) throws ServerAuthException
     {
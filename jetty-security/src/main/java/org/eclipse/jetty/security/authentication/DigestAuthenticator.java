@@ -21,11 +21,14 @@ package org.eclipse.jetty.security.authentication;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -52,15 +55,20 @@ import org.eclipse.jetty.util.security.Credential;
  * @version $Rev: 4793 $ $Date: 2009-03-19 00:00:01 +0100 (Thu, 19 Mar 2009) $
  *
  * The nonce max age in ms can be set with the {@link SecurityHandler#setInitParameter(String, String)}
- * using the name "maxNonceAge"
+ * using the name "maxNonceAge".
+ * <p>
+ * Issued nonces are held in time buckets of {@link #NONCE_BUCKET_MS}, so that expiry discards
+ * whole buckets without locking or scanning the live nonces.
  */
 public class DigestAuthenticator extends LoginAuthenticator
 {
     private static final Logger LOG = Log.getLogger(DigestAuthenticator.class);
+    public static final long NONCE_BUCKET_MS = 1000;
     SecureRandom _random = new SecureRandom();
-    private long _maxNonceAgeMs = 60*1000;
-    private ConcurrentMap<String, Nonce> _nonceCount = new ConcurrentHashMap<String, Nonce>();
-    private Queue<Nonce> _nonceQueue = new ConcurrentLinkedQueue<Nonce>();
+    private volatile long _maxNonceAgeMs = 60*1000;
+    private final ConcurrentMap<String, Nonce> _nonceCount = new ConcurrentHashMap<String, Nonce>();
+    private final ConcurrentMap<Long, Queue<Nonce>> _nonceBuckets = new ConcurrentHashMap<Long, Queue<Nonce>>();
+    private final AtomicLong _purgedBucket = new AtomicLong(Long.MIN_VALUE);
     private static class Nonce
     {
         final String _nonce;
@@ -90,20 +98,30 @@ public class DigestAuthenticator extends LoginAuthenticator
 
         String mna=configuration.getInitParameter("maxNonceAge");
         if (mna!=null)
-        {
-            synchronized (this)
-            {
-                _maxNonceAgeMs=Long.valueOf(mna);
-            }
-        }
+            _maxNonceAgeMs=Long.valueOf(mna);
     }
 
     /* ------------------------------------------------------------ */
-    public synchronized void setMaxNonceAge(long maxNonceAgeInMillis)
+    public void setMaxNonceAge(long maxNonceAgeInMillis)
     {
         _maxNonceAgeMs = maxNonceAgeInMillis;
     }
 
+    /* ------------------------------------------------------------ */
+    public long getMaxNonceAge()
+    {
+        return _maxNonceAgeMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of issued nonces not yet expired
+     */
+    public int getNonces()
+    {
+        return _nonceCount.size();
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public String getAuthMethod()
@@ -240,7 +258,17 @@ public class DigestAuthenticator extends LoginAuthenticator
             nonce = new Nonce(new String(B64Code.encode(nounce)),request.getTimeStamp());
         }
         while (_nonceCount.putIfAbsent(nonce._nonce,nonce)!=null);
-        _nonceQueue.add(nonce);
+
+        Long bucket = nonce._ts/NONCE_BUCKET_MS;
+        Queue<Nonce> nonces = _nonceBuckets.get(bucket);
+        if (nonces==null)
+        {
+            nonces=new ConcurrentLinkedQueue<Nonce>();
+            Queue<Nonce> existing=_nonceBuckets.putIfAbsent(bucket,nonces);
+            if (existing!=null)
+                nonces=existing;
+        }
+        nonces.add(nonce);
 
         return nonce._nonce;
     }
@@ -254,25 +282,13 @@ public class DigestAuthenticator extends LoginAuthenticator
     private int checkNonce(Digest digest, Request request)
     {
         // firstly let's expire old nonces
-        long expired;
-        synchronized (this)
-        {
-            expired = request.getTimeStamp()-_maxNonceAgeMs;
-        }
-
-        Nonce nonce=_nonceQueue.peek();
-        while (nonce!=null && nonce._ts<expired)
-        {
-            _nonceQueue.remove(nonce);
-            _nonceCount.remove(nonce._nonce);
-            nonce=_nonceQueue.peek();
-        }
-
+        long expired = request.getTimeStamp()-_maxNonceAgeMs;
+        purgeNonces(expired);
 
         try
         {
-            nonce = _nonceCount.get(digest.nonce);
-            if (nonce==null)
+            Nonce nonce = _nonceCount.get(digest.nonce);
+            if (nonce==null || nonce._ts<expired)
                 return 0;
 
             long count = Long.parseLong(digest.nc,16);
@@ -293,6 +309,30 @@ public class DigestAuthenticator extends LoginAuthenticator
         return -1;
     }
 
+    /* ------------------------------------------------------------ */
+    /** Discard the buckets of nonces that are all older than the expiry time.
+     * Only one thread purges a given range of buckets; others skip straight to the lookup.
+     * @param expired the time before which nonces are expired
+     */
+    private void purgeNonces(long expired)
+    {
+        long expiredBucket = expired/NONCE_BUCKET_MS;
+        long purged = _purgedBucket.get();
+        if (expiredBucket<=purged || !_purgedBucket.compareAndSet(purged,expiredBucket))
+            return;
+
+        for (Iterator<Map.Entry<Long, Queue<Nonce>>> i=_nonceBuckets.entrySet().iterator();i.hasNext();)
+        {
+            Map.Entry<Long, Queue<Nonce>> entry = i.next();
+            if (entry.getKey()<expiredBucket)
+            {
+                i.remove();
+                for (Nonce nonce : entry.getValue())
+                    _nonceCount.remove(nonce._nonce,nonce);
+            }
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
@@ -0,0 +1,228 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.security;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.security.authentication.DigestAuthenticator;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.UserIdentity;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.B64Code;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.security.Constraint;
+import org.eclipse.jetty.util.security.Password;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class AuthenticatorCacheTest
+{
+    private static final String REALM = "TestRealm";
+    private final AtomicInteger _logins = new AtomicInteger();
+    private Server _server;
+    private LocalConnector _connector;
+    private ConstraintSecurityHandler _security;
+
+    @Before
+    public void init() throws Exception
+    {
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+
+        HashLoginService loginService = new HashLoginService(REALM)
+        {
+            @Override
+            public UserIdentity login(String username, Object credentials)
+            {
+                _logins.incrementAndGet();
+                return super.login(username,credentials);
+            }
+        };
+        loginService.putUser("user",new Password("password"),new String[]{"user"});
+
+        _security = new ConstraintSecurityHandler();
+        _security.setLoginService(loginService);
+        ConstraintMapping mapping = new ConstraintMapping();
+        mapping.setPathSpec("/*");
+        mapping.setConstraint(ConstraintSecurityHandler.createConstraint("auth",true,new String[]{"user"},Constraint.DC_NONE));
+        _security.setConstraintMappings(Collections.singletonList(mapping));
+        _security.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+                response.getWriter().println("user="+request.getRemoteUser());
+            }
+        });
+        _server.setHandler(_security);
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _server.stop();
+    }
+
+    private String basic(String credentials) throws Exception
+    {
+        return _connector.getResponses("GET /info HTTP/1.0\r\n" +
+                "Authorization: Basic " + B64Code.encode(credentials) + "\r\n" +
+                "\r\n");
+    }
+
+    @Test
+    public void testBasicCacheDisabled() throws Exception
+    {
+        _security.setAuthenticator(new BasicAuthenticator());
+        _server.start();
+
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertEquals(2,_logins.get());
+    }
+
+    @Test
+    public void testBasicCache() throws Exception
+    {
+        BasicAuthenticator authenticator = new BasicAuthenticator();
+        _security.setAuthenticator(authenticator);
+        _security.setInitParameter("credentialCacheTime","60000");
+        _security.setInitParameter("credentialCacheSize","2");
+        _server.start();
+
+        for (int i=0;i<5;i++)
+        {
+            String response = basic("user:password");
+            assertThat(response,startsWith("HTTP/1.1 200 OK"));
+            assertThat(response,containsString("user=user"));
+        }
+        assertEquals(1,_logins.get());
+        assertEquals(1,authenticator.getCachedCredentials());
+
+        // failures are not cached
+        assertThat(basic("user:wrong"),startsWith("HTTP/1.1 401 "));
+        assertThat(basic("user:wrong"),startsWith("HTTP/1.1 401 "));
+        assertEquals(3,_logins.get());
+        assertEquals(1,authenticator.getCachedCredentials());
+
+        // the cache is bounded
+        ((HashLoginService)_security.getLoginService()).putUser("other",new Password("secret"),new String[]{"user"});
+        ((HashLoginService)_security.getLoginService()).putUser("third",new Password("secret"),new String[]{"user"});
+        assertThat(basic("other:secret"),startsWith("HTTP/1.1 200 OK"));
+        assertThat(basic("third:secret"),startsWith("HTTP/1.1 200 OK"));
+        assertEquals(2,authenticator.getCachedCredentials());
+
+        authenticator.clearCredentialCache();
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertEquals(6,_logins.get());
+    }
+
+    @Test
+    public void testBasicCacheExpires() throws Exception
+    {
+        BasicAuthenticator authenticator = new BasicAuthenticator();
+        authenticator.setCredentialCacheTime(200);
+        _security.setAuthenticator(authenticator);
+        _server.start();
+
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertEquals(1,_logins.get());
+
+        Thread.sleep(300);
+        assertThat(basic("user:password"),startsWith("HTTP/1.1 200 OK"));
+        assertEquals(2,_logins.get());
+    }
+
+    private String digest(String nonce, String nc) throws Exception
+    {
+        String ha1 = md5("user:" + REALM + ":password");
+        String ha2 = md5("GET:/info");
+        String response = md5(ha1 + ":" + nonce + ":" + nc + ":cnonce:auth:" + ha2);
+        return _connector.getResponses("GET /info HTTP/1.0\r\n" +
+                "Authorization: Digest username=\"user\", realm=\"" + REALM + "\", nonce=\"" + nonce + "\", uri=\"/info\", " +
+                "algorithm=MD5, response=\"" + response + "\", qop=auth, nc=" + nc + ", cnonce=\"cnonce\"\r\n" +
+                "\r\n");
+    }
+
+    private String nonce(String response)
+    {
+        Matcher matcher = Pattern.compile("nonce=\"([^\"]*)\"").matcher(response);
+        matcher.find();
+        return matcher.group(1);
+    }
+
+    private static String md5(String value) throws Exception
+    {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        return TypeUtil.toString(md.digest(value.getBytes(StringUtil.__ISO_8859_1)),16);
+    }
+
+    @Test
+    public void testDigestNonces() throws Exception
+    {
+        DigestAuthenticator authenticator = new DigestAuthenticator();
+        authenticator.setMaxNonceAge(1);
+        _security.setAuthenticator(authenticator);
+        _server.start();
+
+        String response = _connector.getResponses("GET /info HTTP/1.0\r\n\r\n");
+        assertThat(response,startsWith("HTTP/1.1 401 "));
+        String nonce = nonce(response);
+        assertEquals(1,authenticator.getNonces());
+
+        // nonces older than the max age are stale, and are discarded a bucket at a time
+        Thread.sleep(2 * DigestAuthenticator.NONCE_BUCKET_MS + 100);
+        response = digest(nonce,"00000001");
+        assertThat(response,startsWith("HTTP/1.1 401 "));
+        assertThat(response,containsString("stale=true"));
+        assertEquals(1,authenticator.getNonces());
+
+        authenticator.setMaxNonceAge(60000);
+        nonce = nonce(response);
+        assertThat(digest(nonce,"00000001"),startsWith("HTTP/1.1 200 OK"));
+        assertThat(digest(nonce,"00000002"),startsWith("HTTP/1.1 200 OK"));
+
+        // a replayed nonce count is rejected
+        response = digest(nonce,"00000002");
+        assertThat(response,startsWith("HTTP/1.1 401 "));
+        assertThat(response,containsString("stale=false"));
+    }
+}
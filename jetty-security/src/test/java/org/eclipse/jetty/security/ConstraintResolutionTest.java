@@ -0,0 +1,177 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.security;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.security.authentication.BasicAuthenticator;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.security.Constraint;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ConstraintResolutionTest
+{
+    private static final int MAPPINGS = 500;
+    private ConstraintSecurityHandler _handler;
+
+    @Before
+    public void before() throws Exception
+    {
+        _handler = new ConstraintSecurityHandler();
+        _handler.setAuthenticator(new BasicAuthenticator());
+        _handler.setLoginService(new HashLoginService("test"));
+
+        List<ConstraintMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < MAPPINGS; i++)
+        {
+            ConstraintMapping get = new ConstraintMapping();
+            get.setPathSpec("/app" + i + "/*");
+            get.setMethod("GET");
+            get.setConstraint(ConstraintSecurityHandler.createConstraint("get" + i,true,new String[]{"role" + i % 10},Constraint.DC_NONE));
+            mappings.add(get);
+
+            ConstraintMapping others = new ConstraintMapping();
+            others.setPathSpec("/app" + i + "/*");
+            others.setMethodOmissions(new String[]{"GET"});
+            others.setConstraint(ConstraintSecurityHandler.createConstraint("others" + i,true,new String[]{"admin"},Constraint.DC_NONE));
+            mappings.add(others);
+
+            ConstraintMapping all = new ConstraintMapping();
+            all.setPathSpec("*.ext" + i);
+            all.setConstraint(ConstraintSecurityHandler.createConstraint("all" + i,true,new String[]{"role" + i % 10},Constraint.DC_CONFIDENTIAL));
+            mappings.add(all);
+        }
+        _handler.setConstraintMappings(mappings);
+        _handler.start();
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        _handler.stop();
+    }
+
+    private RoleInfo resolve(HttpMethod method, String path)
+    {
+        Request request = new Request(null,null);
+        request.setMethod(method,method.asString());
+        return _handler.prepareConstraintInfo(path,request);
+    }
+
+    @Test
+    public void testResolution() throws Exception
+    {
+        RoleInfo get = resolve(HttpMethod.GET,"/app42/index.html");
+        Assert.assertTrue(get.isChecked());
+        Assert.assertTrue(get.getRoles().contains("role2"));
+        Assert.assertFalse(get.getRoles().contains("admin"));
+
+        RoleInfo post = resolve(HttpMethod.POST,"/app42/index.html");
+        Assert.assertTrue(post.isChecked());
+        Assert.assertTrue(post.getRoles().contains("admin"));
+        Assert.assertFalse(post.getRoles().contains("role2"));
+
+        RoleInfo ext = resolve(HttpMethod.PUT,"/some/file.ext7");
+        Assert.assertTrue(ext.getRoles().contains("role7"));
+        Assert.assertEquals(UserDataConstraint.Confidential,ext.getUserDataConstraint());
+
+        Assert.assertNull(resolve(HttpMethod.GET,"/other/index.html"));
+    }
+
+    @Test
+    public void testResolvedOncePerMethod() throws Exception
+    {
+        RoleInfo post = resolve(HttpMethod.POST,"/app42/index.html");
+        Assert.assertSame(post,resolve(HttpMethod.POST,"/app42/other.html"));
+        Assert.assertSame(resolve(HttpMethod.PUT,"/app42/index.html"),resolve(HttpMethod.PUT,"/app42/other.html"));
+
+        // a new role invalidates resolved constraints
+        _handler.addRole("newrole");
+        RoleInfo again = resolve(HttpMethod.POST,"/app42/index.html");
+        Assert.assertEquals(post.getRoles(),again.getRoles());
+    }
+
+    @Test
+    public void testOtherMethods() throws Exception
+    {
+        // a request without a method or with an unknown method gets the constraints of unnamed methods
+        Request request = new Request(null,null);
+        RoleInfo none = _handler.prepareConstraintInfo("/app42/index.html",request);
+        Assert.assertTrue(none.getRoles().contains("admin"));
+
+        request.setMethod(null,"PROPFIND");
+        RoleInfo propfind = _handler.prepareConstraintInfo("/app42/index.html",request);
+        Assert.assertSame(none,propfind);
+        Assert.assertArrayEquals(new String[]{"admin"},propfind.getRoleArray());
+
+        // an unknown method named by an omission is resolved by name
+        ConstraintMapping omission = new ConstraintMapping();
+        omission.setPathSpec("/app42/*");
+        omission.setMethodOmissions(new String[]{"PROPFIND"});
+        omission.setConstraint(ConstraintSecurityHandler.createConstraint("propfind",true,new String[]{"dav"},Constraint.DC_NONE));
+        _handler.addConstraintMapping(omission);
+
+        propfind = _handler.prepareConstraintInfo("/app42/index.html",request);
+        Assert.assertTrue(propfind.getRoles().contains("admin"));
+        Assert.assertFalse(propfind.getRoles().contains("dav"));
+
+        request.setMethod(null,"MKCOL");
+        RoleInfo mkcol = _handler.prepareConstraintInfo("/app42/index.html",request);
+        Assert.assertTrue(mkcol.getRoles().contains("admin"));
+        Assert.assertTrue(mkcol.getRoles().contains("dav"));
+        Assert.assertEquals(2,mkcol.getRoleArray().length);
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkResolution() throws Exception
+    {
+        HttpMethod[] methods = {HttpMethod.GET,HttpMethod.POST,HttpMethod.PUT,HttpMethod.DELETE};
+        Request[] requests = new Request[methods.length];
+        for (int i = 0; i < methods.length; i++)
+        {
+            requests[i] = new Request(null,null);
+            requests[i].setMethod(methods[i],methods[i].asString());
+        }
+        String[] paths = new String[MAPPINGS];
+        for (int i = 0; i < MAPPINGS; i++)
+            paths[i] = "/app" + i + "/path/to/resource.html";
+
+        int iterations = 10_000_000;
+        for (int run = 0; run < 3; run++)
+        {
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++)
+            {
+                RoleInfo info = _handler.prepareConstraintInfo(paths[i % MAPPINGS],requests[i % requests.length]);
+                if (info == null)
+                    Assert.fail();
+            }
+            long end = System.nanoTime();
+            System.err.printf("%d mappings: %d ns/lookup%n",MAPPINGS * 3,(end - begin) / iterations);
+        }
+    }
+}
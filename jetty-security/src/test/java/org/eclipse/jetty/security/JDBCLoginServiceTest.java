@@ -0,0 +1,305 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.security;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.eclipse.jetty.server.UserIdentity;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JDBCLoginServiceTest
+{
+    private final AtomicInteger _connections = new AtomicInteger();
+    private volatile long _queryDelay;
+    private JDBCLoginService _loginService;
+
+    /**
+     * A DataSource with a user "alice" with password "secret" and role "user", 
+     * which counts the open connections.
+     */
+    private DataSource newDataSource()
+    {
+        return proxy(DataSource.class,new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if ("getConnection".equals(method.getName()))
+                {
+                    _connections.incrementAndGet();
+                    return newConnection();
+                }
+                return null;
+            }
+        });
+    }
+
+    private Connection newConnection()
+    {
+        return proxy(Connection.class,new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if ("prepareStatement".equals(method.getName()))
+                    return newStatement((String)args[0]);
+                if ("close".equals(method.getName()))
+                    _connections.decrementAndGet();
+                return null;
+            }
+        });
+    }
+
+    private PreparedStatement newStatement(final String sql)
+    {
+        final Object[] param = new Object[1];
+        return proxy(PreparedStatement.class,new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                switch (method.getName())
+                {
+                    case "setObject":
+                    case "setInt":
+                        param[0] = args[1];
+                        return null;
+                    case "executeQuery":
+                        Thread.sleep(_queryDelay);
+                        if (sql.contains("from users"))
+                            return newResultSet("alice".equals(param[0]),"id",1,"pwd","secret");
+                        return newResultSet(Integer.valueOf(1).equals(param[0]),"role","user");
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+
+    private ResultSet newResultSet(final boolean found, final Object... row)
+    {
+        return proxy(ResultSet.class,new InvocationHandler()
+        {
+            boolean _next = found;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if ("next".equals(method.getName()))
+                {
+                    boolean next = _next;
+                    _next = false;
+                    return next;
+                }
+                for (int i = 0; i < row.length; i += 2)
+                    if (row[i].equals(args[0]))
+                        return row[i + 1];
+                return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return (T)Proxy.newProxyInstance(JDBCLoginServiceTest.class.getClassLoader(),new Class[]{type},handler);
+    }
+
+    private JDBCLoginService newLoginService(int cacheTime) throws Exception
+    {
+        return newLoginService("cachetime=" + cacheTime + "\n");
+    }
+
+    private JDBCLoginService newLoginService(String cacheConfig) throws Exception
+    {
+        File dir = new File("target" + File.separator + "jdbc-login-service-test");
+        dir.mkdirs();
+        File config = new File(dir,"jdbcRealm.properties");
+        try (Writer writer = new FileWriter(config))
+        {
+            writer.write("usertable=users\nusertablekey=id\nusertableuserfield=username\nusertablepasswordfield=pwd\n" +
+                    "roletable=roles\nroletablekey=id\nroletablerolefield=role\n" +
+                    "userroletable=user_roles\nuserroletableuserkey=user_id\nuserroletablerolekey=role_id\n" +
+                    cacheConfig);
+        }
+
+        _loginService = new JDBCLoginService("test",config.getAbsolutePath());
+        _loginService.setDataSource(newDataSource());
+        _loginService.start();
+        return _loginService;
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        if (_loginService != null)
+            _loginService.stop();
+    }
+
+    @Test
+    public void testLogin() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService(300);
+
+        UserIdentity user = loginService.login("alice","secret");
+        Assert.assertNotNull(user);
+        Assert.assertTrue(user.isUserInRole("user",null));
+        Assert.assertNull(loginService.login("alice","wrong"));
+        Assert.assertEquals(1,loginService.getQueries());
+        Assert.assertEquals(0,_connections.get());
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService(300);
+
+        Assert.assertNull(loginService.login("nobody","secret"));
+        Assert.assertNull(loginService.login("nobody","secret"));
+        Assert.assertEquals(1,loginService.getQueries());
+    }
+
+    @Test
+    public void testCacheBounded() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService("cachetime=300\nmaxcachesize=10\n");
+
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        for (int i = 0; i < 100; i++)
+            Assert.assertNull(loginService.login("nobody" + i,"secret"));
+        Assert.assertTrue(loginService.getCacheSize() <= 10);
+
+        // unknown users are evicted before known users
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        Assert.assertEquals(101,loginService.getQueries());
+    }
+
+    @Test
+    public void testExpiredSwept() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService("cachetime=300\nnegativecachetime=1\n");
+
+        for (int i = 0; i < 10; i++)
+            Assert.assertNull(loginService.login("nobody" + i,"secret"));
+        Assert.assertEquals(10,loginService.getCacheSize());
+
+        Thread.sleep(1100);
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        Assert.assertEquals(1,loginService.getCacheSize());
+    }
+
+    @Test
+    public void testValidateCached() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService(300);
+
+        UserIdentity user = loginService.login("alice","secret");
+        Assert.assertNotNull(user);
+        for (int i = 0; i < 100; i++)
+            Assert.assertTrue(loginService.validate(user));
+        Assert.assertEquals(1,loginService.getQueries());
+    }
+
+    @Test
+    public void testNoCache() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService(0);
+
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        Assert.assertEquals(2,loginService.getQueries());
+    }
+
+    @Test
+    public void testConcurrentLoadsCoalesced() throws Exception
+    {
+        final JDBCLoginService loginService = newLoginService(300);
+        _queryDelay = 200;
+
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger logins = new AtomicInteger();
+        for (int i = 0; i < threads; i++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        if (loginService.login("alice","secret") != null)
+                            logins.incrementAndGet();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        Assert.assertTrue(done.await(10,TimeUnit.SECONDS));
+        Assert.assertEquals(threads,logins.get());
+        Assert.assertEquals(1,loginService.getQueries());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception
+    {
+        JDBCLoginService loginService = newLoginService(1);
+
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        Assert.assertEquals(1,loginService.getQueries());
+
+        // in the last quarter of the cache time, the cached user is used and reloaded in the background
+        Thread.sleep(800);
+        Assert.assertNotNull(loginService.login("alice","secret"));
+        long queries = loginService.getQueries();
+        for (int i = 0; queries < 2 && i < 100; i++)
+        {
+            Thread.sleep(10);
+            queries = loginService.getQueries();
+        }
+        Assert.assertEquals(2,queries);
+    }
+}
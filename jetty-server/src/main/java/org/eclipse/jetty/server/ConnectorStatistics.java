@@ -23,12 +23,14 @@ import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 @ManagedObject("Connector Statistics")
@@ -39,6 +41,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     private final SampleStatistic _messagesIn = new SampleStatistic();
     private final SampleStatistic _messagesOut = new SampleStatistic();
     private final SampleStatistic _connectionDurationStats = new SampleStatistic();
+    private final HistogramStatistic _connectionDurationHistogram = new HistogramStatistic();
 
     @Override
     public void onOpened(Connection connection)
@@ -89,6 +92,52 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         return _connectionDurationStats.getTotal();
     }
 
+    @ManagedAttribute("50th percentile of connection duration (in ms)")
+    public long getConnectionsDurationP50()
+    {
+        return _connectionDurationHistogram.getValueAtPercentile(50.0);
+    }
+
+    @ManagedAttribute("90th percentile of connection duration (in ms)")
+    public long getConnectionsDurationP90()
+    {
+        return _connectionDurationHistogram.getValueAtPercentile(90.0);
+    }
+
+    @ManagedAttribute("99th percentile of connection duration (in ms)")
+    public long getConnectionsDurationP99()
+    {
+        return _connectionDurationHistogram.getValueAtPercentile(99.0);
+    }
+
+    @ManagedAttribute("99.9th percentile of connection duration (in ms)")
+    public long getConnectionsDurationP999()
+    {
+        return _connectionDurationHistogram.getValueAtPercentile(99.9);
+    }
+
+    @ManagedAttribute("percentiles of connection duration in the last interval (in ms)")
+    public String getConnectionsDurationIntervalPercentiles()
+    {
+        return _connectionDurationHistogram.getIntervalSnapshot().toString();
+    }
+
+    public HistogramStatistic getConnectionsDurationHistogram()
+    {
+        return _connectionDurationHistogram;
+    }
+
+    @ManagedAttribute("interval in milliseconds of the interval percentiles")
+    public long getStatsInterval()
+    {
+        return _connectionDurationHistogram.getInterval();
+    }
+
+    public void setStatsInterval(long intervalMs)
+    {
+        _connectionDurationHistogram.setInterval(intervalMs);
+    }
+
     public int getConnectionsMessagesInMax()
     {
         return (int)_messagesIn.getMax();
@@ -148,6 +197,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
         _messagesOut.reset();
         _connectionStats.reset();
         _connectionDurationStats.reset();
+        _connectionDurationHistogram.reset();
     }
 
     public void connectionOpened()
@@ -175,6 +225,7 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
             _messagesOut.set(messagesOut);
             _connectionStats.decrement();
             _connectionDurationStats.set(duration);
+            _connectionDurationHistogram.set(duration);
         }
     }
 
@@ -190,6 +241,6 @@ public class ConnectorStatistics extends AbstractLifeCycle implements Dumpable,
     public void dump(Appendable out, String indent) throws IOException
     {
         ContainerLifeCycle.dumpObject(out,this);
-        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"in="+_messagesIn,"out="+_messagesOut}));
+        ContainerLifeCycle.dump(out,indent,Arrays.asList(new String[]{"connections="+_connectionStats,"duration="+_connectionDurationStats,"durations="+_connectionDurationHistogram,"in="+_messagesIn,"out="+_messagesOut}));
     }
 }
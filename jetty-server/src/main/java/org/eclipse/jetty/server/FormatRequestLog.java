@@ -0,0 +1,616 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.util.DateCache;
+import org.eclipse.jetty.util.RolloverFileOutputStream;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * A {@link RequestLog} that writes a line per request, as described by a format template.
+ * <p>
+ * The template is compiled once into a sequence of literal bytes and fields, and each line
+ * is encoded directly as UTF-8 into a reusable per thread byte buffer, which is written to
+ * the log with a single write. The fields are:
+ * <dl>
+ * <dt>%a</dt><dd>The remote address, or the X-Forwarded-For header if preferProxiedForAddress is set</dd>
+ * <dt>%v</dt><dd>The server name</dd>
+ * <dt>%u</dt><dd>The authenticated user</dd>
+ * <dt>%t</dt><dd>The request time, formatted with the log date format</dd>
+ * <dt>%{msec}t</dt><dd>The request time in milliseconds since the epoch</dd>
+ * <dt>%m</dt><dd>The request method</dd>
+ * <dt>%U</dt><dd>The request URI path</dd>
+ * <dt>%q</dt><dd>The request query string</dd>
+ * <dt>%H</dt><dd>The request protocol</dd>
+ * <dt>%r</dt><dd>The request line</dd>
+ * <dt>%s</dt><dd>The response status</dd>
+ * <dt>%b</dt><dd>The number of bytes of response content written</dd>
+ * <dt>%D</dt><dd>The time in ms from the request time until logging</dd>
+ * <dt>%{dispatch}D</dt><dd>The time in ms from the dispatch time until logging</dd>
+ * <dt>%{name}i</dt><dd>The named request header</dd>
+ * <dt>%{name}o</dt><dd>The named response header</dd>
+ * <dt>%{name}C</dt><dd>The named request cookie</dd>
+ * <dt>%%</dt><dd>A '%' character</dd>
+ * </dl>
+ * Missing values are written as '-'.
+ * <p>
+ * If json is set, text values (including %t and %r) are written as quoted and escaped JSON strings,
+ * numeric values as JSON numbers and missing values (and the status of async requests) as 
+ * <code>null</code>, so that every line is a valid JSON value. Double quotes around a field in the template are optional.
+ * See {@link #JSON_FORMAT}.
+ */
+@ManagedObject("Format template request log")
+public class FormatRequestLog extends AbstractRequestLog
+{
+    private static final Logger LOG = Log.getLogger(FormatRequestLog.class);
+
+    public final static String NCSA_FORMAT = "%a - %u [%t] \"%r\" %s %b";
+    public final static String EXTENDED_NCSA_FORMAT = NCSA_FORMAT + " \"%{Referer}i\" \"%{User-Agent}i\"";
+    public final static String JSON_FORMAT = 
+        "{\"remote\":\"%a\",\"user\":\"%u\",\"time\":%{msec}t,\"method\":\"%m\",\"uri\":\"%U\",\"query\":\"%q\","+
+        "\"protocol\":\"%H\",\"status\":%s,\"bytes\":%b,\"latency\":%D,\"dispatch\":%{dispatch}D,"+
+        "\"referer\":\"%{Referer}i\",\"agent\":\"%{User-Agent}i\"}";
+
+    private static final byte[] __dash = {'-'};
+    private static final byte[] __null = {'n','u','l','l'};
+    private static final byte[] __hex = {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
+    private static final byte[] __lineSeparator = StringUtil.getUtf8Bytes(StringUtil.__LINE_SEPARATOR);
+
+    private String _format = NCSA_FORMAT;
+    private boolean _json;
+
+    private transient Segment[] _segments;
+    private transient volatile DateBytes _dateBytes;
+    private final ThreadLocal<LineBuffer> _buffer = new ThreadLocal<LineBuffer>()
+    {
+        @Override
+        protected LineBuffer initialValue()
+        {
+            return new LineBuffer();
+        }
+    };
+
+    /* ------------------------------------------------------------ */
+    public FormatRequestLog()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param filename the file name for the request log, which may be in the 
+     * format expected by {@link RolloverFileOutputStream}
+     * @param format the format template
+     */
+    public FormatRequestLog(String filename, String format)
+    {
+        setFilename(filename);
+        setFormat(format);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param format the format template of a log line
+     */
+    public void setFormat(String format)
+    {
+        _format = format;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("the format template")
+    public String getFormat()
+    {
+        return _format;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param json true if values are written as JSON
+     */
+    public void setJson(boolean json)
+    {
+        _json = json;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("values are written as JSON")
+    public boolean isJson()
+    {
+        return _json;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        _segments = compile(_format,_json);
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStop() throws Exception
+    {
+        super.doStop();
+        _dateBytes = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void log(Request request, Response response)
+    {
+        try
+        {
+            if (isIgnored(request))
+                return;
+
+            LineBuffer buffer = _buffer.get();
+            buffer.reset();
+            long now = System.currentTimeMillis();
+            for (Segment segment : _segments)
+                segment.write(this,buffer,request,response,now);
+            buffer.append(__lineSeparator);
+
+            synchronized (this)
+            {
+                OutputStream out = getOutputStream();
+                if (out == null)
+                    return;
+                out.write(buffer._bytes,0,buffer._count);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warn(e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private byte[] formatDate(long time)
+    {
+        DateCache cache = getLogDateCache();
+        if (cache == null)
+            return null;
+
+        long seconds = time / 1000;
+        DateBytes date = _dateBytes;
+        if (date != null && date._seconds == seconds)
+            return date._bytes;
+
+        byte[] bytes = StringUtil.getUtf8Bytes(cache.format(time));
+        if (date == null || date._seconds < seconds)
+            _dateBytes = new DateBytes(seconds,bytes);
+        return bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compile a format template.
+     * @param format The template
+     * @param json True if the values are written as JSON
+     * @return The segments of the template
+     */
+    static Segment[] compile(String format, boolean json)
+    {
+        List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < format.length())
+        {
+            char c = format.charAt(i++);
+            if (c != '%')
+            {
+                literal.append(c);
+                continue;
+            }
+
+            if (i == format.length())
+                throw new IllegalArgumentException("Bad format: " + format);
+
+            String param = null;
+            c = format.charAt(i++);
+            if (c == '{')
+            {
+                int close = format.indexOf('}',i);
+                if (close < 0 || close + 1 >= format.length())
+                    throw new IllegalArgumentException("Bad format: " + format);
+                param = format.substring(i,close);
+                i = close + 1;
+                c = format.charAt(i++);
+            }
+
+            if (c == '%')
+            {
+                literal.append('%');
+                continue;
+            }
+
+            Field field = Field.valueOf(c,param,format);
+
+            // In JSON, the field writes its own quotes if it is a string
+            boolean quoted = json && literal.length() > 0 && literal.charAt(literal.length() - 1) == '"' && 
+                i < format.length() && format.charAt(i) == '"';
+            if (quoted)
+            {
+                literal.setLength(literal.length() - 1);
+                i++;
+            }
+
+            if (literal.length() > 0)
+                segments.add(new Segment(StringUtil.getUtf8Bytes(literal.toString())));
+            literal.setLength(0);
+            segments.add(new Segment(field,param,json));
+        }
+        if (literal.length() > 0)
+            segments.add(new Segment(StringUtil.getUtf8Bytes(literal.toString())));
+        return segments.toArray(new Segment[segments.size()]);
+    }
+
+    /* ------------------------------------------------------------ */
+    private enum Field
+    {
+        REMOTE_ADDR, SERVER_NAME, USER, TIME, TIME_MS, METHOD, URI, QUERY, PROTOCOL, REQUEST_LINE, 
+        STATUS, BYTES, LATENCY, DISPATCH_LATENCY, REQUEST_HEADER, RESPONSE_HEADER, COOKIE;
+
+        static Field valueOf(char c, String param, String format)
+        {
+            switch (c)
+            {
+                case 'a': return REMOTE_ADDR;
+                case 'v': return SERVER_NAME;
+                case 'u': return USER;
+                case 't': return "msec".equals(param) ? TIME_MS : TIME;
+                case 'm': return METHOD;
+                case 'U': return URI;
+                case 'q': return QUERY;
+                case 'H': return PROTOCOL;
+                case 'r': return REQUEST_LINE;
+                case 's': return STATUS;
+                case 'b': return BYTES;
+                case 'D': return "dispatch".equals(param) ? DISPATCH_LATENCY : LATENCY;
+                case 'i': 
+                case 'o':
+                case 'C':
+                    if (param == null)
+                        throw new IllegalArgumentException("Missing %{name}" + c + " in " + format);
+                    return c == 'i' ? REQUEST_HEADER : c == 'o' ? RESPONSE_HEADER : COOKIE;
+                default:
+                    throw new IllegalArgumentException("Unknown field %" + c + " in " + format);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** A compiled part of the template: either literal bytes or a field.
+     */
+    private static class Segment
+    {
+        final byte[] _literal;
+        final Field _field;
+        final String _param;
+        final boolean _json;
+
+        Segment(byte[] literal)
+        {
+            _literal = literal;
+            _field = null;
+            _param = null;
+            _json = false;
+        }
+
+        Segment(Field field, String param, boolean json)
+        {
+            _literal = null;
+            _field = field;
+            _param = param;
+            _json = json;
+        }
+
+        void write(FormatRequestLog log, LineBuffer buffer, Request request, Response response, long now)
+        {
+            if (_literal != null)
+            {
+                buffer.append(_literal);
+                return;
+            }
+
+            switch (_field)
+            {
+                case REMOTE_ADDR:
+                {
+                    String addr = null;
+                    if (log.getPreferProxiedForAddress())
+                        addr = request.getHeader(HttpHeader.X_FORWARDED_FOR.toString());
+                    if (addr == null)
+                        addr = request.getRemoteAddr();
+                    string(buffer,addr);
+                    break;
+                }
+                case SERVER_NAME:
+                    string(buffer,request.getServerName());
+                    break;
+                case USER:
+                {
+                    Authentication authentication = request.getAuthentication();
+                    if (authentication instanceof Authentication.User)
+                        string(buffer,((Authentication.User)authentication).getUserIdentity().getUserPrincipal().getName());
+                    else
+                        string(buffer,null);
+                    break;
+                }
+                case TIME:
+                {
+                    byte[] date = log.formatDate(request.getTimeStamp());
+                    if (date == null)
+                        number(buffer,request.getTimeStamp());
+                    else
+                    {
+                        if (_json)
+                            buffer.append((byte)'"');
+                        buffer.append(date);
+                        if (_json)
+                            buffer.append((byte)'"');
+                    }
+                    break;
+                }
+                case TIME_MS:
+                    number(buffer,request.getTimeStamp());
+                    break;
+                case METHOD:
+                    string(buffer,request.getMethod());
+                    break;
+                case URI:
+                    string(buffer,request.getRequestURI());
+                    break;
+                case QUERY:
+                    string(buffer,request.getQueryString());
+                    break;
+                case PROTOCOL:
+                    string(buffer,request.getProtocol());
+                    break;
+                case REQUEST_LINE:
+                    if (_json)
+                        buffer.append((byte)'"');
+                    buffer.append(request.getMethod(),_json);
+                    buffer.append((byte)' ');
+                    buffer.append(request.getUri()==null?null:request.getUri().toString(),_json);
+                    buffer.append((byte)' ');
+                    buffer.append(request.getProtocol(),_json);
+                    if (_json)
+                        buffer.append((byte)'"');
+                    break;
+                case STATUS:
+                    if (request.getHttpChannelState().isInitial())
+                    {
+                        int status = response.getStatus();
+                        number(buffer,status <= 0 ? 404 : status);
+                    }
+                    else if (_json)
+                        buffer.append(__null);
+                    else
+                        string(buffer,"Async");
+                    break;
+                case BYTES:
+                    number(buffer,response.getContentCount());
+                    break;
+                case LATENCY:
+                    number(buffer,now - request.getTimeStamp());
+                    break;
+                case DISPATCH_LATENCY:
+                {
+                    long dispatch = request.getDispatchTime();
+                    number(buffer,now - (dispatch == 0 ? request.getTimeStamp() : dispatch));
+                    break;
+                }
+                case REQUEST_HEADER:
+                    string(buffer,request.getHeader(_param));
+                    break;
+                case RESPONSE_HEADER:
+                    string(buffer,response.getHeader(_param));
+                    break;
+                case COOKIE:
+                {
+                    String value = null;
+                    Cookie[] cookies = request.getCookies();
+                    if (cookies != null)
+                    {
+                        for (Cookie cookie : cookies)
+                        {
+                            if (_param.equals(cookie.getName()))
+                            {
+                                value = cookie.getValue();
+                                break;
+                            }
+                        }
+                    }
+                    string(buffer,value);
+                    break;
+                }
+            }
+        }
+
+        private void string(LineBuffer buffer, String value)
+        {
+            if (value == null)
+                buffer.append(_json ? __null : __dash);
+            else
+            {
+                if (_json)
+                    buffer.append((byte)'"');
+                buffer.append(value,_json);
+                if (_json)
+                    buffer.append((byte)'"');
+            }
+        }
+
+        private void number(LineBuffer buffer, long value)
+        {
+            buffer.append(value);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class DateBytes
+    {
+        final long _seconds;
+        final byte[] _bytes;
+
+        DateBytes(long seconds, byte[] bytes)
+        {
+            _seconds = seconds;
+            _bytes = bytes;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** A reusable buffer into which a log line is encoded as UTF-8.
+     */
+    static class LineBuffer
+    {
+        byte[] _bytes = new byte[512];
+        int _count;
+
+        void reset()
+        {
+            _count = 0;
+        }
+
+        private void ensure(int space)
+        {
+            if (_count + space > _bytes.length)
+            {
+                byte[] bytes = new byte[Math.max(_bytes.length * 2,_count + space)];
+                System.arraycopy(_bytes,0,bytes,0,_count);
+                _bytes = bytes;
+            }
+        }
+
+        void append(byte b)
+        {
+            ensure(1);
+            _bytes[_count++] = b;
+        }
+
+        void append(byte[] b)
+        {
+            ensure(b.length);
+            System.arraycopy(b,0,_bytes,_count,b.length);
+            _count += b.length;
+        }
+
+        void append(long value)
+        {
+            if (value < 0)
+            {
+                append((byte)'-');
+                if (value == Long.MIN_VALUE)
+                {
+                    append(StringUtil.getUtf8Bytes("9223372036854775808"));
+                    return;
+                }
+                value = -value;
+            }
+            ensure(20);
+            int start = _count;
+            do
+            {
+                _bytes[_count++] = (byte)('0' + value % 10);
+                value /= 10;
+            }
+            while (value > 0);
+
+            // reverse the digits
+            for (int i = start, j = _count - 1; i < j; i++, j--)
+            {
+                byte b = _bytes[i];
+                _bytes[i] = _bytes[j];
+                _bytes[j] = b;
+            }
+        }
+
+        void append(String s, boolean json)
+        {
+            if (s == null)
+            {
+                append(__dash);
+                return;
+            }
+
+            int length = s.length();
+            ensure(length);
+            for (int i = 0; i < length; i++)
+            {
+                char c = s.charAt(i);
+                if (json && (c == '"' || c == '\\'))
+                {
+                    append((byte)'\\');
+                    append((byte)c);
+                }
+                else if (json && (c < 0x20 || Character.isSurrogate(c) && !isSurrogatePair(s,i)))
+                {
+                    // control characters and lone surrogates are escaped
+                    append((byte)'\\');
+                    append((byte)'u');
+                    append(__hex[c >> 12]);
+                    append(__hex[(c >> 8) & 0xF]);
+                    append(__hex[(c >> 4) & 0xF]);
+                    append(__hex[c & 0xF]);
+                }
+                else if (c < 0x80)
+                    append((byte)c);
+                else if (c < 0x800)
+                {
+                    append((byte)(0xC0 | (c >> 6)));
+                    append((byte)(0x80 | (c & 0x3F)));
+                }
+                else if (isSurrogatePair(s,i))
+                {
+                    int cp = Character.toCodePoint(c,s.charAt(++i));
+                    append((byte)(0xF0 | (cp >> 18)));
+                    append((byte)(0x80 | ((cp >> 12) & 0x3F)));
+                    append((byte)(0x80 | ((cp >> 6) & 0x3F)));
+                    append((byte)(0x80 | (cp & 0x3F)));
+                }
+                else
+                {
+                    append((byte)(0xE0 | (c >> 12)));
+                    append((byte)(0x80 | ((c >> 6) & 0x3F)));
+                    append((byte)(0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        private static boolean isSurrogatePair(String s, int i)
+        {
+            return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1));
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.server.handler.ErrorHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
@@ -89,6 +90,31 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
     private boolean _expect = false;
     private boolean _expect100Continue = false;
     private boolean _expect102Processing = false;
+    private final Runnable _transportCompleted = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _transport.completed();
+        }
+    };
+    private final Callback<Void> _completed = new Callback<Void>()
+    {
+        // The last content may have been written by the selector thread
+        @Override
+        public void completed(Void context)
+        {
+            execute(_transportCompleted);
+        }
+
+        @Override
+        public void failed(Void context, Throwable x)
+        {
+            LOG.debug(x);
+            getEndPoint().close();
+            execute(_transportCompleted);
+        }
+    };
 
     public HttpChannel(Connector connector, HttpConfiguration configuration, EndPoint endPoint, HttpTransport transport, HttpInput<T> input)
     {
@@ -99,6 +125,8 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
 
         _uri = new HttpURI(URIUtil.__CHARSET);
         _state = new HttpChannelState(this);
+        if (input != null)
+            input.init(_state);
         _request = new Request(this, input);
         _response = new Response(this, new HttpOutput(this));
     }
@@ -281,6 +309,7 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
 
             if (_state.isCompleting())
             {
+                boolean completing = false;
                 try
                 {
                     _state.completed();
@@ -288,8 +317,15 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
                     if (!_response.isCommitted() && !_request.isHandled())
                         _response.sendError(404);
 
-                    // Complete generating the response
-                    _response.complete();
+                    // Complete generating the response, without blocking if it is written by a WriteListener
+                    HttpOutput out = _response.getHttpOutput();
+                    if (out.isAsync())
+                    {
+                        completing = true;
+                        out.closeAsync(_completed);
+                    }
+                    else
+                        _response.complete();
 
                 }
                 catch(EofException e)
@@ -303,7 +339,8 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
                 finally
                 {
                     _request.setHandled(true);
-                    _transport.completed();
+                    if (!completing)
+                        _transport.completed();
                 }
             }
 
@@ -488,12 +525,12 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
 
             case HTTP_1_0:
                 if (getServer().getSendDateHeader())
-                    _response.getHttpFields().putDateField(HttpHeader.DATE.toString(), _request.getTimeStamp());
+                    _response.getHttpFields().putDateField(HttpHeader.DATE, _request.getTimeStamp());
                 break;
 
             case HTTP_1_1:
                 if (getServer().getSendDateHeader())
-                    _response.getHttpFields().putDateField(HttpHeader.DATE.toString(), _request.getTimeStamp());
+                    _response.getHttpFields().putDateField(HttpHeader.DATE, _request.getTimeStamp());
 
                 if (_expect)
                 {
@@ -622,6 +659,24 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
         }
     }
 
+    /**
+     * <p>Requests to write (in a non-blocking way) the given response content buffer,
+     * committing the response if needed.</p>
+     *
+     * @param content  the content buffer to write
+     * @param complete whether the content is complete for the response
+     * @param callback the callback notified when the content has been written or the write failed
+     */
+    protected void write(ByteBuffer content, boolean complete, Callback<Void> callback)
+    {
+        if (isCommitted())
+            _transport.send(null, content, complete, null, callback);
+        else if (_committed.compareAndSet(false, true))
+            _transport.send(_response.newResponseInfo(), content, complete, null, callback);
+        else
+            callback.failed(null, new IOException("Concurrent commit"));
+    }
+
     protected void execute(Runnable task)
     {
         _connector.getExecutor().execute(task);
@@ -615,6 +615,40 @@ public class HttpChannelState implements AsyncContext
         _channel.execute(_channel);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * <p>Runs a callback of a {@link ReadListener} or {@link WriteListener} of a suspended request.</p>
+     * <p>The callback is executed by a pooled thread in the scope of the suspended context.
+     * As the request is making progress, the async timeout is restarted.</p>
+     * @param callback the non-blocking I/O callback to run
+     */
+    protected void onIOPossible(final Runnable callback)
+    {
+        synchronized (this)
+        {
+            if (_state==State.ASYNCWAIT)
+            {
+                cancelTimeout();
+                scheduleTimeout();
+            }
+        }
+
+        final AsyncEventState event=_event;
+        final ServletContext context=event==null?null:event.getServletContext();
+        final ContextHandler handler=context instanceof Context?((Context)context).getContextHandler():null;
+        _channel.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (handler==null)
+                    callback.run();
+                else
+                    handler.handle(callback);
+            }
+        });
+    }
+
     /* ------------------------------------------------------------ */
     protected void scheduleTimeout()
     {
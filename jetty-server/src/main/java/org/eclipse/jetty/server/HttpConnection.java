@@ -41,6 +41,7 @@ import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 /**
  * <p>A {@link Connection} that handles the HTTP protocol.</p>
@@ -51,7 +52,27 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private static final Logger LOG = Log.getLogger(HttpConnection.class);
     private static final ThreadLocal<HttpConnection> __currentConnection = new ThreadLocal<>();
 
+    /**
+     * <p>The strategy used to execute a request once it has been parsed.</p>
+     */
+    public enum ExecutionStrategy
+    {
+        /**
+         * The selector thread fills and parses, then dispatches the request to the executor.
+         */
+        DISPATCH,
+        /**
+         * The fill is dispatched to the executor and the thread that fills and parses the
+         * request also handles it ("eat what you kill"). Once the request is handled, that
+         * thread fills again and handles any request already received, so that a busy
+         * connection is served without a thread handoff per request. Only when no more
+         * input is pending is the selector thread asked to produce again.
+         */
+        PRODUCE_CONSUME
+    }
+
     private final HttpConfiguration _config;
+    private final ExecutionStrategy _strategy;
     private final Connector _connector;
     private final ByteBufferPool _bufferPool;
     private final HttpGenerator _generator;
@@ -61,7 +82,12 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private volatile ByteBuffer _chunk = null;
     private BlockingCallback _readBlocker = new BlockingCallback();
     private BlockingCallback _writeBlocker = new BlockingCallback();
-    
+    private final Object _aggregateLock = new Object();
+    private volatile ByteBuffer _aggregate = null;
+    private boolean _pipelined;
+    private int _pipelineDepth;
+    private SampleStatistic _pipelineDepthStatistic;
+
     // TODO get rid of this
     private final Runnable _channelRunner = new Runnable()
     {
@@ -72,9 +98,17 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
             {
                 setCurrentConnection(HttpConnection.this);
                 _channel.run();
+
+                // Handle any pipelined requests already buffered in this thread
+                if (_pipelined)
+                {
+                    _pipelined=false;
+                    process(true);
+                }
             }
             finally
             {
+                flushAggregate();
                 setCurrentConnection(null);
             }
             
@@ -96,14 +130,35 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         return _config;
     }
 
+    public ExecutionStrategy getExecutionStrategy()
+    {
+        return _strategy;
+    }
+
+    /**
+     * @param statistic the statistic that records the number of requests handled from each
+     * run of pipelined requests found already buffered, or null
+     */
+    public void setPipelineDepthStatistic(SampleStatistic statistic)
+    {
+        _pipelineDepthStatistic = statistic;
+    }
+
     public HttpConnection(HttpConfiguration config, Connector connector, EndPoint endPoint)
     {
-        // Tell AbstractConnector executeOnFillable==false because we are guaranteeing that onfillable
+        this(config,connector,endPoint,ExecutionStrategy.DISPATCH);
+    }
+
+    public HttpConnection(HttpConfiguration config, Connector connector, EndPoint endPoint, ExecutionStrategy strategy)
+    {
+        // For DISPATCH, tell AbstractConnector executeOnFillable==false because we are guaranteeing that onfillable
         // will never block nor take an excessive amount of CPU.  ie it is OK for the selector thread to
         // be used.  In this case the thread that calls onfillable will be asked to do some IO and parsing.
-        super(endPoint, connector.getExecutor(),false);
+        // For PRODUCE_CONSUME, onfillable is executed because it goes on to handle the request.
+        super(endPoint, connector.getExecutor(),strategy==ExecutionStrategy.PRODUCE_CONSUME);
 
         _config = config;
+        _strategy = strategy;
         _connector = connector;
         _bufferPool = _connector.getByteBufferPool();
         _generator = new HttpGenerator(); // TODO: consider moving the generator to the transport, where it belongs
@@ -211,7 +266,19 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public void onFillable()
     {
-        LOG.debug("{} onFillable {}", this, _channel.getState());
+        process(_strategy==ExecutionStrategy.PRODUCE_CONSUME);
+    }
+
+    /**
+     * <p>Fills, parses and handles HTTP messages.</p>
+     * <p>If the calling thread may consume, it handles parsed requests itself and then continues
+     * with any pipelined requests already in the request buffer without a dispatch per request.
+     * Otherwise each parsed request is dispatched to the executor.</p>
+     * @param consume true if the calling thread may handle the requests it parses
+     */
+    private void process(boolean consume)
+    {
+        LOG.debug("{} process {}", this, _channel.getState());
 
         setCurrentConnection(this);
         try
@@ -276,7 +343,19 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                     // The parser returned true, which indicates the channel is ready to handle a request.
                     // Call the channel and this will either handle the request/response to completion OR,
                     // if the request suspends, the request/response will be incomplete so the outer loop will exit.
-                    getExecutor().execute(_channelRunner);
+                    // If this thread was dispatched to fill, it consumes what it has produced.
+                    if (consume)
+                    {
+                        _channel.run();
+                        // If completed() found another request already buffered, parse it now
+                        if (_pipelined)
+                        {
+                            _pipelined=false;
+                            continue;
+                        }
+                    }
+                    else
+                        getExecutor().execute(_channelRunner);
                     return;
                 }
             }
@@ -300,10 +379,24 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
         finally
         {
+            // The pipelined requests handled by this thread have ended
+            recordPipelineDepth();
+            flushAggregate();
             setCurrentConnection(null);
         }
     }
 
+    private void recordPipelineDepth()
+    {
+        if (_pipelineDepth>0)
+        {
+            SampleStatistic statistic=_pipelineDepthStatistic;
+            if (statistic!=null)
+                statistic.set(_pipelineDepth+1);
+            _pipelineDepth=0;
+        }
+    }
+
     @Override
     public void onOpen()
     {
@@ -314,7 +407,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public void run()
     {
-        onFillable();
+        // Executed for pipelined requests, so this thread may handle them itself
+        process(true);
     }
 
 
@@ -369,20 +463,20 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                     {
                         // we know there will not be a chunk, so write either header+content or just the header
                         if (BufferUtil.hasContent(content))
-                            blockingWrite(header, content);
+                            write(lastContent, header, content);
                         else
-                            blockingWrite(header);
+                            write(lastContent, header);
                     }
                     else if (BufferUtil.hasContent(chunk))
                     {
                         if (BufferUtil.hasContent(content))
-                            blockingWrite(chunk,content);
+                            write(lastContent, chunk, content);
                         else
-                            blockingWrite(chunk);
+                            write(lastContent, chunk);
                     }
                     else if (BufferUtil.hasContent(content))
                     {
-                        blockingWrite(content);
+                        write(lastContent, content);
                     }
                     continue;
                 }
@@ -414,14 +508,99 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public <C> void send(ResponseInfo info, ByteBuffer content, boolean lastContent, C context, Callback<C> callback)
     {
-        try
+        // If we are still expecting a 100 continues
+        if (_channel.isExpecting100Continue())
+            // then we can't be persistent
+            _generator.setPersistent(false);
+
+        // Responses held back while handling pipelined requests are written first
+        flushAggregate();
+
+        new SendCallback<>(info,content,lastContent,context,callback).iterate();
+    }
+
+    /**
+     * <p>Writes response bytes, aggregating the responses to pipelined requests.</p>
+     * <p>If the last write of a response is made while another request is already buffered and
+     * will be handled by this thread, the bytes are held in an aggregate buffer, so that the
+     * responses to all the buffered requests are written with a single gathering write.</p>
+     * <p>If the next request is suspended, the held bytes may be written either by this thread
+     * once it returns or by the thread that writes the next response, so the aggregate buffer
+     * is only accessed, and written, while holding the aggregate lock.</p>
+     * @param last true if this is the last write of the response
+     * @param bytes the bytes to write
+     */
+    private void write(boolean last, ByteBuffer... bytes) throws IOException
+    {
+        synchronized (_aggregateLock)
         {
-            send(info,content,lastContent);
-            callback.completed(context);
+            if (last && getCurrentConnection()==this && _generator.isPersistent() && BufferUtil.hasContent(_requestBuffer))
+            {
+                int length=0;
+                for (ByteBuffer b : bytes)
+                    length+=b.remaining();
+
+                if (_aggregate==null)
+                    _aggregate=_bufferPool.acquire(_config.getOutputBufferSize(),false);
+                if (BufferUtil.space(_aggregate)>=length)
+                {
+                    for (ByteBuffer b : bytes)
+                        BufferUtil.flipPutFlip(b,_aggregate);
+                    return;
+                }
+            }
+
+            if (BufferUtil.hasContent(_aggregate))
+            {
+                ByteBuffer[] gather = new ByteBuffer[bytes.length+1];
+                gather[0]=_aggregate;
+                System.arraycopy(bytes,0,gather,1,bytes.length);
+                bytes=gather;
+            }
+            try
+            {
+                blockingWrite(bytes);
+            }
+            finally
+            {
+                releaseAggregate();
+            }
         }
-        catch (IOException e)
+    }
+
+    /**
+     * <p>Writes any responses held back while handling pipelined requests.</p>
+     */
+    private void flushAggregate()
+    {
+        if (_aggregate==null)
+            return;
+
+        synchronized (_aggregateLock)
         {
-            callback.failed(context,e);
+            if (BufferUtil.hasContent(_aggregate))
+            {
+                try
+                {
+                    blockingWrite(_aggregate);
+                }
+                catch (IOException e)
+                {
+                    LOG.debug(e);
+                    getEndPoint().close();
+                }
+            }
+            releaseAggregate();
+        }
+    }
+
+    private void releaseAggregate()
+    {
+        if (_aggregate!=null)
+        {
+            ByteBuffer aggregate=_aggregate;
+            _aggregate=null;
+            _bufferPool.release(aggregate);
         }
     }
 
@@ -457,6 +636,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
             if (connection != null)
             {
                 LOG.debug("Upgrade from {} to {}", this, connection);
+                flushAggregate();
                 onClose();
                 getEndPoint().setConnection(connection);
                 connection.onOpen();
@@ -467,6 +647,18 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
 
         reset();
 
+        if (_parser.isStart() && (_requestBuffer != null || _strategy==ExecutionStrategy.PRODUCE_CONSUME) && getConnector().isStarted() && getCurrentConnection() == this)
+        {
+            // Another request is already buffered, or may already have been received, and this thread will handle it on return
+            LOG.debug("{} pipelined", this);
+            _pipelined=true;
+            if (_requestBuffer != null)
+                _pipelineDepth++;
+            return;
+        }
+
+        recordPipelineDepth();
+
         if (_parser.isStart())
         {
             // it wants to eat more
@@ -515,8 +707,252 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     }
 
 
+    /**
+     * <p>Generates and writes a response without blocking.</p>
+     * <p>Each flush is an endpoint write with this callback, which iterates the
+     * generator again once the write has completed.</p>
+     */
+    private class SendCallback<C> implements Callback<Void>
+    {
+        private final ResponseInfo _info;
+        private final ByteBuffer _content;
+        private final boolean _lastContent;
+        private final C _context;
+        private final Callback<C> _callback;
+        private ByteBuffer _header;
+
+        private SendCallback(ResponseInfo info, ByteBuffer content, boolean lastContent, C context, Callback<C> callback)
+        {
+            _info=info;
+            _content=content;
+            _lastContent=lastContent;
+            _context=context;
+            _callback=callback;
+        }
+
+        private void iterate()
+        {
+            try
+            {
+                ByteBuffer chunk = null;
+                while (true)
+                {
+                    HttpGenerator.Result result = _generator.generateResponse(_info, _header, chunk, _content, _lastContent);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("{} generate: {} ({},{},{})@{}",
+                                HttpConnection.this,
+                                result,
+                                BufferUtil.toSummaryString(_header),
+                                BufferUtil.toSummaryString(_content),
+                                _lastContent,
+                                _generator.getState());
+
+                    switch (result)
+                    {
+                        case NEED_HEADER:
+                        {
+                            _header = _bufferPool.acquire(_config.getResponseHeaderSize(), false);
+                            continue;
+                        }
+                        case NEED_CHUNK:
+                        {
+                            chunk = _chunk;
+                            if (chunk==null)
+                                chunk = _chunk = _bufferPool.acquire(HttpGenerator.CHUNK_SIZE, false);
+                            continue;
+                        }
+                        case FLUSH:
+                        {
+                            // Don't write the chunk or the content if this is a HEAD response
+                            if (_channel.getRequest().isHead())
+                            {
+                                BufferUtil.clear(chunk);
+                                BufferUtil.clear(_content);
+                            }
+
+                            ByteBuffer[] bytes;
+                            if (BufferUtil.hasContent(_header))
+                                bytes = BufferUtil.hasContent(_content)?new ByteBuffer[]{_header,_content}:new ByteBuffer[]{_header};
+                            else if (BufferUtil.hasContent(chunk))
+                                bytes = BufferUtil.hasContent(_content)?new ByteBuffer[]{chunk,_content}:new ByteBuffer[]{chunk};
+                            else if (BufferUtil.hasContent(_content))
+                                bytes = new ByteBuffer[]{_content};
+                            else
+                                continue;
+
+                            // Completion of the write iterates again
+                            getEndPoint().write(null, this, bytes);
+                            return;
+                        }
+                        case SHUTDOWN_OUT:
+                        {
+                            getEndPoint().shutdownOutput();
+                            continue;
+                        }
+                        case DONE:
+                        {
+                            releaseHeader();
+                            _callback.completed(_context);
+                            return;
+                        }
+                        case CONTINUE:
+                        {
+                            break;
+                        }
+                        default:
+                        {
+                            throw new IllegalStateException("generateResponse="+result);
+                        }
+                    }
+                }
+            }
+            catch (Throwable x)
+            {
+                failed(null, x);
+            }
+        }
+
+        private void releaseHeader()
+        {
+            ByteBuffer header=_header;
+            _header=null;
+            if (header!=null)
+                _bufferPool.release(header);
+        }
+
+        @Override
+        public void completed(Void context)
+        {
+            iterate();
+        }
+
+        @Override
+        public void failed(Void context, Throwable x)
+        {
+            releaseHeader();
+            _callback.failed(_context, x);
+        }
+    }
+
     private class Input extends ByteBufferHttpInput
     {
+        private boolean _fillPending;
+        private final Callback<Void> _readable = new Callback<Void>()
+        {
+            @Override
+            public void completed(Void context)
+            {
+                // Fill and parse in a pooled thread rather than in the selector
+                getExecutor().execute(_readableRunner);
+            }
+
+            @Override
+            public void failed(Void context, Throwable x)
+            {
+                LOG.debug(x);
+                synchronized (lock())
+                {
+                    _fillPending=false;
+                    lock().notifyAll();
+                }
+                earlyEOF();
+            }
+        };
+        private final Runnable _readableRunner = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fillAndParse();
+            }
+        };
+
+        @Override
+        protected void onReadUnready()
+        {
+            // Only parse content already buffered and register interest, as the caller is
+            // running the ReadListener and may not block
+            synchronized (lock())
+            {
+                if (_fillPending || parseBuffered())
+                    return;
+                _fillPending=true;
+            }
+            getEndPoint().fillInterested(null,_readable);
+        }
+
+        /**
+         * <p>Parses any buffered content, which queues it for a {@link ReadListener}.</p>
+         * <p>Called with the lock held.</p>
+         * @return true if the parser produced an event or the input is shutdown
+         */
+        private boolean parseBuffered()
+        {
+            // Can the parser progress (even with an empty buffer)
+            boolean event=_parser.parseNext(_requestBuffer==null?BufferUtil.EMPTY_BUFFER:_requestBuffer);
+            while (event && BufferUtil.hasContent(_requestBuffer) && _parser.inContentState())
+                _parser.parseNext(_requestBuffer);
+            if (event)
+                return true;
+
+            if (getEndPoint().isInputShutdown())
+            {
+                _parser.shutdownInput();
+                _parser.parseNext(BufferUtil.EMPTY_BUFFER);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * <p>Fills once the endpoint is readable and parses what is filled, so that content is
+         * queued for a {@link ReadListener}; if no bytes can be filled, fill interest is registered
+         * again.</p>
+         * <p>The fill is pending until this returns, so that no other thread fills meanwhile,
+         * but the lock is only held to parse.</p>
+         */
+        private void fillAndParse()
+        {
+            try
+            {
+                while (true)
+                {
+                    if (_requestBuffer==null)
+                        _requestBuffer=_bufferPool.acquire(getInputBufferSize(),false);
+
+                    int filled=getEndPoint().fill(_requestBuffer);
+                    LOG.debug("{} async filled {}",HttpConnection.this,filled);
+                    if (filled==0)
+                    {
+                        getEndPoint().fillInterested(null,_readable);
+                        return;
+                    }
+
+                    synchronized (lock())
+                    {
+                        if (filled<0)
+                            _parser.shutdownInput();
+                        if (parseBuffered())
+                        {
+                            _fillPending=false;
+                            lock().notifyAll();
+                            return;
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.debug(e);
+                synchronized (lock())
+                {
+                    _fillPending=false;
+                    lock().notifyAll();
+                }
+                earlyEOF();
+            }
+        }
+
         @Override
         protected void blockForContent() throws IOException
         {
@@ -551,6 +987,16 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
                             return;
                         }
 
+                        // Write any held responses before waiting for the client
+                        flushAggregate();
+
+                        // Wait for any fill registered for a ReadListener
+                        if (_fillPending)
+                        {
+                            lock().wait();
+                            continue;
+                        }
+
                         // Wait until we can read
                         getEndPoint().fillInterested(_readBlocker.getPhase(),_readBlocker);
                         LOG.debug("{} block readable on {}",this,_readBlocker);
@@ -23,11 +23,18 @@ package org.eclipse.jetty.server;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 
+@ManagedObject("HTTP Connection Factory")
 public class HttpConnectionFactory extends AbstractConnectionFactory implements HttpConfiguration.ConnectionFactory
 {
     private final HttpConfiguration _config;
+    private final SampleStatistic _pipelineDepth = new SampleStatistic();
+    private HttpConnection.ExecutionStrategy _executionStrategy = HttpConnection.ExecutionStrategy.DISPATCH;
 
     public HttpConnectionFactory()
     {
@@ -48,10 +55,70 @@ public class HttpConnectionFactory extends AbstractConnectionFactory implements
         return _config;
     }
 
+    /**
+     * @return the strategy used by new connections to execute parsed requests
+     */
+    public HttpConnection.ExecutionStrategy getExecutionStrategy()
+    {
+        return _executionStrategy;
+    }
+
+    /**
+     * @param executionStrategy the strategy used by new connections to execute parsed requests
+     */
+    public void setExecutionStrategy(HttpConnection.ExecutionStrategy executionStrategy)
+    {
+        _executionStrategy = executionStrategy;
+    }
+
+    /**
+     * @return the number of runs of pipelined requests that were handled from a single fill
+     */
+    @ManagedAttribute("number of runs of pipelined requests handled without a fill")
+    public long getPipelines()
+    {
+        return _pipelineDepth.getCount();
+    }
+
+    /**
+     * @return the total number of requests handled in runs of pipelined requests
+     */
+    @ManagedAttribute("number of requests handled in runs of pipelined requests")
+    public long getPipelinedRequests()
+    {
+        return _pipelineDepth.getTotal();
+    }
+
+    /**
+     * @return the maximum number of requests handled in a run of pipelined requests
+     */
+    @ManagedAttribute("maximum number of requests in a run of pipelined requests")
+    public long getPipelineDepthMax()
+    {
+        return _pipelineDepth.getMax();
+    }
+
+    /**
+     * @return the mean number of requests handled in a run of pipelined requests
+     */
+    @ManagedAttribute("mean number of requests in a run of pipelined requests")
+    public double getPipelineDepthMean()
+    {
+        return _pipelineDepth.getCount()==0?0.0:_pipelineDepth.getMean();
+    }
+
+    @ManagedOperation(value="resets pipeline statistics", impact="ACTION")
+    public void resetPipelineStatistics()
+    {
+        _pipelineDepth.reset();
+    }
+
     @Override
     public Connection newConnection(Connector connector, EndPoint endPoint)
     {
-        return configure(new HttpConnection(_config, connector, endPoint), connector, endPoint);
+        HttpConnection connection = new HttpConnection(_config, connector, endPoint, _executionStrategy);
+        connection.setPipelineDepthStatistic(_pipelineDepth);
+        return configure(connection, connector, endPoint);
     }
 
 }
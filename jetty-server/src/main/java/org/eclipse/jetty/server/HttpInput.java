@@ -38,14 +38,35 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>To assist the caller, subclasses may override methods {@link #onContentQueued(T)},
  * {@link #onContentConsumed(T)} and {@link #onAllContentConsumed()} that can be implemented so that the
  * caller will know when buffers are queued and consumed.</p>
+ * <p>An async request may read without blocking by setting a {@link ReadListener} with
+ * {@link #setReadListener(ReadListener)}, and reading only while {@link #isReady()} returns true.
+ * When {@link #isReady()} returns false, {@link #onReadUnready()} is called so that subclasses may
+ * arrange for more content to be produced without blocking, and the listener is called back when
+ * content is next queued.</p>
  */
 public abstract class HttpInput<T> extends ServletInputStream
 {
     private final static Logger LOG = Log.getLogger(HttpInput.class);
     private final ArrayQueue<T> _inputQ = new ArrayQueue<>();
+    private final Runnable _readCallback = new ReadCallback();
+    private HttpChannelState _channelState;
+    private ReadListener _listener;
+    private boolean _notReady;
+    private boolean _checkingReady;
+    private boolean _callingListener;
+    private boolean _callAgain;
+    private boolean _allDataRead;
     private boolean _earlyEOF;
     private boolean _inputEOF;
 
+    /**
+     * @param state the state of the channel used to run {@link ReadListener} callbacks
+     */
+    protected void init(HttpChannelState state)
+    {
+        _channelState = state;
+    }
+
     public Object lock()
     {
         return _inputQ.lock();
@@ -67,6 +88,12 @@ public abstract class HttpInput<T> extends ServletInputStream
             }
             _inputEOF = false;
             _earlyEOF = false;
+            _listener = null;
+            _notReady = false;
+            _checkingReady = false;
+            _callingListener = false;
+            _callAgain = false;
+            _allDataRead = false;
         }
     }
 
@@ -98,14 +125,7 @@ public abstract class HttpInput<T> extends ServletInputStream
         {
             while (item == null)
             {
-                item = _inputQ.peekUnsafe();
-                while (item != null && remaining(item) == 0)
-                {
-                    _inputQ.pollUnsafe();
-                    onContentConsumed(item);
-                    LOG.debug("{} consumed {}", this, item);
-                    item = _inputQ.peekUnsafe();
-                }
+                item = nextContent();
 
                 if (item == null)
                 {
@@ -121,12 +141,110 @@ public abstract class HttpInput<T> extends ServletInputStream
                         return -1;
                     }
 
+                    if (_listener != null)
+                        throw new IllegalStateException("!isReady()");
+
                     blockForContent();
                 }
             }
         }
         return get(item, b, off, len);
     }
+
+    /**
+     * @return the next item with remaining content, consuming any exhausted items, or null if none is queued
+     */
+    private T nextContent()
+    {
+        T item = _inputQ.peekUnsafe();
+        while (item != null && remaining(item) == 0)
+        {
+            _inputQ.pollUnsafe();
+            onContentConsumed(item);
+            LOG.debug("{} consumed {}", this, item);
+            item = _inputQ.peekUnsafe();
+        }
+        return item;
+    }
+
+    /**
+     * @return true if all the content has been read
+     */
+    public boolean isFinished()
+    {
+        synchronized (lock())
+        {
+            return nextContent() == null && (isShutdown() || isEarlyEOF());
+        }
+    }
+
+    /**
+     * <p>Tests whether a read can be made without blocking.</p>
+     * <p>If a {@link ReadListener} is set and no content is available, {@link #onReadUnready()} is
+     * called and the listener will be called back with {@link ReadListener#onDataAvailable()} once
+     * content is queued. Content queued during {@link #onReadUnready()} does not call back the
+     * listener, but is found by this method, which then returns true.</p>
+     * @return true if a call to read will not block
+     */
+    public boolean isReady()
+    {
+        synchronized (lock())
+        {
+            if (nextContent() != null || isShutdown() || isEarlyEOF())
+                return true;
+
+            if (_listener == null || _notReady)
+                return false;
+            _notReady = true;
+            _checkingReady = true;
+        }
+
+        boolean ready = false;
+        try
+        {
+            onReadUnready();
+        }
+        finally
+        {
+            synchronized (lock())
+            {
+                _checkingReady = false;
+                // Content may have been queued by onReadUnready or by another thread meanwhile
+                if (_notReady && (nextContent() != null || isShutdown() || isEarlyEOF()))
+                {
+                    _notReady = false;
+                    ready = true;
+                }
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * <p>Sets the listener that reads the content of an async request without blocking.</p>
+     * <p>The listener is called back with {@link ReadListener#onDataAvailable()} as soon as content
+     * is available.</p>
+     * @param listener the listener
+     * @throws IllegalStateException if the request is not async or a listener is already set
+     */
+    public void setReadListener(ReadListener listener)
+    {
+        if (listener == null)
+            throw new NullPointerException("listener");
+        if (_channelState == null || !_channelState.isAsync())
+            throw new IllegalStateException("!async");
+
+        synchronized (lock())
+        {
+            if (_listener != null)
+                throw new IllegalStateException("ReadListener already set");
+            _listener = listener;
+        }
+
+        if (isReady())
+            _channelState.onIOPossible(_readCallback);
+    }
+
     protected abstract int remaining(T item);
 
     protected abstract int get(T item, byte[] buffer, int offset, int length);
@@ -152,6 +270,35 @@ public abstract class HttpInput<T> extends ServletInputStream
         }
     }
 
+    /**
+     * <p>Called, without the lock held, when a {@link ReadListener} is waiting for content.</p>
+     * <p>Subclasses that produce content on demand may override this method to arrange for
+     * more content to be queued without blocking. Content queued before this method returns
+     * is returned to the listener by {@link #isReady()} rather than by a callback.</p>
+     */
+    protected void onReadUnready()
+    {
+    }
+
+    /**
+     * <p>Calls back the {@link ReadListener} if it is waiting for content.</p>
+     * <p>Called, with the lock held, when content is queued or the input is shutdown.</p>
+     * <p>The listener is not called back while {@link #isReady()} is checking for content, as
+     * it will find the content, nor while it is being called back, as it is called again
+     * once it returns.</p>
+     * @return true if the listener should be called back
+     */
+    private boolean onReadPossible()
+    {
+        if (_listener == null || !_notReady || _checkingReady)
+            return false;
+        _notReady = false;
+        if (!_callingListener)
+            return true;
+        _callAgain = true;
+        return false;
+    }
+
     protected void onContentQueued(T item)
     {
         lock().notify();
@@ -167,6 +314,7 @@ public abstract class HttpInput<T> extends ServletInputStream
 
     public boolean content(T item)
     {
+        boolean possible;
         synchronized (lock())
         {
             // The buffer is not copied here.  This relies on the caller not recycling the buffer
@@ -175,18 +323,25 @@ public abstract class HttpInput<T> extends ServletInputStream
             _inputQ.add(item);
             onContentQueued(item);
             LOG.debug("{} queued {}", this, item);
+            possible = onReadPossible();
         }
+        if (possible)
+            _channelState.onIOPossible(_readCallback);
         return true;
     }
 
     public void earlyEOF()
     {
+        boolean possible;
         synchronized (lock())
         {
             _earlyEOF = true;
             lock().notify();
             LOG.debug("{} early EOF", this);
+            possible = onReadPossible();
         }
+        if (possible)
+            _channelState.onIOPossible(_readCallback);
     }
 
     public boolean isEarlyEOF()
@@ -199,12 +354,16 @@ public abstract class HttpInput<T> extends ServletInputStream
 
     public void shutdown()
     {
+        boolean possible;
         synchronized (lock())
         {
             _inputEOF = true;
             lock().notify();
             LOG.debug("{} shutdown", this);
+            possible = onReadPossible();
         }
+        if (possible)
+            _channelState.onIOPossible(_readCallback);
     }
 
     public boolean isShutdown()
@@ -243,4 +402,77 @@ public abstract class HttpInput<T> extends ServletInputStream
             }
         }
     }
+
+    /**
+     * <p>Calls the {@link ReadListener} once content is available to read and once all the content
+     * has been read.</p>
+     * <p>The listener is called by one thread at a time: a callback while it is being called
+     * is made by that thread once the listener returns.</p>
+     */
+    private class ReadCallback implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            ReadListener listener;
+            synchronized (lock())
+            {
+                listener = _listener;
+                if (listener == null)
+                    return;
+                if (_callingListener)
+                {
+                    _callAgain = true;
+                    return;
+                }
+                _callingListener = true;
+            }
+
+            boolean again = true;
+            while (again)
+            {
+                call(listener);
+                synchronized (lock())
+                {
+                    again = _callAgain;
+                    _callAgain = false;
+                    if (!again)
+                        _callingListener = false;
+                }
+            }
+        }
+
+        private void call(ReadListener listener)
+        {
+            boolean available;
+            synchronized (lock())
+            {
+                available = nextContent() != null;
+            }
+
+            try
+            {
+                if (isEarlyEOF())
+                    throw new EofException("early EOF");
+
+                if (available)
+                    listener.onDataAvailable();
+
+                boolean allDataRead;
+                synchronized (lock())
+                {
+                    allDataRead = !_allDataRead && _listener == listener && nextContent() == null && isShutdown();
+                    if (allDataRead)
+                        _allDataRead = true;
+                }
+                if (allDataRead)
+                    listener.onAllDataRead();
+            }
+            catch (Throwable x)
+            {
+                LOG.debug(x);
+                listener.onError(x);
+            }
+        }
+    }
 }
@@ -33,6 +33,7 @@ import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -46,6 +47,11 @@ import org.eclipse.jetty.util.resource.Resource;
  * <p>{@link HttpOutput} can be closed and reopened, to allow requests included
  * via {@link RequestDispatcher#include(ServletRequest, ServletResponse)} to
  * close the stream, to be reopened after the inclusion ends.</p>
+ * <p>An async request may write without blocking by setting a {@link WriteListener} with
+ * {@link #setWriteListener(WriteListener)}, and writing only while {@link #isReady()} returns true.
+ * Content is then written with a callback, so that no thread waits for a slow client, and the
+ * listener is called back when the pending write has been flushed. The last content is written
+ * in the same way once all the content has been written or the response is completed.</p>
  */
 public class HttpOutput extends ServletOutputStream
 {
@@ -55,6 +61,14 @@ public class HttpOutput extends ServletOutputStream
     private long _written;
     private ByteBuffer _aggregate;
     private int _bufferSize;
+    private final Callback<Void> _writeCallback = new WriteCallback();
+    private final Runnable _writePossible = new WritePossible();
+    private WriteListener _writeListener;
+    private boolean _writePending;
+    private boolean _writeNotReady;
+    private ByteBuffer _writing;
+    private boolean _closing;
+    private Callback<Void> _closeCallback;
 
     public HttpOutput(HttpChannel<?> channel)
     {
@@ -78,6 +92,20 @@ public class HttpOutput extends ServletOutputStream
         _closed = false;
     }
 
+    public void recycle()
+    {
+        reset();
+        synchronized (this)
+        {
+            _writeListener = null;
+            _writePending = false;
+            _writeNotReady = false;
+            _writing = null;
+            _closing = false;
+            _closeCallback = null;
+        }
+    }
+
     public void reopen()
     {
         _closed = false;
@@ -86,6 +114,12 @@ public class HttpOutput extends ServletOutputStream
     @Override
     public void close() 
     {
+        if (isAsync())
+        {
+            closeAsync(null);
+            return;
+        }
+
         if (!_closed)
         {
             try
@@ -109,17 +143,74 @@ public class HttpOutput extends ServletOutputStream
         }
     }
 
+    /**
+     * <p>Closes the output of a response written by a {@link WriteListener} without blocking.</p>
+     * <p>The aggregated content is written as the last content of the response, once any pending
+     * write has completed, and the callback is then notified.</p>
+     * @param callback the callback notified when the last content has been written, or null
+     */
+    public void closeAsync(Callback<Void> callback)
+    {
+        ByteBuffer content = null;
+        synchronized (this)
+        {
+            _closing = true;
+            if (callback != null)
+                _closeCallback = callback;
+
+            // Continued when the pending write completes
+            if (_writePending)
+                return;
+
+            if (_closed)
+            {
+                callback = _closeCallback;
+                _closeCallback = null;
+            }
+            else
+            {
+                _closed = true;
+                content = _aggregate == null ? BufferUtil.EMPTY_BUFFER : _aggregate;
+                _aggregate = null;
+                _writing = content;
+                _writePending = true;
+            }
+        }
+
+        if (content != null)
+            _channel.write(content, !_channel.getResponse().isIncluding(), _writeCallback);
+        else if (callback != null)
+            callback.completed(null);
+    }
+
     public boolean isClosed()
     {
         return _closed;
     }
 
+    /**
+     * @return true if the content is written by a {@link WriteListener}
+     */
+    public boolean isAsync()
+    {
+        synchronized (this)
+        {
+            return _writeListener != null;
+        }
+    }
+
     @Override
     public void flush() throws IOException
     {
         if (_closed)
             throw new EofException();
 
+        if (_writeListener != null)
+        {
+            writeAsync(null, 0, 0);
+            return;
+        }
+
         if (BufferUtil.hasContent(_aggregate))
             _channel.write(_aggregate, false);
         else
@@ -137,6 +228,12 @@ public class HttpOutput extends ServletOutputStream
         if (_closed)
             throw new EOFException();
 
+        if (_writeListener != null)
+        {
+            writeAsync(b, off, len);
+            return;
+        }
+
         // Do we have an aggregate buffer already ?
         if (_aggregate == null)
         {
@@ -192,6 +289,12 @@ public class HttpOutput extends ServletOutputStream
         if (_closed)
             throw new EOFException();
 
+        if (_writeListener != null)
+        {
+            writeAsync(new byte[]{(byte)b}, 0, 1);
+            return;
+        }
+
         if (_aggregate == null)
             _aggregate = _channel.getByteBufferPool().acquire(getBufferSize(), false);
         
@@ -203,6 +306,103 @@ public class HttpOutput extends ServletOutputStream
             _channel.write(_aggregate, false);
     }
 
+    /**
+     * <p>Writes without blocking, for a {@link WriteListener}.</p>
+     * <p>Content is aggregated into a pooled buffer, which is written when it is full or flushed.
+     * The passed bytes are copied, as the caller may reuse its array as soon as this method returns,
+     * and if they do not fit in the aggregate buffer, it is written as it is and the bytes are
+     * aggregated into another pooled buffer. Once all the content has been written, the aggregated
+     * content is written as the last content of the response.</p>
+     * @param b the bytes to write, or null to flush the aggregated content
+     * @param off the offset of the bytes
+     * @param len the number of bytes
+     * @throws IllegalStateException if a previous write is still pending
+     */
+    private void writeAsync(byte[] b, int off, int len)
+    {
+        ByteBuffer content = null;
+        boolean complete = false;
+        synchronized (this)
+        {
+            if (_writePending)
+                throw new IllegalStateException("!isReady()");
+
+            if (b != null)
+            {
+                _written += len;
+                if (_aggregate != null && len > BufferUtil.space(_aggregate))
+                {
+                    content = _aggregate;
+                    _aggregate = null;
+                }
+                if (_aggregate == null)
+                    _aggregate = _channel.getByteBufferPool().acquire(Math.max(getBufferSize(), len), false);
+                BufferUtil.append(_aggregate, b, off, len);
+
+                // The last content is written once all the content has been written
+                if (_channel.getResponse().isAllContentWritten(_written))
+                    _closing = true;
+            }
+
+            if (content == null)
+            {
+                if (_closing)
+                {
+                    _closed = true;
+                    complete = !_channel.getResponse().isIncluding();
+                }
+                else if (b != null ? !BufferUtil.isFull(_aggregate) : BufferUtil.isEmpty(_aggregate))
+                    return;
+                content = _aggregate == null ? BufferUtil.EMPTY_BUFFER : _aggregate;
+                _aggregate = null;
+            }
+
+            _writing = content;
+            _writePending = true;
+        }
+        _channel.write(content, complete, _writeCallback);
+    }
+
+    /**
+     * <p>Tests whether a write can be made without blocking.</p>
+     * <p>If a write is pending, the {@link WriteListener} will be called back with
+     * {@link WriteListener#onWritePossible()} once it has been flushed.</p>
+     * @return true if a call to write will not block
+     */
+    public boolean isReady()
+    {
+        synchronized (this)
+        {
+            if (!_writePending)
+                return true;
+            _writeNotReady = true;
+            return false;
+        }
+    }
+
+    /**
+     * <p>Sets the listener that writes the content of an async response without blocking.</p>
+     * <p>The listener is called back with {@link WriteListener#onWritePossible()} as soon as possible.</p>
+     * @param listener the listener
+     * @throws IllegalStateException if the request is not async or a listener is already set
+     */
+    public void setWriteListener(WriteListener listener)
+    {
+        if (listener == null)
+            throw new NullPointerException("listener");
+        if (!_channel.getState().isAsync())
+            throw new IllegalStateException("!async");
+
+        synchronized (this)
+        {
+            if (_writeListener != null)
+                throw new IllegalStateException("WriteListener already set");
+            _writeListener = listener;
+        }
+
+        _channel.getState().onIOPossible(_writePossible);
+    }
+
     @Override
     public void print(String s) throws IOException
     {
@@ -324,4 +524,90 @@ public class HttpOutput extends ServletOutputStream
         if (BufferUtil.hasContent(_aggregate))
             BufferUtil.clear(_aggregate);
     }
+
+    private class WriteCallback implements Callback<Void>
+    {
+        @Override
+        public void completed(Void context)
+        {
+            boolean closing;
+            boolean possible;
+            synchronized (HttpOutput.this)
+            {
+                release();
+                closing = _closing;
+                possible = _writeNotReady;
+                _writeNotReady = false;
+            }
+
+            // Write the last content, or notify that it has been written
+            if (closing)
+                closeAsync(null);
+            if (possible)
+                _channel.getState().onIOPossible(_writePossible);
+        }
+
+        @Override
+        public void failed(Void context, final Throwable x)
+        {
+            final WriteListener listener;
+            final Callback<Void> callback;
+            synchronized (HttpOutput.this)
+            {
+                release();
+                _writeNotReady = false;
+                _closed = true;
+                listener = _writeListener;
+                callback = _closeCallback;
+                _closeCallback = null;
+            }
+            LOG.debug(x);
+            if (listener != null)
+            {
+                _channel.getState().onIOPossible(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        listener.onError(x);
+                    }
+                });
+            }
+            if (callback != null)
+                callback.failed(null, x);
+        }
+
+        private void release()
+        {
+            if (_writing != null && _writing != BufferUtil.EMPTY_BUFFER)
+                _channel.getByteBufferPool().release(_writing);
+            _writing = null;
+            _writePending = false;
+        }
+    }
+
+    private class WritePossible implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            WriteListener listener;
+            synchronized (HttpOutput.this)
+            {
+                listener = _writeListener;
+            }
+            if (listener == null)
+                return;
+
+            try
+            {
+                listener.onWritePossible();
+            }
+            catch (Throwable x)
+            {
+                LOG.debug(x);
+                listener.onError(x);
+            }
+        }
+    }
 }
@@ -18,23 +18,24 @@
 
 package org.eclipse.jetty.server;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Locale;
-import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.http.Cookie;
 
 import org.eclipse.jetty.http.HttpHeader;
-import org.eclipse.jetty.http.PathMap;
 import org.eclipse.jetty.util.DateCache;
+import org.eclipse.jetty.util.RingBuffer;
 import org.eclipse.jetty.util.RolloverFileOutputStream;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
-import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -45,38 +46,48 @@ import org.eclipse.jetty.util.log.Logger;
  * Format (single log format). This log format can be output by most web
  * servers, and almost all web log analysis software can understand these
  * formats.
- *
+ * <p>
+ * If async is set, the formatted log lines are handed off to a lock free {@link RingBuffer} 
+ * and written in batches by a single writer thread, which flushes the log after each batch 
+ * or at least every flush interval. If the ring is full, the {@link OverflowPolicy} determines 
+ * whether the request thread waits or the line is dropped.
  */
 
 /* ------------------------------------------------------------ */
 /**
  */
 @ManagedObject("NCSA standard format request log")
-public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
+public class NCSARequestLog extends AbstractRequestLog
 {
     private static final Logger LOG = Log.getLogger(NCSARequestLog.class);
 
-    private String _filename;
+    /* ------------------------------------------------------------ */
+    /** The action taken by an async log when its ring buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /** The request thread waits for space in the ring buffer */
+        BLOCK, 
+        /** The log line is discarded and counted */
+        DROP 
+    }
+
     private boolean _extended;
-    private boolean _append;
-    private int _retainDays;
-    private boolean _closeOut;
-    private boolean _preferProxiedForAddress;
-    private String _logDateFormat = "dd/MMM/yyyy:HH:mm:ss Z";
-    private String _filenameDateFormat = null;
-    private Locale _logLocale = Locale.getDefault();
-    private String _logTimeZone = "GMT";
-    private String[] _ignorePaths;
     private boolean _logLatency = false;
     private boolean _logCookies = false;
     private boolean _logServer = false;
     private boolean _logDispatch = false;
+    private boolean _async = false;
+    private int _queueSize = 8192;
+    private long _flushInterval = 200;
+    private OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _blocked = new AtomicLong();
+    private final AtomicLong _batches = new AtomicLong();
 
-    private transient OutputStream _out;
-    private transient OutputStream _fileOut;
-    private transient DateCache _logDateCache;
-    private transient PathMap _ignorePathMap;
     private transient Writer _writer;
+    private transient RingBuffer<String> _ring;
+    private transient Thread _asyncWriter;
 
     /* ------------------------------------------------------------ */
     /**
@@ -85,8 +96,6 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     public NCSARequestLog()
     {
         _extended = true;
-        _append = true;
-        _retainDays = 31;
     }
 
     /* ------------------------------------------------------------ */
@@ -100,356 +109,234 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     public NCSARequestLog(String filename)
     {
         _extended = true;
-        _append = true;
-        _retainDays = 31;
         setFilename(filename);
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set the output file name of the request log.
-     * The file name may be in the format expected by
-     * {@link RolloverFileOutputStream}.
-     *
-     * @param filename file name of the request log
-     *
-     */
-    public void setFilename(String filename)
-    {
-        if (filename != null)
-        {
-            filename = filename.trim();
-            if (filename.length() == 0)
-                filename = null;
-        }
-        _filename = filename;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Retrieve the output file name of the request log.
-     *
-     * @return file name of the request log
-     */
-    @ManagedAttribute("file of log")
-    public String getFilename()
-    {
-        return _filename;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Retrieve the file name of the request log with the expanded
-     * date wildcard if the output is written to the disk using
-     * {@link RolloverFileOutputStream}.
-     *
-     * @return file name of the request log, or null if not applicable
-     */
-    public String getDatedFilename()
-    {
-        if (_fileOut instanceof RolloverFileOutputStream)
-            return ((RolloverFileOutputStream)_fileOut).getDatedFilename();
-        return null;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Set the timestamp format for request log entries in the file.
-     * If this is not set, the pre-formated request timestamp is used.
-     *
-     * @param format timestamp format string
-     */
-    public void setLogDateFormat(String format)
-    {
-        _logDateFormat = format;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Retrieve the timestamp format string for request log entries.
-     *
-     * @return timestamp format string.
-     */
-    public String getLogDateFormat()
-    {
-        return _logDateFormat;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Set the locale of the request log.
+     * Set the extended request log format flag.
      *
-     * @param logLocale locale object
+     * @param extended true - log the extended request information,
+     *                 false - do not log the extended request information
      */
-    public void setLogLocale(Locale logLocale)
+    public void setExtended(boolean extended)
     {
-        _logLocale = logLocale;
+        _extended = extended;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve the locale of the request log.
+     * Retrieve the extended request log format flag.
      *
-     * @return locale object
+     * @return value of the flag
      */
-    public Locale getLogLocale()
+    @ManagedAttribute("use extended NCSA format")
+    public boolean isExtended()
     {
-        return _logLocale;
+        return _extended;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set the timezone of the request log.
+     * Controls logging of the request cookies.
      *
-     * @param tz timezone string
+     * @param logCookies true - values of request cookies will be logged,
+     *                   false - values of request cookies will not be logged
      */
-    public void setLogTimeZone(String tz)
+    public void setLogCookies(boolean logCookies)
     {
-        _logTimeZone = tz;
+        _logCookies = logCookies;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve the timezone of the request log.
+     * Retrieve log cookies flag
      *
-     * @return timezone string
+     * @return value of the flag
      */
-    @ManagedAttribute("the timezone")
-    public String getLogTimeZone()
+    public boolean getLogCookies()
     {
-        return _logTimeZone;
+        return _logCookies;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set the number of days before rotated log files are deleted.
+     * Controls logging of the request hostname.
      *
-     * @param retainDays number of days to keep a log file
+     * @param logServer true - request hostname will be logged,
+     *                  false - request hostname will not be logged
      */
-    public void setRetainDays(int retainDays)
+    public void setLogServer(boolean logServer)
     {
-        _retainDays = retainDays;
+        _logServer = logServer;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve the number of days before rotated log files are deleted.
+     * Retrieve log hostname flag.
      *
-     * @return number of days to keep a log file
+     * @return value of the flag
      */
-    @ManagedAttribute("number of days that log files are kept")
-    public int getRetainDays()
+    public boolean getLogServer()
     {
-        return _retainDays;
+        return _logServer;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set the extended request log format flag.
+     * Controls logging of request processing time.
      *
-     * @param extended true - log the extended request information,
-     *                 false - do not log the extended request information
+     * @param logLatency true - request processing time will be logged
+     *                   false - request processing time will not be logged
      */
-    public void setExtended(boolean extended)
+    public void setLogLatency(boolean logLatency)
     {
-        _extended = extended;
+        _logLatency = logLatency;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve the extended request log format flag.
+     * Retrieve log request processing time flag.
      *
      * @return value of the flag
      */
-    @ManagedAttribute("use extended NCSA format")
-    public boolean isExtended()
+    public boolean getLogLatency()
     {
-        return _extended;
+        return _logLatency;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set append to log flag.
+     * Controls logging of the request dispatch time
      *
-     * @param append true - request log file will be appended after restart,
-     *               false - request log file will be overwritten after restart
+     * @param value true - request dispatch time will be logged
+     *              false - request dispatch time will not be logged
      */
-    public void setAppend(boolean append)
+    public void setLogDispatch(boolean value)
     {
-        _append = append;
+        _logDispatch = value;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve append to log flag.
+     * Retrieve request dispatch time logging flag
      *
      * @return value of the flag
      */
-    @ManagedAttribute("existing log files are appends to the new one")
-    public boolean isAppend()
+    public boolean isLogDispatch()
     {
-        return _append;
+        return _logDispatch;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Set request paths that will not be logged.
+     * Controls whether log lines are written by a separate writer thread.
      *
-     * @param ignorePaths array of request paths
+     * @param async true - log lines are queued and written in batches by a writer thread,
+     *              false - log lines are written and flushed by the request thread
      */
-    public void setIgnorePaths(String[] ignorePaths)
+    public void setAsync(boolean async)
     {
-        _ignorePaths = ignorePaths;
+        _async = async;
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Retrieve the request paths that will not be logged.
-     *
-     * @return array of request paths
-     */
-    public String[] getIgnorePaths()
+    @ManagedAttribute("log lines are written asynchronously")
+    public boolean isAsync()
     {
-        return _ignorePaths;
+        return _async;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Controls logging of the request cookies.
+     * Set the capacity of the async ring buffer.
      *
-     * @param logCookies true - values of request cookies will be logged,
-     *                   false - values of request cookies will not be logged
+     * @param queueSize the number of log lines that may be queued, rounded up to a power of 2
      */
-    public void setLogCookies(boolean logCookies)
+    public void setQueueSize(int queueSize)
     {
-        _logCookies = logCookies;
+        _queueSize = queueSize;
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Retrieve log cookies flag
-     *
-     * @return value of the flag
-     */
-    public boolean getLogCookies()
-    {
-        return _logCookies;
-    }
-
-    /* ------------------------------------------------------------ */
-    /**
-     * Controls logging of the request hostname.
-     *
-     * @param logServer true - request hostname will be logged,
-     *                  false - request hostname will not be logged
-     */
-    public void setLogServer(boolean logServer)
+    @ManagedAttribute("capacity of the async log ring buffer")
+    public int getQueueSize()
     {
-        _logServer = logServer;
+        return _queueSize;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve log hostname flag.
+     * Set the maximum time that an async log line is held before it is written.
      *
-     * @return value of the flag
+     * @param ms the interval in ms at which the async writer writes and flushes queued log lines
      */
-    public boolean getLogServer()
+    public void setFlushInterval(long ms)
     {
-        return _logServer;
+        _flushInterval = ms;
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Controls logging of request processing time.
-     *
-     * @param logLatency true - request processing time will be logged
-     *                   false - request processing time will not be logged
-     */
-    public void setLogLatency(boolean logLatency)
+    @ManagedAttribute("interval in ms at which async log lines are flushed")
+    public long getFlushInterval()
     {
-        _logLatency = logLatency;
+        return _flushInterval;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Retrieve log request processing time flag.
+     * Set the action taken when the async ring buffer is full.
      *
-     * @return value of the flag
+     * @param policy BLOCK to wait for space, or DROP to discard the log line
      */
-    public boolean getLogLatency()
+    public void setOverflowPolicy(OverflowPolicy policy)
     {
-        return _logLatency;
+        _overflowPolicy = policy;
     }
 
     /* ------------------------------------------------------------ */
     /**
-     * Controls whether the actual IP address of the connection or
-     * the IP address from the X-Forwarded-For header will be logged.
-     *
-     * @param preferProxiedForAddress true - IP address from header will be logged,
-     *                                false - IP address from the connection will be logged
+     * @param policy the name of the {@link OverflowPolicy}
      */
-    public void setPreferProxiedForAddress(boolean preferProxiedForAddress)
+    public void setOverflowPolicy(String policy)
     {
-        _preferProxiedForAddress = preferProxiedForAddress;
+        _overflowPolicy = OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Retrieved log X-Forwarded-For IP address flag.
-     *
-     * @return value of the flag
-     */
-    public boolean getPreferProxiedForAddress()
+    @ManagedAttribute("action taken when the async ring buffer is full")
+    public OverflowPolicy getOverflowPolicy()
     {
-        return _preferProxiedForAddress;
+        return _overflowPolicy;
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Set the log file name date format.
-     * @see RolloverFileOutputStream#RolloverFileOutputStream(String, boolean, int, TimeZone, String, String)
-     *
-     * @param logFileDateFormat format string that is passed to {@link RolloverFileOutputStream}
-     */
-    public void setFilenameDateFormat(String logFileDateFormat)
+    @ManagedAttribute("number of log lines waiting to be written")
+    public int getQueued()
     {
-        _filenameDateFormat = logFileDateFormat;
+        RingBuffer<String> ring = _ring;
+        return ring == null ? 0 : ring.size();
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Retrieve the file name date format string.
-     *
-     * @return the log File Date Format
-     */
-    public String getFilenameDateFormat()
+    @ManagedAttribute("number of log lines dropped because the ring buffer was full")
+    public long getDropped()
     {
-        return _filenameDateFormat;
+        return _dropped.get();
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Controls logging of the request dispatch time
-     *
-     * @param value true - request dispatch time will be logged
-     *              false - request dispatch time will not be logged
-     */
-    public void setLogDispatch(boolean value)
+    @ManagedAttribute("number of times a request thread waited because the ring buffer was full")
+    public long getBlocked()
     {
-        _logDispatch = value;
+        return _blocked.get();
     }
 
     /* ------------------------------------------------------------ */
-    /**
-     * Retrieve request dispatch time logging flag
-     *
-     * @return value of the flag
-     */
-    public boolean isLogDispatch()
+    @ManagedAttribute("number of batched writes by the async writer")
+    public long getBatches()
     {
-        return _logDispatch;
+        return _batches.get();
     }
 
     /* ------------------------------------------------------------ */
@@ -462,10 +349,10 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     {
         try
         {
-            if (_ignorePathMap != null && _ignorePathMap.getMatch(request.getRequestURI()) != null)
+            if (isIgnored(request))
                 return;
 
-            if (_fileOut == null)
+            if (getOutputStream() == null)
                 return;
 
             StringBuilder buf= new StringBuilder(256);
@@ -477,7 +364,7 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
             }
 
             String addr = null;
-            if (_preferProxiedForAddress)
+            if (getPreferProxiedForAddress())
             {
                 addr = request.getHeader(HttpHeader.X_FORWARDED_FOR.toString());
             }
@@ -494,8 +381,9 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
                 buf.append(" - ");
 
             buf.append(" [");
-            if (_logDateCache != null)
-                buf.append(_logDateCache.format(request.getTimeStamp()));
+            DateCache logDateCache = getLogDateCache();
+            if (logDateCache != null)
+                buf.append(logDateCache.format(request.getTimeStamp()));
             else
                 buf.append(request.getTimeStamp());
 
@@ -585,6 +473,12 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
 
             buf.append(StringUtil.__LINE_SEPARATOR);
             String log = buf.toString();
+            RingBuffer<String> ring = _ring;
+            if (ring != null)
+            {
+                enqueue(ring,log);
+                return;
+            }
             synchronized(this)
             {
                 if (_writer==null)
@@ -600,6 +494,93 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
 
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Hand off a log line to the async writer thread.
+     * 
+     * @param ring the ring buffer
+     * @param log the formatted log line
+     */
+    private void enqueue(RingBuffer<String> ring, String log)
+    {
+        if (ring.offer(log))
+        {
+            // Wake the writer early if the ring is filling up
+            if (ring.size() > ring.getCapacity() / 2)
+                LockSupport.unpark(_asyncWriter);
+            return;
+        }
+
+        if (_overflowPolicy == OverflowPolicy.DROP)
+        {
+            _dropped.incrementAndGet();
+            return;
+        }
+
+        _blocked.incrementAndGet();
+        while (!ring.offer(log))
+        {
+            if (!isRunning() || Thread.currentThread().isInterrupted())
+            {
+                _dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(_asyncWriter);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write all the queued log lines in a single batch.
+     * 
+     * @return true if any lines were written
+     */
+    private boolean writeQueued() throws IOException
+    {
+        synchronized (this)
+        {
+            if (_writer == null || _ring == null)
+                return false;
+
+            boolean written = false;
+            String log = _ring.poll();
+            while (log != null)
+            {
+                _writer.write(log);
+                written = true;
+                log = _ring.poll();
+            }
+
+            if (written)
+            {
+                _writer.flush();
+                _batches.incrementAndGet();
+            }
+            return written;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * The async writer thread loop.
+     */
+    private void writeAsync()
+    {
+        while (isRunning())
+        {
+            try
+            {
+                if (!writeQueued())
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_flushInterval));
+            }
+            catch (IOException e)
+            {
+                LOG.warn(e);
+            }
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Writes extended request and response information to the output stream.
@@ -638,55 +619,55 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     /**
      * Set up request logging and open log file.
      *
-     * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStart()
+     * @see org.eclipse.jetty.server.AbstractRequestLog#doStart()
      */
     @Override
     protected synchronized void doStart() throws Exception
     {
-        if (_logDateFormat != null)
-        {
-            _logDateCache = new DateCache(_logDateFormat,_logLocale);
-            _logDateCache.setTimeZoneID(_logTimeZone);
-        }
-
-        if (_filename != null)
-        {
-            _fileOut = new RolloverFileOutputStream(_filename,_append,_retainDays,TimeZone.getTimeZone(_logTimeZone),_filenameDateFormat,null);
-            _closeOut = true;
-            LOG.info("Opened " + getDatedFilename());
-        }
-        else
-            _fileOut = System.err;
-
-        _out = _fileOut;
+        super.doStart();
 
-        if (_ignorePaths != null && _ignorePaths.length > 0)
+        if (_async)
         {
-            _ignorePathMap = new PathMap();
-            for (int i = 0; i < _ignorePaths.length; i++)
-                _ignorePathMap.put(_ignorePaths[i],_ignorePaths[i]);
+            _writer = new BufferedWriter(new OutputStreamWriter(getOutputStream()),64 * 1024);
+            _ring = new RingBuffer<String>(_queueSize);
+            _asyncWriter = new Thread("NCSARequestLog@" + Integer.toHexString(hashCode()))
+            {
+                @Override
+                public void run()
+                {
+                    writeAsync();
+                }
+            };
+            _asyncWriter.setDaemon(true);
+            _asyncWriter.start();
         }
         else
-            _ignorePathMap = null;
-
-        _writer = new OutputStreamWriter(_out);
-        super.doStart();
+            _writer = new OutputStreamWriter(getOutputStream());
     }
 
     /* ------------------------------------------------------------ */
     /**
      * Close the log file and perform cleanup.
      *
-     * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStop()
+     * @see org.eclipse.jetty.server.AbstractRequestLog#doStop()
      */
     @Override
     protected void doStop() throws Exception
     {
+        Thread asyncWriter = _asyncWriter;
+        if (asyncWriter != null)
+        {
+            // No longer running, so the writer thread will exit
+            LockSupport.unpark(asyncWriter);
+            asyncWriter.join(Math.max(1000,_flushInterval * 2));
+        }
+
         synchronized (this)
         {
-            super.doStop();
             try
             {
+                if (_ring != null)
+                    writeQueued();
                 if (_writer != null)
                     _writer.flush();
             }
@@ -694,21 +675,11 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
             {
                 LOG.ignore(e);
             }
-            if (_out != null && _closeOut)
-                try
-                {
-                    _out.close();
-                }
-                catch (IOException e)
-                {
-                    LOG.ignore(e);
-                }
+            super.doStop();
 
-            _out = null;
-            _fileOut = null;
-            _closeOut = false;
-            _logDateCache = null;
             _writer = null;
+            _ring = null;
+            _asyncWriter = null;
         }
     }
 }
@@ -0,0 +1,52 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.util.EventListener;
+
+/**
+ * <p>A listener for non-blocking reads of the request content from {@link HttpInput}.</p>
+ * <p>Once set with {@link HttpInput#setReadListener(ReadListener)} on an async request,
+ * {@link #onDataAvailable()} is called when content can be read without blocking.
+ * The listener should read while {@link HttpInput#isReady()} returns true; when it
+ * returns false, the listener is called again once more content has arrived, so that no
+ * thread is held while waiting for a slow client.</p>
+ * <p>The callbacks are invoked by a pooled thread in the scope of the suspended context.</p>
+ */
+public interface ReadListener extends EventListener
+{
+    /**
+     * <p>Called when request content is available to read without blocking.</p>
+     * @throws IOException if the content cannot be handled
+     */
+    public void onDataAvailable() throws IOException;
+
+    /**
+     * <p>Called once all the request content has been read.</p>
+     * @throws IOException if the content cannot be handled
+     */
+    public void onAllDataRead() throws IOException;
+
+    /**
+     * <p>Called if reading the request content fails, or if one of the other callbacks throws.</p>
+     * @param failure the reason for the failure
+     */
+    public void onError(Throwable failure);
+}
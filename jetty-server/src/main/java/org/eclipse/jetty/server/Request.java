@@ -26,9 +26,11 @@ import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -310,10 +312,10 @@ public class Request implements HttpServletRequest
                             {
                                 throw new IllegalStateException("Form too large" + content_length + ">" + maxFormContentSize);
                             }
-                            InputStream in = getInputStream();
+                            ByteBuffer form = readFormContent(getInputStream(),content_length,maxFormContentSize);
 
-                            // Add form params to query params
-                            UrlEncoded.decodeTo(in,_baseParameters,encoding,content_length < 0?maxFormContentSize:-1,maxFormKeys);
+                            // Add form params to query params. Values are only decoded when they are asked for.
+                            UrlEncoded.decodeTo(form,_baseParameters,encoding,maxFormKeys);
                         }
                         catch (IOException e)
                         {
@@ -342,6 +344,34 @@ public class Request implements HttpServletRequest
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Read the form content in bulk into a single buffer that the lazily decoded parameters can refer to.
+     */
+    private ByteBuffer readFormContent(InputStream in, int contentLength, int maxFormContentSize) throws IOException
+    {
+        byte[] content = new byte[contentLength >= 0?contentLength:1024];
+        int length = 0;
+        while (true)
+        {
+            if (length == content.length)
+            {
+                if (contentLength >= 0)
+                    break;
+                content = Arrays.copyOf(content,length * 2);
+            }
+
+            int l = in.read(content,length,content.length - length);
+            if (l < 0)
+                break;
+            length += l;
+
+            if (contentLength < 0 && maxFormContentSize >= 0 && length > maxFormContentSize)
+                throw new IllegalStateException("Form too large");
+        }
+        return ByteBuffer.wrap(content,0,length);
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public AsyncContext getAsyncContext()
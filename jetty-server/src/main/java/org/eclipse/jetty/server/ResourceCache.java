@@ -38,6 +38,7 @@ import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.resource.MappedJarResource;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceFactory;
 
@@ -327,6 +328,14 @@ public class ResourceCache
         {
             if (_useFileMappedBuffer && resource.getFile()!=null) 
                 return BufferUtil.toBuffer(resource.getFile());
+
+            if (_useFileMappedBuffer && resource instanceof MappedJarResource)
+            {
+                // stored entries of mapped archives are used without copying
+                ByteBuffer buffer=((MappedJarResource)resource).getByteBuffer();
+                if (buffer!=null)
+                    return buffer;
+            }
             
             int len=(int)resource.length();
             if (len<0)
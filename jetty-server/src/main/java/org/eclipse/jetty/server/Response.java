@@ -124,7 +124,7 @@ public class Response implements HttpServletResponse
         _writer = null;
         _outputType = OutputType.NONE;
         _contentLength = -1;
-        _out.reset();
+        _out.recycle();
         _fields.clear();
     }
 
@@ -726,9 +726,14 @@ public class Response implements HttpServletResponse
         }
     }
 
+    public boolean isAllContentWritten(long written)
+    {
+        return _contentLength >= 0 && written >= _contentLength;
+    }
+
     public boolean closeIfAllContentWritten(long written) throws IOException
     {
-        if (_contentLength >= 0 && written >= _contentLength)
+        if (isAllContentWritten(written))
         {
             switch (_outputType)
             {
@@ -35,6 +35,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.DateClock;
 import org.eclipse.jetty.http.HttpGenerator;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
@@ -74,6 +75,7 @@ public class Server extends HandlerWrapper implements Attributes
     private SessionIdManager _sessionIdManager;
     private boolean _sendServerVersion = true; //send Server: header
     private boolean _sendDateHeader = false; //send Date: header
+    private DateClock _dateClock;
     private boolean _stopAtShutdown;
     private boolean _dumpAfterStart=false;
     private boolean _dumpBeforeStop=false;
@@ -266,6 +268,11 @@ public class Server extends HandlerWrapper implements Attributes
 
         LOG.info("jetty-"+getVersion());
         HttpGenerator.setServerVersion(getVersion());
+        if (_sendDateHeader && _dateClock==null)
+        {
+            _dateClock=new DateClock();
+            addBean(_dateClock);
+        }
         MultiException mex=new MultiException();
 
         try
@@ -511,6 +518,16 @@ public class Server extends HandlerWrapper implements Attributes
         return _sendDateHeader;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The clock that refreshes the shared Date header once per second, or null
+     * if the server has not been started with {@link #setSendDateHeader(boolean)} true.
+     */
+    public DateClock getDateClock()
+    {
+        return _dateClock;
+    }
+
     /* ------------------------------------------------------------ */
     /*
      * @see org.eclipse.util.AttributesMap#clearAttributes()
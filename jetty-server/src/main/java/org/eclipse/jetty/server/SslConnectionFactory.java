@@ -19,21 +19,101 @@
 
 package org.eclipse.jetty.server;
 
+import java.util.Enumeration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
+/**
+ * A {@link ConnectionFactory} of {@link SslConnection}s.
+ * <p>
+ * Counts the handshakes of its connections, distinguishing those that resumed a cached
+ * TLS session from full handshakes. The session cache is that of the {@link SSLContext}
+ * of the {@link SslContextFactory}, so connectors that share an SslContextFactory also 
+ * share the cached sessions. The size and timeout of the cache are set with 
+ * {@link SslContextFactory#setSslSessionCacheSize(int)} and {@link SslContextFactory#setSslSessionTimeout(int)}.
+ * <p>
+ * If handshake threads are configured, the expensive delegated tasks of handshakes are run by a
+ * dedicated pool of that size rather than by the selector and connector threads. At most handshakeQueueSize
+ * tasks may wait for the pool; beyond that, handshakes are rejected and their connections closed, so that
+ * a storm of new connections does not starve the processing of requests on established connections.
+ */
+@ManagedObject("SSL Connection Factory")
 public class SslConnectionFactory extends AbstractConnectionFactory
 {
     private final SslContextFactory _sslContextFactory;
     private final String _nextProtocol;
+    private final AtomicLong _handshakes = new AtomicLong();
+    private final AtomicLong _resumed = new AtomicLong();
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicInteger _queued = new AtomicInteger();
+    private final SampleStatistic _handshakeTime = new SampleStatistic();
+    private int _handshakeThreads;
+    private int _handshakeQueueSize = 1024;
+    private Executor _handshakeExecutor;
+    private QueuedThreadPool _handshakePool;
+    private final Executor _admittingExecutor = new Executor()
+    {
+        @Override
+        public void execute(final Runnable task)
+        {
+            if (_queued.incrementAndGet() > _handshakeQueueSize)
+            {
+                _queued.decrementAndGet();
+                _rejected.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+
+            try
+            {
+                _handshakeExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        _queued.decrementAndGet();
+                        task.run();
+                    }
+                });
+            }
+            catch (RejectedExecutionException x)
+            {
+                _queued.decrementAndGet();
+                _rejected.incrementAndGet();
+                throw x;
+            }
+        }
+    };
+    private final SslConnection.HandshakeListener _handshakeListener = new SslConnection.HandshakeListener()
+    {
+        @Override
+        public void handshakeSucceeded(SslConnection connection, boolean resumed)
+        {
+            _handshakes.incrementAndGet();
+            if (resumed)
+                _resumed.incrementAndGet();
+            if (connection.getHandshakes() == 1)
+                _handshakeTime.set(connection.getHandshakeDuration());
+        }
+    };
 
     public SslConnectionFactory()
     {
@@ -58,9 +138,140 @@ public class SslConnectionFactory extends AbstractConnectionFactory
         return _sslContextFactory;
     }
 
+    @ManagedAttribute("number of threads that run handshake tasks, or 0 to run them in the I/O threads")
+    public int getHandshakeThreads()
+    {
+        return _handshakeThreads;
+    }
+
+    /**
+     * @param threads The number of threads of the pool created to run handshake tasks, or 0 to run
+     * them in the connector threads. Ignored if a handshake executor is set.
+     */
+    public void setHandshakeThreads(int threads)
+    {
+        if (isRunning())
+            throw new IllegalStateException("started");
+        _handshakeThreads = threads;
+    }
+
+    @ManagedAttribute("maximum number of handshake tasks waiting for a thread")
+    public int getHandshakeQueueSize()
+    {
+        return _handshakeQueueSize;
+    }
+
+    /**
+     * @param size The maximum number of handshake tasks that may wait for a thread, beyond which handshakes are rejected
+     */
+    public void setHandshakeQueueSize(int size)
+    {
+        _handshakeQueueSize = size;
+    }
+
+    public Executor getHandshakeExecutor()
+    {
+        return _handshakeExecutor;
+    }
+
+    /**
+     * @param executor The executor to run handshake tasks, or null to create a pool of handshakeThreads
+     */
+    public void setHandshakeExecutor(Executor executor)
+    {
+        if (isRunning())
+            throw new IllegalStateException("started");
+        _handshakeExecutor = executor;
+    }
+
+    @ManagedAttribute("number of handshake tasks waiting for a thread")
+    public int getHandshakeQueueDepth()
+    {
+        return _queued.get();
+    }
+
+    @ManagedAttribute("number of handshakes rejected because the handshake queue was full")
+    public long getHandshakesRejected()
+    {
+        return _rejected.get();
+    }
+
+    @ManagedAttribute("maximum time in ms to complete an initial handshake")
+    public long getHandshakeTimeMax()
+    {
+        return _handshakeTime.getMax();
+    }
+
+    @ManagedAttribute("mean time in ms to complete an initial handshake")
+    public double getHandshakeTimeMean()
+    {
+        return _handshakeTime.getMean();
+    }
+
+    @ManagedAttribute("standard deviation of the time in ms to complete an initial handshake")
+    public double getHandshakeTimeStdDev()
+    {
+        return _handshakeTime.getStdDev();
+    }
+
+    @ManagedAttribute("number of completed TLS handshakes")
+    public long getHandshakes()
+    {
+        return _handshakes.get();
+    }
+
+    @ManagedAttribute("number of TLS handshakes that resumed a cached session")
+    public long getSessionCacheHits()
+    {
+        return _resumed.get();
+    }
+
+    @ManagedAttribute("number of TLS handshakes that did not resume a cached session")
+    public long getSessionCacheMisses()
+    {
+        return _handshakes.get() - _resumed.get();
+    }
+
+    @ManagedAttribute("number of full TLS handshakes")
+    public long getFullHandshakes()
+    {
+        return getSessionCacheMisses();
+    }
+
+    @ManagedAttribute("number of sessions in the TLS session cache")
+    public int getSessionCacheSize()
+    {
+        SSLContext context = _sslContextFactory.getSslContext();
+        SSLSessionContext sessions = context == null ? null : context.getServerSessionContext();
+        if (sessions == null)
+            return 0;
+        int size = 0;
+        for (Enumeration<byte[]> ids = sessions.getIds(); ids.hasMoreElements(); ids.nextElement())
+            size++;
+        return size;
+    }
+
+    @ManagedOperation(value="resets the handshake statistics", impact="ACTION")
+    public void resetStatistics()
+    {
+        _handshakes.set(0);
+        _resumed.set(0);
+        _rejected.set(0);
+        _handshakeTime.reset();
+    }
+
     @Override
     protected void doStart() throws Exception
     {
+        if (_handshakeExecutor == null && _handshakeThreads > 0)
+        {
+            _handshakePool = new QueuedThreadPool(_handshakeThreads,_handshakeThreads);
+            _handshakePool.setName("handshake-" + hashCode());
+            _handshakePool.setDaemon(true);
+            _handshakeExecutor = _handshakePool;
+            addBean(_handshakePool);
+        }
+
         super.doStart();
 
         SSLEngine engine = _sslContextFactory.newSSLEngine();
@@ -71,6 +282,20 @@ public class SslConnectionFactory extends AbstractConnectionFactory
             setInputBufferSize(session.getPacketBufferSize());
     }
 
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        if (_handshakePool != null)
+        {
+            removeBean(_handshakePool);
+            if (_handshakeExecutor == _handshakePool)
+                _handshakeExecutor = null;
+            _handshakePool = null;
+        }
+        _queued.set(0);
+    }
+
     @Override
     public Connection newConnection(Connector connector, EndPoint endPoint)
     {
@@ -78,6 +303,9 @@ public class SslConnectionFactory extends AbstractConnectionFactory
         engine.setUseClientMode(false);
 
         SslConnection sslConnection = newSslConnection(connector, endPoint, engine);
+        sslConnection.setHandshakeListener(_handshakeListener);
+        if (_handshakeExecutor != null)
+            sslConnection.setHandshakeExecutor(_admittingExecutor);
         configure(sslConnection, connector, endPoint);
 
         ConnectionFactory next = connector.getConnectionFactory(_nextProtocol);
@@ -0,0 +1,45 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.util.EventListener;
+
+/**
+ * <p>A listener for non-blocking writes of the response content to {@link HttpOutput}.</p>
+ * <p>Once set with {@link HttpOutput#setWriteListener(WriteListener)} on an async request,
+ * {@link #onWritePossible()} is called when content can be written without blocking.
+ * The listener should write while {@link HttpOutput#isReady()} returns true; when it
+ * returns false, the listener is called again once the pending write has been flushed.</p>
+ * <p>The callbacks are invoked by a pooled thread in the scope of the suspended context.</p>
+ */
+public interface WriteListener extends EventListener
+{
+    /**
+     * <p>Called when response content may be written without blocking.</p>
+     * @throws IOException if the content cannot be written
+     */
+    public void onWritePossible() throws IOException;
+
+    /**
+     * <p>Called if writing the response content fails, or if {@link #onWritePossible()} throws.</p>
+     * @param failure the reason for the failure
+     */
+    public void onError(Throwable failure);
+}
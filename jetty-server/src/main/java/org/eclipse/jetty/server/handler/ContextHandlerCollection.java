@@ -19,19 +19,20 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.http.PathTrie;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HandlerContainer;
 import org.eclipse.jetty.server.HttpChannelState;
 import org.eclipse.jetty.server.Request;
-import org.eclipse.jetty.util.LazyList;
+import org.eclipse.jetty.util.StringMap;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
@@ -40,8 +41,8 @@ import org.eclipse.jetty.util.log.Logger;
 /* ------------------------------------------------------------ */
 /** ContextHandlerCollection.
  *
- * This {@link org.eclipse.jetty.server.handler.HandlerCollection} is creates a
- * {@link org.eclipse.jetty.http.PathMap} to it's contained handlers based
+ * This {@link org.eclipse.jetty.server.handler.HandlerCollection} compiles a
+ * {@link PathTrie} of routes to it's contained handlers based
  * on the context path and virtual hosts of any contained {@link org.eclipse.jetty.server.handler.ContextHandler}s.
  * The contexts do not need to be directly contained, only children of the contained handlers.
  * Multiple contexts may have the same context path and they are called in order until one
@@ -52,10 +53,67 @@ import org.eclipse.jetty.util.log.Logger;
 public class ContextHandlerCollection extends HandlerCollection
 {
     private static final Logger LOG = Log.getLogger(ContextHandlerCollection.class);
+    private static final Handler[] __noHandlers = new Handler[0];
 
-    private volatile PathMap<Object> _contextMap;
+    private volatile PathTrie<Route> _routes;
     private Class<? extends ContextHandler> _contextClass = ContextHandler.class;
 
+    /* ------------------------------------------------------------ */
+    /** The handlers for a context path.
+     * Handlers are held by virtual host, by wildcard virtual host (keyed without
+     * the leading "*.") and for any host. Each route is linked to the route of the
+     * longest enclosing context path, so that all the candidates for a target are
+     * found with a single walk of the trie.
+     */
+    private static class Route
+    {
+        private final String _contextPath;
+        private StringMap<Handler[]> _hosts;
+        private StringMap<Handler[]> _wildHosts;
+        private Handler[] _handlers=__noHandlers;
+        private Route _outer;
+
+        private Route(String contextPath)
+        {
+            _contextPath=contextPath;
+        }
+
+        private void add(String vhost, Handler handler)
+        {
+            if (vhost==null || "*".equals(vhost))
+                _handlers=append(_handlers,handler);
+            else if (vhost.startsWith("*."))
+            {
+                if (_wildHosts==null)
+                    _wildHosts=new StringMap<>(true);
+                String host=vhost.substring(2);
+                _wildHosts.put(host,append(_wildHosts.get(host),handler));
+            }
+            else
+            {
+                if (_hosts==null)
+                    _hosts=new StringMap<>(true);
+                _hosts.put(vhost,append(_hosts.get(vhost),handler));
+            }
+        }
+
+        private static Handler[] append(Handler[] handlers, Handler handler)
+        {
+            if (handlers==null)
+                return new Handler[]{handler};
+            Handler[] added=Arrays.copyOf(handlers,handlers.length+1);
+            added[handlers.length]=handler;
+            return added;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s{%s,%s,%s,%s}",_contextPath.length()==0?"/":_contextPath,
+                    Arrays.asList(_handlers),_hosts,_wildHosts);
+        }
+    }
+
     /* ------------------------------------------------------------ */
     public ContextHandlerCollection()
     {
@@ -70,7 +128,8 @@ public class ContextHandlerCollection extends HandlerCollection
     @ManagedOperation("update the mapping of context path to context")
     public void mapContexts()
     {
-        PathMap<Object> contextMap = new PathMap<Object>();
+        PathTrie<Route> routes = new PathTrie<>();
+        List<Route> list = new ArrayList<>();
         Handler[] branches = getHandlers();
 
 
@@ -101,55 +160,41 @@ public class ContextHandlerCollection extends HandlerCollection
                 if(!contextPath.startsWith("/"))
                     contextPath='/'+contextPath;
 
-                if (contextPath.length()>1)
+                // The route is keyed by the context path without any trailing "/" or "/*",
+                // so the root context has the empty key and matches all targets.
+                if (contextPath.endsWith("/*"))
+                    contextPath=contextPath.substring(0,contextPath.length()-2);
+                else if (contextPath.endsWith("/"))
+                    contextPath=contextPath.substring(0,contextPath.length()-1);
+
+                Route route=routes.get(contextPath);
+                if (route==null)
                 {
-                    if (contextPath.endsWith("/"))
-                        contextPath+="*";
-                    else if (!contextPath.endsWith("/*"))
-                        contextPath+="/*";
+                    route=new Route(contextPath);
+                    routes.put(contextPath,route);
+                    list.add(route);
                 }
 
-                Object contexts=contextMap.get(contextPath);
                 String[] vhosts=handler.getVirtualHosts();
-
-
                 if (vhosts!=null && vhosts.length>0)
                 {
-                    Map<String, Object> hosts;
-
-                    if (contexts instanceof Map)
-                        hosts=(Map<String, Object>)contexts;
-                    else
-                    {
-                        hosts=new HashMap<String, Object>();
-                        hosts.put("*",contexts);
-                        contextMap.put(contextPath, hosts);
-                    }
-
-                    for (int j=0;j<vhosts.length;j++)
-                    {
-                        String vhost=vhosts[j];
-                        contexts=hosts.get(vhost);
-                        contexts=LazyList.add(contexts,branches[b]);
-                        hosts.put(vhost,contexts);
-                    }
-                }
-                else if (contexts instanceof Map)
-                {
-                    Map<String, Object> hosts=(Map<String, Object>)contexts;
-                    contexts=hosts.get("*");
-                    contexts= LazyList.add(contexts, branches[b]);
-                    hosts.put("*",contexts);
+                    for (String vhost : vhosts)
+                        route.add(vhost,branches[b]);
                 }
                 else
-                {
-                    contexts= LazyList.add(contexts, branches[b]);
-                    contextMap.put(contextPath, contexts);
-                }
+                    route.add(null,branches[b]);
             }
         }
-        _contextMap=contextMap;
 
+        // link each route to the route of its longest enclosing context path
+        for (Route route : list)
+        {
+            String contextPath=route._contextPath;
+            if (contextPath.length()>0)
+                route._outer=routes.getBest(contextPath.substring(0,contextPath.lastIndexOf('/')));
+        }
+
+        _routes=routes;
     }
 
 
@@ -161,7 +206,7 @@ public class ContextHandlerCollection extends HandlerCollection
     @Override
     public void setHandlers(Handler[] handlers)
     {
-        _contextMap=null;
+        _routes=null;
         super.setHandlers(handlers);
         if (isStarted())
             mapContexts();
@@ -198,68 +243,42 @@ public class ContextHandlerCollection extends HandlerCollection
 	    }
 	}
 
-	// data structure which maps a request to a context; first-best match wins
+	// the routes map a request to a context; first-best match wins
 	// { context path =>
 	//     { virtual host => context }
 	// }
-	PathMap<Object> map = _contextMap;
-	if (map!=null && target!=null && target.startsWith("/"))
+	PathTrie<Route> routes = _routes;
+	if (routes!=null && target!=null && target.startsWith("/"))
 	{
-	    // first, get all contexts matched by context path
-	    Object contexts = map.getLazyMatches(target);
-
-            for (int i=0; i<LazyList.size(contexts); i++)
-            {
-                // then, match against the virtualhost of each context
-                Map.Entry entry = (Map.Entry)LazyList.get(contexts, i);
-                Object list = entry.getValue();
+	    String host=null;
 
-                if (list instanceof Map)
-                {
-                    Map hosts = (Map)list;
-                    String host = normalizeHostname(request.getServerName());
-
-                    // explicitly-defined virtual hosts, most specific
-                    list=hosts.get(host);
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-
-                    // wildcard for one level of names
-                    list=hosts.get("*."+host.substring(host.indexOf(".")+1));
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-
-                    // no virtualhosts defined for the context, least specific
-                    // will handle any request that does not match to a specific virtual host above
-                    list=hosts.get("*");
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-                }
-                else
-                {
-                    for (int j=0; j<LazyList.size(list); j++)
-                    {
-                        Handler handler = (Handler)LazyList.get(list,j);
-                        handler.handle(target,baseRequest, request, response);
-                        if (baseRequest.isHandled())
-                            return;
-                    }
-                }
+	    // walk from the longest matching context path to the root context
+	    for (Route route=routes.getBest(target); route!=null; route=route._outer)
+	    {
+	        if (route._hosts!=null || route._wildHosts!=null)
+	        {
+	            if (host==null)
+	                host = normalizeHostname(request.getServerName());
+	            if (host==null)
+	                host = "";
+
+	            // explicitly-defined virtual hosts, most specific
+	            if (route._hosts!=null && handle(route._hosts.get(host),target,baseRequest,request,response))
+	                return;
+
+	            // wildcard for one level of names
+	            if (route._wildHosts!=null)
+	            {
+	                int dot=host.indexOf('.');
+	                if (handle(route._wildHosts.get(host,dot+1,host.length()-dot-1),target,baseRequest,request,response))
+	                    return;
+	            }
+	        }
+
+	        // no virtualhosts defined for the context, least specific
+	        // will handle any request that does not match to a specific virtual host above
+	        if (handle(route._handlers,target,baseRequest,request,response))
+	            return;
 	    }
 	}
 	else
@@ -274,6 +293,21 @@ public class ContextHandlerCollection extends HandlerCollection
 	}
     }
 
+    /* ------------------------------------------------------------ */
+    private boolean handle(Handler[] handlers, String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        if (handlers!=null)
+        {
+            for (Handler handler : handlers)
+            {
+                handler.handle(target,baseRequest, request, response);
+                if (baseRequest.isHandled())
+                    return true;
+            }
+        }
+        return false;
+    }
+
 
     /* ------------------------------------------------------------ */
     /** Add a context handler.
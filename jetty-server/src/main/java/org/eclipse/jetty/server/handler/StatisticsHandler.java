@@ -35,11 +35,14 @@ import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 @ManagedObject("Request Statistics Gathering")
 public class StatisticsHandler extends HandlerWrapper
 {
+    private static final String SUSPENDED_AT = StatisticsHandler.class.getName()+".suspendedAt";
+
     private final AtomicLong _statsStartedAt = new AtomicLong();
 
     private final CounterStatistic _requestStats = new CounterStatistic();
@@ -47,6 +50,9 @@ public class StatisticsHandler extends HandlerWrapper
     private final CounterStatistic _dispatchedStats = new CounterStatistic();
     private final SampleStatistic _dispatchedTimeStats = new SampleStatistic();
     private final CounterStatistic _asyncWaitStats = new CounterStatistic();
+    private final HistogramStatistic _requestTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _dispatchedTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _asyncWaitTimeHistogram = new HistogramStatistic();
 
     private final AtomicInteger _asyncDispatches = new AtomicInteger();
     private final AtomicInteger _expires = new AtomicInteger();
@@ -87,11 +93,15 @@ public class StatisticsHandler extends HandlerWrapper
 
             _requestStats.decrement();
             _requestTimeStats.set(elapsed);
+            _requestTimeHistogram.set(elapsed);
 
             updateResponse(request);
 
             if (!state.isDispatched())
+            {
                 _asyncWaitStats.decrement();
+                asyncWaited(request);
+            }
         }
         
     };
@@ -109,6 +119,9 @@ public class StatisticsHandler extends HandlerWrapper
         _dispatchedStats.reset();
         _dispatchedTimeStats.reset();
         _asyncWaitStats.reset();
+        _requestTimeHistogram.reset();
+        _dispatchedTimeHistogram.reset();
+        _asyncWaitTimeHistogram.reset();
 
         _asyncDispatches.set(0);
         _expires.set(0);
@@ -138,6 +151,7 @@ public class StatisticsHandler extends HandlerWrapper
             // resumed request
             start = System.currentTimeMillis();
             _asyncWaitStats.decrement();
+            asyncWaited(request);
             if (state.isDispatched())
                 _asyncDispatches.incrementAndGet();
         }
@@ -153,23 +167,36 @@ public class StatisticsHandler extends HandlerWrapper
 
             _dispatchedStats.decrement();
             _dispatchedTimeStats.set(dispatched);
+            _dispatchedTimeHistogram.set(dispatched);
 
             if (state.isSuspended())
             {
                 if (state.isInitial())
                     state.addListener(_onCompletion);
                 _asyncWaitStats.increment();
+                request.setAttribute(SUSPENDED_AT,now);
             }
             else if (state.isInitial())
             {
                 _requestStats.decrement();
                 _requestTimeStats.set(dispatched);
+                _requestTimeHistogram.set(dispatched);
                 updateResponse(request);
             }
             // else onCompletion will handle it.
         }
     }
 
+    private void asyncWaited(Request request)
+    {
+        Object suspended = request.getAttribute(SUSPENDED_AT);
+        if (suspended instanceof Long)
+        {
+            request.removeAttribute(SUSPENDED_AT);
+            _asyncWaitTimeHistogram.set(System.currentTimeMillis()-(Long)suspended);
+        }
+    }
+
     private void updateResponse(Request request)
     {
         Response response = request.getResponse();
@@ -285,6 +312,118 @@ public class StatisticsHandler extends HandlerWrapper
         return _requestTimeStats.getStdDev();
     }
 
+    /**
+     * @return the median time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("50th percentile of time spent handling requests (in ms)")
+    public long getRequestTimeP50()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(50.0);
+    }
+
+    /**
+     * @return the 90th percentile time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("90th percentile of time spent handling requests (in ms)")
+    public long getRequestTimeP90()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(90.0);
+    }
+
+    /**
+     * @return the 99th percentile time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99th percentile of time spent handling requests (in ms)")
+    public long getRequestTimeP99()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.0);
+    }
+
+    /**
+     * @return the 99.9th percentile time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99.9th percentile of time spent handling requests (in ms)")
+    public long getRequestTimeP999()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.9);
+    }
+
+    /**
+     * @return the median time (in milliseconds) of request handling
+     * during the last completed interval.
+     * @see #getStatsInterval()
+     */
+    @ManagedAttribute("50th percentile of time spent handling requests in the last interval (in ms)")
+    public long getRequestTimeIntervalP50()
+    {
+        return _requestTimeHistogram.getIntervalSnapshot().getValueAtPercentile(50.0);
+    }
+
+    /**
+     * @return the 90th percentile time (in milliseconds) of request handling
+     * during the last completed interval.
+     * @see #getStatsInterval()
+     */
+    @ManagedAttribute("90th percentile of time spent handling requests in the last interval (in ms)")
+    public long getRequestTimeIntervalP90()
+    {
+        return _requestTimeHistogram.getIntervalSnapshot().getValueAtPercentile(90.0);
+    }
+
+    /**
+     * @return the 99th percentile time (in milliseconds) of request handling
+     * during the last completed interval.
+     * @see #getStatsInterval()
+     */
+    @ManagedAttribute("99th percentile of time spent handling requests in the last interval (in ms)")
+    public long getRequestTimeIntervalP99()
+    {
+        return _requestTimeHistogram.getIntervalSnapshot().getValueAtPercentile(99.0);
+    }
+
+    /**
+     * @return the 99.9th percentile time (in milliseconds) of request handling
+     * during the last completed interval.
+     * @see #getStatsInterval()
+     */
+    @ManagedAttribute("99.9th percentile of time spent handling requests in the last interval (in ms)")
+    public long getRequestTimeIntervalP999()
+    {
+        return _requestTimeHistogram.getIntervalSnapshot().getValueAtPercentile(99.9);
+    }
+
+    /**
+     * @return the distribution of request handling times (in milliseconds)
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("percentiles of time spent handling requests (in ms)")
+    public String getRequestTimePercentiles()
+    {
+        return _requestTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the distribution of request handling times (in milliseconds)
+     * during the last completed interval.
+     */
+    @ManagedAttribute("percentiles of time spent handling requests in the last interval (in ms)")
+    public String getRequestTimeIntervalPercentiles()
+    {
+        return _requestTimeHistogram.getIntervalSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of request handling times (in milliseconds)
+     */
+    public HistogramStatistic getRequestTimeHistogram()
+    {
+        return _requestTimeHistogram;
+    }
+
     /**
      * @return the number of dispatches seen by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -362,6 +501,34 @@ public class StatisticsHandler extends HandlerWrapper
         return _dispatchedTimeStats.getStdDev();
     }
 
+    /**
+     * @return the distribution of dispatch times (in milliseconds)
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("percentiles of time spent in dispatch handling (in ms)")
+    public String getDispatchedTimePercentiles()
+    {
+        return _dispatchedTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the distribution of dispatch times (in milliseconds)
+     * during the last completed interval.
+     */
+    @ManagedAttribute("percentiles of time spent in dispatch handling in the last interval (in ms)")
+    public String getDispatchedTimeIntervalPercentiles()
+    {
+        return _dispatchedTimeHistogram.getIntervalSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of dispatch times (in milliseconds)
+     */
+    public HistogramStatistic getDispatchedTimeHistogram()
+    {
+        return _dispatchedTimeHistogram;
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, including
@@ -394,6 +561,34 @@ public class StatisticsHandler extends HandlerWrapper
         return (int)_asyncWaitStats.getMax();
     }
 
+    /**
+     * @return the distribution of times (in milliseconds) that requests waited while suspended
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("percentiles of time async requests spent waiting (in ms)")
+    public String getAsyncWaitTimePercentiles()
+    {
+        return _asyncWaitTimeHistogram.getSnapshot().toString();
+    }
+
+    /**
+     * @return the distribution of times (in milliseconds) that requests waited while suspended
+     * during the last completed interval.
+     */
+    @ManagedAttribute("percentiles of time async requests spent waiting in the last interval (in ms)")
+    public String getAsyncWaitTimeIntervalPercentiles()
+    {
+        return _asyncWaitTimeHistogram.getIntervalSnapshot().toString();
+    }
+
+    /**
+     * @return the histogram of times (in milliseconds) that requests waited while suspended
+     */
+    public HistogramStatistic getAsyncWaitTimeHistogram()
+    {
+        return _asyncWaitTimeHistogram;
+    }
+
     /**
      * @return the number of requests that have been asynchronously dispatched
      */
@@ -463,6 +658,26 @@ public class StatisticsHandler extends HandlerWrapper
         return _responses5xx.get();
     }
 
+    /**
+     * @return the interval (in milliseconds) over which the interval percentiles are calculated
+     */
+    @ManagedAttribute("interval in milliseconds of the interval percentiles")
+    public long getStatsInterval()
+    {
+        return _requestTimeHistogram.getInterval();
+    }
+
+    /**
+     * @param intervalMs the interval (in milliseconds) over which the interval percentiles are calculated.
+     * An interval completes when its percentiles are first read after this time has elapsed.
+     */
+    public void setStatsInterval(long intervalMs)
+    {
+        _requestTimeHistogram.setInterval(intervalMs);
+        _dispatchedTimeHistogram.setInterval(intervalMs);
+        _asyncWaitTimeHistogram.setInterval(intervalMs);
+    }
+
     /**
      * @return the milliseconds since the statistics were started with {@link #statsReset()}.
      */
@@ -496,6 +711,7 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time percentiles: ").append(getRequestTimePercentiles()).append("<br />\n");
 
 
         sb.append("<h2>Dispatches:</h2>\n");
@@ -506,11 +722,13 @@ public class StatisticsHandler extends HandlerWrapper
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time percentiles: ").append(getDispatchedTimePercentiles()).append("<br />\n");
 
 
         sb.append("Total requests suspended: ").append(getAsyncRequests()).append("<br />\n");
         sb.append("Total requests expired: ").append(getExpires()).append("<br />\n");
         sb.append("Total requests resumed: ").append(getAsyncDispatches()).append("<br />\n");
+        sb.append("Async wait time percentiles: ").append(getAsyncWaitTimePercentiles()).append("<br />\n");
 
         sb.append("<h2>Responses:</h2>\n");
         sb.append("1xx responses: ").append(getResponses1xx()).append("<br />\n");
@@ -129,6 +129,8 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     protected final CounterStatistic _sessionsStats = new CounterStatistic();
     protected final SampleStatistic _sessionTimeStats = new SampleStatistic();
 
+    protected SessionNearCache _nearCache;
+
 
     /* ------------------------------------------------------------ */
     public AbstractSessionManager()
@@ -263,6 +265,13 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
                 _checkingRemoteSessionIdEncoding=Boolean.parseBoolean(tmp);
         }
 
+        if (_nearCache!=null)
+        {
+            if (_nearCache.getVersionSource()==null && this instanceof SessionNearCache.VersionSource)
+                _nearCache.setVersionSource((SessionNearCache.VersionSource)this);
+            _nearCache.start();
+        }
+
         super.doStart();
     }
 
@@ -272,6 +281,9 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     {
         super.doStop();
 
+        if (_nearCache!=null)
+            _nearCache.stop();
+
         invalidateSessions();
 
         _loader=null;
@@ -292,7 +304,14 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
     {
         String cluster_id = getSessionIdManager().getClusterId(nodeId);
 
-        AbstractSession session = getSession(cluster_id);
+        SessionNearCache near_cache=_nearCache;
+        AbstractSession session = near_cache==null?null:near_cache.get(cluster_id);
+        if (session==null)
+        {
+            session = getSession(cluster_id);
+            if (session!=null && near_cache!=null)
+                near_cache.put(session);
+        }
         if (session!=null && !session.getNodeId().equals(nodeId))
             session.setIdChanged(true);
         return session;
@@ -509,6 +528,31 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
         return _sessionHandler;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the node local cache of sessions, or null if sessions are always obtained via {@link #getSession(String)}
+     */
+    @ManagedAttribute("node local session cache")
+    public SessionNearCache getNearCache()
+    {
+        return _nearCache;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set a node local cache of sessions to be consulted before {@link #getSession(String)}.
+     * This is intended for clustered session managers, where looking up a session may
+     * require a round trip to the backing store. If the session manager implements
+     * {@link SessionNearCache.VersionSource}, it is used to validate the cached sessions.
+     * @param nearCache the near cache or null for none
+     */
+    public void setNearCache(SessionNearCache nearCache)
+    {
+        if (isRunning())
+            throw new IllegalStateException();
+        _nearCache=nearCache;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @deprecated  Need to review if it is needed.
@@ -782,6 +826,9 @@ public abstract class AbstractSessionManager extends AbstractLifeCycle implement
      */
     public void removeSession(AbstractSession session, boolean invalidate)
     {
+        if (_nearCache!=null)
+            _nearCache.remove(session.getClusterId());
+
         // Remove session from context and global maps
         boolean removed = removeSession(session.getClusterId());
 
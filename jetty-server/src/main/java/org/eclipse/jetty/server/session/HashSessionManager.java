@@ -24,18 +24,34 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
+import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.eclipse.jetty.util.log.Logger;
 
 
@@ -47,7 +63,13 @@ import org.eclipse.jetty.util.log.Logger;
  * <p>
  * This manager will create it's own Timer instance to scavenge threads, unless it discovers a shared Timer instance
  * set as the "org.eclipse.jetty.server.session.timer" attribute of the ContextHandler.
- *
+ * <p>
+ * Sessions are indexed by the time at which they next need to be checked for expiry or idling, so that
+ * a scavenge pass only touches the sessions that are due, rather than every session in memory.
+ * <p>
+ * If {@link #setSessionLog(boolean)} is true, then {@link #saveSessions(boolean)} and {@link #restoreSessions()}
+ * use a single append log file in the store directory, which is written and read by several threads
+ * in parallel, rather than a file per session. The threads are owned by the manager and stopped with it.
  */
 public class HashSessionManager extends AbstractSessionManager
 {
@@ -66,7 +88,13 @@ public class HashSessionManager extends AbstractSessionManager
     private boolean _lazyLoad=false;
     private volatile boolean _sessionsLoaded=false;
     private boolean _deleteUnrestorableSessions=false;
+    private boolean _sessionLog=false;
+    private int _storeThreads=Runtime.getRuntime().availableProcessors();
+    private ThreadPoolExecutor _storeExecutor;
+    private final ExpiryIndex _expiryIndex=new ExpiryIndex(1000);
 
+    /** The name of the session log file within the store directory */
+    public final static String __SessionLog="sessions.log";
 
 
 
@@ -134,7 +162,14 @@ public class HashSessionManager extends AbstractSessionManager
         super.doStop();
 
         _sessions.clear();
+        _expiryIndex.clear();
 
+        synchronized(this)
+        {
+            if (_storeExecutor!=null)
+                _storeExecutor.shutdown();
+            _storeExecutor=null;
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -184,6 +219,8 @@ public class HashSessionManager extends AbstractSessionManager
     public void setIdleSavePeriod(int seconds)
     {
       _idleSavePeriodMs = seconds * 1000L;
+      for (HashedSession session : _sessions.values())
+          index(session);
     }
 
     /* ------------------------------------------------------------ */
@@ -287,6 +324,9 @@ public class HashSessionManager extends AbstractSessionManager
     /**
      * Find sessions that have timed out and invalidate them. This runs in the
      * SessionScavenger thread.
+     * <p>
+     * Only the sessions that the expiry index reports as due are checked. Sessions
+     * that have been accessed since they were indexed are simply re-indexed.
      */
     protected void scavenge()
     {
@@ -301,20 +341,31 @@ public class HashSessionManager extends AbstractSessionManager
             if (_loader!=null)
                 thread.setContextClassLoader(_loader);
 
-            // For each session
+            // For each session that is due to be checked
             long now=System.currentTimeMillis();
-            for (Iterator<HashedSession> i=_sessions.values().iterator(); i.hasNext();)
+            for (HashedSession session : _expiryIndex.takeDue(now))
             {
-                HashedSession session=i.next();
-                long idleTime=session.getMaxInactiveInterval()*1000L;
-                if (idleTime>0&&session.getAccessed()+idleTime<now)
+                try
                 {
-                    // Found a stale session, add it to the list
-                    session.timeout();
+                    if (_sessions.get(session.getClusterId())!=session)
+                        continue;
+
+                    long idleTime=session.getMaxInactiveInterval()*1000L;
+                    if (idleTime>0&&session.getAccessed()+idleTime<now)
+                    {
+                        // Found a stale session
+                        session.timeout();
+                    }
+                    else
+                    {
+                        if (_idleSavePeriodMs>0&&session.getAccessed()+_idleSavePeriodMs<now)
+                            session.idle();
+                        index(session);
+                    }
                 }
-                else if (_idleSavePeriodMs>0&&session.getAccessed()+_idleSavePeriodMs<now)
+                catch (Throwable t)
                 {
-                    session.idle();
+                    LOG.warn("Problem scavenging session "+session.getClusterId(), t);
                 }
             }
         }
@@ -328,12 +379,38 @@ public class HashSessionManager extends AbstractSessionManager
         }
     }
 
+    /* -------------------------------------------------------------- */
+    /**
+     * Index a session by the next time it needs to be checked by the scavenger,
+     * which is the earlier of its expiry time and the time it will become idle.
+     * @param session the session to index
+     */
+    protected void index(HashedSession session)
+    {
+        if (_sessions.get(session.getClusterId())!=session)
+            return;
+
+        long accessed=session.getAccessed();
+        long idleTime=session.getMaxInactiveInterval()*1000L;
+        long next=idleTime>0?accessed+idleTime:Long.MAX_VALUE;
+        if (_idleSavePeriodMs>0 && accessed+_idleSavePeriodMs>System.currentTimeMillis())
+            next=Math.min(next,accessed+_idleSavePeriodMs);
+
+        if (next==Long.MAX_VALUE)
+            _expiryIndex.remove(session);
+        else
+            _expiryIndex.add(session,next);
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     protected void addSession(AbstractSession session)
     {
         if (isRunning())
+        {
             _sessions.put(session.getClusterId(),(HashedSession)session);
+            index((HashedSession)session);
+        }
     }
 
     /* ------------------------------------------------------------ */
@@ -382,9 +459,12 @@ public class HashSessionManager extends AbstractSessionManager
             if (isStopping() && _storeDir != null && _storeDir.exists() && _storeDir.canWrite())
             {
                 // Then we only save and remove the session - it is not invalidated.
+                if (_sessionLog)
+                    saveSessionLog(sessions,false);
                 for (HashedSession session : sessions)
                 {
-                    session.save(false);
+                    if (!_sessionLog)
+                        session.save(false);
                     removeSession(session,false);
                 }
             }
@@ -447,7 +527,11 @@ public class HashSessionManager extends AbstractSessionManager
     @Override
     protected boolean removeSession(String clusterId)
     {
-        return _sessions.remove(clusterId)!=null;
+        HashedSession session=_sessions.remove(clusterId);
+        if (session==null)
+            return false;
+        _expiryIndex.remove(session);
+        return true;
     }
 
     /* ------------------------------------------------------------ */
@@ -486,6 +570,49 @@ public class HashSessionManager extends AbstractSessionManager
         _deleteUnrestorableSessions = deleteUnrestorableSessions;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if all sessions are saved to and restored from a single session log file
+     */
+    public boolean isSessionLog()
+    {
+        return _sessionLog;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sessionLog if true, {@link #saveSessions(boolean)} writes all sessions to a single
+     * append log file in the store directory, using several threads. Otherwise each session is
+     * saved to a file of its own. Idled sessions are always saved to a file of their own.
+     */
+    public void setSessionLog(boolean sessionLog)
+    {
+        _sessionLog = sessionLog;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of threads used to save and restore the session log
+     */
+    public int getStoreThreads()
+    {
+        return _storeThreads;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param threads the number of threads used to save and restore the session log
+     */
+    public synchronized void setStoreThreads(int threads)
+    {
+        _storeThreads = Math.max(1,threads);
+
+        // a new executor of the new size is created when next needed
+        if (_storeExecutor!=null)
+            _storeExecutor.shutdown();
+        _storeExecutor=null;
+    }
+
     /* ------------------------------------------------------------ */
     public void restoreSessions () throws Exception
     {
@@ -502,10 +629,13 @@ public class HashSessionManager extends AbstractSessionManager
             return;
         }
 
+        restoreSessionLog();
+
         String[] files = _storeDir.list();
         for (int i=0;files!=null&&i<files.length;i++)
         {
-            restoreSession(files[i]);
+            if (!files[i].startsWith(__SessionLog))
+                restoreSession(files[i]);
         }
     }
 
@@ -565,8 +695,246 @@ public class HashSessionManager extends AbstractSessionManager
             return;
         }
 
-        for (HashedSession session : _sessions.values())
-            session.save(reactivate);
+        if (_sessionLog)
+            saveSessionLog(new ArrayList<HashedSession>(_sessions.values()),reactivate);
+        else
+        {
+            for (HashedSession session : _sessions.values())
+                session.save(reactivate);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Save sessions to the session log.
+     * <p>
+     * Each record of the log is the int length of the session followed by the session as
+     * written by {@link HashedSession#save(java.io.OutputStream)}. The sessions are serialized
+     * by several threads, which append to the log file in batches. The log is written to a
+     * temporary file which then replaces any previous log.
+     */
+    protected void saveSessionLog(final List<HashedSession> sessions, final boolean reactivate) throws Exception
+    {
+        File tmp = new File(_storeDir,__SessionLog+".tmp");
+        File log = new File(_storeDir,__SessionLog);
+        RandomAccessFile raf = new RandomAccessFile(tmp,"rw");
+        try
+        {
+            final FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            final AtomicLong position = new AtomicLong();
+            final int threads=Math.min(_storeThreads,Math.max(1,sessions.size()));
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t=0;t<threads;t++)
+            {
+                final int shard=t;
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        ByteArrayOutputStream2 batch = new ByteArrayOutputStream2(64*1024);
+                        ByteArrayOutputStream2 record = new ByteArrayOutputStream2(1024);
+                        for (int i=shard;i<sessions.size();i+=threads)
+                        {
+                            record.reset();
+                            if (!sessions.get(i).save(record,reactivate))
+                                continue;
+                            int length=record.getCount();
+                            batch.write(length>>>24);
+                            batch.write(length>>>16);
+                            batch.write(length>>>8);
+                            batch.write(length);
+                            batch.write(record.getBuf(),0,length);
+                            if (batch.getCount()>=64*1024)
+                                append(channel,position,batch);
+                        }
+                        append(channel,position,batch);
+                        return null;
+                    }
+                });
+            }
+            parallel(tasks);
+
+            channel.force(false);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if (log.exists())
+            log.delete();
+        if (!tmp.renameTo(log))
+            throw new IOException("Unable to rename "+tmp+" to "+log);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void append(FileChannel channel, AtomicLong position, ByteArrayOutputStream2 batch) throws IOException
+    {
+        if (batch.getCount()==0)
+            return;
+        ByteBuffer buffer = ByteBuffer.wrap(batch.getBuf(),0,batch.getCount());
+        long pos=position.getAndAdd(buffer.remaining());
+        while (buffer.hasRemaining())
+            pos+=channel.write(buffer,pos);
+        batch.reset();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Restore sessions from the session log, if any.
+     * <p>
+     * The log is read in a single buffer and scanned for the records, which are then
+     * restored by several threads. The log is deleted once restored. The log is not
+     * memory mapped, as a mapped file cannot be deleted on some platforms until the
+     * mapping has been garbage collected.
+     */
+    protected void restoreSessionLog() throws Exception
+    {
+        File log = new File(_storeDir,__SessionLog);
+        if (!log.exists())
+            return;
+
+        RandomAccessFile raf = new RandomAccessFile(log,"r");
+        Exception error = null;
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if (channel.size()>Integer.MAX_VALUE)
+                throw new IOException("Session log too large "+log);
+            final ByteBuffer map = ByteBuffer.allocate((int)channel.size());
+            while (map.hasRemaining() && channel.read(map)>=0)
+            {
+            }
+            map.flip();
+
+            // scan for the records
+            final List<int[]> records = new ArrayList<int[]>();
+            while (map.remaining()>=4)
+            {
+                int length=map.getInt();
+                if (length<0 || length>map.remaining())
+                {
+                    LOG.warn("Truncated session log "+log);
+                    break;
+                }
+                records.add(new int[]{map.position(),length});
+                map.position(map.position()+length);
+            }
+
+            final int threads=Math.min(_storeThreads,Math.max(1,records.size()));
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t=0;t<threads;t++)
+            {
+                final int shard=t;
+                tasks.add(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        for (int i=shard;i<records.size();i+=threads)
+                        {
+                            ByteBuffer record = map.duplicate();
+                            record.limit(records.get(i)[0]+records.get(i)[1]);
+                            record.position(records.get(i)[0]);
+                            try
+                            {
+                                HashedSession session = restoreSession(new ByteBufferInputStream(record), null);
+                                addSession(session, false);
+                                session.didActivate();
+                            }
+                            catch (Exception e)
+                            {
+                                LOG.warn("Problem restoring session from "+__SessionLog, e);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            parallel(tasks);
+        }
+        catch (Exception e)
+        {
+            error = e;
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if (error != null && !isDeleteUnrestorableSessions())
+        {
+            LOG.warn("Problem restoring session log "+log, error);
+            return;
+        }
+        log.delete();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void parallel(List<Callable<Void>> tasks) throws Exception
+    {
+        if (tasks.size()==1)
+        {
+            tasks.get(0).call();
+            return;
+        }
+
+        // run the tasks with the context classloader, so that session attributes may be (de)serialized
+        final ClassLoader loader=_loader!=null?_loader:Thread.currentThread().getContextClassLoader();
+        List<Callable<Void>> loading = new ArrayList<Callable<Void>>();
+        for (final Callable<Void> task : tasks)
+        {
+            loading.add(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    Thread.currentThread().setContextClassLoader(loader);
+                    return task.call();
+                }
+            });
+        }
+
+        for (Future<Void> future : getStoreExecutor().invokeAll(loading))
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception)e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the executor of the store threads, which is created when first needed and
+     * shutdown when the manager is stopped. Idle store threads exit after a minute.
+     */
+    private synchronized ExecutorService getStoreExecutor()
+    {
+        if (_storeExecutor==null)
+        {
+            _storeExecutor=new ThreadPoolExecutor(_storeThreads,_storeThreads,60,TimeUnit.SECONDS,new LinkedBlockingQueue<Runnable>(),new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread=new Thread(runnable,"HashSessionStore-"+__id++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            _storeExecutor.allowCoreThreadTimeOut(true);
+        }
+        return _storeExecutor;
     }
 
     /* ------------------------------------------------------------ */
@@ -604,6 +972,157 @@ public class HashSessionManager extends AbstractSessionManager
     }
 
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * Index of sessions by the time they next need to be checked by the scavenger.
+     * <p>
+     * Sessions are held in sets bucketed by time, so that the sessions due
+     * to be checked can be taken without visiting all the other sessions.
+     */
+    protected static class ExpiryIndex
+    {
+        private final ConcurrentSkipListMap<Long,Set<HashedSession>> _buckets = new ConcurrentSkipListMap<Long,Set<HashedSession>>();
+        private final long _granularityMs;
+
+        /* ------------------------------------------------------------ */
+        public ExpiryIndex(long granularityMs)
+        {
+            _granularityMs=granularityMs;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Add a session to the index, replacing any previous entry for it.
+         * @param session the session
+         * @param time the time at which the session is due to be checked
+         */
+        public void add(HashedSession session, long time)
+        {
+            // round up, so that a session is never checked before it is due
+            long bucket=(time+_granularityMs-1)/_granularityMs;
+            synchronized (session)
+            {
+                if (session._expiryBucket==bucket)
+                    return;
+                remove(session);
+                session._expiryBucket=bucket;
+
+                while (true)
+                {
+                    Set<HashedSession> sessions=_buckets.get(bucket);
+                    if (sessions==null)
+                    {
+                        sessions=new ConcurrentHashSet<HashedSession>();
+                        Set<HashedSession> race=_buckets.putIfAbsent(bucket,sessions);
+                        if (race!=null)
+                            sessions=race;
+                    }
+                    sessions.add(session);
+
+                    // if the bucket was not taken while we were adding, we are done
+                    if (_buckets.get(bucket)==sessions)
+                        break;
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        public void remove(HashedSession session)
+        {
+            synchronized (session)
+            {
+                long bucket=session._expiryBucket;
+                if (bucket==0)
+                    return;
+                session._expiryBucket=0;
+                Set<HashedSession> sessions=_buckets.get(bucket);
+                if (sessions!=null)
+                    sessions.remove(session);
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Remove and return all the sessions that are due to be checked.
+         * @param now the current time
+         * @return the due sessions, which are no longer indexed
+         */
+        public List<HashedSession> takeDue(long now)
+        {
+            long due=now/_granularityMs;
+            List<HashedSession> sessions = new ArrayList<HashedSession>();
+            while (true)
+            {
+                Map.Entry<Long,Set<HashedSession>> entry=_buckets.firstEntry();
+                if (entry==null || entry.getKey()>due)
+                    break;
+                if (!_buckets.remove(entry.getKey(),entry.getValue()))
+                    continue;
+
+                long bucket=entry.getKey();
+                for (HashedSession session : entry.getValue())
+                {
+                    synchronized (session)
+                    {
+                        // ignore sessions that have since been re-indexed or removed
+                        if (session._expiryBucket!=bucket)
+                            continue;
+                        session._expiryBucket=0;
+                    }
+                    sessions.add(session);
+                }
+            }
+            return sessions;
+        }
+
+        /* ------------------------------------------------------------ */
+        public void clear()
+        {
+            _buckets.clear();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer _buffer;
+
+        /* ------------------------------------------------------------ */
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            _buffer=buffer;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public int read() throws IOException
+        {
+            if (!_buffer.hasRemaining())
+                return -1;
+            return _buffer.get()&0xff;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (!_buffer.hasRemaining())
+                return -1;
+            len=Math.min(len,_buffer.remaining());
+            _buffer.get(b,off,len);
+            return len;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public int available() throws IOException
+        {
+            return _buffer.remaining();
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     protected class ClassLoadingObjectInputStream extends ObjectInputStream
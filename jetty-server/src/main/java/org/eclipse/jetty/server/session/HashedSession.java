@@ -51,6 +51,9 @@ public class HashedSession extends AbstractSession
      * data stored in the session that is not serializable. */
     private transient boolean _saveFailed = false;
 
+    /** The time bucket in which this session is held by the expiry index of the manager, or 0 if not indexed. */
+    transient long _expiryBucket;
+
     /* ------------------------------------------------------------- */
     protected HashedSession(HashSessionManager hashSessionManager, HttpServletRequest request)
     {
@@ -80,6 +83,7 @@ public class HashedSession extends AbstractSession
         super.setMaxInactiveInterval(secs);
         if (getMaxInactiveInterval()>0&&(getMaxInactiveInterval()*1000L/10)<_hashSessionManager._scavengePeriodMs)
             _hashSessionManager.setScavengePeriod((secs+9)/10);
+        _hashSessionManager.index(this);
     }
 
     /* ------------------------------------------------------------ */
@@ -166,6 +170,36 @@ public class HashedSession extends AbstractSession
     }
     
     
+    /* ------------------------------------------------------------ */
+    /**
+     * Save the session to a stream, as a record of the session log.
+     * @param os the stream to save the session to
+     * @param reactivate if true the session is activated again after saving, otherwise its attributes are cleared
+     * @return true if the session was saved, false if it is idled or has previously failed to save
+     */
+    synchronized boolean save(OutputStream os, boolean reactivate)
+    {
+        if (isIdled() || _saveFailed)
+            return false;
+
+        try
+        {
+            willPassivate();
+            save(os);
+            if (reactivate)
+                didActivate();
+            else
+                clearAttributes();
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Problem saving session " + super.getId(), e);
+            saveFailed();
+            return false;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     public synchronized void save(OutputStream os)  throws IOException
     {
@@ -96,6 +96,7 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
     protected  String _updateSession;
     protected  String _updateSessionNode;
     protected  String _updateSessionAccessTime;
+    protected  String _querySessionLastSaved;
 
     protected DatabaseAdaptor _dbAdaptor;
 
@@ -715,6 +716,8 @@ public class JDBCSessionIdManager extends AbstractSessionIdManager
             _updateSessionAccessTime = "update "+_sessionTable+
             " set lastNode = ?, accessTime = ?, lastAccessTime = ?, lastSavedTime = ?, expiryTime = ? where "+_sessionTableRowId+" = ?";
 
+            _querySessionLastSaved = "select lastSavedTime from "+_sessionTable+
+            " where "+_sessionTableRowId+" = ?";
 
         }
         finally
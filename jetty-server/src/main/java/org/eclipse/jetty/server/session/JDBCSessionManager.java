@@ -68,8 +68,12 @@ import org.eclipse.jetty.util.log.Logger;
  * the accessTime and lastAccessTime every time the session is accessed. Rather,
  * we write it out every so often. The frequency is controlled by the saveIntervalSec
  * field.
+ *
+ * If a {@link SessionNearCache} is set, the lastSavedTime column is used as the
+ * version of a session, so that cached sessions can be validated in the background
+ * without loading the session data.
  */
-public class JDBCSessionManager extends AbstractSessionManager
+public class JDBCSessionManager extends AbstractSessionManager implements SessionNearCache.VersionSource
 {
     private static final Logger LOG = Log.getLogger(JDBCSessionManager.class);
 
@@ -612,6 +616,68 @@ public class JDBCSessionManager extends AbstractSessionManager
         }
     }
 
+    /**
+     * The version of an in memory session is the time it was last saved to the database.
+     *
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#getVersion(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    public Object getVersion(AbstractSession session)
+    {
+        return ((Session)session)._data.getLastSaved();
+    }
+
+    /**
+     * Load the time the session was last saved to the database by any node.
+     *
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#loadVersion(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    public Object loadVersion(AbstractSession session) throws Exception
+    {
+        SessionData data = ((Session)session)._data;
+        Connection connection = getConnection();
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try
+        {
+            statement = connection.prepareStatement(_jdbcSessionIdMgr._querySessionLastSaved);
+            statement.setString(1, data.getRowId());
+            result = statement.executeQuery();
+            if (result.next())
+                return result.getLong("lastSavedTime");
+            return null;
+        }
+        finally
+        {
+            if (result!=null)
+            {
+                try { result.close(); }
+                catch (Exception e) { LOG.warn(e); }
+            }
+            if (statement!=null)
+            {
+                try { statement.close(); }
+                catch (Exception e) { LOG.warn(e); }
+            }
+            if (connection!=null)
+                connection.close();
+        }
+    }
+
+    /**
+     * A cached session has been saved by another node, so drop our copy
+     * from memory so that it is reloaded from the database on next access.
+     *
+     * @see org.eclipse.jetty.server.session.SessionNearCache.VersionSource#stale(org.eclipse.jetty.server.session.AbstractSession)
+     */
+    public void stale(AbstractSession session)
+    {
+        synchronized (this)
+        {
+            if (_sessions!=null)
+                _sessions.remove(session.getClusterId(),session);
+        }
+    }
+
     /**
      * Get the number of sessions.
      *
@@ -802,6 +868,9 @@ public class JDBCSessionManager extends AbstractSessionManager
         // Remove session from context and global maps
         boolean removed = false;
 
+        if (_nearCache!=null)
+            _nearCache.remove(session.getClusterId());
+
         synchronized (this)
         {
             //take this session out of the map of sessions for this context
@@ -0,0 +1,445 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Logger;
+
+/* ------------------------------------------------------------ */
+/** A bounded, node local cache of sessions sitting in front of a clustered {@link AbstractSessionManager}.
+ * <p>
+ * When a near cache is set on a session manager, {@link AbstractSessionManager#getHttpSession(String)}
+ * first looks up the session in this cache and only calls {@link AbstractSessionManager#getSession(String)}
+ * (which may go to the backing store) on a miss. With sticky load balancing this means that most requests
+ * are served from memory.
+ * <p>
+ * Cached sessions are validated in the background: every validate period the version of each cached session
+ * that has not been validated recently is compared with the version held by the backing store, as reported by
+ * the {@link VersionSource}. Sessions whose version differs are evicted from the cache and passed to
+ * {@link VersionSource#stale(AbstractSession)}, so that the next request will load them from the store.
+ * If no {@link VersionSource} is available, entries are simply evicted once they have not been validated
+ * for the max stale period.
+ * <p>
+ * This cache will use the shared Timer instance set as the "org.eclipse.jetty.server.session.timer"
+ * attribute of the ContextHandler, or create its own.
+ */
+@ManagedObject("Session near cache")
+public class SessionNearCache extends AbstractLifeCycle
+{
+    final static Logger LOG = SessionHandler.LOG;
+
+    /* ------------------------------------------------------------ */
+    /** The source of session versions used to validate cached sessions.
+     * <p>
+     * Typically implemented by the clustered session manager itself.
+     */
+    public interface VersionSource
+    {
+        /* ------------------------------------------------------------ */
+        /**
+         * @param session A session held in memory by this node
+         * @return the version of the in memory copy of the session
+         */
+        Object getVersion(AbstractSession session);
+
+        /* ------------------------------------------------------------ */
+        /** Cheaply load the version of a session from the backing store.
+         * @param session A session held in memory by this node
+         * @return the version of the session in the backing store, or null if the session is no longer stored
+         * @throws Exception if the store could not be consulted
+         */
+        Object loadVersion(AbstractSession session) throws Exception;
+
+        /* ------------------------------------------------------------ */
+        /** Called when a cached session has been found to be stale and has been evicted.
+         * @param session The stale session
+         */
+        void stale(AbstractSession session);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static class Entry
+    {
+        final AbstractSession _session;
+        volatile long _validated;
+
+        Entry(AbstractSession session, long validated)
+        {
+            _session=session;
+            _validated=validated;
+        }
+    }
+
+    private static int __id;
+
+    private final Map<String,Entry> _entries = new LinkedHashMap<String,Entry>(16,0.75f,true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest)
+        {
+            if (size()>_maxEntries)
+            {
+                _evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private final AtomicLong _staleEvictions = new AtomicLong();
+    private volatile VersionSource _versionSource;
+    private volatile int _maxEntries=10000;
+    private long _validatePeriodMs=10000;
+    private long _maxStaleMs=60000;
+    private Timer _timer;
+    private boolean _timerStop;
+    private TimerTask _task;
+
+    /* ------------------------------------------------------------ */
+    public SessionNearCache()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    public SessionNearCache(VersionSource versionSource)
+    {
+        _versionSource=versionSource;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStart() throws Exception
+    {
+        _timerStop=false;
+        ServletContext context = ContextHandler.getCurrentContext();
+        if (context!=null)
+            _timer=(Timer)context.getAttribute("org.eclipse.jetty.server.session.timer");
+        if (_timer==null)
+        {
+            _timerStop=true;
+            _timer=new Timer("SessionNearCache-"+__id++, true);
+        }
+
+        setValidatePeriod(getValidatePeriod());
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this)
+        {
+            if (_task!=null)
+                _task.cancel();
+            _task=null;
+            if (_timer!=null && _timerStop)
+                _timer.cancel();
+            _timer=null;
+        }
+        clear();
+        super.doStop();
+    }
+
+    /* ------------------------------------------------------------ */
+    public VersionSource getVersionSource()
+    {
+        return _versionSource;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setVersionSource(VersionSource versionSource)
+    {
+        _versionSource=versionSource;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum number of cached sessions")
+    public int getMaxEntries()
+    {
+        return _maxEntries;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxEntries the maximum number of sessions held by this cache. The least recently used sessions are evicted first.
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        _maxEntries=maxEntries;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("period in s between background validations of cached sessions")
+    public int getValidatePeriod()
+    {
+        return (int)(_validatePeriodMs/1000);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param seconds the period in seconds at which cached sessions are validated against the backing store.
+     */
+    public void setValidatePeriod(int seconds)
+    {
+        if (seconds<=0)
+            seconds=1;
+        _validatePeriodMs=seconds*1000L;
+
+        if (_timer!=null)
+        {
+            synchronized (this)
+            {
+                if (_task!=null)
+                    _task.cancel();
+                _task = new TimerTask()
+                {
+                    @Override
+                    public void run()
+                    {
+                        validate();
+                    }
+                };
+                _timer.schedule(_task,_validatePeriodMs,_validatePeriodMs);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum time in s a cached session may be used without being validated")
+    public int getMaxStalePeriod()
+    {
+        return (int)(_maxStaleMs/1000);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param seconds the maximum time in seconds that a cached session may be served without a successful validation.
+     * After this period, the session is looked up again via the session manager.
+     */
+    public void setMaxStalePeriod(int seconds)
+    {
+        _maxStaleMs=seconds*1000L;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get a cached session.
+     * @param clusterId The session ID in the cluster
+     * @return The cached session or null if it is not cached or is no longer usable.
+     */
+    public AbstractSession get(String clusterId)
+    {
+        Entry entry;
+        synchronized (_entries)
+        {
+            entry=_entries.get(clusterId);
+        }
+
+        if (entry!=null)
+        {
+            AbstractSession session=entry._session;
+            if (session.isValid() &&
+                clusterId.equals(session.getClusterId()) &&
+                (_maxStaleMs<=0 || System.currentTimeMillis()-entry._validated<_maxStaleMs))
+            {
+                _hits.incrementAndGet();
+                return session;
+            }
+            remove(clusterId,entry);
+        }
+
+        _misses.incrementAndGet();
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Cache a session that has just been obtained from the session manager.
+     * @param session The session
+     */
+    public void put(AbstractSession session)
+    {
+        Entry entry=new Entry(session,System.currentTimeMillis());
+        synchronized (_entries)
+        {
+            _entries.put(session.getClusterId(),entry);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Evict a session from the cache.
+     * @param clusterId The session ID in the cluster
+     * @return the evicted session or null if none was cached
+     */
+    public AbstractSession remove(String clusterId)
+    {
+        Entry entry;
+        synchronized (_entries)
+        {
+            entry=_entries.remove(clusterId);
+        }
+        return entry==null?null:entry._session;
+    }
+
+    /* ------------------------------------------------------------ */
+    private boolean remove(String clusterId, Entry entry)
+    {
+        synchronized (_entries)
+        {
+            if (_entries.get(clusterId)!=entry)
+                return false;
+            _entries.remove(clusterId);
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="evict all cached sessions", impact="ACTION")
+    public void clear()
+    {
+        synchronized (_entries)
+        {
+            _entries.clear();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Validate the cached sessions that have not been validated for a validate period.
+     * This runs in the timer thread.
+     */
+    protected void validate()
+    {
+        if (!isRunning())
+            return;
+
+        VersionSource source=_versionSource;
+        long now=System.currentTimeMillis();
+
+        List<Map.Entry<String,Entry>> entries;
+        synchronized (_entries)
+        {
+            entries=new ArrayList<Map.Entry<String,Entry>>(_entries.entrySet());
+        }
+
+        for (Map.Entry<String,Entry> e : entries)
+        {
+            String clusterId=e.getKey();
+            Entry entry=e.getValue();
+            if (now-entry._validated<_validatePeriodMs)
+                continue;
+
+            if (source==null)
+            {
+                if (_maxStaleMs>0 && now-entry._validated>=_maxStaleMs)
+                    remove(clusterId,entry);
+                continue;
+            }
+
+            try
+            {
+                Object stored=source.loadVersion(entry._session);
+                Object version=source.getVersion(entry._session);
+                if (stored!=null && stored.equals(version))
+                    entry._validated=now;
+                else if (remove(clusterId,entry))
+                {
+                    _staleEvictions.incrementAndGet();
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Near cache evicting stale session {} version {}!={}",clusterId,version,stored);
+                    source.stale(entry._session);
+                }
+            }
+            catch (Exception x)
+            {
+                // the entry is left to age out via the max stale period
+                LOG.warn("Unable to validate session "+clusterId,x);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of cached sessions")
+    public int getSize()
+    {
+        synchronized (_entries)
+        {
+            return _entries.size();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of session lookups served from the cache")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of session lookups not served from the cache")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of sessions evicted because the cache was full")
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of sessions evicted because their version was stale")
+    public long getStaleEvictions()
+    {
+        return _staleEvictions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="reset statistics", impact="ACTION")
+    public void statsReset()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _evictions.set(0);
+        _staleEvictions.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,hits=%d,misses=%d}",getClass().getSimpleName(),hashCode(),getSize(),getHits(),getMisses());
+    }
+}
@@ -0,0 +1,433 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncIOTest
+{
+    private Server _server;
+    private ServerConnector _connector;
+    private final AtomicInteger _read = new AtomicInteger();
+    private final AtomicInteger _allDataRead = new AtomicInteger();
+    private final AtomicInteger _dataAvailable = new AtomicInteger();
+    private final AtomicInteger _reentered = new AtomicInteger();
+    private volatile long _dataAvailableDelay;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        _server = new Server();
+        _connector = new ServerConnector(_server);
+        _connector.setIdleTimeout(10000);
+        _server.addConnector(_connector);
+        _server.setHandler(new EchoLengthHandler());
+        _server.start();
+    }
+
+    @After
+    public void stopServer() throws Exception
+    {
+        _server.stop();
+        _server.join();
+    }
+
+    @Test
+    public void testSlowUploadAndDownload() throws Exception
+    {
+        byte[] content = new byte[64*1024];
+        Arrays.fill(content,(byte)'x');
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            String header=
+                "POST / HTTP/1.1\r\n"+
+                "Host: localhost\r\n"+
+                "Content-Length: "+content.length+"\r\n"+
+                "Connection: close\r\n"+
+                "\r\n";
+            out.write(header.getBytes(StringUtil.__ISO_8859_1));
+            out.flush();
+
+            for (int i=0;i<4;i++)
+            {
+                Thread.sleep(100);
+                out.write(content,i*16*1024,16*1024);
+                out.flush();
+            }
+
+            // Read the large response slowly, so the server writes are incomplete
+            Thread.sleep(500);
+            InputStream in = socket.getInputStream();
+            String response = IO.toString(in,StringUtil.__ISO_8859_1);
+
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            String body=response.substring(response.indexOf("\r\n\r\n")+4);
+            assertEquals(content.length*16,body.length());
+            assertTrue(body.startsWith("read="+content.length+"\n"));
+        }
+
+        assertEquals(content.length,_read.get());
+        assertEquals(1,_allDataRead.get());
+    }
+
+    @Test
+    public void testReadListenerNotReentered() throws Exception
+    {
+        _dataAvailableDelay=20;
+        byte[] content = new byte[1024];
+        Arrays.fill(content,(byte)'x');
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            String header=
+                "POST / HTTP/1.1\r\n"+
+                "Host: localhost\r\n"+
+                "Content-Length: "+content.length*32+"\r\n"+
+                "Connection: close\r\n"+
+                "\r\n";
+            out.write(header.getBytes(StringUtil.__ISO_8859_1));
+            out.flush();
+
+            // Send the content while the listener is still running after isReady() returned false
+            for (int i=0;i<32;i++)
+            {
+                Thread.sleep(5);
+                out.write(content);
+                out.flush();
+            }
+
+            String response = IO.toString(socket.getInputStream(),StringUtil.__ISO_8859_1);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+        }
+
+        assertEquals(content.length*32,_read.get());
+        assertEquals(1,_allDataRead.get());
+        assertThat(_dataAvailable.get(),greaterThanOrEqualTo(1));
+        assertEquals(0,_reentered.get());
+    }
+
+    @Test
+    public void testPipelinedWithWriteListener() throws Exception
+    {
+        _server.stop();
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                byte[] content = target.getBytes(StringUtil.__ISO_8859_1);
+                response.setContentLength(content.length);
+                if (target.startsWith("/async"))
+                    write(request.startAsync(),baseRequest.getResponse().getHttpOutput(),content,false);
+                else
+                    response.getOutputStream().write(content);
+            }
+        });
+        _server.start();
+
+        for (int i=0;i<20;i++)
+        {
+            try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+            {
+                socket.setSoTimeout(10000);
+                String requests=
+                    "GET /sync HTTP/1.1\r\n"+
+                    "Host: localhost\r\n"+
+                    "\r\n"+
+                    "GET /async HTTP/1.1\r\n"+
+                    "Host: localhost\r\n"+
+                    "\r\n"+
+                    "GET /last HTTP/1.1\r\n"+
+                    "Host: localhost\r\n"+
+                    "Connection: close\r\n"+
+                    "\r\n";
+                socket.getOutputStream().write(requests.getBytes(StringUtil.__ISO_8859_1));
+
+                String response = IO.toString(socket.getInputStream(),StringUtil.__ISO_8859_1);
+                int sync=response.indexOf("\r\n\r\n/sync");
+                int async=response.indexOf("\r\n\r\n/async");
+                int last=response.indexOf("\r\n\r\n/last");
+                assertTrue(response,sync>0);
+                assertTrue(response,async>sync);
+                assertTrue(response,last>async);
+            }
+        }
+    }
+
+    @Test
+    public void testCloseAndCompleteWhileWritePending() throws Exception
+    {
+        final byte[] content = new byte[4*1024*1024];
+        Arrays.fill(content,(byte)'x');
+        final AtomicLong closing = new AtomicLong(-1);
+        _server.stop();
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                final AsyncContext async = request.startAsync();
+                final HttpOutput output = baseRequest.getResponse().getHttpOutput();
+                output.setWriteListener(new WriteListener()
+                {
+                    @Override
+                    public void onWritePossible() throws IOException
+                    {
+                        if (output.isClosed())
+                            return;
+
+                        // The client is not reading, so the write is still pending when closing and completing
+                        output.write(content);
+                        if (output.isReady())
+                            output.flush();
+                        long start=System.nanoTime();
+                        boolean ready=output.isReady();
+                        output.close();
+                        async.complete();
+                        closing.set(ready?-2:TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start));
+                    }
+
+                    @Override
+                    public void onError(Throwable failure)
+                    {
+                        async.complete();
+                    }
+                });
+            }
+        });
+        _server.start();
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StringUtil.__ISO_8859_1));
+
+            Thread.sleep(1000);
+            assertThat(closing.get(),greaterThanOrEqualTo(0L));
+            assertThat(closing.get(),lessThan(500L));
+
+            String response = IO.toString(socket.getInputStream(),StringUtil.__ISO_8859_1);
+            assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+            assertEquals(content.length,response.length()-response.indexOf("\r\n\r\n")-4);
+        }
+    }
+
+    @Test
+    public void testIdleTimeoutCallsOnError() throws Exception
+    {
+        final byte[] content = new byte[16*1024*1024];
+        final CountDownLatch error = new CountDownLatch(1);
+        _server.stop();
+        _connector.setIdleTimeout(500);
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setContentLength(content.length);
+                final AsyncContext async = request.startAsync();
+                async.setTimeout(0);
+                final HttpOutput output = baseRequest.getResponse().getHttpOutput();
+                output.setWriteListener(new WriteListener()
+                {
+                    @Override
+                    public void onWritePossible() throws IOException
+                    {
+                        if (output.isReady() && !output.isClosed())
+                            output.write(content);
+                    }
+
+                    @Override
+                    public void onError(Throwable failure)
+                    {
+                        error.countDown();
+                        async.complete();
+                    }
+                });
+            }
+        });
+        _server.start();
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StringUtil.__ISO_8859_1));
+
+            // The client never reads, so the pending write fails when the connection is idle
+            assertTrue(error.await(10,TimeUnit.SECONDS));
+        }
+    }
+
+    private static void write(final AsyncContext async, final HttpOutput output, final byte[] content, final boolean close)
+    {
+        output.setWriteListener(new WriteListener()
+        {
+            private boolean _written;
+
+            @Override
+            public void onWritePossible() throws IOException
+            {
+                if (!_written)
+                {
+                    _written=true;
+                    output.write(content);
+                }
+                if (output.isReady())
+                    async.complete();
+            }
+
+            @Override
+            public void onError(Throwable failure)
+            {
+                async.complete();
+            }
+        });
+    }
+
+    private class EchoLengthHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(String target, final Request baseRequest, HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException
+        {
+            baseRequest.setHandled(true);
+            final AsyncContext async = request.startAsync();
+            final HttpInput<?> input = baseRequest.getHttpInput();
+            final HttpOutput output = baseRequest.getResponse().getHttpOutput();
+
+            input.setReadListener(new ReadListener()
+            {
+                private final byte[] _buffer = new byte[1024];
+
+                private final AtomicInteger _calls = new AtomicInteger();
+
+                @Override
+                public void onDataAvailable() throws IOException
+                {
+                    _dataAvailable.incrementAndGet();
+                    if (_calls.incrementAndGet()>1)
+                        _reentered.incrementAndGet();
+                    try
+                    {
+                        while (input.isReady())
+                        {
+                            int len=input.read(_buffer);
+                            if (len<0)
+                                break;
+                            _read.addAndGet(len);
+                        }
+
+                        // Give content arriving after isReady() returned false a chance to call back
+                        if (_dataAvailableDelay>0)
+                            Thread.sleep(_dataAvailableDelay);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new IOException(e);
+                    }
+                    finally
+                    {
+                        _calls.decrementAndGet();
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException
+                {
+                    _allDataRead.incrementAndGet();
+                    final int length=_read.get()*16;
+                    response.setContentLength(length);
+                    output.setWriteListener(new WriteListener()
+                    {
+                        private int _written;
+
+                        @Override
+                        public void onWritePossible() throws IOException
+                        {
+                            while (output.isReady())
+                            {
+                                if (_written==length)
+                                {
+                                    async.complete();
+                                    return;
+                                }
+
+                                byte[] chunk;
+                                if (_written==0)
+                                    chunk=("read="+_read.get()+"\n").getBytes(StringUtil.__ISO_8859_1);
+                                else
+                                {
+                                    chunk=new byte[Math.min(length-_written,8192)];
+                                    Arrays.fill(chunk,(byte)'y');
+                                }
+                                output.write(chunk);
+                                _written+=chunk.length;
+                            }
+                        }
+
+                        @Override
+                        public void onError(Throwable failure)
+                        {
+                            async.complete();
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable failure)
+                {
+                    response.setStatus(500);
+                    async.complete();
+                }
+            });
+        }
+    }
+}
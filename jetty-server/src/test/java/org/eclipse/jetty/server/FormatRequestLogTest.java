@@ -0,0 +1,252 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.junit.Test;
+
+public class FormatRequestLogTest
+{
+    private String log(String format, boolean json, String request) throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("formatlog");
+        dir.mkdirs();
+        File file = new File(dir,"request.log");
+        file.delete();
+
+        FormatRequestLog log = new FormatRequestLog(file.getAbsolutePath(),format);
+        log.setJson(json);
+        log.setAppend(false);
+        RequestLogHandler logHandler = new RequestLogHandler();
+        logHandler.setRequestLog(log);
+        logHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (target.startsWith("/async"))
+                {
+                    request.startAsync().complete();
+                    return;
+                }
+                response.setStatus(200);
+                response.setHeader("X-Test","\u00e9t\u00e9");
+                response.getOutputStream().write("hello".getBytes("ISO-8859-1"));
+            }
+        });
+
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        server.setHandler(logHandler);
+        server.start();
+        try
+        {
+            connector.getResponses(request);
+        }
+        finally
+        {
+            server.stop();
+        }
+        return IO.toString(new FileInputStream(file),"UTF-8");
+    }
+
+    @Test
+    public void testTextFormat() throws Exception
+    {
+        String line = log("%m %U %q %H %s %b [%{X-Test}o] [%{Cookie}i] [%{name}C] %%",false,
+                "GET /path?a=b HTTP/1.1\r\nHost: localhost\r\nCookie: name=value\r\nConnection: close\r\n\r\n");
+        assertEquals("GET /path a=b HTTP/1.1 200 5 [\u00e9t\u00e9] [name=value] [value] %",line.trim());
+    }
+
+    @Test
+    public void testMissingValues() throws Exception
+    {
+        String line = log("%u %q \"%{Referer}i\"",false,"GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertEquals("- - \"-\"",line.trim());
+    }
+
+    @Test
+    public void testJsonFormat() throws Exception
+    {
+        String line = log(FormatRequestLog.JSON_FORMAT,true,
+                "GET /p%22q?x=%22 HTTP/1.1\r\nHost: localhost\r\nUser-Agent: a \"quoted\" agent\r\nConnection: close\r\n\r\n");
+        assertTrue(line,line.startsWith("{\"remote\":"));
+        assertTrue(line,line.contains("\"user\":null,"));
+        assertTrue(line,line.contains("\"method\":\"GET\","));
+        assertTrue(line,line.contains("\"uri\":\"/p%22q\","));
+        assertTrue(line,line.contains("\"query\":\"x=%22\","));
+        assertTrue(line,line.contains("\"status\":200,"));
+        assertTrue(line,line.contains("\"bytes\":5,"));
+        assertTrue(line,line.contains("\"referer\":null,"));
+        assertTrue(line,line.contains("\"agent\":\"a \\\"quoted\\\" agent\"}"));
+    }
+
+    @Test
+    public void testJsonIsValid() throws Exception
+    {
+        // unquoted text fields in the template are quoted
+        String format = "{\"line\":%r,\"time\":%t,\"method\":%m,\"status\":%s,\"agent\":%{User-Agent}i,\"cookie\":%{name}C}";
+
+        String line = log(format,true,
+                "GET /p%22q HTTP/1.1\r\nHost: localhost\r\nUser-Agent: a\t\"b\"\\c\r\nConnection: close\r\n\r\n");
+        Map<String,Object> json = new JsonChecker(line.trim()).parse();
+        assertEquals("GET /p%22q HTTP/1.1",json.get("line"));
+        assertTrue(json.get("time") instanceof String);
+        assertEquals("GET",json.get("method"));
+        assertEquals(200L,json.get("status"));
+        assertEquals("a\t\"b\"\\c",json.get("agent"));
+        assertTrue(json.containsKey("cookie"));
+        assertNull(json.get("cookie"));
+
+        line = log(FormatRequestLog.JSON_FORMAT,true,"GET /async HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        json = new JsonChecker(line.trim()).parse();
+        assertEquals("/async",json.get("uri"));
+        assertTrue(json.containsKey("status"));
+        assertTrue(json.get("status")==null || json.get("status") instanceof Long);
+    }
+
+    /* ------------------------------------------------------------ */
+    /** A strict parser of a JSON object of simple values, that fails on any invalid JSON.
+     */
+    private static class JsonChecker
+    {
+        private final String _json;
+        private int _i;
+
+        JsonChecker(String json)
+        {
+            _json = json;
+        }
+
+        Map<String,Object> parse()
+        {
+            Map<String,Object> map = new HashMap<String,Object>();
+            expect('{');
+            if (peek() != '}')
+            {
+                do
+                {
+                    String name = string();
+                    expect(':');
+                    map.put(name,value());
+                }
+                while (next(','));
+            }
+            expect('}');
+            assertEquals(_json,_json.length(),_i);
+            return map;
+        }
+
+        private Object value()
+        {
+            char c = peek();
+            if (c == '"')
+                return string();
+            if (_json.startsWith("null",_i))
+            {
+                _i += 4;
+                return null;
+            }
+            int start = _i;
+            if (c == '-')
+                _i++;
+            while (_i < _json.length() && Character.isDigit(_json.charAt(_i)))
+                _i++;
+            assertTrue(_json + " at " + start,_i > start);
+            return Long.valueOf(_json.substring(start,_i));
+        }
+
+        private String string()
+        {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true)
+            {
+                char c = _json.charAt(_i++);
+                assertTrue(_json + " at " + _i,c >= 0x20);
+                if (c == '"')
+                    return value.toString();
+                if (c != '\\')
+                {
+                    value.append(c);
+                    continue;
+                }
+                c = _json.charAt(_i++);
+                switch (c)
+                {
+                    case '"': case '\\': case '/': value.append(c); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u': value.append((char)Integer.parseInt(_json.substring(_i,_i + 4),16)); _i += 4; break;
+                    default: fail(_json + " at " + _i);
+                }
+            }
+        }
+
+        private char peek()
+        {
+            assertTrue(_json,_i < _json.length());
+            return _json.charAt(_i);
+        }
+
+        private boolean next(char c)
+        {
+            if (peek() != c)
+                return false;
+            _i++;
+            return true;
+        }
+
+        private void expect(char c)
+        {
+            assertEquals(_json + " at " + _i,c,peek());
+            _i++;
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testBadFormat() throws Exception
+    {
+        FormatRequestLog.compile("%{name}x",false);
+    }
+}
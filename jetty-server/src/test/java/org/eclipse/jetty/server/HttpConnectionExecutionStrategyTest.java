@@ -0,0 +1,272 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class HttpConnectionExecutionStrategyTest
+{
+    private final AtomicInteger _dispatched = new AtomicInteger();
+    private final List<Thread> _handlers = new CopyOnWriteArrayList<>();
+    private volatile boolean _recordHandlers = true;
+    private final CountDownLatch _handling = new CountDownLatch(1);
+    private final CountDownLatch _proceed = new CountDownLatch(1);
+    private Server _server;
+    private HttpConnectionFactory _http;
+    private ServerConnector _connector;
+    private LocalConnector _local;
+
+    private void startServer(HttpConnection.ExecutionStrategy strategy) throws Exception
+    {
+        _server = new Server(new QueuedThreadPool()
+        {
+            @Override
+            public boolean dispatch(Runnable job)
+            {
+                _dispatched.incrementAndGet();
+                return super.dispatch(job);
+            }
+        });
+        _http = new HttpConnectionFactory();
+        _http.setExecutionStrategy(strategy);
+        _connector = new ServerConnector(_server,_http);
+        _connector.setPort(0);
+        _server.addConnector(_connector);
+        _local = new LocalConnector(_server,_http);
+        _server.addConnector(_local);
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (_recordHandlers)
+                    _handlers.add(Thread.currentThread());
+                if ("/wait".equals(target))
+                {
+                    // Hold the first request until the client has sent the next one
+                    _handling.countDown();
+                    try
+                    {
+                        _proceed.await(10,TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new ServletException(e);
+                    }
+                }
+                response.setContentLength(2);
+                response.getOutputStream().write("OK".getBytes(StringUtil.__ISO_8859_1));
+            }
+        });
+        _server.start();
+    }
+
+    @After
+    public void stopServer() throws Exception
+    {
+        _server.stop();
+        _server.join();
+    }
+
+    private void requests(int count, boolean pipelined) throws Exception
+    {
+        try (Socket client = new Socket("localhost",_connector.getLocalPort()))
+        {
+            client.setSoTimeout(10000);
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),StringUtil.__ISO_8859_1));
+
+            if (pipelined)
+            {
+                for (int i=0;i<count;i++)
+                    out.write(request("/"));
+                out.flush();
+            }
+
+            for (int i=0;i<count;i++)
+            {
+                if (!pipelined)
+                {
+                    out.write(request("/"));
+                    out.flush();
+                }
+                response(in);
+            }
+        }
+    }
+
+    /**
+     * Sends a request while the previous one on the same connection is being handled.
+     * @return the number of jobs dispatched to the thread pool for both requests
+     */
+    private int requestWhileHandling() throws Exception
+    {
+        try (Socket client = new Socket("localhost",_connector.getLocalPort()))
+        {
+            client.setSoTimeout(10000);
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),StringUtil.__ISO_8859_1));
+
+            int dispatched = _dispatched.get();
+            out.write(request("/wait"));
+            out.flush();
+            Assert.assertTrue(_handling.await(10,TimeUnit.SECONDS));
+
+            out.write(request("/"));
+            out.flush();
+            // Let the second request reach the server before the first one completes
+            Thread.sleep(200);
+            _proceed.countDown();
+
+            response(in);
+            response(in);
+            return _dispatched.get()-dispatched;
+        }
+    }
+
+    private static String pipeline(int count, boolean close)
+    {
+        StringBuilder requests = new StringBuilder();
+        for (int i=0;i<count;i++)
+        {
+            requests.append("GET / HTTP/1.1\r\nHost: localhost\r\n");
+            if (close && i==count-1)
+                requests.append("Connection: close\r\n");
+            requests.append("\r\n");
+        }
+        return requests.toString();
+    }
+
+    private static byte[] request(String uri) throws IOException
+    {
+        return ("GET "+uri+" HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StringUtil.__ISO_8859_1);
+    }
+
+    private static void response(BufferedReader in) throws IOException
+    {
+        Assert.assertEquals("HTTP/1.1 200 OK",in.readLine());
+        String line=in.readLine();
+        while (line.length()>0)
+            line=in.readLine();
+        char[] content = new char[2];
+        Assert.assertEquals(2,in.read(content));
+        Assert.assertEquals("OK",new String(content));
+    }
+
+    @Test
+    public void testDispatch() throws Exception
+    {
+        startServer(HttpConnection.ExecutionStrategy.DISPATCH);
+
+        // The next request is filled by the selector and dispatched again
+        Assert.assertEquals(2,requestWhileHandling());
+        Assert.assertEquals(2,_handlers.size());
+
+        _handlers.clear();
+        requests(10,false);
+        requests(10,true);
+        Assert.assertEquals(20,_handlers.size());
+    }
+
+    @Test
+    public void testProduceConsume() throws Exception
+    {
+        startServer(HttpConnection.ExecutionStrategy.PRODUCE_CONSUME);
+
+        // The thread that handled the first request fills and handles the next one itself
+        Assert.assertEquals(1,requestWhileHandling());
+        Assert.assertEquals(2,_handlers.size());
+        Assert.assertSame(_handlers.get(0),_handlers.get(1));
+
+        _handlers.clear();
+        requests(10,false);
+        requests(10,true);
+        Assert.assertEquals(20,_handlers.size());
+    }
+
+    @Test
+    public void testProduceConsumePipelineDepth() throws Exception
+    {
+        startServer(HttpConnection.ExecutionStrategy.PRODUCE_CONSUME);
+
+        // Each run of buffered requests is recorded once the handling thread runs out of input,
+        // even though the connection stays open
+        for (int run=0;run<2;run++)
+        {
+            String responses=_local.getResponses(pipeline(5,false),100,TimeUnit.MILLISECONDS);
+            Assert.assertEquals(5,responses.split("HTTP/1.1 200 OK").length-1);
+        }
+        for (int i=0;i<100 && _http.getPipelines()<2;i++)
+            Thread.sleep(10);
+        Assert.assertEquals(2,_http.getPipelines());
+        Assert.assertEquals(10,_http.getPipelinedRequests());
+        Assert.assertEquals(5,_http.getPipelineDepthMax());
+    }
+
+    @Test
+    @Ignore
+    public void benchmarkStrategies() throws Exception
+    {
+        String pipeline=pipeline(100,true);
+        _recordHandlers=false;
+        for (HttpConnection.ExecutionStrategy strategy : HttpConnection.ExecutionStrategy.values())
+        {
+            startServer(strategy);
+            requests(10000,false);
+            for (int i=0;i<100;i++)
+                _local.getResponses(pipeline);
+            for (int run=0;run<3;run++)
+            {
+                long start=System.nanoTime();
+                requests(50000,false);
+                long elapsed=System.nanoTime()-start;
+                System.err.printf("%s loopback: %d ns/request%n",strategy,elapsed/50000);
+
+                start=System.nanoTime();
+                for (int i=0;i<500;i++)
+                    _local.getResponses(pipeline);
+                elapsed=System.nanoTime()-start;
+                System.err.printf("%s local pipelined: %d ns/request%n",strategy,elapsed/50000);
+            }
+            stopServer();
+        }
+    }
+}
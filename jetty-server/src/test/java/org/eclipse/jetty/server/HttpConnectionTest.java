@@ -34,6 +34,7 @@ import java.io.PrintWriter;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +42,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpParser;
 import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.log.StdErrLog;
@@ -58,6 +60,7 @@ public class HttpConnectionTest
     private static final Logger LOG = Log.getLogger(HttpConnectionTest.class);
 
     private Server server;
+    private HttpConnectionFactory http;
     private LocalConnector connector;
 
     @Before
@@ -65,7 +68,7 @@ public class HttpConnectionTest
     {
         server = new Server();
 
-        HttpConnectionFactory http = new HttpConnectionFactory();
+        http = new HttpConnectionFactory();
         http.getHttpConfiguration().setRequestHeaderSize(1024);
         http.getHttpConfiguration().setResponseHeaderSize(1024);
         
@@ -128,6 +131,41 @@ public class HttpConnectionTest
         }
     }
 
+    @Test
+    public void testPipelined() throws Exception
+    {
+        String response=connector.getResponses("GET /R1 HTTP/1.1\n"+
+                                               "Host: localhost\n"+
+                                               "\015\012"+
+                                               "POST /R2 HTTP/1.1\n"+
+                                               "Host: localhost\n"+
+                                               "Content-Type: text/plain\n"+
+                                               "Content-Length: 5\n"+
+                                               "\015\012"+
+                                               "12345"+
+                                               "GET /R3 HTTP/1.1\n"+
+                                               "Host: localhost\n"+
+                                               "Connection: close\n"+
+                                               "\015\012");
+
+        int offset=0;
+        offset = checkContains(response,offset,"HTTP/1.1 200");
+        offset = checkContains(response,offset,"/R1");
+        offset = checkContains(response,offset,"HTTP/1.1 200");
+        offset = checkContains(response,offset,"/R2");
+        offset = checkContains(response,offset,"12345");
+        offset = checkContains(response,offset,"HTTP/1.1 200");
+        offset = checkContains(response,offset,"/R3");
+
+        // All three requests were handled from the one buffer without a dispatch per request.
+        // The run is recorded once the last response has been written, so allow it to complete
+        for (int i=0;i<100 && http.getPipelineDepthMax()==0;i++)
+            Thread.sleep(10);
+        Assert.assertEquals(1,http.getPipelines());
+        Assert.assertEquals(3,http.getPipelinedRequests());
+        Assert.assertEquals(3,http.getPipelineDepthMax());
+    }
+
     @Test
     public void testNoPath() throws Exception
     {
@@ -471,6 +509,67 @@ public class HttpConnectionTest
         checkContains(response, offset, "HTTP/1.1 413");
     }
 
+    @Test
+    public void testPipelinedBehindAsync() throws Exception
+    {
+        server.stop();
+        server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                if (target.startsWith("/async"))
+                {
+                    // The response is written by another thread while the suspending thread returns
+                    final AsyncContext async = request.startAsync();
+                    new Thread()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                response.getOutputStream().print("async");
+                            }
+                            catch (IOException e)
+                            {
+                                LOG.warn(e);
+                            }
+                            async.complete();
+                        }
+                    }.start();
+                    return;
+                }
+                response.getOutputStream().print(target);
+            }
+        });
+        server.start();
+
+        for (int i=0;i<20;i++)
+        {
+            String response=connector.getResponses("GET /R1 HTTP/1.1\n"+
+                                                   "Host: localhost\n"+
+                                                   "\015\012"+
+                                                   "GET /async HTTP/1.1\n"+
+                                                   "Host: localhost\n"+
+                                                   "\015\012"+
+                                                   "GET /R3 HTTP/1.1\n"+
+                                                   "Host: localhost\n"+
+                                                   "Connection: close\n"+
+                                                   "\015\012");
+
+            int offset=0;
+            offset = checkContains(response,offset,"HTTP/1.1 200");
+            offset = checkContains(response,offset,"/R1");
+            offset = checkContains(response,offset,"HTTP/1.1 200");
+            offset = checkContains(response,offset,"async");
+            offset = checkContains(response,offset,"HTTP/1.1 200");
+            offset = checkContains(response,offset,"/R3");
+            Assert.assertEquals(-1,response.indexOf("HTTP/1.1",offset));
+        }
+    }
+
     @Test
     public void testOversizedResponse() throws Exception
     {
@@ -160,6 +160,57 @@ public class ContextHandlerCollectionTest
     }
 
 
+    @Test
+    public void testNestedContextPaths() throws Exception
+    {
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.setConnectors(new Connector[]
+        { connector });
+
+        String[] paths = {"/","/foo","/foo/bar","/fo"};
+        IsHandledHandler[] handlers = new IsHandledHandler[paths.length];
+        ContextHandlerCollection c = new ContextHandlerCollection();
+        for (int i=0;i<paths.length;i++)
+        {
+            ContextHandler context = new ContextHandler(paths[i]);
+            handlers[i] = new IsHandledHandler();
+            context.setHandler(handlers[i]);
+            c.addHandler(context);
+        }
+        server.setHandler(c);
+
+        String[][] tests = {
+            {"/","0"},
+            {"/other","0"},
+            {"/foobar","0"},
+            {"/foo/","1"},
+            {"/foo/barx","1"},
+            {"/foo/bar/","2"},
+            {"/foo/bar/x/y","2"},
+            {"/fo/x","3"}
+        };
+
+        try
+        {
+            server.start();
+            for (String[] test : tests)
+            {
+                connector.getResponses("GET "+test[0]+" HTTP/1.0\n\n");
+                int expected = Integer.parseInt(test[1]);
+                for (int i=0;i<handlers.length;i++)
+                {
+                    assertEquals(test[0]+" "+paths[i],i==expected,handlers[i].isHandled());
+                    handlers[i].reset();
+                }
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
     @Test
     public void testFindContainer() throws Exception
     {
@@ -352,6 +352,15 @@ public class StatisticsHandlerTest
         assertTrue(_statsHandler.getDispatchedTimeMean()+10<=_statsHandler.getDispatchedTimeTotal());
         assertTrue(_statsHandler.getDispatchedTimeMax()+10<=_statsHandler.getDispatchedTimeTotal());
 
+        assertEquals(1, _statsHandler.getRequestTimeHistogram().getCount());
+        assertEquals(_statsHandler.getRequestTimeMax(), _statsHandler.getRequestTimeP999());
+        assertEquals(2, _statsHandler.getDispatchedTimeHistogram().getCount());
+        assertEquals(1, _statsHandler.getAsyncWaitTimeHistogram().getCount());
+        assertThat(_statsHandler.getAsyncWaitTimeHistogram().getMax(),greaterThanOrEqualTo(50L));
+
+        _statsHandler.setStatsInterval(0);
+        assertEquals(_statsHandler.getRequestTimeP50(), _statsHandler.getRequestTimeIntervalP50());
+        assertEquals(0, _statsHandler.getRequestTimeIntervalP50());
     }
 
     @Test
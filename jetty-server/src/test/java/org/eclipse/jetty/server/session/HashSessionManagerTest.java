@@ -0,0 +1,157 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.junit.Test;
+
+public class HashSessionManagerTest
+{
+    private HashSessionManager newManager(File storeDir) throws Exception
+    {
+        HashSessionIdManager idManager = new HashSessionIdManager();
+        idManager.setWorkerName("node0");
+        HashSessionManager manager = new HashSessionManager();
+        manager.setSessionIdManager(idManager);
+        manager.setStoreDirectory(storeDir);
+        manager.setSessionLog(true);
+        manager.setStoreThreads(4);
+        return manager;
+    }
+
+    @Test
+    public void testScavengeDueSessions() throws Exception
+    {
+        HashSessionManager manager = newManager(null);
+        manager.start();
+        try
+        {
+            long now=System.currentTimeMillis();
+            AbstractSession expired = manager.newSession(now-10000,now-10000,"expired");
+            expired.setMaxInactiveInterval(5);
+            manager.addSession(expired,true);
+
+            AbstractSession live = manager.newSession(now,now,"live");
+            live.setMaxInactiveInterval(60);
+            manager.addSession(live,true);
+
+            AbstractSession immortal = manager.newSession(now-10000,now-10000,"immortal");
+            immortal.setMaxInactiveInterval(-1);
+            manager.addSession(immortal,true);
+
+            manager.scavenge();
+
+            assertNull(manager.getSession("expired"));
+            assertNotNull(manager.getSession("live"));
+            assertNotNull(manager.getSession("immortal"));
+            assertEquals(2,manager.getSessions());
+        }
+        finally
+        {
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testSessionLogSaveAndRestore() throws Exception
+    {
+        File storeDir = MavenTestingUtils.getTargetTestingDir("sessionLog");
+        storeDir.mkdirs();
+
+        HashSessionManager manager = newManager(storeDir);
+        manager.start();
+        long now=System.currentTimeMillis();
+        for (int i=0;i<100;i++)
+        {
+            AbstractSession session = manager.newSession(now,now,"session"+i);
+            session.setAttribute("index",i);
+            manager.addSession(session,true);
+        }
+        manager.stop();
+
+        assertTrue(new File(storeDir,HashSessionManager.__SessionLog).exists());
+        assertEquals(1,storeDir.list().length);
+
+        manager = newManager(storeDir);
+        manager.start();
+        try
+        {
+            assertEquals(100,manager._sessions.size());
+            for (int i=0;i<100;i++)
+            {
+                AbstractSession session = manager.getSession("session"+i);
+                assertNotNull(session);
+                assertEquals(i,session.getAttribute("index"));
+            }
+            assertFalse(new File(storeDir,HashSessionManager.__SessionLog).exists());
+        }
+        finally
+        {
+            manager.setStoreDirectory(null);
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void testStoreThreadsReused() throws Exception
+    {
+        File storeDir = MavenTestingUtils.getTargetTestingDir("storeThreads");
+        storeDir.mkdirs();
+
+        HashSessionManager manager = newManager(storeDir);
+        manager.start();
+        try
+        {
+            long now=System.currentTimeMillis();
+            for (int i=0;i<100;i++)
+                manager.addSession(manager.newSession(now,now,"session"+i),true);
+
+            for (int i=0;i<10;i++)
+                manager.saveSessions(true);
+            assertTrue(storeThreads()<=4);
+        }
+        finally
+        {
+            manager.setStoreDirectory(null);
+            manager.stop();
+        }
+
+        // the store threads are stopped with the manager
+        for (int i=0;i<100 && storeThreads()>0;i++)
+            Thread.sleep(50);
+        assertEquals(0,storeThreads());
+    }
+
+    private static int storeThreads()
+    {
+        int threads=0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.isAlive() && thread.getName().startsWith("HashSessionStore-"))
+                threads++;
+        return threads;
+    }
+}
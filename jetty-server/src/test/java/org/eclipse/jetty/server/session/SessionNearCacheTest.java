@@ -0,0 +1,218 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionNearCacheTest
+{
+    public class MockSession extends AbstractSession
+    {
+        long _version=1;
+
+        protected MockSession(AbstractSessionManager manager, String clusterId)
+        {
+            super(manager, System.currentTimeMillis(), System.currentTimeMillis(), clusterId);
+        }
+    }
+
+    public class MockSessionManager extends AbstractSessionManager implements SessionNearCache.VersionSource
+    {
+        final Map<String,MockSession> _sessions = new ConcurrentHashMap<String,MockSession>();
+        final Map<String,Long> _store = new ConcurrentHashMap<String,Long>();
+        final List<AbstractSession> _stale = new ArrayList<AbstractSession>();
+        int _loads;
+
+        @Override
+        protected void addSession(AbstractSession session)
+        {
+            _sessions.put(session.getClusterId(),(MockSession)session);
+            _store.put(session.getClusterId(),((MockSession)session)._version);
+        }
+
+        @Override
+        public AbstractSession getSession(String idInCluster)
+        {
+            _loads++;
+            return _sessions.get(idInCluster);
+        }
+
+        @Override
+        protected void invalidateSessions() throws Exception
+        {
+        }
+
+        @Override
+        protected AbstractSession newSession(HttpServletRequest request)
+        {
+            return null;
+        }
+
+        @Override
+        protected boolean removeSession(String idInCluster)
+        {
+            _store.remove(idInCluster);
+            return _sessions.remove(idInCluster)!=null;
+        }
+
+        @Override
+        public void renewSessionId(String oldClusterId, String oldNodeId, String newClusterId, String newNodeId)
+        {
+        }
+
+        public Object getVersion(AbstractSession session)
+        {
+            return ((MockSession)session)._version;
+        }
+
+        public Object loadVersion(AbstractSession session) throws Exception
+        {
+            return _store.get(session.getClusterId());
+        }
+
+        public void stale(AbstractSession session)
+        {
+            _stale.add(session);
+        }
+    }
+
+    private HashSessionIdManager _idManager;
+    private MockSessionManager _manager;
+    private SessionNearCache _cache;
+
+    @Before
+    public void init() throws Exception
+    {
+        _idManager = new HashSessionIdManager();
+        _idManager.setWorkerName("node0");
+        _manager = new MockSessionManager();
+        _manager.setSessionIdManager(_idManager);
+        _cache = new SessionNearCache(_manager);
+        _cache.setValidatePeriod(1);
+        _cache.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _cache.stop();
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception
+    {
+        MockSession session = new MockSession(_manager,"abc");
+        _manager.addSession(session);
+
+        assertNull(_cache.get("abc"));
+        _cache.put(session);
+        assertSame(session,_cache.get("abc"));
+        assertSame(session,_cache.get("abc"));
+
+        assertEquals(2,_cache.getHits());
+        assertEquals(1,_cache.getMisses());
+
+        _cache.remove("abc");
+        assertNull(_cache.get("abc"));
+    }
+
+    @Test
+    public void testBounded() throws Exception
+    {
+        _cache.setMaxEntries(2);
+        MockSession s0 = new MockSession(_manager,"s0");
+        MockSession s1 = new MockSession(_manager,"s1");
+        MockSession s2 = new MockSession(_manager,"s2");
+
+        _cache.put(s0);
+        _cache.put(s1);
+        _cache.get("s0");
+        _cache.put(s2);
+
+        assertEquals(2,_cache.getSize());
+        assertEquals(1,_cache.getEvictions());
+        assertSame(s0,_cache.get("s0"));
+        assertNull(_cache.get("s1"));
+        assertSame(s2,_cache.get("s2"));
+    }
+
+    @Test
+    public void testInvalidSessionNotServed() throws Exception
+    {
+        MockSession session = new MockSession(_manager,"abc");
+        _manager.addSession(session);
+        _cache.put(session);
+
+        session.invalidate();
+        assertNull(_cache.get("abc"));
+        assertEquals(0,_cache.getSize());
+    }
+
+    @Test
+    public void testValidate() throws Exception
+    {
+        MockSession current = new MockSession(_manager,"current");
+        MockSession changed = new MockSession(_manager,"changed");
+        _manager.addSession(current);
+        _manager.addSession(changed);
+        _cache.put(current);
+        _cache.put(changed);
+
+        // another node has saved a newer version
+        _manager._store.put("changed",2L);
+
+        Thread.sleep(1100);
+        _cache.validate();
+
+        assertSame(current,_cache.get("current"));
+        assertNull(_cache.get("changed"));
+        assertEquals(1,_cache.getStaleEvictions());
+        assertEquals(1,_manager._stale.size());
+        assertSame(changed,_manager._stale.get(0));
+    }
+
+    @Test
+    public void testGetHttpSession() throws Exception
+    {
+        _manager.setNearCache(_cache);
+        MockSession session = new MockSession(_manager,"abc");
+        _manager.addSession(session);
+
+        assertSame(session,_manager.getHttpSession("abc.node0"));
+        assertSame(session,_manager.getHttpSession("abc.node0"));
+        assertEquals(1,_manager._loads);
+
+        _manager.removeSession(session,false);
+        assertNull(_manager.getHttpSession("abc.node0"));
+        assertEquals(2,_manager._loads);
+    }
+}
@@ -31,6 +31,8 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -114,6 +116,12 @@ public class ServletHandler extends ScopedHandler
     protected final ConcurrentMap _chainCache[] = new ConcurrentMap[FilterMapping.ALL];
     protected final Queue[] _chainLRU = new Queue[FilterMapping.ALL];
 
+    private final ConcurrentMap<ChainKey,CachedChain> _chains = new ConcurrentHashMap<>();
+    private final Queue<ChainKey> _chainsLRU = new ConcurrentLinkedQueue<>();
+    private final StripedCounter _chainCacheHits = new StripedCounter();
+    private final AtomicLong _chainCacheMisses = new AtomicLong();
+    private final AtomicLong _chainCacheEvictions = new AtomicLong();
+
 
     /* ------------------------------------------------------------ */
     /** Constructor.
@@ -154,6 +162,7 @@ public class ServletHandler extends ScopedHandler
             _chainLRU[FilterMapping.ERROR]=new ConcurrentLinkedQueue<String>();
             _chainLRU[FilterMapping.ASYNC]=new ConcurrentLinkedQueue<String>();
         }
+        invalidateChainsCache();
 
         if (_contextHandler==null)
             initialize();
@@ -537,16 +546,26 @@ public class ServletHandler extends ScopedHandler
     }
 
     /* ------------------------------------------------------------ */
+    /** Get the filter chain for a request.
+     * Chains are first looked up by path (or servlet name) and dispatch type, so that a
+     * cached path does not match the filter mappings. On a miss, the chain is shared with
+     * other paths through a cache keyed by the servlet holder and the filters that apply,
+     * so that the many paths of a URL space containing IDs share the few distinct chains
+     * that they map to.
+     */
     private FilterChain getFilterChain(Request baseRequest, String pathInContext, ServletHolder servletHolder)
     {
         String key=pathInContext==null?servletHolder.getName():pathInContext;
         int dispatch = FilterMapping.dispatch(baseRequest.getDispatcherType());
 
-        if (_filterChainsCached && _chainCache!=null)
+        if (_filterChainsCached && _chainCache[dispatch]!=null)
         {
             FilterChain chain = (FilterChain)_chainCache[dispatch].get(key);
             if (chain!=null)
+            {
+                _chainCacheHits.increment();
                 return chain;
+            }
         }
 
         // Build list of filters (list of FilterHolder objects)
@@ -590,36 +609,69 @@ public class ServletHandler extends ScopedHandler
         if (filters.isEmpty())
             return null;
 
+        if (!_filterChainsCached || _chainCache[dispatch]==null)
+            return new Chain(baseRequest,filters, servletHolder);
+
+        CachedChain chain = getCachedChain(filters,servletHolder);
+
+        final Map<String,FilterChain> cache=_chainCache[dispatch];
+        final Queue<String> lru=_chainLRU[dispatch];
+
+        // Do we have too many cached paths?
+        while (_maxFilterChainsCacheSize>0 && cache.size()>=_maxFilterChainsCacheSize)
+        {
+            // The LRU list is not atomic with the cache map, so be prepared to invalidate if
+            // a key is not found to delete.
+            // Delete by LRU (where U==created)
+            String k=lru.poll();
+            if (k==null)
+            {
+                cache.clear();
+                break;
+            }
+            cache.remove(k);
+        }
+
+        cache.put(key,chain);
+        lru.add(key);
+
+        return chain;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Get the chain shared by all paths with the same servlet holder and filters,
+     * creating it if need be. The chains are evicted in the order they were created,
+     * which needs no scan and no write when a chain is used.
+     */
+    private CachedChain getCachedChain(List<FilterHolder> filters, ServletHolder servletHolder)
+    {
+        ChainKey key = new ChainKey(servletHolder,filters.toArray(new FilterHolder[filters.size()]));
+        CachedChain chain = _chains.get(key);
+        if (chain!=null)
+        {
+            _chainCacheHits.increment();
+            return chain;
+        }
+
+        _chainCacheMisses.incrementAndGet();
+        chain = new CachedChain(filters, servletHolder);
+        CachedChain cached = _chains.putIfAbsent(key,chain);
+        if (cached!=null)
+            return cached;
+        _chainsLRU.add(key);
 
-        FilterChain chain = null;
-        if (_filterChainsCached)
+        // Do we have too many cached chains?
+        while (_maxFilterChainsCacheSize>0 && _chains.size()>_maxFilterChainsCacheSize)
         {
-            if (filters.size() > 0)
-                chain= new CachedChain(filters, servletHolder);
-
-            final Map<String,FilterChain> cache=_chainCache[dispatch];
-            final Queue<String> lru=_chainLRU[dispatch];
-
-        	// Do we have too many cached chains?
-        	while (_maxFilterChainsCacheSize>0 && cache.size()>=_maxFilterChainsCacheSize)
-        	{
-        	    // The LRU list is not atomic with the cache map, so be prepared to invalidate if
-        	    // a key is not found to delete.
-        	    // Delete by LRU (where U==created)
-        	    String k=lru.poll();
-        	    if (k==null)
-        	    {
-        	        cache.clear();
-        	        break;
-        	    }
-        	    cache.remove(k);
-        	}
-
-        	cache.put(key,chain);
-        	lru.add(key);
+            ChainKey k=_chainsLRU.poll();
+            if (k==null)
+            {
+                _chains.clear();
+                break;
+            }
+            if (_chains.remove(k)!=null)
+                _chainCacheEvictions.incrementAndGet();
         }
-        else if (filters.size() > 0)
-            chain = new Chain(baseRequest,filters, servletHolder);
 
         return chain;
     }
@@ -641,6 +693,8 @@ public class ServletHandler extends ScopedHandler
             _chainCache[FilterMapping.ERROR].clear();
             _chainCache[FilterMapping.ASYNC].clear();
         }
+        _chainsLRU.clear();
+        _chains.clear();
     }
 
     /* ------------------------------------------------------------ */
@@ -723,6 +777,7 @@ public class ServletHandler extends ScopedHandler
     /**
      * @return Returns the filterChainsCached.
      */
+    @ManagedAttribute("if true, filter chains are cached")
     public boolean isFilterChainsCached()
     {
         return _filterChainsCached;
@@ -1133,14 +1188,7 @@ public class ServletHandler extends ScopedHandler
         }
 
         // flush filter chain cache
-        if (_chainCache!=null)
-        {
-            for (int i=_chainCache.length;i-->0;)
-            {
-                if (_chainCache[i]!=null)
-                    _chainCache[i].clear();
-            }
-        }
+        invalidateChainsCache();
 
         if (LOG.isDebugEnabled())
         {
@@ -1231,6 +1279,84 @@ public class ServletHandler extends ScopedHandler
         invalidateChainsCache();
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** The key of a cached chain: a servlet holder and the filter holders applied to it.
+     */
+    private static class ChainKey
+    {
+        final ServletHolder _servletHolder;
+        final FilterHolder[] _filters;
+        final int _hash;
+
+        ChainKey(ServletHolder servletHolder, FilterHolder[] filters)
+        {
+            _servletHolder=servletHolder;
+            _filters=filters;
+            int hash=System.identityHashCode(servletHolder);
+            for (FilterHolder filter : filters)
+                hash=31*hash+System.identityHashCode(filter);
+            _hash=hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this==o)
+                return true;
+            if (!(o instanceof ChainKey))
+                return false;
+            ChainKey key=(ChainKey)o;
+            if (_hash!=key._hash || _servletHolder!=key._servletHolder || _filters.length!=key._filters.length)
+                return false;
+            for (int i=_filters.length;i-->0;)
+                if (_filters[i]!=key._filters[i])
+                    return false;
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A counter striped by thread, so that threads counting cache hits do not all
+     * write to the same memory location. The stripes are 8 longs apart so that they
+     * are in different cache lines.
+     */
+    private static class StripedCounter
+    {
+        private final AtomicLongArray _stripes;
+        private final int _mask;
+
+        StripedCounter()
+        {
+            int stripes=1;
+            while (stripes<2*Runtime.getRuntime().availableProcessors())
+                stripes<<=1;
+            _stripes=new AtomicLongArray(stripes*8);
+            _mask=stripes-1;
+        }
+
+        void increment()
+        {
+            _stripes.incrementAndGet(((int)Thread.currentThread().getId()&_mask)*8);
+        }
+
+        long sum()
+        {
+            long sum=0;
+            for (int i=0;i<_stripes.length();i+=8)
+                sum+=_stripes.get(i);
+            return sum;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     private class CachedChain implements FilterChain
@@ -1406,6 +1532,7 @@ public class ServletHandler extends ScopedHandler
     /**
      * @return The maximum entries in a filter chain cache.
      */
+    @ManagedAttribute("maximum number of cached filter chains")
     public int getMaxFilterChainsCacheSize()
     {
         return _maxFilterChainsCacheSize;
@@ -1414,7 +1541,8 @@ public class ServletHandler extends ScopedHandler
     /* ------------------------------------------------------------ */
     /** Set the maximum filter chain cache size.
      * Filter chains are cached if {@link #isFilterChainsCached()} is true. If the max cache size
-     * is greater than zero, then the cache is flushed whenever it grows to be this size.
+     * is greater than zero, then the oldest cached path and chain are evicted whenever the
+     * cache of paths for a dispatch type or the cache of distinct chains grows beyond this size.
      *
      * @param maxFilterChainsCacheSize  the maximum number of entries in a filter chain cache.
      */
@@ -1423,6 +1551,34 @@ public class ServletHandler extends ScopedHandler
         _maxFilterChainsCacheSize = maxFilterChainsCacheSize;
     }
 
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of cached filter chains")
+    public int getFilterChainsCacheSize()
+    {
+        return _chains.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of filter chains served from the cache")
+    public long getFilterChainsCacheHits()
+    {
+        return _chainCacheHits.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of filter chains not found in the cache")
+    public long getFilterChainsCacheMisses()
+    {
+        return _chainCacheMisses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of filter chains evicted because the cache was full")
+    public long getFilterChainsCacheEvictions()
+    {
+        return _chainCacheEvictions.get();
+    }
+
     /* ------------------------------------------------------------ */
     void destroyServlet(Servlet servlet)
     {
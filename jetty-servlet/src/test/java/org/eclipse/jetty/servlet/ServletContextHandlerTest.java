@@ -20,10 +20,17 @@ package org.eclipse.jetty.servlet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.EnumSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -137,6 +144,47 @@ public class ServletContextHandlerTest
         
     }
 
+    @Test
+    public void testFilterChainCache() throws Exception
+    {
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(HelloServlet.class,"/items/*");
+        context.addServlet(TestServlet.class,"/test");
+        context.addServlet(TestServlet.class,"/other");
+        context.addFilter(PassFilter.class,"/*",EnumSet.of(DispatcherType.REQUEST));
+        context.addFilter(PassFilter.class,"/items/*",EnumSet.of(DispatcherType.REQUEST));
+        context.setContextPath("/");
+        ServletHandler handler = context.getServletHandler();
+        handler.setMaxFilterChainsCacheSize(2);
+        _server.setHandler(context);
+        _server.start();
+
+        for (int i=0;i<10;i++)
+        {
+            String response = _connector.getResponses("GET /items/"+i+" HTTP/1.0\r\n\r\n");
+            assertResponseContains("Hello World", response);
+        }
+        assertResponseContains("Test", _connector.getResponses("GET /test HTTP/1.0\r\n\r\n"));
+        assertResponseContains("Test", _connector.getResponses("GET /test HTTP/1.0\r\n\r\n"));
+
+        // paths with IDs share a single chain
+        assertEquals(2,handler.getFilterChainsCacheSize());
+        assertEquals(2,handler.getFilterChainsCacheMisses());
+        assertEquals(10,handler.getFilterChainsCacheHits());
+
+        // the oldest chain is evicted, while cached paths keep their chains
+        assertResponseContains("Test", _connector.getResponses("GET /other HTTP/1.0\r\n\r\n"));
+        assertResponseContains("Test", _connector.getResponses("GET /test HTTP/1.0\r\n\r\n"));
+        assertEquals(2,handler.getFilterChainsCacheSize());
+        assertEquals(3,handler.getFilterChainsCacheMisses());
+        assertEquals(11,handler.getFilterChainsCacheHits());
+        assertEquals(1,handler.getFilterChainsCacheEvictions());
+
+        assertResponseContains("Hello World", _connector.getResponses("GET /items/5 HTTP/1.0\r\n\r\n"));
+        assertEquals(4,handler.getFilterChainsCacheMisses());
+        assertEquals(2,handler.getFilterChainsCacheEvictions());
+    }
+
     @Test
     public void testAddServletAfterStart() throws Exception
     {
@@ -246,6 +294,25 @@ public class ServletContextHandlerTest
         return idx;
     }
 
+    public static class PassFilter implements Filter
+    {
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException
+        {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+        {
+            chain.doFilter(request,response);
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+    }
+
     public static class HelloServlet extends HttpServlet
     {
         private static final long serialVersionUID = 1L;
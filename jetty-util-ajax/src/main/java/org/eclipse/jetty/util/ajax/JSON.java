@@ -23,13 +23,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.Loader;
 import org.eclipse.jetty.util.QuotedStringTokenizer;
@@ -92,9 +96,24 @@ import org.eclipse.jetty.util.log.Logger;
 public class JSON
 {
     static final Logger LOG = Log.getLogger(JSON.class);
+    private final static Convertor __NO_CONVERTOR = new Convertor()
+    {
+        public void toJSON(Object obj, Output out)
+        {
+        }
+
+        public Object fromJSON(Map object)
+        {
+            return null;
+        }
+    };
+
     public final static JSON DEFAULT = new JSON();
 
     private Map<String, Convertor> _convertors = new ConcurrentHashMap<String, Convertor>();
+    /** Incremented whenever a convertor is registered, which invalidates the convertor cache */
+    private final AtomicInteger _convertorsVersion = new AtomicInteger();
+    private volatile ConvertorCache _convertorCache;
     private int _stringBufferSize = 1024;
 
     public JSON()
@@ -220,6 +239,18 @@ public class JSON
         return DEFAULT.parse(new ReaderSource(in),stripOuterComment);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param buffer
+     *            Buffer containing UTF-8 encoded JSON object or array. The
+     *            position of the buffer is advanced over the parsed JSON.
+     * @return A Map, Object array or primitive array parsed from the JSON.
+     */
+    public static Object parse(ByteBuffer buffer)
+    {
+        return DEFAULT.parse(new ByteBufferSource(buffer),false);
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @deprecated use {@link #parse(Reader)}
@@ -277,6 +308,37 @@ public class JSON
         return parse(source);
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Convert Object to UTF-8 encoded JSON in a buffer
+     *
+     * @param object
+     *            The object to convert
+     * @param buffer
+     *            The buffer, in flush mode, to append to. This may be a pooled buffer.
+     * @return The buffer in flush mode containing the appended JSON. This is
+     *         a new larger buffer if the JSON did not fit in the passed buffer.
+     */
+    public ByteBuffer toJSON(Object object, ByteBuffer buffer)
+    {
+        ByteBufferAppendable out = new ByteBufferAppendable(buffer);
+        append(out,object);
+        return out.getBuffer();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Convert UTF-8 encoded JSON to Object
+     *
+     * @param buffer
+     *            The buffer containing the json to convert
+     * @return The object
+     */
+    public Object fromJSON(ByteBuffer buffer)
+    {
+        return parse(new ByteBufferSource(buffer));
+    }
+
     @Deprecated
     public void append(StringBuffer buffer, Object object)
     {
@@ -652,6 +714,7 @@ public class JSON
     public void addConvertor(Class forClass, Convertor convertor)
     {
         _convertors.put(forClass.getName(),convertor);
+        _convertorsVersion.incrementAndGet();
     }
 
     /* ------------------------------------------------------------ */
@@ -662,11 +725,39 @@ public class JSON
      * tried. If still no match is found, then the super class and it's
      * interfaces are tried recursively.
      *
+     * The result of the lookup, including a failure to find a convertor, is cached
+     * by class name until another convertor is registered with this instance or,
+     * as its convertors are also looked up, with the {@link #DEFAULT} instance.
+     * The cache is keyed by name so that it does not hold references to classes
+     * and their class loaders.
+     *
      * @param forClass
      *            The class
      * @return a {@link JSON.Convertor} or null if none were found.
      */
     protected Convertor getConvertor(Class forClass)
+    {
+        int version = _convertorsVersion.get();
+        int defaultVersion = this == DEFAULT?0:DEFAULT._convertorsVersion.get();
+        ConvertorCache cache = _convertorCache;
+        if (cache == null || cache._version != version || cache._defaultVersion != defaultVersion)
+        {
+            cache = new ConvertorCache(version,defaultVersion);
+            _convertorCache = cache;
+        }
+
+        String name = forClass.getName();
+        Convertor convertor = cache._convertors.get(name);
+        if (convertor == null)
+        {
+            convertor = findConvertor(forClass);
+            cache._convertors.put(name,convertor == null?__NO_CONVERTOR:convertor);
+        }
+        return convertor == __NO_CONVERTOR?null:convertor;
+    }
+
+    /* ------------------------------------------------------------ */
+    private Convertor findConvertor(Class forClass)
     {
         Class cls = forClass;
         Convertor convertor = _convertors.get(cls.getName());
@@ -700,6 +791,7 @@ public class JSON
     public void addConvertorFor(String name, Convertor convertor)
     {
         _convertors.put(name,convertor);
+        _convertorsVersion.incrementAndGet();
     }
 
     /* ------------------------------------------------------------ */
@@ -1553,6 +1645,243 @@ public class JSON
 
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * A Source of the UTF-8 encoded JSON in a ByteBuffer.
+     * <p>
+     * Characters are decoded from the buffer as they are parsed, so the JSON
+     * is never copied into a char[] or String before parsing.
+     */
+    public static class ByteBufferSource implements Source
+    {
+        private final ByteBuffer _buffer;
+        private int _next = -1;
+        private char _low;
+        private char[] scratch;
+
+        public ByteBufferSource(ByteBuffer buffer)
+        {
+            _buffer = buffer;
+        }
+
+        public boolean hasNext()
+        {
+            if (_next >= 0 || _low != 0 || _buffer.hasRemaining())
+                return true;
+            scratch = null;
+            return false;
+        }
+
+        public char next()
+        {
+            char c = peek();
+            _next = -1;
+            return c;
+        }
+
+        public char peek()
+        {
+            if (_next < 0)
+                _next = decode();
+            return (char)_next;
+        }
+
+        private int decode()
+        {
+            if (_low != 0)
+            {
+                char low = _low;
+                _low = 0;
+                return low;
+            }
+
+            int b = _buffer.get();
+            if (b >= 0)
+                return b;
+
+            int code;
+            int more;
+            if ((b & 0xE0) == 0xC0)
+            {
+                code = b & 0x1F;
+                more = 1;
+            }
+            else if ((b & 0xF0) == 0xE0)
+            {
+                code = b & 0x0F;
+                more = 2;
+            }
+            else if ((b & 0xF8) == 0xF0)
+            {
+                code = b & 0x07;
+                more = 3;
+            }
+            else
+                return 0xFFFD;
+
+            while (more-- > 0)
+            {
+                if (!_buffer.hasRemaining())
+                    return 0xFFFD;
+                b = _buffer.get(_buffer.position());
+                if ((b & 0xC0) != 0x80)
+                    return 0xFFFD;
+                _buffer.get();
+                code = (code << 6) | (b & 0x3F);
+            }
+
+            if (code < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                return code;
+            if (code > Character.MAX_CODE_POINT)
+                return 0xFFFD;
+            _low = Character.lowSurrogate(code);
+            return Character.highSurrogate(code);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{%s}",getClass().getSimpleName(),hashCode(),BufferUtil.toDetailString(_buffer));
+        }
+
+        public char[] scratchBuffer()
+        {
+            if (scratch == null)
+                scratch = new char[1024];
+            return scratch;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * An Appendable that UTF-8 encodes generated JSON directly into a ByteBuffer.
+     * <p>
+     * The buffer is kept in flush mode. When it is full, {@link #overflow(ByteBuffer)}
+     * is called, which by default replaces it with a buffer of twice the capacity.
+     * Subclasses may instead write the full buffer to a channel and return it emptied.
+     * A high surrogate is held until the next character, so {@link #getBuffer()} should
+     * be called once all the characters have been appended.
+     */
+    public static class ByteBufferAppendable implements Appendable
+    {
+        private ByteBuffer _buffer;
+        private char _high;
+
+        public ByteBufferAppendable(ByteBuffer buffer)
+        {
+            _buffer = buffer;
+        }
+
+        /**
+         * @return the buffer in flush mode, with a high surrogate that has not been
+         *         followed by a low surrogate written as '?'
+         */
+        public ByteBuffer getBuffer()
+        {
+            if (_high != 0)
+            {
+                _high = 0;
+                append('?');
+            }
+            return _buffer;
+        }
+
+        public Appendable append(CharSequence csq)
+        {
+            return append(csq,0,csq.length());
+        }
+
+        public Appendable append(CharSequence csq, int start, int end)
+        {
+            for (int i = start; i < end; i++)
+                append(csq.charAt(i));
+            return this;
+        }
+
+        public Appendable append(char c)
+        {
+            if (_buffer.capacity() - _buffer.limit() < 4)
+            {
+                _buffer = overflow(_buffer);
+                if (_buffer.capacity() - _buffer.limit() < 4)
+                    throw new IllegalStateException("overflow");
+            }
+
+            if (_high != 0)
+            {
+                char high = _high;
+                _high = 0;
+                if (Character.isLowSurrogate(c))
+                {
+                    int code = Character.toCodePoint(high,c);
+                    put((byte)(0xF0 | (code >> 18)));
+                    put((byte)(0x80 | ((code >> 12) & 0x3F)));
+                    put((byte)(0x80 | ((code >> 6) & 0x3F)));
+                    put((byte)(0x80 | (code & 0x3F)));
+                    return this;
+                }
+                put((byte)'?');
+                return append(c);
+            }
+
+            if (c < 0x80)
+                put((byte)c);
+            else if (c < 0x800)
+            {
+                put((byte)(0xC0 | (c >> 6)));
+                put((byte)(0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c))
+                _high = c;
+            else if (Character.isLowSurrogate(c))
+                put((byte)'?');
+            else
+            {
+                put((byte)(0xE0 | (c >> 12)));
+                put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                put((byte)(0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+
+        private void put(byte b)
+        {
+            int limit = _buffer.limit();
+            _buffer.limit(limit + 1);
+            _buffer.put(limit,b);
+        }
+
+        /**
+         * Called when the buffer has no space for the next character.
+         * @param buffer the full buffer in flush mode
+         * @return a buffer in flush mode with space for more content
+         */
+        protected ByteBuffer overflow(ByteBuffer buffer)
+        {
+            int capacity = Math.max(64,buffer.capacity() * 2);
+            ByteBuffer larger = buffer.isDirect()?BufferUtil.allocateDirect(capacity):BufferUtil.allocate(capacity);
+            int position = BufferUtil.flipToFill(larger);
+            larger.put(buffer);
+            BufferUtil.flipToFlush(larger,position);
+            return larger;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Convertors found by class name, for the versions of the registered convertors */
+    private static final class ConvertorCache
+    {
+        private final int _version;
+        private final int _defaultVersion;
+        private final ConcurrentMap<String, Convertor> _convertors = new ConcurrentHashMap<String, Convertor>();
+
+        private ConvertorCache(int version, int defaultVersion)
+        {
+            _version = version;
+            _defaultVersion = defaultVersion;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * JSON Output class for use by {@link Convertible}.
@@ -21,18 +21,23 @@ package org.eclipse.jetty.util.ajax;
 import java.io.StringReader;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.DateCache;
+import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.ajax.JSON.Output;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -153,6 +158,77 @@ public class JSONTest
         map = (Map)JSON.parse(test);
     }
 
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testParseByteBuffer() throws Exception
+    {
+        Map map = (Map)JSON.parse(BufferUtil.toBuffer(test));
+
+        assertEquals(new Long(100),map.get("onehundred"));
+        assertEquals("fred",map.get("name"));
+        assertTrue(map.get("array").getClass().isArray());
+        assertTrue(map.get("w0") instanceof Woggle);
+        assertTrue(((Woggle)map.get("w0")).nested instanceof Woggle);
+
+        // multi byte and supplementary characters are decoded from UTF-8
+        String unicode="{\"text\":\"caf\u00e9 \u20ac \ud83d\ude00 \\u00e9\"}";
+        map = (Map)JSON.parse(ByteBuffer.wrap(unicode.getBytes(StringUtil.__UTF8)));
+        assertEquals("caf\u00e9 \u20ac \ud83d\ude00 \u00e9",map.get("text"));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testToJSONByteBuffer() throws Exception
+    {
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put("text","caf\u00e9 \u20ac \ud83d\ude00");
+        map.put("array",new Object[]{"a",1,true,null});
+
+        ByteBuffer buffer = BufferUtil.allocate(8);
+        BufferUtil.append(buffer,(byte)'x');
+        buffer = JSON.getDefault().toJSON(map,buffer);
+
+        // the buffer was grown and the JSON appended after the existing content
+        assertTrue(buffer.capacity()>8);
+        assertEquals('x',buffer.get());
+        assertEquals(JSON.toString(map),BufferUtil.toString(buffer,StringUtil.__UTF8_CHARSET));
+        assertEquals(map.get("text"),((Map)JSON.getDefault().fromJSON(buffer.duplicate())).get("text"));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testByteBufferAppendableLoneSurrogates() throws Exception
+    {
+        JSON.ByteBufferAppendable out = new JSON.ByteBufferAppendable(BufferUtil.allocate(16));
+        out.append("a\udc00b\ud800c\ud83d");
+        assertEquals("a?b?c?",BufferUtil.toString(out.getBuffer(),StringUtil.__UTF8_CHARSET));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testConvertorCache() throws Exception
+    {
+        JSON json = new JSON();
+        assertNull(json.getConvertor(Woggle.class));
+        assertNull(json.getConvertor(Woggle.class));
+
+        // registering a convertor invalidates the cached lookups
+        JSONObjectConvertor convertor = new JSONObjectConvertor();
+        json.addConvertor(Gizmo.class,convertor);
+        assertSame(convertor,json.getConvertor(Woggle.class));
+        assertSame(convertor,json.getConvertor(Woggle.class));
+
+        // as does registering a default convertor
+        assertSame(convertor,json.getConvertor(Sprocket.class));
+        JSONObjectConvertor defaultConvertor = new JSONObjectConvertor();
+        JSON.registerConvertor(Sprocket.class,defaultConvertor);
+        assertSame(defaultConvertor,json.getConvertor(Sprocket.class));
+
+        // but not registering a convertor with another instance
+        new JSON().addConvertor(Woggle.class,new JSONObjectConvertor());
+        assertSame(convertor,json.getConvertor(Woggle.class));
+    }
+
     /* ------------------------------------------------------------ */
     @Test
     public void testStripComment()
@@ -437,6 +513,11 @@ public class JSONTest
         }
     }
 
+    /* ------------------------------------------------------------ */
+    public static class Sprocket extends Gizmo
+    {
+    }
+
     /* ------------------------------------------------------------ */
     public static class Woggle extends Gizmo implements JSON.Convertible
     {
@@ -223,10 +223,7 @@ public class DateCache
         if (tick==null || seconds!=tick._seconds)
         {
             // It's a cache miss
-            synchronized (this)
-            {
-                return _tzFormat.format(inDate);
-            }
+            return formatTick(seconds,inDate);
         }
         
         return tick._string;
@@ -247,11 +244,7 @@ public class DateCache
         if (tick==null || seconds!=tick._seconds)
         {
             // It's a cache miss
-            Date d = new Date(inDate);
-            synchronized (this)
-            {
-                return _tzFormat.format(d);
-            }
+            return formatTick(seconds,new Date(inDate));
         }
         
         return tick._string;
@@ -260,12 +253,16 @@ public class DateCache
     /* ------------------------------------------------------------ */
     public String now()
     {
-        return _tick._string;
+        Tick tick=_tick;
+        if (tick==null)
+            return format(System.currentTimeMillis());
+        return tick._string;
     }
     
     /* ------------------------------------------------------------ */
     private void formatNow()
     {
+        // The timer always publishes the current second, even if the clock went back
         long now = System.currentTimeMillis();
         long seconds = now / 1000;
 
@@ -276,6 +273,26 @@ public class DateCache
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /** Format a date that missed the cache.
+     * If the date is in the current second, it is published as the new tick, so that
+     * only the first miss in each second formats under the lock, rather than every
+     * call until the timer next fires. Other dates are formatted but not published.
+     */
+    private String formatTick(long seconds, Date date)
+    {
+        synchronized (this)
+        {
+            Tick tick=_tick;
+            if (tick!=null && tick._seconds==seconds)
+                return tick._string;
+            String s=_tzFormat.format(date);
+            if (seconds==System.currentTimeMillis()/1000)
+                _tick=new Tick(seconds,s);
+            return s;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /** Format to string buffer. 
      * @param inDate Date the format
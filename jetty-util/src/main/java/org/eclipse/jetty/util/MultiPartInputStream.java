@@ -20,16 +20,15 @@ package org.eclipse.jetty.util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -51,6 +50,7 @@ import javax.servlet.http.Part;
  */
 public class MultiPartInputStream
 {
+    private static final int __BUFFER_SIZE = 8192;
     public static final MultipartConfigElement  __DEFAULT_MULTIPART_CONFIG = new MultipartConfigElement(System.getProperty("java.io.tmpdir"));
     protected InputStream _in;
     protected MultipartConfigElement _config;
@@ -68,6 +68,7 @@ public class MultiPartInputStream
         protected String _filename;
         protected File _file;
         protected OutputStream _out;
+        protected FileChannel _channel;
         protected ByteArrayOutputStream2 _bout;
         protected String _contentType;
         protected MultiMap _headers;
@@ -137,6 +138,35 @@ public class MultiPartInputStream
             _size += length;
         }
 
+        protected void write (ByteBuffer buffer)
+        throws IOException
+        {
+            int length=buffer.remaining();
+            if (MultiPartInputStream.this._config.getMaxFileSize() > 0 && _size + length > MultiPartInputStream.this._config.getMaxFileSize())
+                throw new IllegalStateException ("Multipart Mime part "+_name+" exceeds max filesize");
+
+            if (MultiPartInputStream.this._config.getFileSizeThreshold() > 0 && _size + length > MultiPartInputStream.this._config.getFileSizeThreshold() && _file==null)
+                createFile();
+
+            if (_channel!=null)
+            {
+                // write straight from the buffer to the file
+                while (buffer.hasRemaining())
+                    _channel.write(buffer);
+            }
+            else if (buffer.hasArray())
+            {
+                _out.write(buffer.array(), buffer.arrayOffset()+buffer.position(), length);
+                buffer.position(buffer.limit());
+            }
+            else
+            {
+                while (buffer.hasRemaining())
+                    _out.write(buffer.get());
+            }
+            _size += length;
+        }
+
         protected void createFile ()
         throws IOException
         {
@@ -144,17 +174,18 @@ public class MultiPartInputStream
             if (_deleteOnExit)
                 _file.deleteOnExit();
             FileOutputStream fos = new FileOutputStream(_file);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
 
             if (_size > 0 && _out != null)
             {
                 //already written some bytes, so need to copy them into the file
                 _out.flush();
-                _bout.writeTo(bos);
+                _bout.writeTo(fos);
                 _out.close();
                 _bout = null;
             }
-            _out = bos;
+            //content is written in large chunks, so write directly to the file rather than via another buffer
+            _out = fos;
+            _channel = fos.getChannel();
         }
 
 
@@ -464,66 +495,135 @@ public class MultiPartInputStream
         if (!_tmpDir.exists())
             _tmpDir.mkdirs();
 
-        String boundary="--"+QuotedStringTokenizer.unquote(value(_contentType.substring(_contentType.indexOf("boundary=")), true).trim());
-        byte[] byteBoundary=(boundary+"--").getBytes(StringUtil.__ISO_8859_1);
+        String boundary=QuotedStringTokenizer.unquote(value(_contentType.substring(_contentType.indexOf("boundary=")), true).trim());
+        PartHandler handler=new PartHandler();
+        MultiPartParser parser=new MultiPartParser(handler,boundary);
 
-        // Get first boundary
-        byte[] bytes=TypeUtil.readLine(_in);
-        String line=bytes==null?null:new String(bytes,"UTF-8");
-        if(line==null || !line.equals(boundary))
+        // Read the content in large chunks and push it through the parser, which
+        // passes part content on as views of this one buffer
+        byte[] bytes=new byte[__BUFFER_SIZE];
+        ByteBuffer buffer=ByteBuffer.wrap(bytes);
+        try
         {
-            throw new IOException("Missing initial multi part boundary");
-        }
+            while (!parser.isClosed())
+            {
+                int len=_in.read(bytes);
+                if (len<0)
+                {
+                    if (parser.isState(MultiPartParser.State.PREAMBLE))
+                        throw new IOException("Missing initial multi part boundary");
+                    buffer.clear().limit(0);
+                    parser.parse(buffer,true);
+                }
+                else
+                {
+                    total += len;
+                    if (_config.getMaxRequestSize() > 0 && total > _config.getMaxRequestSize())
+                        throw new IllegalStateException("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
+                    buffer.clear().limit(len);
+                    parser.parse(buffer,false);
+                }
 
-        // Read each part
-        boolean lastPart=false;
-        String contentDisposition=null;
-        String contentType=null;
-        String contentTransferEncoding=null;
-        outer:while(!lastPart)
+                if (handler._failure!=null)
+                    throw handler._failure;
+            }
+        }
+        finally
         {
-            MultiMap headers = new MultiMap();
-            while(true)
-            {
-                bytes=TypeUtil.readLine(_in);
-                if(bytes==null)
-                    break outer;
+            handler.close();
+        }
+    }
+    
+    public void setDeleteOnExit(boolean deleteOnExit)
+    {
+        _deleteOnExit = deleteOnExit;
+    }
 
-                // If blank line, end of part headers
-                if(bytes.length==0)
-                    break;
 
-                total += bytes.length;
-                if (_config.getMaxRequestSize() > 0 && total > _config.getMaxRequestSize())
-                    throw new IllegalStateException ("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
+    public boolean isDeleteOnExit()
+    {
+        return _deleteOnExit;
+    }
 
-                line=new String(bytes,"UTF-8");
 
-                //get content-disposition and content-type
-                int c=line.indexOf(':',0);
-                if(c>0)
-                {
-                    String key=line.substring(0,c).trim().toLowerCase(Locale.ENGLISH);
-                    String value=line.substring(c+1,line.length()).trim();
-                    headers.put(key, value);
-                    if (key.equalsIgnoreCase("content-disposition"))
-                        contentDisposition=value;
-                    if (key.equalsIgnoreCase("content-type"))
-                        contentType = value;
-                    if(key.equals("content-transfer-encoding"))
-                        contentTransferEncoding=value;
+    /* ------------------------------------------------------------ */
+    private String value(String nameEqualsValue, boolean splitAfterSpace)
+    {
+        String value=nameEqualsValue.substring(nameEqualsValue.indexOf('=')+1).trim();
+        int i=value.indexOf(';');
+        if(i>0)
+            value=value.substring(0,i);
+        if(value.startsWith("\""))
+        {
+            value=value.substring(1,value.indexOf('"',1));
+        }
+        else if (splitAfterSpace)
+        {
+            i=value.indexOf(' ');
+            if(i>0)
+                value=value.substring(0,i);
+        }
+        return value;
+    }
 
-                }
-            }
+    /* ------------------------------------------------------------ */
+    /** Collects the parts produced by the {@link MultiPartParser}.
+     * The parser handler methods cannot throw, so a failure is held
+     * and parsing returns to {@link MultiPartInputStream#parse()} to rethrow it.
+     */
+    private class PartHandler implements MultiPartParser.Handler
+    {
+        private MultiMap _headers;
+        private String _contentDisposition;
+        private String _contentType;
+        private String _contentTransferEncoding;
+        private MultiPart _part;
+        private boolean _base64;
+        private final byte[] _nibbles=new byte[4];
+        private int _nibbleCount;
+        private boolean _padded;
+        private boolean _quotedPrintable;
+        private int _quotedState;
+        private int _quotedHi;
+        private byte[] _decoded;
+        private IOException _failure;
+
+        public boolean startPart()
+        {
+            _headers=new MultiMap();
+            _contentDisposition=null;
+            _contentType=null;
+            _contentTransferEncoding=null;
+            _part=null;
+            _base64=false;
+            _nibbleCount=0;
+            _padded=false;
+            _quotedPrintable=false;
+            _quotedState=0;
+            return false;
+        }
+
+        public boolean parsedHeader(String name, String value)
+        {
+            String key=name.toLowerCase(Locale.ENGLISH);
+            _headers.put(key, value);
+            if (key.equals("content-disposition"))
+                _contentDisposition=value;
+            else if (key.equals("content-type"))
+                _contentType=value;
+            else if (key.equals("content-transfer-encoding"))
+                _contentTransferEncoding=value;
+            return false;
+        }
 
+        public boolean headerComplete()
+        {
             // Extract content-disposition
-            boolean form_data=false;
-            if(contentDisposition==null)
-            {
-                throw new IOException("Missing content-disposition");
-            }
+            if(_contentDisposition==null)
+                return failed(new IOException("Missing content-disposition"));
 
-            QuotedStringTokenizer tok=new QuotedStringTokenizer(contentDisposition,";");
+            boolean form_data=false;
+            QuotedStringTokenizer tok=new QuotedStringTokenizer(_contentDisposition,";");
             String name=null;
             String filename=null;
             while(tok.hasMoreTokens())
@@ -538,211 +638,198 @@ public class MultiPartInputStream
                     filename=value(t, false);
             }
 
-            // Check disposition
-            if(!form_data)
+            // Check disposition. It is valid for reset and submit buttons to have an empty name.
+            // If no name is supplied, the browser skips sending the info for that field.
+            // However, if you supply the empty string as the name, the browser sends the
+            // field, with name as the empty string. So, only skip the part if we
+            // have not seen a name field.
+            if(!form_data || name==null)
+                return false;
+
+            if ("base64".equalsIgnoreCase(_contentTransferEncoding))
+                _base64=true;
+            else if ("quoted-printable".equalsIgnoreCase(_contentTransferEncoding))
+                _quotedPrintable=true;
+
+            //Have a new Part
+            try
             {
-                continue;
+                _part = new MultiPart(name, filename);
+                _part.setHeaders(_headers);
+                _part.setContentType(_contentType);
+                _parts.add(name, _part);
+                _part.open();
             }
-            //It is valid for reset and submit buttons to have an empty name.
-            //If no name is supplied, the browser skips sending the info for that field.
-            //However, if you supply the empty string as the name, the browser sends the
-            //field, with name as the empty string. So, only continue this loop if we
-            //have not yet seen a name field.
-            if(name==null)
+            catch(IOException e)
             {
-                continue;
+                return failed(e);
             }
+            return false;
+        }
+
+        public boolean content(ByteBuffer buffer)
+        {
+            if (_part==null)
+                return false;
 
-            if ("base64".equalsIgnoreCase(contentTransferEncoding))
+            try
             {
-                _in = new Base64InputStream(_in);
+                if (_base64)
+                    base64(buffer);
+                else if (_quotedPrintable)
+                    quotedPrintable(buffer);
+                else
+                    _part.write(buffer);
             }
-            else if ("quoted-printable".equalsIgnoreCase(contentTransferEncoding))
+            catch(IOException e)
             {
-                _in = new FilterInputStream(_in)
-                {
-                    @Override
-                    public int read() throws IOException
-                    {
-                        int c = in.read();
-                        if (c >= 0 && c == '=')
-                        {
-                            int hi = in.read();
-                            int lo = in.read();
-                            if (hi < 0 || lo < 0)
-                            {
-                                throw new IOException("Unexpected end to quoted-printable byte");
-                            }
-                            char[] chars = new char[] { (char)hi, (char)lo };
-                            c = Integer.parseInt(new String(chars),16);
-                        }
-                        return c;
-                    }
-                };
+                return failed(e);
             }
+            return false;
+        }
 
-
-
-            //Have a new Part
-            MultiPart part = new MultiPart(name, filename);
-            part.setHeaders(headers);
-            part.setContentType(contentType);
-            _parts.add(name, part);
-
-            part.open();
+        public boolean partComplete()
+        {
+            if (_part==null)
+                return false;
 
             try
             {
-                int state=-2;
-                int c;
-                boolean cr=false;
-                boolean lf=false;
-
-                // loop for all lines`
-                while(true)
+                // Write the bytes of an unpadded last group
+                if (_base64 && _nibbleCount>1)
                 {
-                    int b=0;
-                    while((c=(state!=-2)?state:_in.read())!=-1)
-                    {
-                        total ++;
-                        if (_config.getMaxRequestSize() > 0 && total > _config.getMaxRequestSize())
-                            throw new IllegalStateException("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
-
-                        state=-2;
-                        // look for CR and/or LF
-                        if(c==13||c==10)
-                        {
-                            if(c==13)
-                                state=_in.read();
-                            break;
-                        }
-                        // look for boundary
-                        if(b>=0&&b<byteBoundary.length&&c==byteBoundary[b])
-                            b++;
-                        else
-                        {
-                            // this is not a boundary
-                            if(cr)
-                                part.write(13);
-
-                            if(lf)
-                                part.write(10);
-
-                            cr=lf=false;
-                            if(b>0)
-                                part.write(byteBoundary,0,b);
-
-                            b=-1;
-                            part.write(c);
-                        }
-                    }
-                    // check partial boundary
-                    if((b>0&&b<byteBoundary.length-2)||(b==byteBoundary.length-1))
-                    {
-                        if(cr)
-                            part.write(13);
-
-                        if(lf)
-                            part.write(10);
-
-                        cr=lf=false;
-                        part.write(byteBoundary,0,b);
-                        b=-1;
-                    }
-                    // boundary match
-                    if(b>0||c==-1)
-                    {
-                        if(b==byteBoundary.length)
-                            lastPart=true;
-                        if(state==10)
-                            state=-2;
-                        break;
-                    }
-                    // handle CR LF
-                    if(cr)
-                        part.write(13);
-
-                    if(lf)
-                        part.write(10);
-
-                    cr=(c==13);
-                    lf=(c==10||state==10);
-                    if(state==10)
-                        state=-2;
+                    byte[] decoded=decoded(2);
+                    decoded[0]=(byte)(_nibbles[0]<<2|_nibbles[1]>>>4);
+                    if (_nibbleCount>2)
+                        decoded[1]=(byte)(_nibbles[1]<<4|_nibbles[2]>>>2);
+                    _part.write(decoded,0,_nibbleCount-1);
                 }
+                close();
             }
-            finally
+            catch(IOException e)
             {
-
-                part.close();
+                return failed(e);
             }
+            return false;
         }
-        if (!lastPart)
-            throw new IOException("Incomplete parts");
-    }
-    
-    public void setDeleteOnExit(boolean deleteOnExit)
-    {
-        _deleteOnExit = deleteOnExit;
-    }
-
 
-    public boolean isDeleteOnExit()
-    {
-        return _deleteOnExit;
-    }
+        public boolean messageComplete()
+        {
+            return false;
+        }
 
+        public void earlyEOF()
+        {
+            _failure=new IOException("Incomplete parts");
+        }
 
-    /* ------------------------------------------------------------ */
-    private String value(String nameEqualsValue, boolean splitAfterSpace)
-    {
-        String value=nameEqualsValue.substring(nameEqualsValue.indexOf('=')+1).trim();
-        int i=value.indexOf(';');
-        if(i>0)
-            value=value.substring(0,i);
-        if(value.startsWith("\""))
+        public void badMessage(String reason)
         {
-            value=value.substring(1,value.indexOf('"',1));
+            _failure=new IOException("Incomplete parts: "+reason);
         }
-        else if (splitAfterSpace)
+
+        private boolean failed(IOException e)
         {
-            i=value.indexOf(' ');
-            if(i>0)
-                value=value.substring(0,i);
+            _failure=e;
+            return true;
         }
-        return value;
-    }
 
-    private static class Base64InputStream extends InputStream
-    {
-        BufferedReader _in;
-        String _line;
-        byte[] _buffer;
-        int _pos;
+        /* ------------------------------------------------------------ */
+        /** Decode base64 content as it arrives, a group of 4 characters at a time, so that
+         * the decoded part is subject to the file size threshold and maximum size.
+         */
+        private void base64(ByteBuffer buffer) throws IOException
+        {
+            byte[] decoded=decoded(buffer.remaining());
+            int length=0;
+            while (buffer.hasRemaining())
+            {
+                byte b=buffer.get();
+                if (_padded || Character.isWhitespace(b))
+                    continue;
+                if (b==B64Code.pad)
+                {
+                    _padded=true;
+                    continue;
+                }
+
+                byte nibble=B64Code.rfc1421nibbles[0xff&b];
+                if (nibble<0)
+                    throw new IOException("Not B64 encoded");
+                _nibbles[_nibbleCount++]=nibble;
 
-        public Base64InputStream (InputStream in)
+                if (_nibbleCount==4)
+                {
+                    decoded[length++]=(byte)(_nibbles[0]<<2|_nibbles[1]>>>4);
+                    decoded[length++]=(byte)(_nibbles[1]<<4|_nibbles[2]>>>2);
+                    decoded[length++]=(byte)(_nibbles[2]<<6|_nibbles[3]);
+                    _nibbleCount=0;
+                }
+            }
+            _part.write(decoded,0,length);
+        }
+
+        /* ------------------------------------------------------------ */
+        /** @return A buffer for decoded content, reused for the parts of this request
+         */
+        private byte[] decoded(int length)
         {
-            _in = new BufferedReader(new InputStreamReader(in));
+            if (_decoded==null || _decoded.length<length)
+                _decoded=new byte[Math.max(length,__BUFFER_SIZE)];
+            return _decoded;
         }
 
-        @Override
-        public int read() throws IOException
+        private void quotedPrintable(ByteBuffer buffer) throws IOException
         {
-            if (_buffer==null || _pos>= _buffer.length)
+            byte[] decoded=decoded(buffer.remaining());
+            int length=0;
+            while (buffer.hasRemaining())
             {
-                _line = _in.readLine();
-                if (_line==null)
-                    return -1;
-                if (_line.startsWith("--"))
-                    _buffer=(_line+"\r\n").getBytes();
-                else if (_line.length()==0)
-                    _buffer="\r\n".getBytes();
-                else
-                    _buffer=B64Code.decode(_line);
+                byte b=buffer.get();
+                switch(_quotedState)
+                {
+                    case 0:
+                        if (b=='=')
+                            _quotedState=1;
+                        else
+                            decoded[length++]=b;
+                        break;
+
+                    case 1:
+                        if (b=='\r' || b=='\n')
+                        {
+                            // soft line break
+                            _quotedState=b=='\r'?3:0;
+                            break;
+                        }
+                        _quotedHi=TypeUtil.convertHexDigit(b);
+                        _quotedState=2;
+                        break;
 
-                _pos=0;
+                    case 2:
+                        decoded[length++]=(byte)((_quotedHi<<4)+TypeUtil.convertHexDigit(b));
+                        _quotedState=0;
+                        break;
+
+                    case 3:
+                        _quotedState=0;
+                        if (b=='=')
+                            _quotedState=1;
+                        else if (b!='\n')
+                            decoded[length++]=b;
+                        break;
+                }
             }
-            return _buffer[_pos++];
+            _part.write(decoded,0,length);
+        }
+
+        private void close() throws IOException
+        {
+            MultiPart part=_part;
+            _part=null;
+            _base64=false;
+            if (part!=null)
+                part.close();
         }
     }
 }
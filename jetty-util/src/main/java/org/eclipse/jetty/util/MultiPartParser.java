@@ -0,0 +1,439 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+/* ------------------------------------------------------------ */
+/** A non-blocking multipart MIME parser.
+ * <p>
+ * Content is pushed into the parser with {@link #parse(ByteBuffer, boolean)} as it arrives, so the
+ * parser may be driven either from a blocking stream or from an asynchronous read callback.
+ * Part delimiters are found with a Boyer-Moore-Horspool search, so the bulk of the part content is
+ * skipped over rather than examined byte by byte, and the content is passed to the {@link Handler}
+ * as views of the input buffer without being copied.
+ * </p>
+ * <p>
+ * A preamble before the first delimiter and an epilogue after the close delimiter are ignored.
+ * A delimiter that is split across two buffers is held as a count of matched bytes, so the
+ * caller never has to compact or retain its buffers between calls.
+ * Delimiters preceded by a bare LF rather than CRLF are also accepted.
+ * </p>
+ */
+public class MultiPartParser
+{
+    // States
+    public enum State
+    {
+        PREAMBLE,
+        DELIMITER,
+        DELIMITER_PADDING,
+        DELIMITER_CLOSE,
+        HEADER,
+        BODY,
+        EPILOGUE,
+        CLOSED
+    };
+
+    private static final byte[] CR={'\r'};
+
+    private final Handler _handler;
+    private final byte[] _delimiter;
+    private final int[] _skip=new int[256];
+    private final int _maxHeaderBytes;
+    private final ByteArrayOutputStream2 _line=new ByteArrayOutputStream2(128);
+
+    /* ------------------------------------------------------------------------------- */
+    private State _state=State.PREAMBLE;
+    private int _partial=1;
+    private boolean _cr;
+    private int _headerBytes;
+
+    /* ------------------------------------------------------------------------------- */
+    public MultiPartParser(Handler handler, String boundary)
+    {
+        this(handler,boundary,-1);
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * @param handler The handler to receive the parts
+     * @param boundary The boundary from the content type, without the leading "--"
+     * @param maxHeaderBytes The maximum size of the headers of a single part, or -1 for no limit
+     */
+    public MultiPartParser(Handler handler, String boundary, int maxHeaderBytes)
+    {
+        if (boundary==null || boundary.length()==0)
+            throw new IllegalArgumentException("No boundary");
+        if (boundary.indexOf('\r')>=0 || boundary.indexOf('\n')>=0)
+            throw new IllegalArgumentException("Bad boundary");
+
+        _handler=handler;
+        _maxHeaderBytes=maxHeaderBytes;
+        // The CR before the delimiter is optional, as some clients only send LF
+        _delimiter=("\n--"+boundary).getBytes(StringUtil.__ISO_8859_1_CHARSET);
+
+        // Horspool bad character table: the distance from the last occurrence
+        // of each byte (excluding the final position) to the end of the delimiter
+        int last=_delimiter.length-1;
+        Arrays.fill(_skip,_delimiter.length);
+        for (int i=0;i<last;i++)
+            _skip[0xff&_delimiter[i]]=last-i;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    public State getState()
+    {
+        return _state;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    public boolean isState(State state)
+    {
+        return _state==state;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * @return True if the close delimiter has been parsed
+     */
+    public boolean isComplete()
+    {
+        return _state==State.EPILOGUE;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * @return True if the close delimiter has been parsed or parsing has failed
+     */
+    public boolean isClosed()
+    {
+        return _state==State.EPILOGUE || _state==State.CLOSED;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    public void reset()
+    {
+        _state=State.PREAMBLE;
+        _partial=1;
+        _cr=false;
+        _headerBytes=0;
+        _line.reset();
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /**
+     * Parse until the buffer is consumed or a handler method returns true.
+     * @param buffer The content to parse. Its position is advanced over the bytes consumed.
+     * @param last True if no more content will follow this buffer.
+     * @return True if a handler method returned true and parsing should return to the caller.
+     */
+    public boolean parse(ByteBuffer buffer, boolean last)
+    {
+        boolean handle=false;
+        while (!handle && buffer.hasRemaining())
+        {
+            switch (_state)
+            {
+                case PREAMBLE:
+                case BODY:
+                    handle=parseBody(buffer);
+                    break;
+
+                case DELIMITER:
+                case DELIMITER_PADDING:
+                case DELIMITER_CLOSE:
+                    handle=parseDelimiter(buffer);
+                    break;
+
+                case HEADER:
+                    handle=parseHeader(buffer);
+                    break;
+
+                case EPILOGUE:
+                case CLOSED:
+                    buffer.position(buffer.limit());
+                    break;
+            }
+        }
+
+        if (last && !buffer.hasRemaining() && !isClosed())
+        {
+            _state=State.CLOSED;
+            _handler.earlyEOF();
+            return true;
+        }
+
+        return handle;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    private boolean parseBody(ByteBuffer buffer)
+    {
+        boolean preamble=_state==State.PREAMBLE;
+
+        // Try to complete a delimiter that was split over the end of the previous buffer
+        if (_partial>0)
+        {
+            int position=buffer.position();
+            int needed=_delimiter.length-_partial;
+            int available=Math.min(needed,buffer.remaining());
+            int i=0;
+            while (i<available && buffer.get(position+i)==_delimiter[_partial+i])
+                i++;
+
+            if (i==available)
+            {
+                buffer.position(position+available);
+                if (available<needed)
+                {
+                    _partial+=available;
+                    return false;
+                }
+                _partial=0;
+                _cr=false;
+                return delimiter(preamble);
+            }
+
+            // The partial match was content. LF only occurs at the start of the
+            // delimiter, so no other match can begin within the matched bytes.
+            int partial=_partial;
+            _partial=0;
+            if (content(ByteBuffer.wrap(_delimiter,0,partial),partial,preamble))
+                return true;
+        }
+
+        // Boyer-Moore-Horspool search for the delimiter
+        int limit=buffer.limit();
+        int last=_delimiter.length-1;
+        int i=buffer.position()+last;
+        while (i<limit)
+        {
+            int j=last;
+            int k=i;
+            while (buffer.get(k)==_delimiter[j])
+            {
+                if (j==0)
+                {
+                    // A CR before the delimiter belongs to it
+                    boolean handle=false;
+                    if (k>buffer.position())
+                        handle=content(buffer,buffer.get(k-1)=='\r'?k-1:k,preamble);
+                    _cr=false;
+                    buffer.position(k+_delimiter.length);
+                    return delimiter(preamble) || handle;
+                }
+                j--;
+                k--;
+            }
+            i+=_skip[0xff&buffer.get(i)];
+        }
+
+        // No delimiter, so look for the start of one at the end of the buffer
+        int end=Math.max(buffer.position(),limit-last);
+        while (end<limit)
+        {
+            if (buffer.get(end)==_delimiter[0])
+            {
+                int m=1;
+                while (end+m<limit && buffer.get(end+m)==_delimiter[m])
+                    m++;
+                if (end+m==limit)
+                {
+                    _partial=m;
+                    break;
+                }
+            }
+            end++;
+        }
+
+        // Hold back a CR that may start a delimiter in the next buffer
+        boolean handle=false;
+        if (end>buffer.position())
+        {
+            boolean cr=buffer.get(end-1)=='\r';
+            handle=content(buffer,cr?end-1:end,preamble);
+            _cr=cr;
+        }
+        buffer.position(limit);
+        return handle;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    /** Pass any held back CR and the content between the buffer position and end to the handler
+     */
+    private boolean content(ByteBuffer buffer, int end, boolean preamble)
+    {
+        boolean handle=false;
+        if (_cr)
+        {
+            _cr=false;
+            if (!preamble)
+                handle=_handler.content(ByteBuffer.wrap(CR));
+        }
+
+        if (preamble || end==buffer.position())
+            return handle;
+
+        int limit=buffer.limit();
+        buffer.limit(end);
+        try
+        {
+            return _handler.content(buffer) || handle;
+        }
+        finally
+        {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    private boolean delimiter(boolean preamble)
+    {
+        _state=State.DELIMITER;
+        return !preamble && _handler.partComplete();
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    private boolean parseDelimiter(ByteBuffer buffer)
+    {
+        while (buffer.hasRemaining())
+        {
+            byte b=buffer.get();
+
+            if (_state==State.DELIMITER_CLOSE)
+            {
+                if (b!='-')
+                    return badMessage(buffer,"Bad close delimiter");
+                _state=State.EPILOGUE;
+                return _handler.messageComplete();
+            }
+
+            if (_state==State.DELIMITER && b=='-')
+            {
+                _state=State.DELIMITER_CLOSE;
+                continue;
+            }
+
+            _state=State.DELIMITER_PADDING;
+            switch (b)
+            {
+                case ' ':
+                case '\t':
+                case '\r':
+                    break;
+
+                case '\n':
+                    _state=State.HEADER;
+                    _headerBytes=0;
+                    _line.reset();
+                    return _handler.startPart();
+
+                default:
+                    return badMessage(buffer,"Bad delimiter");
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    private boolean parseHeader(ByteBuffer buffer)
+    {
+        while (buffer.hasRemaining())
+        {
+            byte b=buffer.get();
+            if (_maxHeaderBytes>0 && ++_headerBytes>_maxHeaderBytes)
+                return badMessage(buffer,"Part headers too large");
+
+            if (b!='\n')
+            {
+                _line.write(b);
+                continue;
+            }
+
+            int length=_line.getCount();
+            if (length>0 && _line.getBuf()[length-1]=='\r')
+                length--;
+
+            if (length==0)
+            {
+                _line.reset();
+                _state=State.BODY;
+                return _handler.headerComplete();
+            }
+
+            String line=new String(_line.getBuf(),0,length,StringUtil.__UTF8_CHARSET);
+            _line.reset();
+
+            int colon=line.indexOf(':');
+            if (colon>0 && _handler.parsedHeader(line.substring(0,colon).trim(),line.substring(colon+1).trim()))
+                return true;
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    private boolean badMessage(ByteBuffer buffer, String reason)
+    {
+        _state=State.CLOSED;
+        buffer.position(buffer.limit());
+        _handler.badMessage(reason);
+        return true;
+    }
+
+    /* ------------------------------------------------------------------------------- */
+    @Override
+    public String toString()
+    {
+        return String.format("%s{s=%s,p=%d,cr=%b}",getClass().getSimpleName(),_state,_partial,_cr);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /* Event Handler interface
+     * These methods return true if they want parsing to return to
+     * the caller.
+     */
+    public interface Handler
+    {
+        public boolean startPart();
+
+        public boolean parsedHeader(String name, String value);
+
+        public boolean headerComplete();
+
+        /**
+         * @param buffer Part content. The buffer is only valid for the duration of the call and
+         * the handler must copy any content it wishes to retain.
+         */
+        public boolean content(ByteBuffer buffer);
+
+        public boolean partComplete();
+
+        public boolean messageComplete();
+
+        public void earlyEOF();
+
+        public void badMessage(String reason);
+    }
+}
@@ -0,0 +1,128 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* ------------------------------------------------------------ */
+/**
+ * A bounded, lock free, multiple producer single consumer ring buffer.
+ * <p/>
+ * The slots of the ring are preallocated and producers claim a slot with a single
+ * compare and set, so that many threads may hand off items without contending on a lock.
+ * Only a single thread may call {@link #poll()}. The ring does not block: callers 
+ * decide what to do when {@link #offer(Object)} fails because the ring is full and 
+ * how the consumer waits for items.
+ *
+ * @param <E> The type of the items
+ */
+public class RingBuffer<E>
+{
+    private final AtomicReferenceArray<E> _slots;
+    private final int _mask;
+    private final AtomicLong _tail = new AtomicLong();
+    private volatile long _head;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity The minimum capacity, which is rounded up to a power of 2
+     */
+    public RingBuffer(int capacity)
+    {
+        if (capacity<=0)
+            throw new IllegalArgumentException("capacity="+capacity);
+        int size=Integer.highestOneBit(capacity);
+        if (size<capacity)
+            size<<=1;
+        _slots=new AtomicReferenceArray<E>(size);
+        _mask=size-1;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getCapacity()
+    {
+        return _mask+1;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the approximate number of items in the ring
+     */
+    public int size()
+    {
+        long size=_tail.get()-_head;
+        return (int)Math.max(0,Math.min(size,getCapacity()));
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isEmpty()
+    {
+        return _tail.get()==_head;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Add an item to the ring. May be called by any thread.
+     * @param item The item, which may not be null
+     * @return true if the item was added, false if the ring is full
+     */
+    public boolean offer(E item)
+    {
+        if (item==null)
+            throw new NullPointerException();
+
+        long tail;
+        while (true)
+        {
+            tail=_tail.get();
+            if (tail-_head>_mask)
+                return false;
+            if (_tail.compareAndSet(tail,tail+1))
+                break;
+        }
+        _slots.lazySet((int)tail&_mask,item);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Take the next item from the ring. Must only be called by the single consumer thread.
+     * @return The next item, or null if the ring is empty or the next item is still being added
+     */
+    public E poll()
+    {
+        long head=_head;
+        int index=(int)head&_mask;
+        E item=_slots.get(index);
+        if (item==null)
+            return null;
+        _slots.lazySet(index,null);
+        _head=head+1;
+        return item;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d/%d}",getClass().getSimpleName(),hashCode(),size(),getCapacity());
+    }
+}
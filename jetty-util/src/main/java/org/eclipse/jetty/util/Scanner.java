@@ -20,9 +20,20 @@
 package org.eclipse.jetty.util;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -44,7 +55,17 @@ import org.eclipse.jetty.util.log.Logger;
  * 
  * Utility for scanning a directory for added, removed and changed
  * files and reporting these events via registered Listeners.
- *
+ * <p>
+ * By default the directories are polled every scan interval. If {@link #setUseWatchService(boolean)}
+ * is true, the directories are instead registered with a {@link WatchService} and only the files for
+ * which change events are received are rescanned, once no further events have been received for the
+ * debounce period. As events may be lost (eg on overflow or on network file systems), the directories
+ * are still fully scanned every watch scan interval. If the directories cannot be watched, the scanner
+ * falls back to polling.
+ * <p>
+ * If {@link #setContentHash(boolean)} is true, a hash of the content of each file is kept, so that
+ * files whose modification time changes but whose content does not (eg touched files) are not reported
+ * as changed.
  */
 public class Scanner extends AbstractLifeCycle
 {
@@ -63,6 +84,17 @@ public class Scanner extends AbstractLifeCycle
     private Timer _timer;
     private TimerTask _task;
     private int _scanDepth=0;
+    private boolean _useWatchService = false;
+    private boolean _contentHash = false;
+    private int _debounce = 500;
+    private int _watchScanInterval = 60;
+    private WatchService _watchService;
+    private Thread _watchThread;
+    private volatile Timer _watchTimer;
+    private TimerTask _watchTask;
+    private final Map<WatchKey,Path> _watchKeys = new HashMap<WatchKey,Path>();
+    private final Set<File> _watched = new HashSet<File>();
+    private boolean _watchOverflow;
     
     public enum Notification { ADDED, CHANGED, REMOVED };
     private final Map<String,Notification> _notifications = new HashMap<String,Notification>();
@@ -71,17 +103,28 @@ public class Scanner extends AbstractLifeCycle
     {
         final long _lastModified;
         final long _size;
+        final byte[] _hash;
         
         public TimeNSize(long lastModified, long size)
+        {
+            this(lastModified,size,null);
+        }
+        
+        public TimeNSize(long lastModified, long size, byte[] hash)
         {
             _lastModified = lastModified;
             _size = size;
+            _hash = hash;
         }
         
         @Override
         public int hashCode()
         {
-            return (int)_lastModified^(int)_size;
+            // as for equals, the content hash replaces the lastModified if there is one
+            int hash=(int)(_size^(_size>>>32));
+            if (_hash!=null)
+                return 31*hash+Arrays.hashCode(_hash);
+            return 31*hash+(int)(_lastModified^(_lastModified>>>32));
         }
         
         @Override
@@ -90,6 +133,8 @@ public class Scanner extends AbstractLifeCycle
             if (o instanceof TimeNSize)
             {
                 TimeNSize tns = (TimeNSize)o;
+                if (_hash!=null && tns._hash!=null)
+                    return tns._size==_size && Arrays.equals(tns._hash,_hash);
                 return tns._lastModified==_lastModified && tns._size==_size;
             }
             return false;
@@ -270,6 +315,85 @@ public class Scanner extends AbstractLifeCycle
         return _reportDirs;
     }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * Set if the scan directories are watched with a {@link WatchService} 
+     * rather than polled every scan interval. 
+     * @param useWatchService true if the directories are watched for changes. If the
+     * directories cannot be watched, they are polled.
+     */
+    public void setUseWatchService(boolean useWatchService)
+    {
+        _useWatchService=useWatchService;
+    }
+    
+    /* ------------------------------------------------------------ */
+    public boolean getUseWatchService()
+    {
+        return _useWatchService;
+    }
+    
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the directories are currently being watched rather than polled.
+     */
+    public synchronized boolean isWatching()
+    {
+        return _watchService!=null;
+    }
+    
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the debounce period for watched directories.
+     * @param ms the time in ms without any change events after which the changed files are scanned.
+     */
+    public void setDebounce(int ms)
+    {
+        _debounce=ms;
+    }
+    
+    /* ------------------------------------------------------------ */
+    public int getDebounce()
+    {
+        return _debounce;
+    }
+    
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the interval between full scans of watched directories, which finds any changes
+     * for which the WatchService did not deliver an event.
+     * @param seconds the interval in seconds between full scans, or 0 for no full scans.
+     */
+    public synchronized void setWatchScanInterval(int seconds)
+    {
+        _watchScanInterval=seconds;
+        schedule();
+    }
+
+    /* ------------------------------------------------------------ */
+    public synchronized int getWatchScanInterval()
+    {
+        return _watchScanInterval;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set if changes are detected by a hash of the file content.
+     * @param contentHash if true, a file is only reported as changed if its size or the hash
+     * of its content changes. The content is only hashed when the modification time or size of 
+     * the file changes. If false, a file is changed if its modification time or size changes.
+     */
+    public void setContentHash(boolean contentHash)
+    {
+        _contentHash=contentHash;
+    }
+    
+    /* ------------------------------------------------------------ */
+    public boolean getContentHash()
+    {
+        return _contentHash;
+    }
+    
     /* ------------------------------------------------------------ */
     /**
      * Add an added/removed/changed listener
@@ -318,6 +442,9 @@ public class Scanner extends AbstractLifeCycle
             scanFiles();
             _prevScan.putAll(_currentScan);
         }
+        
+        if (_useWatchService)
+            startWatching();
         schedule();
     }
 
@@ -343,11 +470,13 @@ public class Scanner extends AbstractLifeCycle
                 _timer.cancel();
             if (_task!=null)
                 _task.cancel();
-            if (getScanInterval() > 0)
+            // watched directories are still scanned, less often, in case events are lost
+            int interval = _watchService==null?getScanInterval():getWatchScanInterval();
+            if (interval > 0)
             {
                 _timer = newTimer();
                 _task = newTimerTask();
-                _timer.schedule(_task, 1010L*getScanInterval(),1010L*getScanInterval());
+                _timer.schedule(_task, 1010L*interval,1010L*interval);
             }
         }
     }
@@ -366,6 +495,280 @@ public class Scanner extends AbstractLifeCycle
                 _task.cancel();
             _task=null;
             _timer=null;
+            stopWatching();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Register the scan directories with a WatchService and start a thread
+     * to receive the change events. If the directories cannot be watched,
+     * the scanner falls back to polling.
+     */
+    private void startWatching()
+    {
+        try
+        {
+            _watchService = FileSystems.getDefault().newWatchService();
+            for (File dir : _scanDirs)
+            {
+                if (dir==null || !dir.isDirectory())
+                    throw new IOException("Cannot watch "+dir);
+                watch(dir.getCanonicalFile(),0);
+            }
+        }
+        catch (IOException|UnsupportedOperationException e)
+        {
+            LOG.warn("Unable to watch "+_scanDirs+", polling instead",e);
+            stopWatching();
+            return;
+        }
+
+        final WatchService watchService=_watchService;
+        _watchTimer = new Timer("Scanner-Debounce-"+__scannerId, true);
+        _watchThread = new Thread("Scanner-Watch-"+__scannerId++)
+        {
+            @Override
+            public void run()
+            {
+                watchEvents(watchService);
+            }
+        };
+        _watchThread.setDaemon(true);
+        _watchThread.start();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void stopWatching()
+    {
+        if (_watchService!=null)
+        {
+            try
+            {
+                _watchService.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+        }
+        if (_watchTimer!=null)
+            _watchTimer.cancel();
+        _watchService=null;
+        _watchThread=null;
+        _watchTimer=null;
+        _watchTask=null;
+        synchronized (_watchKeys)
+        {
+            _watchKeys.clear();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Register a directory, and the sub directories that are scanned, with the WatchService.
+     * @param dir the directory
+     * @param depth the depth of the directory below the scan directory
+     */
+    private void watch(File dir, int depth) throws IOException
+    {
+        WatchKey key = dir.toPath().register(_watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        synchronized (_watchKeys)
+        {
+            _watchKeys.put(key,dir.toPath());
+        }
+
+        if (depth<_scanDepth || _scanDepth==-1)
+        {
+            File[] files = dir.listFiles();
+            for (int i=0;files!=null && i<files.length;i++)
+                if (files[i].isDirectory())
+                    watch(files[i],depth+1);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Receive change events from the WatchService and schedule a scan of 
+     * the changed files once they have been quiet for the debounce period.
+     */
+    private void watchEvents(WatchService watchService)
+    {
+        try
+        {
+            while (_running)
+            {
+                WatchKey key = watchService.take();
+                Path dir;
+                synchronized (_watchKeys)
+                {
+                    dir=_watchKeys.get(key);
+                }
+                if (dir==null)
+                    continue;
+
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    synchronized (_watched)
+                    {
+                        if (event.kind()==StandardWatchEventKinds.OVERFLOW)
+                            _watchOverflow=true;
+                        else
+                            _watched.add(dir.resolve((Path)event.context()).toFile());
+                    }
+                }
+
+                if (!key.reset())
+                {
+                    synchronized (_watchKeys)
+                    {
+                        _watchKeys.remove(key);
+                    }
+                }
+
+                debounce();
+            }
+        }
+        catch (InterruptedException|ClosedWatchServiceException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void debounce()
+    {
+        synchronized (_watched)
+        {
+            Timer timer=_watchTimer;
+            if (timer==null)
+                return;
+            if (_watchTask!=null)
+                _watchTask.cancel();
+            _watchTask = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    scanWatched();
+                }
+            };
+            try
+            {
+                timer.schedule(_watchTask,_debounce);
+            }
+            catch (IllegalStateException e)
+            {
+                // timer has been cancelled by stop
+                LOG.ignore(e);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Perform a pass of the scanner over only the files for which change events 
+     * have been received and the files that were not yet stable, and report changes.
+     */
+    public synchronized void scanWatched()
+    {
+        if (!_running || _watchService==null)
+            return;
+
+        Set<File> files;
+        boolean overflow;
+        synchronized (_watched)
+        {
+            files = new HashSet<File>(_watched);
+            _watched.clear();
+            overflow=_watchOverflow;
+            _watchOverflow=false;
+        }
+
+        if (overflow)
+        {
+            // events have been lost, so rescan and watch everything
+            LOG.debug("watch overflow {}",_scanDirs);
+            try
+            {
+                for (File dir : _scanDirs)
+                    watch(dir.getCanonicalFile(),0);
+            }
+            catch (IOException e)
+            {
+                LOG.warn(e);
+            }
+            scan();
+        }
+        else
+        {
+            // recheck unstable files
+            for (String file : _notifications.keySet())
+                files.add(new File(file));
+
+            if (files.isEmpty())
+                return;
+
+            reportScanStart(++_scanCount);
+            _currentScan.clear();
+            _currentScan.putAll(_prevScan);
+            for (File file : files)
+                rescanFile(file);
+            reportDifferences(_currentScan, _prevScan);
+            _prevScan.clear();
+            _prevScan.putAll(_currentScan);
+            reportScanEnd(_scanCount);
+            reportScan();
+        }
+
+        // files are not reported until they are stable over two passes
+        if (!_notifications.isEmpty())
+            debounce();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Update the current scan for a single file or directory that has changed.
+     */
+    private void rescanFile(File file)
+    {
+        try
+        {
+            String name = file.getCanonicalPath();
+            _currentScan.remove(name);
+            if (!file.isFile())
+            {
+                // A removed or new directory, so forget everything below it
+                String prefix=name+File.separator;
+                for (Iterator<String> i=_currentScan.keySet().iterator();i.hasNext();)
+                    if (i.next().startsWith(prefix))
+                        i.remove();
+            }
+
+            for (File dir : _scanDirs)
+            {
+                String path = dir.getCanonicalPath()+File.separator;
+                if (name.startsWith(path))
+                {
+                    int depth=1;
+                    for (int i=path.length();i<name.length();i++)
+                        if (name.charAt(i)==File.separatorChar)
+                            depth++;
+                    scanFile(new File(name),_currentScan,depth);
+
+                    // watch new directories that are scanned
+                    if (file.isDirectory() && (depth<_scanDepth || _scanDepth==-1) && _watchService!=null)
+                        watch(file.getCanonicalFile(),depth);
+                    break;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Error scanning watched file "+file, e);
         }
     }
 
@@ -392,7 +795,14 @@ public class Scanner extends AbstractLifeCycle
         _prevScan.clear();
         _prevScan.putAll(_currentScan);
         reportScanEnd(_scanCount);
-        
+        reportScan();
+    }
+
+    /**
+     * signal any scan listeners that a scan has completed
+     */
+    private void reportScan()
+    {
         for (Listener l : _listeners)
         {
             try
@@ -559,7 +969,10 @@ public class Scanner extends AbstractLifeCycle
                 {
                     LOG.debug("scan accepted {}",f);
                     String name = f.getCanonicalPath();
-                    scanInfoMap.put(name, new TimeNSize(f.lastModified(),f.length()));
+                    TimeNSize tns = new TimeNSize(f.lastModified(),f.length());
+                    if (_contentHash && f.isFile())
+                        tns = hash(name,f,tns);
+                    scanInfoMap.put(name, tns);
                 }
                 else
                     LOG.debug("scan rejected {}",f);
@@ -579,6 +992,38 @@ public class Scanner extends AbstractLifeCycle
         }
     }
 
+    /**
+     * Add a hash of the file content to the scan info, reusing the hash
+     * from the previous scan if the time and size have not changed.
+     */
+    private TimeNSize hash(String name, File f, TimeNSize tns)
+    {
+        TimeNSize prev = _prevScan.get(name);
+        if (prev!=null && prev._hash!=null && prev._lastModified==tns._lastModified && prev._size==tns._size)
+            return prev;
+
+        InputStream in = null;
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            in = new FileInputStream(f);
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len=in.read(buffer))>=0)
+                digest.update(buffer,0,len);
+            return new TimeNSize(tns._lastModified,tns._size,digest.digest());
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Unable to hash "+f,e);
+            return tns;
+        }
+        finally
+        {
+            IO.close(in);
+        }
+    }
+
     private void warn(Object listener,String filename,Throwable th)
     {
         LOG.warn(listener+" failed on '"+filename, th);
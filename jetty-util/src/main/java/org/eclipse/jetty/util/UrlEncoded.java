@@ -18,11 +18,16 @@
 
 package org.eclipse.jetty.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -649,6 +654,236 @@ public class UrlEncoded extends MultiMap<String> implements Cloneable
         }
     }
     
+    /* -------------------------------------------------------------- */
+    /** Decode parameters to Map, deferring the decoding of values.
+     * <p>
+     * The keys are decoded as the content is indexed, but each value is only held as
+     * the offset and length of its encoded bytes within the content, and is decoded
+     * the first time it is read from the map. The content array is retained by the
+     * map and must not be modified after this call.
+     * @param content the buffer containing the encoded parameters
+     * @param map MultiMap to add parameters to
+     * @param charset the charset of the encoded parameters or null for the default
+     * @param maxKeys maximum number of keys to read or -1 for no limit
+     */
+    public static void decodeTo(ByteBuffer content, MultiMap<String> map, String charset, int maxKeys)
+    throws IOException
+    {
+        //no charset present, use the configured default
+        if (charset==null)
+            charset=ENCODING;
+
+        byte[] raw;
+        int offset;
+        int end;
+        if (content.hasArray())
+        {
+            raw=content.array();
+            offset=content.arrayOffset()+content.position();
+            end=content.arrayOffset()+content.limit();
+        }
+        else
+        {
+            raw=new byte[content.remaining()];
+            content.slice().get(raw);
+            offset=0;
+            end=raw.length;
+        }
+
+        // Values can only be indexed at byte boundaries if the charset is ASCII compatible
+        if (StringUtil.__UTF16.equalsIgnoreCase(charset))
+        {
+            decodeUtf16To(new ByteArrayInputStream(raw,offset,end-offset),map,-1,maxKeys);
+            return;
+        }
+
+        Charset cs;
+        try
+        {
+            cs=Charset.forName(charset);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new UnsupportedEncodingException(charset);
+        }
+
+        synchronized(map)
+        {
+            int mark=offset;
+            int equals=-1;
+            for (int i=offset;i<=end;i++)
+            {
+                if (i<end)
+                {
+                    byte b=raw[i];
+                    if (b=='=' && equals<0)
+                        equals=i;
+                    if (b!='&')
+                        continue;
+                }
+
+                if (equals>=0)
+                    addLazy(map,decodeBytes(raw,mark,equals-mark,cs),raw,equals+1,i-equals-1,cs);
+                else if (i>mark)
+                    map.add(decodeBytes(raw,mark,i-mark,cs),"");
+
+                mark=i+1;
+                equals=-1;
+                if (maxKeys>0 && map.size()>maxKeys)
+                {
+                    LOG.warn("maxFormKeys limit exceeded keys>{}",maxKeys);
+                    return;
+                }
+            }
+        }
+    }
+
+    /* -------------------------------------------------------------- */
+    private static void addLazy(MultiMap<String> map, String key, byte[] raw, int offset, int length, Charset charset)
+    {
+        List<String> values=map.get(key);
+        if (values==null)
+        {
+            LazyValues lazy=new LazyValues(raw,charset);
+            lazy.add(offset,length);
+            map.putValues(key,lazy);
+        }
+        else if (values instanceof LazyValues && ((LazyValues)values)._raw==raw)
+            ((LazyValues)values).add(offset,length);
+        else
+            map.add(key,decodeBytes(raw,offset,length,charset));
+    }
+
+    /* -------------------------------------------------------------- */
+    /** Decode bytes with % encoding.
+     * This method makes the assumption that the majority of calls
+     * will need no decoding.
+     */
+    static String decodeBytes(byte[] raw, int offset, int length, Charset charset)
+    {
+        int end=offset+length;
+        int i=offset;
+        while (i<end && raw[i]!='%' && raw[i]!='+')
+            i++;
+        if (i==end)
+            return length==0?"":new String(raw,offset,length,charset);
+
+        byte[] decoded=new byte[length];
+        int n=i-offset;
+        System.arraycopy(raw,offset,decoded,0,n);
+        for (;i<end;i++)
+        {
+            byte b=raw[i];
+            if (b=='+')
+                b=' ';
+            else if (b=='%' && i+2<end)
+            {
+                try
+                {
+                    b=(byte)((TypeUtil.convertHexDigit(raw[i+1])<<4) + TypeUtil.convertHexDigit(raw[i+2]));
+                    i+=2;
+                }
+                catch(IllegalArgumentException e)
+                {
+                    LOG.ignore(e);
+                }
+            }
+            decoded[n++]=b;
+        }
+        return new String(decoded,0,n,charset);
+    }
+
+    /* -------------------------------------------------------------- */
+    /** A list of values held as ranges of encoded bytes that are decoded
+     * on first access. Values added after indexing are held already decoded.
+     */
+    private static class LazyValues extends AbstractList<String>
+    {
+        private final byte[] _raw;
+        private final Charset _charset;
+        private int[] _ranges=new int[2];
+        private String[] _values=new String[1];
+        private int _size;
+
+        LazyValues(byte[] raw, Charset charset)
+        {
+            _raw=raw;
+            _charset=charset;
+        }
+
+        void add(int offset, int length)
+        {
+            insert(_size,offset,length,null);
+        }
+
+        @Override
+        public String get(int index)
+        {
+            if (index<0 || index>=_size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            String value=_values[index];
+            if (value==null && _ranges[2*index+1]>=0)
+            {
+                // racing threads decode the same value, so no locking is needed
+                value=decodeBytes(_raw,_ranges[2*index],_ranges[2*index+1],_charset);
+                _values[index]=value;
+            }
+            return value;
+        }
+
+        @Override
+        public int size()
+        {
+            return _size;
+        }
+
+        @Override
+        public String set(int index, String value)
+        {
+            String old=get(index);
+            _values[index]=value;
+            _ranges[2*index+1]=-1;
+            return old;
+        }
+
+        @Override
+        public void add(int index, String value)
+        {
+            if (index<0 || index>_size)
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            insert(index,-1,-1,value);
+        }
+
+        @Override
+        public String remove(int index)
+        {
+            String old=get(index);
+            int moved=_size-index-1;
+            System.arraycopy(_values,index+1,_values,index,moved);
+            System.arraycopy(_ranges,2*index+2,_ranges,2*index,2*moved);
+            _values[--_size]=null;
+            modCount++;
+            return old;
+        }
+
+        private void insert(int index, int offset, int length, String value)
+        {
+            if (_size==_values.length)
+            {
+                _values=Arrays.copyOf(_values,_size*2);
+                _ranges=Arrays.copyOf(_ranges,_size*4);
+            }
+            int moved=_size-index;
+            System.arraycopy(_values,index,_values,index+1,moved);
+            System.arraycopy(_ranges,2*index,_ranges,2*index+2,2*moved);
+            _values[index]=value;
+            _ranges[2*index]=offset;
+            _ranges[2*index+1]=length;
+            _size++;
+            modCount++;
+        }
+    }
+
     /* -------------------------------------------------------------- */
     /** Decode String with % encoding.
      * This method makes the assumption that the majority of calls
@@ -0,0 +1,290 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.log;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.util.RingBuffer;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+
+/**
+ * Asynchronous writer of log lines.
+ * <p>
+ * Log lines are handed off to a bounded {@link RingBuffer} and written to a {@link PrintStream} 
+ * by a single daemon thread, which batches all the queued lines into a single write and flush.
+ * Threads that log are never blocked on the stream: if the queue is full, the line is dropped and 
+ * counted, and the number of dropped lines is reported in the log once there is space again.
+ * <p>
+ * Repeated stack traces of the same exception type thrown from the same place may be 
+ * suppressed for a period with {@link #isRepeatedStack(Throwable)}, so that a storm of identical
+ * exceptions (eg from disconnecting clients) does not flood the log.
+ * <p>
+ * Used by {@link StdErrLog} when the <code>org.eclipse.jetty.util.log.stderr.ASYNC</code> property is true.
+ */
+@ManagedObject("Asynchronous log writer")
+public class AsyncLogWriter implements Runnable
+{
+    private static final String EOL = System.getProperty("line.separator");
+    private static final int MAX_BATCH = 64 * 1024;
+    private static final int MAX_STACKS = 1024;
+
+    private final PrintStream _out;
+    private final RingBuffer<String> _ring;
+    private final ConcurrentMap<String, Long> _stacks = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _suppressed = new AtomicLong();
+    private final StringBuilder _batch = new StringBuilder(4096);
+    private volatile long _repeatWindow = 10000;
+    private volatile long _written;
+    private volatile Thread _thread;
+    private volatile boolean _waiting;
+    private volatile boolean _running;
+    private long _reportedDropped;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param out The stream to write to
+     * @param queueSize The maximum number of queued lines
+     */
+    public AsyncLogWriter(PrintStream out, int queueSize)
+    {
+        _out = out;
+        _ring = new RingBuffer<String>(queueSize);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param ms The period in ms during which repeated stack traces are suppressed, or 0 to never suppress them
+     */
+    public void setRepeatWindow(long ms)
+    {
+        _repeatWindow = ms;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("period in ms during which repeated stack traces are suppressed")
+    public long getRepeatWindow()
+    {
+        return _repeatWindow;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("capacity of the queue")
+    public int getQueueSize()
+    {
+        return _ring.getCapacity();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of queued lines")
+    public int getQueued()
+    {
+        return _ring.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of lines dropped because the queue was full")
+    public long getDropped()
+    {
+        return _dropped.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of repeated stack traces suppressed")
+    public long getSuppressed()
+    {
+        return _suppressed.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of lines written")
+    public long getWritten()
+    {
+        return _written;
+    }
+
+    /* ------------------------------------------------------------ */
+    public boolean isRunning()
+    {
+        return _running;
+    }
+
+    /* ------------------------------------------------------------ */
+    public synchronized void start()
+    {
+        if (_running)
+            return;
+        _running = true;
+        Thread thread = new Thread(this,"AsyncLogWriter");
+        thread.setDaemon(true);
+        _thread = thread;
+        thread.start();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Stop the writer thread, after it has written all queued lines.
+     * @throws InterruptedException if interrupted while waiting for the writer thread
+     */
+    public synchronized void stop() throws InterruptedException
+    {
+        Thread thread = _thread;
+        _running = false;
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+        _thread = null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Queue a line to be written. 
+     * @param line The line, without a line separator
+     * @return true if the line was queued, false if it was dropped
+     */
+    public boolean write(String line)
+    {
+        if (!_ring.offer(line))
+        {
+            _dropped.incrementAndGet();
+            return false;
+        }
+        if (_waiting)
+        {
+            Thread thread = _thread;
+            if (thread != null)
+                LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Check if the stack trace of an exception has recently been logged.
+     * <p>
+     * Exceptions are considered the same if they are of the same type and thrown from the same 
+     * place. The first stack trace is not a repeat, nor is the first one after the repeat window 
+     * has passed.
+     * @param thrown The exception
+     * @return true if the stack trace should be suppressed
+     */
+    public boolean isRepeatedStack(Throwable thrown)
+    {
+        long window = _repeatWindow;
+        if (window <= 0 || thrown == null)
+            return false;
+
+        StackTraceElement[] elements = thrown.getStackTrace();
+        String key = elements == null || elements.length == 0?thrown.getClass().getName():thrown.getClass().getName() + "@" + elements[0];
+
+        long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        Long last = _stacks.get(key);
+        if (last != null && now - last < window)
+        {
+            _suppressed.incrementAndGet();
+            return true;
+        }
+
+        if (_stacks.size() >= MAX_STACKS)
+            _stacks.clear();
+        _stacks.put(key,now);
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (_running)
+            {
+                if (!writeQueued())
+                {
+                    _waiting = true;
+                    // recheck after setting the flag, as a producer may not have seen it
+                    if (_running && _ring.isEmpty())
+                        LockSupport.parkNanos(this,TimeUnit.MILLISECONDS.toNanos(100));
+                    _waiting = false;
+                }
+            }
+        }
+        finally
+        {
+            // drain the lines queued before stop
+            while (writeQueued())
+                ;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write a batch of queued lines.
+     * @return true if any lines were written
+     */
+    private boolean writeQueued()
+    {
+        int lines = 0;
+        _batch.setLength(0);
+
+        long dropped = _dropped.get();
+        if (dropped != _reportedDropped)
+        {
+            _batch.append("AsyncLogWriter: ").append(dropped - _reportedDropped).append(" log lines dropped").append(EOL);
+            _reportedDropped = dropped;
+        }
+
+        String line;
+        while (_batch.length() < MAX_BATCH && (line = _ring.poll()) != null)
+        {
+            _batch.append(line).append(EOL);
+            lines++;
+        }
+
+        if (_batch.length() == 0)
+            return false;
+
+        _out.print(_batch);
+        _out.flush();
+        _written += lines;
+
+        if (_batch.capacity() > MAX_BATCH * 2)
+        {
+            _batch.setLength(0);
+            _batch.trimToSize();
+        }
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,dropped=%d,suppressed=%d}",getClass().getSimpleName(),hashCode(),_ring,getDropped(),getSuppressed());
+    }
+}
@@ -82,6 +82,24 @@ import org.eclipse.jetty.util.annotation.ManagedObject;
  *   long form, fully qualified class names.  when false, use abbreviated package names<br/>
  *   Default: false
  *   </dd>
+ *   
+ *   <dt>org.eclipse.jetty.util.log.stderr.ASYNC=(true|false)</dt>
+ *   <dd>Special Global Configuration, when true, logging events to STDERR are queued and written
+ *   by an {@link AsyncLogWriter} thread, so that logging threads do not contend on STDERR. 
+ *   Events are dropped and counted if the queue is full.<br/>
+ *   Default: false
+ *   </dd>
+ *   
+ *   <dt>org.eclipse.jetty.util.log.stderr.QUEUE=(size)</dt>
+ *   <dd>Special Global Configuration, the size of the ASYNC queue<br/>
+ *   Default: 8192
+ *   </dd>
+ *   
+ *   <dt>org.eclipse.jetty.util.log.stderr.REPEAT_MS=(ms)</dt>
+ *   <dd>Special Global Configuration, when ASYNC, the period during which repeated stack traces
+ *   of the same exception thrown from the same place are suppressed, or 0 to never suppress.<br/>
+ *   Default: 10000
+ *   </dd>
  * </dl>
  */
 @ManagedObject("Jetty StdErr Logging Implementation")
@@ -94,6 +112,9 @@ public class StdErrLog extends AbstractLogger
     private final static boolean __source = Boolean.parseBoolean(Log.__props.getProperty("org.eclipse.jetty.util.log.SOURCE",
             Log.__props.getProperty("org.eclipse.jetty.util.log.stderr.SOURCE","false")));
     private final static boolean __long = Boolean.parseBoolean(Log.__props.getProperty("org.eclipse.jetty.util.log.stderr.LONG","false"));
+    private final static int __maxBuffer = 16 * 1024;
+    private static AsyncLogWriter __async;
+    private static final ThreadLocal<StringBuilder> __buffer = new ThreadLocal<StringBuilder>();
 
     static
     {
@@ -119,6 +140,37 @@ public class StdErrLog extends AbstractLogger
         {
             x.printStackTrace(System.err);
         }
+
+        if (Boolean.parseBoolean(Log.__props.getProperty("org.eclipse.jetty.util.log.stderr.ASYNC","false")))
+        {
+            try
+            {
+                int queue = Integer.parseInt(Log.__props.getProperty("org.eclipse.jetty.util.log.stderr.QUEUE","8192"));
+                final AsyncLogWriter async = new AsyncLogWriter(System.err,queue);
+                async.setRepeatWindow(Long.parseLong(Log.__props.getProperty("org.eclipse.jetty.util.log.stderr.REPEAT_MS","10000")));
+                async.start();
+                Runtime.getRuntime().addShutdownHook(new Thread("AsyncLogWriter-shutdown")
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            async.stop();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                __async = async;
+            }
+            catch (Exception x)
+            {
+                x.printStackTrace(System.err);
+            }
+        }
     }
 
     public static final int LEVEL_ALL = 0;
@@ -398,9 +450,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_WARN)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":WARN:",msg,args);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -413,9 +465,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_WARN)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":WARN:",msg,thrown);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -423,9 +475,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_INFO)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":INFO:",msg,args);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -438,9 +490,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_INFO)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":INFO:",msg,thrown);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -503,13 +555,46 @@ public class StdErrLog extends AbstractLogger
         this._stderr = stream==System.err?null:stream;
     }
 
+    /**
+     * @return the writer used for asynchronous logging to STDERR, or null if logging is synchronous
+     */
+    public static AsyncLogWriter getAsyncLogWriter()
+    {
+        return __async;
+    }
+
+    /**
+     * Take the formatting buffer of the calling thread, so that it is not shared with
+     * a nested log call made while formatting arguments.
+     */
+    private static StringBuilder takeBuffer()
+    {
+        StringBuilder buffer = __buffer.get();
+        if (buffer == null)
+            return new StringBuilder(64);
+        __buffer.set(null);
+        return buffer;
+    }
+
+    private void print(StringBuilder buffer)
+    {
+        AsyncLogWriter async = __async;
+        if (_stderr == null && async != null)
+            async.write(buffer.toString());
+        else
+            (_stderr==null?System.err:_stderr).println(buffer);
+
+        if (buffer.capacity() <= __maxBuffer)
+            __buffer.set(buffer);
+    }
+
     public void debug(String msg, Object... args)
     {
         if (_level <= LEVEL_DEBUG)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":DBUG:",msg,args);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -522,9 +607,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_DEBUG)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":DBUG:",msg,thrown);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 
@@ -544,6 +629,11 @@ public class StdErrLog extends AbstractLogger
         {
             format(buffer,": "+String.valueOf(thrown));
         }
+        else if (_stderr == null && __async != null && __async.isRepeatedStack(thrown))
+        {
+            format(buffer,": "+String.valueOf(thrown));
+            buffer.append(" (repeated stack trace suppressed)");
+        }
         else
         {
             format(buffer,thrown);
@@ -750,9 +840,9 @@ public class StdErrLog extends AbstractLogger
     {
         if (_level <= LEVEL_ALL)
         {
-            StringBuilder buffer = new StringBuilder(64);
+            StringBuilder buffer = takeBuffer();
             format(buffer,":IGNORED:","",ignored);
-            (_stderr==null?System.err:_stderr).println(buffer);
+            print(buffer);
         }
     }
 }
@@ -0,0 +1,305 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.resource;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.URIUtil;
+
+/* ------------------------------------------------------------ */
+/** A Resource for a jar or war file and the entries within it, that is served from
+ * a memory mapped and pre-indexed copy of the archive rather than via {@link java.net.JarURLConnection}s.
+ * <p>
+ * The URL of a resource is the same <code>jar:file:...!/path</code> URL as used by {@link JarResource},
+ * so that it may be used by class loaders, but all other methods are served from the index or the 
+ * mapped archive. The content of entries that are stored without compression is available as a
+ * zero copy {@link ByteBuffer} from {@link #getByteBuffer()}.
+ */
+public class MappedJarResource extends Resource
+{
+    private final MappedZipFile _zip;
+    private final String _path;
+    private final String _urlString;
+    private final MappedZipFile.Entry _entry;
+    private final boolean _directory;
+    private final AtomicBoolean _owner;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param file A jar or war file
+     * @return The resource for the root directory of the archive, which holds the mapping
+     * of the archive until it is released with {@link #release()}.
+     * @throws IOException if the file cannot be mapped or is not a valid archive
+     */
+    public static MappedJarResource newMappedJarResource(File file) throws IOException
+    {
+        MappedZipFile zip=MappedZipFile.getMappedZipFile(file);
+        try
+        {
+            return new MappedJarResource(zip,"",new AtomicBoolean(true));
+        }
+        catch (IOException e)
+        {
+            zip.release();
+            throw e;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private MappedJarResource(MappedZipFile zip, String path, AtomicBoolean owner) throws MalformedURLException
+    {
+        _zip=zip;
+        _owner=owner;
+        _directory=path.length()==0 || zip.isDirectory(path) || !path.endsWith("/") && zip.getEntry(path)==null && zip.isDirectory(path+"/");
+        _path=(_directory && path.length()>0 && !path.endsWith("/"))?path+"/":path;
+        _entry=_path.length()==0?null:zip.getEntry(_path);
+        _urlString="jar:"+Resource.toURL(zip.getFile()).toExternalForm()+"!/"+URIUtil.encodePath(_path);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean isContainedIn(Resource r) throws MalformedURLException
+    {
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Release the mapping of the archive if this is the resource returned by
+     * {@link #newMappedJarResource(File)}. The resources of its entries do not hold
+     * the mapping and cannot be read once it is released.
+     */
+    @Override
+    public void release()
+    {
+        if (_owner!=null && _owner.compareAndSet(true,false))
+            _zip.release();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean exists()
+    {
+        return _directory || _entry!=null;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean isDirectory()
+    {
+        return _directory;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public long lastModified()
+    {
+        return _entry==null?_zip.lastModified():_entry._lastModified;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public long length()
+    {
+        return (_entry==null || _directory)?-1:_entry._size;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public URL getURL()
+    {
+        try
+        {
+            return new URL(_urlString);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public File getFile() throws IOException
+    {
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String getName()
+    {
+        return _urlString;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return A read only buffer of the content of the entry, sliced from the mapped archive, 
+     * or null if the resource is a directory, does not exist or is compressed.
+     * @throws IOException if the archive is corrupt
+     */
+    public ByteBuffer getByteBuffer() throws IOException
+    {
+        if (_directory || _entry==null)
+            return null;
+        return _zip.getBuffer(_entry);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        if (_directory || _entry==null)
+            throw new FileNotFoundException(_urlString);
+        return _zip.getInputStream(_entry);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public ReadableByteChannel getReadableByteChannel() throws IOException
+    {
+        return Channels.newChannel(getInputStream());
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public OutputStream getOutputStream() throws IOException, SecurityException
+    {
+        throw new IOException("Output not supported");
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean delete() throws SecurityException
+    {
+        throw new SecurityException("Delete not supported");
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean renameTo(Resource dest) throws SecurityException
+    {
+        throw new SecurityException("RenameTo not supported");
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String[] list()
+    {
+        Set<String> children=_directory?_zip.list(_path):null;
+        return children==null?null:children.toArray(new String[children.size()]);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public Resource addPath(String path) throws IOException, MalformedURLException
+    {
+        if (path==null)
+            throw new MalformedURLException();
+
+        path = URIUtil.canonicalPath(path);
+        if (path==null)
+            throw new MalformedURLException();
+
+        while (path.startsWith("/"))
+            path=path.substring(1);
+        if (path.length()==0)
+            return this;
+
+        return new MappedJarResource(_zip,_path+path,null);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Copy the resource to a file or, if it is a directory, extract its entries into a directory.
+     */
+    @Override
+    public void copyTo(File destination) throws IOException
+    {
+        if (!_directory)
+        {
+            if (destination.exists())
+                throw new IllegalArgumentException(destination+" exists");
+            InputStream in=getInputStream();
+            OutputStream out=new FileOutputStream(destination);
+            try
+            {
+                IO.copy(in,out);
+            }
+            finally
+            {
+                IO.close(out);
+                IO.close(in);
+            }
+            if (_entry._lastModified>=0)
+                destination.setLastModified(_entry._lastModified);
+            return;
+        }
+
+        if (!destination.exists() && !destination.mkdirs())
+            throw new IOException("Cannot create "+destination);
+        String canonical=destination.getCanonicalPath()+File.separator;
+        for (String child : list())
+        {
+            File target=new File(destination,child);
+            if (!(target.getCanonicalPath()+File.separator).startsWith(canonical))
+                throw new IOException("Invalid entry "+_path+child+" in "+_zip.getFile());
+            if (!target.exists() || target.isDirectory())
+                addPath(child).copyTo(target);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (!(o instanceof MappedJarResource))
+            return false;
+        MappedJarResource r = (MappedJarResource)o;
+        return r._zip==_zip && r._path.equals(_path);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public int hashCode()
+    {
+        return _urlString.hashCode();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return _urlString;
+    }
+}
@@ -0,0 +1,476 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.resource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.eclipse.jetty.util.StringUtil;
+
+/* ------------------------------------------------------------ */
+/** A zip file that is memory mapped and indexed from its central directory.
+ * <p>
+ * The whole archive is mapped read only when it is opened and the central directory 
+ * is parsed once into an index of entries and directories (including directories
+ * that are only implied by the paths of their entries). Stored entries can then be
+ * accessed as slices of the mapped buffer without any copying, and deflated entries
+ * are inflated directly from the mapped buffer.
+ * <p>
+ * Instances are shared per file and are reopened if the file is modified. They are
+ * reference counted: each call to {@link #getMappedZipFile(File)} must be matched by a call
+ * to {@link #release()}, and the last release closes the mapping and forgets the file.
+ * ZIP64 archives are not supported.
+ */
+class MappedZipFile
+{
+    private static final int LOCSIG=0x04034b50;
+    private static final int CENSIG=0x02014b50;
+    private static final int ENDSIG=0x06054b50;
+    private static final int ENDHDR=22;
+    private static final int CENHDR=46;
+    private static final int LOCHDR=30;
+
+    private static final Map<File,MappedZipFile> __files = new HashMap<File,MappedZipFile>();
+
+    /* ------------------------------------------------------------ */
+    static class Entry
+    {
+        final String _name;
+        final int _method;
+        final long _lastModified;
+        final int _compressedSize;
+        final int _size;
+        final int _localOffset;
+        volatile int _dataOffset=-1;
+
+        Entry(String name, int method, long lastModified, int compressedSize, int size, int localOffset)
+        {
+            _name=name;
+            _method=method;
+            _lastModified=lastModified;
+            _compressedSize=compressedSize;
+            _size=size;
+            _localOffset=localOffset;
+        }
+
+        boolean isStored()
+        {
+            return _method==0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return _name;
+        }
+    }
+
+    private final File _file;
+    private final long _lastModified;
+    private final long _length;
+    private volatile MappedByteBuffer _buffer;
+    private int _references;
+    private final Map<String,Entry> _entries = new HashMap<String,Entry>();
+    private final Map<String,Set<String>> _directories = new HashMap<String,Set<String>>();
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param file The zip file
+     * @return The mapped zip file, shared with other callers for the same unmodified file,
+     * which must be released with {@link #release()} when no longer used.
+     * @throws IOException if the file cannot be mapped or is not a valid zip file.
+     */
+    static MappedZipFile getMappedZipFile(File file) throws IOException
+    {
+        file=file.getCanonicalFile();
+        synchronized (__files)
+        {
+            MappedZipFile zip=__files.get(file);
+            if (zip==null || zip._lastModified!=file.lastModified() || zip._length!=file.length())
+            {
+                zip=new MappedZipFile(file);
+                __files.put(file,zip);
+            }
+            zip._references++;
+            return zip;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Release a reference obtained from {@link #getMappedZipFile(File)}.
+     * <p>
+     * When the last reference is released, the file is removed from the shared instances and
+     * the mapping is dropped, so that it is unmapped once any buffers sliced from it are collected.
+     */
+    void release()
+    {
+        synchronized (__files)
+        {
+            if (--_references>0)
+                return;
+            if (__files.get(_file)==this)
+                __files.remove(_file);
+            _buffer=null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of files currently mapped
+     */
+    static int getMappedFiles()
+    {
+        synchronized (__files)
+        {
+            return __files.size();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private ByteBuffer buffer() throws IOException
+    {
+        ByteBuffer buffer=_buffer;
+        if (buffer==null)
+            throw new ClosedChannelException();
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    private MappedZipFile(File file) throws IOException
+    {
+        _file=file;
+        _lastModified=file.lastModified();
+        _length=file.length();
+        if (_length>Integer.MAX_VALUE)
+            throw new ZipException("Too large to map: "+file);
+
+        RandomAccessFile raf = new RandomAccessFile(file,"r");
+        try
+        {
+            _buffer=raf.getChannel().map(FileChannel.MapMode.READ_ONLY,0,_length);
+            _buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        _directories.put("",new TreeSet<String>());
+        index();
+    }
+
+    /* ------------------------------------------------------------ */
+    private void index() throws IOException
+    {
+        // find the end of central directory record, which may be followed by a comment
+        int end=-1;
+        int min=Math.max(0,(int)_length-ENDHDR-0xFFFF);
+        for (int i=(int)_length-ENDHDR;i>=min;i--)
+        {
+            if (_buffer.getInt(i)==ENDSIG)
+            {
+                end=i;
+                break;
+            }
+        }
+        if (end<0)
+            throw new ZipException("No central directory: "+_file);
+
+        int count=_buffer.getShort(end+10)&0xFFFF;
+        long offset=_buffer.getInt(end+16)&0xFFFFFFFFL;
+        if (count==0xFFFF || offset==0xFFFFFFFFL)
+            throw new ZipException("ZIP64 not supported: "+_file);
+
+        int pos=(int)offset;
+        for (int i=0;i<count;i++)
+        {
+            if (pos+CENHDR>_length || _buffer.getInt(pos)!=CENSIG)
+                throw new ZipException("Bad central directory: "+_file);
+
+            int method=_buffer.getShort(pos+10)&0xFFFF;
+            int time=_buffer.getShort(pos+12)&0xFFFF;
+            int date=_buffer.getShort(pos+14)&0xFFFF;
+            long compressedSize=_buffer.getInt(pos+20)&0xFFFFFFFFL;
+            long size=_buffer.getInt(pos+24)&0xFFFFFFFFL;
+            int nameLength=_buffer.getShort(pos+28)&0xFFFF;
+            int extraLength=_buffer.getShort(pos+30)&0xFFFF;
+            int commentLength=_buffer.getShort(pos+32)&0xFFFF;
+            long localOffset=_buffer.getInt(pos+42)&0xFFFFFFFFL;
+            if (compressedSize==0xFFFFFFFFL || size==0xFFFFFFFFL || localOffset==0xFFFFFFFFL)
+                throw new ZipException("ZIP64 not supported: "+_file);
+
+            byte[] name=new byte[nameLength];
+            ByteBuffer slice=_buffer.duplicate();
+            slice.position(pos+CENHDR);
+            slice.get(name);
+            add(new Entry(new String(name,StringUtil.__UTF8_CHARSET),method,dosToJavaTime(date,time),(int)compressedSize,(int)size,(int)localOffset));
+
+            pos+=CENHDR+nameLength+extraLength+commentLength;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private void add(Entry entry)
+    {
+        String name=entry._name;
+        while (name.startsWith("/"))
+            name=name.substring(1);
+        if (name.length()==0)
+            return;
+        if (!name.endsWith("/"))
+            _entries.put(name,entry);
+        else if (!_entries.containsKey(name))
+            _entries.put(name,entry);
+
+        // add the entry and all its parents to their parent directories
+        while (name.length()>0)
+        {
+            int slash=name.lastIndexOf('/',name.length()-2);
+            String parent=slash<0?"":name.substring(0,slash+1);
+            Set<String> children=_directories.get(parent);
+            if (children==null)
+            {
+                children=new TreeSet<String>();
+                _directories.put(parent,children);
+            }
+            children.add(name.substring(parent.length()));
+            if (name.endsWith("/") && !_directories.containsKey(name))
+                _directories.put(name,new TreeSet<String>());
+            name=parent;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static long dosToJavaTime(int date, int time)
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(((date>>9)&0x7f)+1980,((date>>5)&0x0f)-1,date&0x1f,(time>>11)&0x1f,(time>>5)&0x3f,(time&0x1f)*2);
+        return calendar.getTimeInMillis();
+    }
+
+    /* ------------------------------------------------------------ */
+    File getFile()
+    {
+        return _file;
+    }
+
+    /* ------------------------------------------------------------ */
+    long lastModified()
+    {
+        return _lastModified;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name The entry name without a leading '/'. Directory names end with '/'
+     * @return The entry or null if there is no such entry (directories implied by entry paths have no entry)
+     */
+    Entry getEntry(String name)
+    {
+        return _entries.get(name);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name The directory name without a leading '/' and ending with '/', or "" for the root
+     * @return True if the directory exists, either as an entry or implied by the entry paths
+     */
+    boolean isDirectory(String name)
+    {
+        return _directories.containsKey(name);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param name The directory name without a leading '/' and ending with '/', or "" for the root
+     * @return The sorted names of the children of the directory, with directories ending in '/', or null if not a directory
+     */
+    Set<String> list(String name)
+    {
+        Set<String> children = _directories.get(name);
+        return children==null?null:Collections.unmodifiableSet(children);
+    }
+
+    /* ------------------------------------------------------------ */
+    private int dataOffset(Entry entry) throws IOException
+    {
+        int offset=entry._dataOffset;
+        if (offset<0)
+        {
+            ByteBuffer buffer=buffer();
+            int local=entry._localOffset;
+            if (buffer.getInt(local)!=LOCSIG)
+                throw new ZipException("Bad local header for "+entry+" in "+_file);
+            offset=local+LOCHDR+(buffer.getShort(local+26)&0xFFFF)+(buffer.getShort(local+28)&0xFFFF);
+            entry._dataOffset=offset;
+        }
+        return offset;
+    }
+
+    /* ------------------------------------------------------------ */
+    private ByteBuffer slice(int offset, int length) throws IOException
+    {
+        ByteBuffer slice=buffer().duplicate();
+        slice.limit(offset+length);
+        slice.position(offset);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param entry A file entry
+     * @return A read only slice of the mapped file containing the content of the entry if it is stored, else null.
+     * @throws IOException if the entry is corrupt
+     */
+    ByteBuffer getBuffer(Entry entry) throws IOException
+    {
+        if (!entry.isStored())
+            return null;
+        return slice(dataOffset(entry),entry._size);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param entry A file entry
+     * @return A stream of the uncompressed content of the entry
+     * @throws IOException if the entry is corrupt or of an unsupported compression method
+     */
+    InputStream getInputStream(Entry entry) throws IOException
+    {
+        if (entry.isStored())
+            return new BufferInputStream(getBuffer(entry));
+
+        if (entry._method!=8)
+            throw new ZipException("Unsupported compression method "+entry._method+" for "+entry+" in "+_file);
+
+        return new EntryInflaterInputStream(slice(dataOffset(entry),entry._compressedSize),entry._size);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,entries=%d}",getClass().getSimpleName(),hashCode(),_file,_entries.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    /** An InputStream inflating a deflated entry, which releases its Inflater when closed.
+     */
+    static class EntryInflaterInputStream extends InflaterInputStream
+    {
+        private boolean _eof;
+        private boolean _closed;
+
+        EntryInflaterInputStream(ByteBuffer deflated, int size)
+        {
+            super(new BufferInputStream(deflated),new Inflater(true),Math.max(512,Math.min(8192,size)));
+        }
+
+        @Override
+        protected void fill() throws IOException
+        {
+            if (_eof)
+                throw new EOFException("Unexpected end of deflated entry");
+            len=in.read(buf,0,buf.length);
+            if (len==-1)
+            {
+                // the inflater may need a dummy byte when used without the zlib wrapper
+                buf[0]=0;
+                len=1;
+                _eof=true;
+            }
+            inf.setInput(buf,0,len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!_closed)
+            {
+                _closed=true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /** An InputStream over the content of a ByteBuffer.
+     */
+    static class BufferInputStream extends InputStream
+    {
+        private final ByteBuffer _buffer;
+
+        BufferInputStream(ByteBuffer buffer)
+        {
+            _buffer=buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return _buffer.hasRemaining()?(_buffer.get()&0xFF):-1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (len==0)
+                return 0;
+            if (!_buffer.hasRemaining())
+                return -1;
+            len=Math.min(len,_buffer.remaining());
+            _buffer.get(b,off,len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int skip=(int)Math.max(0,Math.min(n,_buffer.remaining()));
+            _buffer.position(_buffer.position()+skip);
+            return skip;
+        }
+
+        @Override
+        public int available()
+        {
+            return _buffer.remaining();
+        }
+    }
+}
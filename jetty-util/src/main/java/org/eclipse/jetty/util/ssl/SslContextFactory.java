@@ -49,6 +49,7 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -295,6 +296,9 @@ public class SslContextFactory extends AbstractLifeCycle
                 _context = context;
             }
 
+            configure(_context.getServerSessionContext());
+            configure(_context.getClientSessionContext());
+
             SSLEngine engine = newSSLEngine();
             LOG.debug("Enabled Protocols {} of {}",Arrays.asList(engine.getEnabledProtocols()),Arrays.asList(engine.getSupportedProtocols()));
             if (LOG.isDebugEnabled())
@@ -302,6 +306,20 @@ public class SslContextFactory extends AbstractLifeCycle
         }
     }
 
+    /**
+     * Apply the configured session cache size and timeout to a session context.
+     * @param sessionContext The session context, which may be null if not supported
+     */
+    protected void configure(SSLSessionContext sessionContext)
+    {
+        if (sessionContext == null)
+            return;
+        if (_sslSessionCacheSize > 0)
+            sessionContext.setSessionCacheSize(_sslSessionCacheSize);
+        if (_sslSessionTimeout > 0)
+            sessionContext.setSessionTimeout(_sslSessionTimeout);
+    }
+
     @Override
     protected void doStop() throws Exception
     {
@@ -1204,7 +1222,8 @@ public class SslContextFactory extends AbstractLifeCycle
     }
 
     /** SEt SSL session cache size.
-     * @param sslSessionCacheSize SSL session cache size to set
+     * @param sslSessionCacheSize SSL session cache size to set, applied to the session
+     * contexts of the SSLContext when started, or 0 for the JVM default
      */
     public void setSslSessionCacheSize(int sslSessionCacheSize)
     {
@@ -1220,7 +1239,8 @@ public class SslContextFactory extends AbstractLifeCycle
     }
 
     /** Set SSL session timeout.
-     * @param sslSessionTimeout SSL session timeout to set
+     * @param sslSessionTimeout SSL session timeout in seconds to set, applied to the session
+     * contexts of the SSLContext when started, or 0 for the JVM default
      */
     public void setSslSessionTimeout(int sslSessionTimeout)
     {
@@ -0,0 +1,289 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.Atomics;
+
+
+/* ------------------------------------------------------------ */
+/**
+ * HistogramStatistic
+ * <p>
+ * Records the distribution of a sequence of non negative samples so that
+ * percentiles (eg median, 99th percentile) can be reported as well as
+ * the count and max.
+ * <p>
+ * Samples are counted in log-linear buckets in the style of HdrHistogram:
+ * values less than 2<sup>{@value #SUB_BUCKET_BITS}</sup> are counted exactly and larger
+ * values are counted in buckets whose width is less than 1/2<sup>{@value #SUB_BUCKET_BITS}-1</sup>
+ * of the value, so reported percentiles are within ~1.6% of the recorded value.
+ * Recording a sample is a single atomic increment and never locks or allocates.
+ * <p>
+ * As well as the cumulative distribution since the last {@link #reset()}, an interval
+ * {@link Snapshot} of the samples recorded during the most recently completed interval
+ * is available from {@link #getIntervalSnapshot()}. Intervals are rolled lazily when
+ * the snapshot is requested, so an interval lasts at least {@link #getInterval()} ms.
+ */
+public class HistogramStatistic
+{
+    public static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1<<SUB_BUCKET_BITS;
+    private static final int HALF_BUCKETS = SUB_BUCKETS>>1;
+    private static final int BUCKETS = index(Long.MAX_VALUE)+1;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+    private final long[] _mark = new long[BUCKETS];
+    private long _markMax;
+    private long _markTime = System.currentTimeMillis();
+    private Snapshot _interval = new Snapshot(new long[BUCKETS],0,0);
+    private volatile long _intervalMs = 60000;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value a non negative sample value
+     * @return the index of the bucket that counts the value
+     */
+    static int index(long value)
+    {
+        if (value<SUB_BUCKETS)
+            return (int)value;
+        int exponent = 64-Long.numberOfLeadingZeros(value)-SUB_BUCKET_BITS;
+        return exponent*HALF_BUCKETS+(int)(value>>>exponent);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param index a bucket index
+     * @return the highest value counted by the bucket
+     */
+    static long highestValue(int index)
+    {
+        if (index<SUB_BUCKETS)
+            return index;
+        int exponent = index/HALF_BUCKETS-1;
+        long sub = index-exponent*HALF_BUCKETS;
+        return ((sub+1)<<exponent)-1;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void reset()
+    {
+        synchronized (_mark)
+        {
+            for (int i=0;i<BUCKETS;i++)
+            {
+                _counts.set(i,0);
+                _mark[i]=0;
+            }
+            _count.set(0);
+            _max.set(0);
+            _markMax=0;
+            _markTime=System.currentTimeMillis();
+            _interval=new Snapshot(new long[BUCKETS],0,0);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param sample the value to record. Negative values are recorded as 0.
+     */
+    public void set(long sample)
+    {
+        if (sample<0)
+            sample=0;
+        _counts.incrementAndGet(index(sample));
+        _count.incrementAndGet();
+        Atomics.updateMax(_max,sample);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of samples recorded
+     */
+    public long getCount()
+    {
+        return _count.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the max value recorded
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param percentile the percentile between 0.0 and 100.0
+     * @return the value at or below which the percentile of samples fall
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        return getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the interval in ms over which {@link #getIntervalSnapshot()} is taken
+     */
+    public long getInterval()
+    {
+        return _intervalMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param intervalMs the interval in ms over which {@link #getIntervalSnapshot()} is taken
+     */
+    public void setInterval(long intervalMs)
+    {
+        _intervalMs=intervalMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a snapshot of all samples recorded since the last {@link #reset()}
+     */
+    public Snapshot getSnapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        long total=0;
+        for (int i=0;i<BUCKETS;i++)
+        {
+            counts[i]=_counts.get(i);
+            total+=counts[i];
+        }
+        return new Snapshot(counts,total,_max.get());
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return a snapshot of the samples recorded in the last completed interval
+     */
+    public Snapshot getIntervalSnapshot()
+    {
+        synchronized (_mark)
+        {
+            long now = System.currentTimeMillis();
+            if (now-_markTime>=_intervalMs)
+            {
+                long[] counts = new long[BUCKETS];
+                long total=0;
+                int highest=-1;
+                for (int i=0;i<BUCKETS;i++)
+                {
+                    long count=_counts.get(i);
+                    counts[i]=count-_mark[i];
+                    _mark[i]=count;
+                    if (counts[i]>0)
+                    {
+                        total+=counts[i];
+                        highest=i;
+                    }
+                }
+                // The max within the interval is only known to bucket precision
+                long max=_max.get();
+                long interval_max=max>_markMax?max:(highest<0?0:Math.min(max,highestValue(highest)));
+                _markMax=max;
+                _markTime=now;
+                _interval=new Snapshot(counts,total,interval_max);
+            }
+            return _interval;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}",this.getClass().getSimpleName(),hashCode(),getSnapshot());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** An immutable copy of a histogram's counts.
+     */
+    public static class Snapshot
+    {
+        private final long[] _counts;
+        private final long _total;
+        private final long _max;
+
+        private Snapshot(long[] counts, long total, long max)
+        {
+            _counts=counts;
+            _total=total;
+            _max=max;
+        }
+
+        /* ------------------------------------------------------------ */
+        public long getCount()
+        {
+            return _total;
+        }
+
+        /* ------------------------------------------------------------ */
+        public long getMax()
+        {
+            return _max;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param percentile the percentile between 0.0 and 100.0
+         * @return the value at or below which the percentile of samples fall, or 0 if there are no samples
+         */
+        public long getValueAtPercentile(double percentile)
+        {
+            if (_total==0)
+                return 0;
+            long rank = (long)Math.ceil(percentile/100.0*_total);
+            if (rank<1)
+                rank=1;
+            long seen=0;
+            for (int i=0;i<_counts.length;i++)
+            {
+                seen+=_counts[i];
+                if (seen>=rank)
+                    return Math.min(highestValue(i),_max);
+            }
+            return _max;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d,p50=%d,p90=%d,p99=%d,p999=%d,max=%d",
+                    _total,
+                    getValueAtPercentile(50.0),
+                    getValueAtPercentile(90.0),
+                    getValueAtPercentile(99.0),
+                    getValueAtPercentile(99.9),
+                    _max);
+        }
+    }
+}
@@ -71,4 +71,23 @@ public class DateCacheTest
         }
         Assert.assertTrue(hits / 10 > misses);
     }
+
+    /* ------------------------------------------------------------ */
+    @Test
+    public void testOnlyCurrentSecondPublished() throws Exception
+    {
+        DateCache dc = new DateCache("yyyy-MM-dd HH:mm:ss",Locale.US);
+        dc.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        // Formatting dates in other seconds does not replace the cached second
+        long now=System.currentTimeMillis();
+        String current=dc.format(now);
+        Assert.assertEquals("2100-01-01 00:00:00",dc.format(4102444800000L));
+        Assert.assertEquals("1970-01-01 00:00:00",dc.format(0));
+        if (System.currentTimeMillis()/1000==now/1000)
+        {
+            Assert.assertSame(current,dc.format(now));
+            Assert.assertSame(current,dc.now());
+        }
+    }
 }
@@ -309,6 +309,78 @@ public class MultiPartInputStreamTest
         assertEquals(5, p.getSize());
     }
 
+    @Test
+    public void testBase64() throws Exception
+    {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 2000)
+            content.append("How now brown cow. ");
+        String encoded = new String(B64Code.encode(content.toString().getBytes(StringUtil.__ISO_8859_1), true));
+
+        // The decoded content is written to a file as it passes the threshold
+        MultipartConfigElement config = new MultipartConfigElement(_dirname, 4096, 8192, 1024);
+        MultiPartInputStream mpis = new MultiPartInputStream(new ByteArrayInputStream(createBase64RequestString(encoded).getBytes(StringUtil.__ISO_8859_1)),
+                                                             _contentType,
+                                                             config,
+                                                             _tmpDir);
+        mpis.setDeleteOnExit(true);
+        MultiPart part = (MultiPart)mpis.getPart("stuff");
+        assertEquals(content.length(), part.getSize());
+        assertNotNull(part.getFile());
+        assertEquals(content.toString(), IO.toString(part.getInputStream(), StringUtil.__ISO_8859_1));
+
+        // The maximum file size applies to the decoded content
+        config = new MultipartConfigElement(_dirname, 1024, 8192, 512);
+        mpis = new MultiPartInputStream(new ByteArrayInputStream(createBase64RequestString(encoded).getBytes(StringUtil.__ISO_8859_1)),
+                                        _contentType,
+                                        config,
+                                        _tmpDir);
+        mpis.setDeleteOnExit(true);
+        try
+        {
+            mpis.getParts();
+            fail("stuff should have been larger than maxFileSize");
+        }
+        catch (IllegalStateException e)
+        {
+            assertTrue(e.getMessage().startsWith("Multipart Mime part"));
+        }
+    }
+
+    @Test
+    public void testLFOnlyDelimiters() throws Exception
+    {
+        String lf = "--AaB03x\n"+
+        "content-disposition: form-data; name=\"field1\"\n"+
+        "\n"+
+        "Joe Blow\n"+
+        "--AaB03x\n"+
+        "content-disposition: form-data; name=\"stuff\"; filename=\"stuff.txt\"\n"+
+        "\n"+
+        "line\r\n\r\n"+
+        "--AaB03x--\n";
+
+        MultipartConfigElement config = new MultipartConfigElement(_dirname, 1024, 3072, 50);
+        MultiPartInputStream mpis = new MultiPartInputStream(new ByteArrayInputStream(lf.getBytes(StringUtil.__ISO_8859_1)),
+                                                             _contentType,
+                                                             config,
+                                                             _tmpDir);
+        mpis.setDeleteOnExit(true);
+        assertEquals(2, mpis.getParts().size());
+        assertEquals("Joe Blow", IO.toString(mpis.getPart("field1").getInputStream()));
+        assertEquals("line\r\n", IO.toString(mpis.getPart("stuff").getInputStream()));
+    }
+
+    private String createBase64RequestString(String encoded)
+    {
+        return "--AaB03x\r\n"+
+        "content-disposition: form-data; name=\"stuff\"; filename=\"stuff.txt\"\r\n"+
+        "Content-Transfer-Encoding: base64\r\n"+
+        "\r\n"+
+        encoded+"\r\n"+
+        "--AaB03x--\r\n";
+    }
+
     private String createMultipartRequestString(String filename)
     {
         int length = filename.length();
@@ -0,0 +1,185 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MultiPartParserTest
+{
+    private static final String MULTI=
+        "preamble\r\n"+
+        "--AaB03x\r\n"+
+        "content-disposition: form-data; name=\"field1\"\r\n"+
+        "\r\n"+
+        "Joe Blow\r\n"+
+        "--AaB03x \t\r\n"+
+        "content-disposition: form-data; name=\"stuff\"; filename=\"stuff.txt\"\r\n"+
+        "Content-Type: text/plain\r\n"+
+        "\r\n"+
+        "line\r\n--AaB03 is not the boundary\r\n-\r\n\r\n--AaB03\r\n"+
+        "--AaB03x--\r\n"+
+        "epilogue";
+
+    private static class Handler implements MultiPartParser.Handler
+    {
+        final List<String> _events=new ArrayList<String>();
+        final StringBuilder _content=new StringBuilder();
+
+        public boolean startPart()
+        {
+            _events.add("start");
+            return false;
+        }
+
+        public boolean parsedHeader(String name, String value)
+        {
+            _events.add(name+": "+value);
+            return false;
+        }
+
+        public boolean headerComplete()
+        {
+            _events.add("headers");
+            return false;
+        }
+
+        public boolean content(ByteBuffer buffer)
+        {
+            _content.append(BufferUtil.toString(buffer,StringUtil.__ISO_8859_1_CHARSET));
+            buffer.position(buffer.limit());
+            return false;
+        }
+
+        public boolean partComplete()
+        {
+            _events.add("<"+_content+">");
+            _content.setLength(0);
+            return false;
+        }
+
+        public boolean messageComplete()
+        {
+            _events.add("complete");
+            return false;
+        }
+
+        public void earlyEOF()
+        {
+            _events.add("earlyEOF");
+        }
+
+        public void badMessage(String reason)
+        {
+            _events.add("bad");
+        }
+    }
+
+    private List<String> parse(String content, int chunk)
+    {
+        Handler handler = new Handler();
+        MultiPartParser parser = new MultiPartParser(handler,"AaB03x");
+        byte[] bytes=content.getBytes(StringUtil.__ISO_8859_1_CHARSET);
+        for (int i=0;i<bytes.length;i+=chunk)
+            parser.parse(ByteBuffer.wrap(bytes,i,Math.min(chunk,bytes.length-i)).slice(),false);
+        parser.parse(BufferUtil.EMPTY_BUFFER,true);
+        return handler._events;
+    }
+
+    @Test
+    public void testParts() throws Exception
+    {
+        List<String> expected=parse(MULTI,MULTI.length());
+        assertEquals("[start, content-disposition: form-data; name=\"field1\", headers, <Joe Blow>, "+
+            "start, content-disposition: form-data; name=\"stuff\"; filename=\"stuff.txt\", Content-Type: text/plain, headers, "+
+            "<line\r\n--AaB03 is not the boundary\r\n-\r\n\r\n--AaB03>, complete]",expected.toString());
+    }
+
+    @Test
+    public void testSplitDelimiters() throws Exception
+    {
+        // Every chunk size splits the delimiters at a different place
+        List<String> expected=parse(MULTI,MULTI.length());
+        for (int chunk=1;chunk<MULTI.length();chunk++)
+            assertEquals("chunk="+chunk,expected,parse(MULTI,chunk));
+    }
+
+    @Test
+    public void testLFOnlyDelimiters() throws Exception
+    {
+        String lf=MULTI.replace("\r\n--AaB03x","\n--AaB03x");
+        List<String> expected=parse(MULTI,MULTI.length());
+        for (int chunk=1;chunk<=lf.length();chunk++)
+            assertEquals("chunk="+chunk,expected,parse(lf,chunk));
+
+        // A CR that does not precede a delimiter is content
+        String cr="--AaB03x\r\n\r\nvalue\r\r\rx\r\r\n--AaB03x--";
+        for (int chunk=1;chunk<=cr.length();chunk++)
+            assertEquals("chunk="+chunk,"[start, headers, <value\r\r\rx\r>, complete]",parse(cr,chunk).toString());
+    }
+
+    @Test
+    public void testNoPreamble() throws Exception
+    {
+        List<String> events=parse("--AaB03x\r\n\r\nvalue\r\n--AaB03x--",3);
+        assertEquals("[start, headers, <value>, complete]",events.toString());
+    }
+
+    @Test
+    public void testEmptyPart() throws Exception
+    {
+        List<String> events=parse("--AaB03x\r\n\r\n\r\n--AaB03x--",100);
+        assertEquals("[start, headers, <>, complete]",events.toString());
+    }
+
+    @Test
+    public void testEarlyEOF() throws Exception
+    {
+        List<String> events=parse("--AaB03x\r\n\r\nvalue\r\n--AaB0",100);
+        assertEquals("[start, headers, earlyEOF]",events.toString());
+
+        events=parse("no delimiter",100);
+        assertEquals("[earlyEOF]",events.toString());
+    }
+
+    @Test
+    public void testBadCloseDelimiter() throws Exception
+    {
+        List<String> events=parse("--AaB03x\r\n\r\nvalue\r\n--AaB03x-\r\n\r\n",100);
+        assertEquals("[start, headers, <value>, bad]",events.toString());
+    }
+
+    @Test
+    public void testMaxHeaderBytes() throws Exception
+    {
+        Handler handler = new Handler();
+        MultiPartParser parser = new MultiPartParser(handler,"AaB03x",32);
+        parser.parse(BufferUtil.toBuffer("--AaB03x\r\nname: a header that is much too long\r\n\r\n"),true);
+        assertEquals("[start, bad]",handler._events.toString());
+        assertFalse(parser.isComplete());
+        assertTrue(parser.isClosed());
+    }
+}
@@ -0,0 +1,93 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class RingBufferTest
+{
+    @Test
+    public void testOfferPoll() throws Exception
+    {
+        RingBuffer<String> ring = new RingBuffer<String>(3);
+        assertEquals(4,ring.getCapacity());
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+
+        for (int i=0;i<4;i++)
+            assertTrue(ring.offer("item"+i));
+        assertFalse(ring.offer("full"));
+        assertEquals(4,ring.size());
+
+        assertEquals("item0",ring.poll());
+        assertTrue(ring.offer("item4"));
+        for (int i=1;i<5;i++)
+            assertEquals("item"+i,ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception
+    {
+        final RingBuffer<Integer> ring = new RingBuffer<Integer>(64);
+        final int producers=4;
+        final int count=20000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+        for (int p=0;p<producers;p++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i=0;i<count;i++)
+                        while (!ring.offer(i))
+                            Thread.yield();
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        long sum=0;
+        int received=0;
+        while (received<producers*count)
+        {
+            Integer i=ring.poll();
+            if (i==null)
+                Thread.yield();
+            else
+            {
+                sum+=i;
+                received++;
+            }
+        }
+        latch.await();
+        assertNull(ring.poll());
+        assertEquals(producers*((long)count*(count-1)/2),sum);
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.toolchain.test.AdvancedRunner;
 import org.eclipse.jetty.toolchain.test.FS;
@@ -283,6 +284,178 @@ public class ScannerTest
 
     }
 
+    @Test
+    public void testContentHash() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("ScannerContentHash");
+        FS.ensureEmpty(dir);
+        final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+        Scanner scanner = newScanner(dir,queue);
+        scanner.setContentHash(true);
+        scanner.start();
+        try
+        {
+            File file = new File(dir,"hash");
+            write(file,"content");
+            scanner.scan();
+            scanner.scan();
+            Event event = queue.poll();
+            Assert.assertNotNull(event);
+            Assert.assertEquals(Notification.ADDED,event._notification);
+
+            // touching the file does not change the content
+            file.setLastModified(file.lastModified()+10000);
+            scanner.scan();
+            scanner.scan();
+            Assert.assertNull(queue.poll());
+
+            // same size, different content
+            write(file,"CONTENT");
+            file.setLastModified(file.lastModified()+20000);
+            scanner.scan();
+            scanner.scan();
+            event = queue.poll();
+            Assert.assertNotNull(event);
+            Assert.assertEquals(Notification.CHANGED,event._notification);
+        }
+        finally
+        {
+            scanner.stop();
+            IO.delete(dir);
+        }
+    }
+
+    @Test
+    @Slow
+    public void testWatchService() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("ScannerWatch");
+        FS.ensureEmpty(dir);
+        final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+        Scanner scanner = newScanner(dir,queue);
+        scanner.setScanDepth(2);
+        scanner.setReportDirs(false);
+        scanner.setUseWatchService(true);
+        scanner.setDebounce(100);
+        scanner.start();
+        try
+        {
+            Assume.assumeTrue(scanner.isWatching());
+
+            File file = new File(dir,"watched");
+            write(file,"content");
+            Event event = queue.poll(30,TimeUnit.SECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals(file.getCanonicalPath(),event._filename);
+            Assert.assertEquals(Notification.ADDED,event._notification);
+
+            // a new sub directory is watched
+            File sub = new File(dir,"sub");
+            sub.mkdir();
+            Thread.sleep(1000);
+            File subFile = new File(sub,"file");
+            write(subFile,"content");
+            event = queue.poll(30,TimeUnit.SECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals(subFile.getCanonicalPath(),event._filename);
+            Assert.assertEquals(Notification.ADDED,event._notification);
+
+            file.delete();
+            event = queue.poll(30,TimeUnit.SECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals(file.getCanonicalPath(),event._filename);
+            Assert.assertEquals(Notification.REMOVED,event._notification);
+        }
+        finally
+        {
+            scanner.stop();
+            IO.delete(dir);
+        }
+    }
+
+    @Test
+    @Slow
+    public void testWatchScanInterval() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("ScannerWatchScan");
+        FS.ensureEmpty(dir);
+        final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+        Scanner scanner = newScanner(dir,queue);
+        scanner.setReportDirs(false);
+        scanner.setUseWatchService(true);
+        // so long that changes are only found by the full scans
+        scanner.setDebounce(600000);
+        scanner.setWatchScanInterval(1);
+        scanner.start();
+        try
+        {
+            Assume.assumeTrue(scanner.isWatching());
+
+            File file = new File(dir,"unwatched");
+            write(file,"content");
+            Event event = queue.poll(10,TimeUnit.SECONDS);
+            Assert.assertNotNull(event);
+            Assert.assertEquals(file.getCanonicalPath(),event._filename);
+            Assert.assertEquals(Notification.ADDED,event._notification);
+        }
+        finally
+        {
+            scanner.stop();
+            IO.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTimeNSizeHashCode() throws Exception
+    {
+        Assert.assertTrue(new Scanner.TimeNSize(1000,10).hashCode()!=new Scanner.TimeNSize(2000,10).hashCode());
+        Assert.assertEquals(new Scanner.TimeNSize(1000,10).hashCode(),new Scanner.TimeNSize(1000,10).hashCode());
+
+        // with a content hash, the time is not compared
+        byte[] hash = new byte[]{1,2,3};
+        Assert.assertEquals(new Scanner.TimeNSize(1000,10,hash),new Scanner.TimeNSize(2000,10,hash.clone()));
+        Assert.assertEquals(new Scanner.TimeNSize(1000,10,hash).hashCode(),new Scanner.TimeNSize(2000,10,hash.clone()).hashCode());
+        Assert.assertTrue(new Scanner.TimeNSize(1000,10,hash).hashCode()!=new Scanner.TimeNSize(1000,10,new byte[]{3,2,1}).hashCode());
+    }
+
+    private Scanner newScanner(File dir, final BlockingQueue<Event> queue)
+    {
+        Scanner scanner = new Scanner();
+        scanner.addScanDir(dir);
+        scanner.setScanInterval(0);
+        scanner.addListener(new Scanner.DiscreteListener()
+        {
+            public void fileRemoved(String filename) throws Exception
+            {
+                queue.add(new Event(filename,Notification.REMOVED));
+            }
+
+            public void fileChanged(String filename) throws Exception
+            {
+                queue.add(new Event(filename,Notification.CHANGED));
+            }
+
+            public void fileAdded(String filename) throws Exception
+            {
+                queue.add(new Event(filename,Notification.ADDED));
+            }
+        });
+        return scanner;
+    }
+
+    private void write(File file, String content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes(StringUtil.__UTF8));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
     private void delete(String string) throws IOException
     {
         File file = new File(_directory,string);
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -257,4 +258,69 @@ public class URLEncodedTest
         UrlEncoded.decodeUtf8To(new ByteArrayInputStream(query.getBytes(StringUtil.__ISO_8859_1)),map,100,2);
         assertEquals("X"+Utf8Appendable.REPLACEMENT+Utf8Appendable.REPLACEMENT+"Z",map.getValue("name",0));
     }
+
+    /* -------------------------------------------------------------- */
+    @Test
+    public void testDecodeBuffer() throws Exception
+    {
+        String [][] charsets = new String[][]
+        {
+           {StringUtil.__UTF8,null},
+           {StringUtil.__ISO_8859_1,StringUtil.__ISO_8859_1},
+           {StringUtil.__UTF8,StringUtil.__UTF8},
+           {StringUtil.__UTF16,StringUtil.__UTF16},
+        };
+
+        for (int i=0;i<charsets.length;i++)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap("name\n=value+%30&name1=&name2&n\u00e3me3=value+3&&n%61me4=a=b".getBytes(charsets[i][0]));
+            MultiMap<String> m = new MultiMap<>();
+            UrlEncoded.decodeTo(buffer, m, charsets[i][1], -1);
+            assertEquals(i+" buffer length",5,m.size());
+            assertEquals(i+" buffer name\\n","value 0",m.getString("name\n"));
+            assertEquals(i+" buffer name1","",m.getString("name1"));
+            assertEquals(i+" buffer name2","",m.getString("name2"));
+            assertEquals(i+" buffer n\u00e3me3","value 3",m.getString("n\u00e3me3"));
+            assertEquals(i+" buffer name4","a=b",m.getString("name4"));
+        }
+
+        String query="name=X%c0%afZ&bad=xx%zz";
+        MultiMap<String> map = new MultiMap<>();
+        UrlEncoded.decodeTo(BufferUtil.toBuffer(query),map,StringUtil.__UTF8,-1);
+        assertEquals("X"+Utf8Appendable.REPLACEMENT+Utf8Appendable.REPLACEMENT+"Z",map.getValue("name",0));
+        assertEquals("xx%zz",map.getValue("bad",0));
+    }
+
+    /* -------------------------------------------------------------- */
+    @Test
+    public void testDecodeBufferLazily() throws Exception
+    {
+        byte[] content="a=1&b=%32&a=3".getBytes(StringUtil.__ISO_8859_1);
+        MultiMap<String> map = new MultiMap<>();
+        map.add("q","query");
+        map.add("b","query");
+        UrlEncoded.decodeTo(ByteBuffer.wrap(content), map, null, -1);
+
+        // values are decoded from the content when first read
+        content[2]='X';
+        assertEquals("X",map.getValue("a",0));
+        content[2]='Y';
+        assertEquals("X",map.getValue("a",0));
+        assertEquals("3",map.getValue("a",1));
+        assertEquals(2,map.getValues("a").size());
+
+        // values merged with existing keys are decoded immediately
+        assertEquals("query",map.getValue("b",0));
+        assertEquals("2",map.getValue("b",1));
+
+        // lazy values may be modified
+        map.add("a","4");
+        map.removeValue("a","X");
+        assertEquals("[3, 4]",map.getValues("a").toString());
+        assertEquals("3,4",map.getString("a"));
+
+        map.clear();
+        UrlEncoded.decodeTo(BufferUtil.toBuffer("a=1&b=2&c=3"), map, null, 2);
+        assertEquals(3,map.size());
+    }
 }
@@ -0,0 +1,91 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class AsyncLogWriterTest
+{
+    @Test
+    public void testWriteAndDrain() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(bytes,false,"UTF-8"),1024);
+        writer.start();
+        for (int i = 0; i < 100; i++)
+            assertTrue(writer.write("line " + i));
+        writer.stop();
+
+        String[] lines = bytes.toString("UTF-8").split(System.getProperty("line.separator"));
+        assertEquals(100,lines.length);
+        for (int i = 0; i < 100; i++)
+            assertEquals("line " + i,lines[i]);
+        assertEquals(100,writer.getWritten());
+        assertEquals(0,writer.getDropped());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AsyncLogWriter writer = new AsyncLogWriter(new PrintStream(bytes,false,"UTF-8"),4);
+        for (int i = 0; i < 4; i++)
+            assertTrue(writer.write("line " + i));
+        assertFalse(writer.write("overflow"));
+        assertFalse(writer.write("overflow"));
+        assertEquals(2,writer.getDropped());
+
+        writer.start();
+        writer.stop();
+
+        String log = bytes.toString("UTF-8");
+        assertTrue(log,log.startsWith("AsyncLogWriter: 2 log lines dropped"));
+        assertTrue(log,log.contains("line 3"));
+        assertFalse(log,log.contains("overflow"));
+    }
+
+    @Test
+    public void testRepeatedStack() throws Exception
+    {
+        AsyncLogWriter writer = new AsyncLogWriter(System.err,4);
+        writer.setRepeatWindow(60000);
+
+        Throwable[] same = new Throwable[3];
+        for (int i = 0; i < same.length; i++)
+            same[i] = new IllegalStateException("same " + i);
+        Throwable other = new IllegalArgumentException();
+
+        assertFalse(writer.isRepeatedStack(same[0]));
+        assertTrue(writer.isRepeatedStack(same[1]));
+        assertTrue(writer.isRepeatedStack(same[2]));
+        assertFalse(writer.isRepeatedStack(other));
+        assertEquals(2,writer.getSuppressed());
+
+        writer.setRepeatWindow(0);
+        assertFalse(writer.isRepeatedStack(same[0]));
+    }
+}
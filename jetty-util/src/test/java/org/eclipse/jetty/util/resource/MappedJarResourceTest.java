@@ -0,0 +1,186 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.util.resource;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.eclipse.jetty.toolchain.test.FS;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.junit.Test;
+
+public class MappedJarResourceTest
+{
+    private final File _zip = MavenTestingUtils.getTestResourceFile("org/eclipse/jetty/util/resource/TestData/test.zip");
+
+    @Test
+    public void testDirectories() throws Exception
+    {
+        Resource root = MappedJarResource.newMappedJarResource(_zip);
+        assertTrue(root.exists());
+        assertTrue(root.isDirectory());
+        assertEquals("jar:"+Resource.toURL(_zip.getCanonicalFile())+"!/",root.toString());
+
+        Resource subdir = root.addPath("subdir");
+        assertTrue(subdir.exists());
+        assertTrue(subdir.isDirectory());
+        assertTrue(subdir.getURL().toString().endsWith("!/subdir/"));
+        assertEquals(Arrays.asList("alphabet","numbers","subsubdir/"),Arrays.asList(subdir.list()));
+        assertEquals(Arrays.asList("META-INF/","alphabet","numbers","subdir/"),Arrays.asList(root.list()));
+
+        Resource missing = root.addPath("/subdir/missing");
+        assertFalse(missing.exists());
+        assertNull(missing.list());
+        root.release();
+    }
+
+    @Test
+    public void testDeflatedContent() throws Exception
+    {
+        Resource root = MappedJarResource.newMappedJarResource(_zip);
+        MappedJarResource alphabet = (MappedJarResource)root.addPath("subdir/subsubdir/alphabet");
+        assertTrue(alphabet.exists());
+        assertFalse(alphabet.isDirectory());
+        assertEquals(27,alphabet.length());
+        assertNull(alphabet.getByteBuffer());
+        assertEquals("ABCDEFGHIJKLMNOPQRSTUVWXYZ",IO.toString(alphabet.getInputStream()).trim());
+
+        ZipFile zip = new ZipFile(_zip);
+        try
+        {
+            assertEquals(zip.getEntry("subdir/subsubdir/alphabet").getTime(),alphabet.lastModified());
+        }
+        finally
+        {
+            zip.close();
+            root.release();
+        }
+    }
+
+    @Test
+    public void testStoredContent() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("MappedJarResourceTest");
+        FS.ensureEmpty(dir);
+        File war = new File(dir,"test.war");
+        byte[] content = "<html>stored</html>".getBytes(StringUtil.__UTF8);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(war));
+        try
+        {
+            ZipEntry entry = new ZipEntry("index.html");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(content);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            out.write("<web-app/>".getBytes(StringUtil.__UTF8));
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        MappedJarResource root = MappedJarResource.newMappedJarResource(war);
+        MappedJarResource index = (MappedJarResource)root.addPath("/index.html");
+        ByteBuffer buffer = index.getByteBuffer();
+        assertTrue(buffer.isReadOnly());
+        assertArrayEquals(content,BufferUtil.toArray(buffer));
+        assertEquals("<html>stored</html>",IO.toString(index.getInputStream()));
+
+        // implied directory
+        Resource webInf = root.addPath("WEB-INF/");
+        assertTrue(webInf.isDirectory());
+        assertEquals("web.xml",webInf.list()[0]);
+
+        File extracted = new File(dir,"extracted");
+        root.copyTo(extracted);
+        FileInputStream in = new FileInputStream(new File(extracted,"WEB-INF/web.xml"));
+        try
+        {
+            assertEquals("<web-app/>",IO.toString(in));
+        }
+        finally
+        {
+            in.close();
+        }
+        assertEquals(content.length,new File(extracted,"index.html").length());
+        root.release();
+    }
+
+    @Test
+    public void testRelease() throws Exception
+    {
+        int mapped = MappedZipFile.getMappedFiles();
+        MappedJarResource root0 = MappedJarResource.newMappedJarResource(_zip);
+        MappedJarResource root1 = MappedJarResource.newMappedJarResource(_zip);
+        assertEquals(root0,root1);
+        assertEquals(mapped+1,MappedZipFile.getMappedFiles());
+
+        // the mapping is held while any root resource is not released
+        Resource numbers = root1.addPath("numbers");
+        root0.release();
+        root0.release();
+        assertEquals(mapped+1,MappedZipFile.getMappedFiles());
+        assertEquals("1234567890",IO.toString(numbers.getInputStream()).trim());
+
+        // releasing the last root resource closes the mapping
+        root1.release();
+        assertEquals(mapped,MappedZipFile.getMappedFiles());
+        try
+        {
+            numbers.getInputStream();
+            fail();
+        }
+        catch(ClosedChannelException e)
+        {
+            // expected
+        }
+
+        // the file is mapped again when needed
+        MappedJarResource root2 = MappedJarResource.newMappedJarResource(_zip);
+        assertFalse(root2.equals(root1));
+        assertTrue(root2.addPath("numbers").exists());
+        root2.release();
+    }
+}
@@ -0,0 +1,123 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/* ------------------------------------------------------------ */
+public class HistogramStatisticTest
+{
+    @Test
+    public void testBuckets()
+        throws Exception
+    {
+        long last=-1;
+        for (int i=0;i<HistogramStatistic.index(Long.MAX_VALUE);i++)
+        {
+            long highest=HistogramStatistic.highestValue(i);
+            assertTrue(highest>last);
+            assertEquals(i,HistogramStatistic.index(last+1));
+            assertEquals(i,HistogramStatistic.index(highest));
+            last=highest;
+        }
+        assertEquals(Long.MAX_VALUE,HistogramStatistic.highestValue(HistogramStatistic.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles()
+        throws Exception
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        assertEquals(0,histogram.getValueAtPercentile(99.0));
+
+        for (int i=1;i<=10000;i++)
+            histogram.set(i);
+
+        assertEquals(10000,histogram.getCount());
+        assertEquals(10000,histogram.getMax());
+        assertNearEnough(5000,histogram.getValueAtPercentile(50.0));
+        assertNearEnough(9000,histogram.getValueAtPercentile(90.0));
+        assertNearEnough(9900,histogram.getValueAtPercentile(99.0));
+        assertNearEnough(9990,histogram.getValueAtPercentile(99.9));
+        assertEquals(10000,histogram.getValueAtPercentile(100.0));
+        assertEquals(1,histogram.getValueAtPercentile(0.0));
+
+        histogram.reset();
+        assertEquals(0,histogram.getCount());
+        assertEquals(0,histogram.getValueAtPercentile(50.0));
+    }
+
+    @Test
+    public void testTail()
+        throws Exception
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        Random random = new Random(42);
+        for (int i=0;i<99000;i++)
+            histogram.set(random.nextInt(10));
+        for (int i=0;i<1000;i++)
+            histogram.set(1000+random.nextInt(10));
+
+        assertTrue(histogram.getValueAtPercentile(50.0)<10);
+        assertTrue(histogram.getValueAtPercentile(98.9)<10);
+        assertNearEnough(1000,histogram.getValueAtPercentile(99.5));
+    }
+
+    @Test
+    public void testInterval()
+        throws Exception
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        histogram.setInterval(0);
+
+        for (int i=0;i<100;i++)
+            histogram.set(1000);
+        HistogramStatistic.Snapshot first = histogram.getIntervalSnapshot();
+        assertEquals(100,first.getCount());
+        assertNearEnough(1000,first.getValueAtPercentile(50.0));
+        assertEquals(1000,first.getMax());
+
+        for (int i=0;i<10;i++)
+            histogram.set(10);
+        HistogramStatistic.Snapshot second = histogram.getIntervalSnapshot();
+        assertEquals(10,second.getCount());
+        assertEquals(10,second.getValueAtPercentile(99.0));
+        assertEquals(10,second.getMax());
+
+        // cumulative is unaffected
+        assertEquals(110,histogram.getCount());
+        assertEquals(1000,histogram.getMax());
+
+        // interval is not rolled before it is complete
+        histogram.setInterval(60000);
+        histogram.set(5);
+        assertEquals(10,histogram.getIntervalSnapshot().getCount());
+    }
+
+    private void assertNearEnough(long expected, long actual)
+    {
+        assertTrue(expected+"~"+actual,Math.abs(expected-actual)<=expected/50+1);
+    }
+}
@@ -144,6 +144,7 @@ public class WebAppContext extends ServletContextHandler implements WebAppClassL
     private final List<String> _overrideDescriptors = new ArrayList<String>();
     private boolean _distributable=false;
     private boolean _extractWAR=true;
+    private boolean _mapWAR=false;
     private boolean _copyDir=false;
     private boolean _copyWebInf=false;
     private boolean _logUrlOnStart =false;
@@ -846,6 +847,16 @@ public class WebAppContext extends ServletContextHandler implements WebAppClassL
         return _extractWAR;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return True if war files that are not extracted are served from a memory mapped copy of the archive.
+     */
+    @ManagedAttribute(value="memory map war", readonly=true)
+    public boolean isMapWAR()
+    {
+        return _mapWAR;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return True if the webdir is copied (to allow hot replacement of jars on windows)
@@ -1082,6 +1093,17 @@ public class WebAppContext extends ServletContextHandler implements WebAppClassL
         _extractWAR = extractWAR;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param mapWAR True if war files that are not extracted are served from a memory 
+     * mapped and indexed copy of the archive, rather than via jar URL connections. 
+     * @see org.eclipse.jetty.util.resource.MappedJarResource
+     */
+    public void setMapWAR(boolean mapWAR)
+    {
+        _mapWAR = mapWAR;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @param copy True if the webdir is copied (to allow hot replacement of jars)
@@ -38,6 +38,7 @@ import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.JarResource;
+import org.eclipse.jetty.util.resource.MappedJarResource;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceCollection;
 
@@ -198,6 +199,11 @@ public class WebInfConfiguration extends AbstractConfiguration
         }
 
 
+        //release the mapping of a war that was served without unpacking
+        Resource base=context.getBaseResource();
+        if (base instanceof MappedJarResource && base!=_preUnpackBaseResource)
+            base.release();
+
         //reset the base resource back to what it was before we did any unpacking of resources
         context.setBaseResource(_preUnpackBaseResource);
     }
@@ -421,7 +427,12 @@ public class WebInfConfiguration extends AbstractConfiguration
             if (LOG.isDebugEnabled())
                 LOG.debug("Try webapp=" + web_app + ", exists=" + web_app.exists() + ", directory=" + web_app.isDirectory()+" file="+(web_app.getFile()));
             // Is the WAR usable directly?
-            if (web_app.exists() && !web_app.isDirectory() && !web_app.toString().startsWith("jar:"))
+            if (web_app.exists() && !web_app.isDirectory() && !context.isExtractWAR() && context.isMapWAR() && web_app.getFile()!=null)
+            {
+                // Yes - serve it from a memory mapped copy
+                web_app = MappedJarResource.newMappedJarResource(web_app.getFile());
+            }
+            else if (web_app.exists() && !web_app.isDirectory() && !web_app.toString().startsWith("jar:"))
             {
                 // No - then lets see if it can be turned into a jar URL.
                 Resource jarWebApp = JarResource.newJarResource(web_app);